@@ -1,5 +1,6 @@
 package com.passmate;
 
+import com.passmate.services.PasswordService;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
@@ -38,6 +39,12 @@ public class App extends Application {
         stage.show();
     }
 
+    @Override
+    public void stop() {
+        // Write queued changes before exit; the background writer thread does not keep the JVM alive
+        PasswordService.getInstance().cleanup();
+    }
+
     private void addStylesheetIfPresent(Scene scene, String path) {
         try {
             var url = getClass().getResource(path);
@@ -1,16 +1,21 @@
 package com.passmate.controllers;
 
 import com.passmate.models.Password;
+import com.passmate.models.PasswordSummary;
 import com.passmate.models.Category;
 import com.passmate.models.Vault;
 import com.passmate.services.PasswordService;
 import com.passmate.services.VaultService;
 import com.passmate.services.impl.VaultServiceImpl;
 import com.passmate.services.impl.AESEncryptionService;
+import com.passmate.services.impl.PasswordSearchIndex;
+import com.passmate.services.impl.SearchPipeline;
 import com.passmate.services.exceptions.CryptoException;
 import com.passmate.utils.ClipboardUtil;
 import com.passmate.utils.ToastUtil;
+import javafx.application.Platform;
 import javafx.collections.transformation.FilteredList;
+import javafx.collections.transformation.SortedList;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.scene.control.*;
@@ -21,7 +26,10 @@ import javafx.scene.shape.Circle;
 import javafx.stage.Stage;
 
 import java.net.URL;
+import java.util.Comparator;
+import java.util.List;
 import java.util.ResourceBundle;
+import java.util.function.BooleanSupplier;
 import java.security.SecureRandom;
 
 /**
@@ -57,6 +65,11 @@ public class MainController implements Initializable {
     private final PasswordService passwordService;
     private final VaultService vaultService;
     private FilteredList<Password> filteredPasswords;
+    /** The filtered passwords, in the order of the search ranking while there is a search. */
+    private SortedList<Password> sortedPasswords;
+    /** Searches while typing off the FX thread; a ranking, or null to list every password. */
+    private final SearchPipeline<PasswordSearchIndex.Ranking> searchPipeline =
+            new SearchPipeline<>(Platform::runLater, this::showSearchResults);
     private Password selectedPassword;
     @SuppressWarnings("FieldCanBeLocal") private Vault currentVault;
     private VBox selectedPasswordCard;
@@ -64,21 +77,33 @@ public class MainController implements Initializable {
     private String currentCategory = "all";
     private boolean isPasswordVisible = false;
     private boolean isEditMode = false;
+    /** First entries shown while the vault loads in the background; null once it is loaded. */
+    private List<PasswordSummary> preview;
 
+    /** Most search results listed; the best ones, as a longer list is only scrolled past. */
+    private static final int SEARCH_RESULT_LIMIT = 200;
     private static final String[] DEFAULT_CATEGORY_IDS = {"personal","work","games"};
+    /** Entries drawn before the vault is loaded, enough to fill the list; more would only delay the first frame. */
+    private static final int PREVIEW_SIZE = 50;
 
     public MainController() {
         this.passwordService = PasswordService.getInstance();
         this.vaultService = new VaultServiceImpl(new AESEncryptionService());
 
-        // Initialize with master key and handle any storage errors
+        // Initialize with master key and handle any storage errors; the list is drawn from a
+        // preview while the vault loads in the background
         try {
-            this.passwordService.setMasterKey("demo_master_key_123".toCharArray());
+            this.preview = passwordService.unlock("demo_master_key_123".toCharArray(), PREVIEW_SIZE,
+                Platform::runLater, this::onVaultLoaded);
             System.out.println("Encrypted storage initialized successfully");
         } catch (CryptoException e) {
             System.err.println("Failed to initialize encrypted storage: " + e.getMessage());
             // Continue with in-memory operation for now
         }
+
+        // Changes are saved in the background, so failures arrive later on the writer thread
+        this.passwordService.setSaveErrorHandler(error -> Platform.runLater(() ->
+            showToast("Failed to save changes: " + error.getMessage(), ToastUtil.Type.ERROR)));
     }
 
     @Override
@@ -90,6 +115,31 @@ public class MainController implements Initializable {
         setupSearchFilter();
     }
 
+    /**
+     * Replaces the preview with the loaded vault
+     */
+    private void onVaultLoaded(CryptoException failure) {
+        preview = null;
+        if (failure != null) {
+            showToast("Failed to load vault: " + failure.getMessage(), ToastUtil.Type.ERROR);
+        }
+        setupSidebar();
+        updatePasswordFilter();
+        setupPasswordList();
+    }
+
+    /**
+     * Tells the user to wait if the vault is still loading
+     * @return true while the vault is loading
+     */
+    private boolean isVaultLoading() {
+        if (preview != null) {
+            showToast("Vault is still loading", ToastUtil.Type.INFO);
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Initialize vault with categories and assign passwords to categories
      */
@@ -97,6 +147,7 @@ public class MainController implements Initializable {
         currentVault = vaultService.createVault("My Vault", "Aron Vane");
         // Removed sample password category assignments – user starts with empty data.
         filteredPasswords = new FilteredList<>(passwordService.getAllPasswords());
+        sortedPasswords = new SortedList<>(filteredPasswords);
     }
 
     private void setupSidebar() {
@@ -205,20 +256,59 @@ public class MainController implements Initializable {
     }
 
     private void updatePasswordFilter() {
-        filteredPasswords.setPredicate(password -> {
-            // Apply search filter
-            String searchText = searchField.getText();
-            boolean matchesSearch = searchText == null || searchText.trim().isEmpty() ||
-                    password.getName().toLowerCase().contains(searchText.toLowerCase()) ||
-                    password.getUsername().toLowerCase().contains(searchText.toLowerCase()) ||
-                    password.getWebsite().toLowerCase().contains(searchText.toLowerCase());
-
-            // Apply category filter
-            boolean matchesCategory = currentCategory.equals("all") ||
-                    (password.getCategoryId() != null && password.getCategoryId().equals(currentCategory));
-
-            return matchesSearch && matchesCategory;
-        });
+        // Filtered here and now, so a search still running for the search field is out of date
+        searchPipeline.cancel();
+        applySearchResults(rankPasswords(searchField.getText(), currentCategory, () -> false));
+    }
+
+    /**
+     * Ranks the best matches in the index; may run off the FX thread
+     * @return The ranking, or null if the search text is blank
+     */
+    private PasswordSearchIndex.Ranking rankPasswords(String searchText, String categoryId, BooleanSupplier cancelled) {
+        if (searchText == null || searchText.trim().isEmpty()) {
+            return null;
+        }
+        return passwordService.search(searchText, SEARCH_RESULT_LIMIT,
+                password -> matchesCategory(categoryId, password.getCategoryId()), cancelled);
+    }
+
+    private void applySearchResults(PasswordSearchIndex.Ranking ranking) {
+        if (ranking == null) {
+            sortedPasswords.setComparator(null);
+            filteredPasswords.setPredicate(password -> matchesCategory(password.getCategoryId()));
+            return;
+        }
+        // The list only shows the ranked entries, in their order
+        filteredPasswords.setPredicate(ranking::contains);
+        sortedPasswords.setComparator(Comparator.comparingInt(ranking::positionOf));
+    }
+
+    private void showSearchResults(PasswordSearchIndex.Ranking ranking) {
+        applySearchResults(ranking);
+        setupPasswordList();
+    }
+
+    /**
+     * Filters entries that are not in the search index, such as the preview shown while loading
+     */
+    private boolean matchesFilter(String name, String username, String website, String categoryId) {
+        // Apply search filter
+        String searchText = searchField.getText();
+        boolean matchesSearch = searchText == null || searchText.trim().isEmpty() ||
+                name.toLowerCase().contains(searchText.toLowerCase()) ||
+                username.toLowerCase().contains(searchText.toLowerCase()) ||
+                website.toLowerCase().contains(searchText.toLowerCase());
+
+        return matchesSearch && matchesCategory(categoryId);
+    }
+
+    private boolean matchesCategory(String categoryId) {
+        return matchesCategory(currentCategory, categoryId);
+    }
+
+    private static boolean matchesCategory(String selectedCategory, String categoryId) {
+        return selectedCategory.equals("all") || (categoryId != null && categoryId.equals(selectedCategory));
     }
 
     private void setupPasswordList() {
@@ -226,7 +316,20 @@ public class MainController implements Initializable {
         passwordList.getStyleClass().add("password-list");
         passwordList.setPadding(new Insets(10));
 
-        for (Password password : filteredPasswords) {
+        if (preview != null) {
+            // Entries can only be opened once loaded
+            for (PasswordSummary summary : preview) {
+                if (matchesFilter(summary.getName(), summary.getUsername(), summary.getWebsite(), summary.getCategoryId())) {
+                    passwordList.getChildren().add(createPreviewCard(summary));
+                }
+            }
+            passwordListContainer.getChildren().clear();
+            passwordListContainer.getChildren().add(passwordList);
+            detailContainer.setVisible(false);
+            return;
+        }
+
+        for (Password password : sortedPasswords) {
             VBox passwordCard = createPasswordCard(password);
             passwordList.getChildren().add(passwordCard);
         }
@@ -235,8 +338,8 @@ public class MainController implements Initializable {
         passwordListContainer.getChildren().add(passwordList);
 
         // Select first password by default
-        if (!filteredPasswords.isEmpty()) {
-            selectPassword(filteredPasswords.get(0));
+        if (!sortedPasswords.isEmpty()) {
+            selectPassword(sortedPasswords.get(0));
         } else {
             detailContainer.setVisible(false);
         }
@@ -251,21 +354,7 @@ public class MainController implements Initializable {
             updateSelectedCard(card);
         });
 
-        HBox header = new HBox(12);
-        header.setAlignment(Pos.CENTER_LEFT);
-
-        // Service icon
-        Circle icon = new Circle(16);
-        icon.getStyleClass().addAll("service-icon", getServiceIconClass(password.getName()));
-
-        VBox textContent = new VBox(3);
-        Label nameLabel = new Label(password.getName());
-        nameLabel.getStyleClass().add("password-name");
-
-        Label usernameLabel = new Label(password.getUsername());
-        usernameLabel.getStyleClass().add("password-username");
-
-        textContent.getChildren().addAll(nameLabel, usernameLabel);
+        HBox header = createCardHeader(password.getName(), password.getUsername());
 
         // Copy button
         Button copyBtn = new Button();
@@ -282,8 +371,6 @@ public class MainController implements Initializable {
             }
         });
 
-        header.getChildren().addAll(icon, textContent);
-
         HBox cardContent = new HBox();
         cardContent.getChildren().add(header);
         HBox.setHgrow(header, javafx.scene.layout.Priority.ALWAYS);
@@ -293,6 +380,38 @@ public class MainController implements Initializable {
         return card;
     }
 
+    /**
+     * Card for an entry of the preview, without actions until the entry is loaded
+     */
+    private VBox createPreviewCard(PasswordSummary summary) {
+        VBox card = new VBox(5);
+        card.getStyleClass().add("password-card");
+        card.setPadding(new Insets(15));
+        card.getChildren().add(createCardHeader(summary.getName(), summary.getUsername()));
+        return card;
+    }
+
+    private HBox createCardHeader(String name, String username) {
+        HBox header = new HBox(12);
+        header.setAlignment(Pos.CENTER_LEFT);
+
+        // Service icon
+        Circle icon = new Circle(16);
+        icon.getStyleClass().addAll("service-icon", getServiceIconClass(name));
+
+        VBox textContent = new VBox(3);
+        Label nameLabel = new Label(name);
+        nameLabel.getStyleClass().add("password-name");
+
+        Label usernameLabel = new Label(username);
+        usernameLabel.getStyleClass().add("password-username");
+
+        textContent.getChildren().addAll(nameLabel, usernameLabel);
+
+        header.getChildren().addAll(icon, textContent);
+        return header;
+    }
+
     private String getServiceIconClass(String serviceName) {
         String name = serviceName.toLowerCase();
         if (name.contains("adobe")) return "adobe";
@@ -325,8 +444,9 @@ public class MainController implements Initializable {
 
     private void setupSearchFilter() {
         searchField.textProperty().addListener((observable, oldValue, newValue) -> {
-            updatePasswordFilter();
-            setupPasswordList();
+            // Search once typing pauses; the list only redraws for the latest text
+            String categoryId = currentCategory;
+            searchPipeline.submit(cancelled -> rankPasswords(newValue, categoryId, cancelled));
         });
     }
 
@@ -392,6 +512,7 @@ public class MainController implements Initializable {
      */
     @FXML
     private void handleCreateNew() {
+        if (isVaultLoading()) return;
         showCustomCreateModal();
     }
 
@@ -785,6 +906,7 @@ public class MainController implements Initializable {
 
     // Modal for adding a new category (folder)
     private void showAddCategoryModal() {
+        if (isVaultLoading()) return;
         Dialog<String> dialog = new Dialog<>();
         dialog.setTitle("New Category");
         dialog.setHeaderText("Create a new category to organize your passwords");
@@ -836,6 +958,7 @@ public class MainController implements Initializable {
 
     // Modal for renaming a category
     private void showRenameCategoryModal(String categoryId, String currentName) {
+        if (isVaultLoading()) return;
         Dialog<String> dialog = new Dialog<>();
         dialog.setTitle("Rename Category");
         dialog.setHeaderText("Enter new name for category: " + currentName);
@@ -885,6 +1008,7 @@ public class MainController implements Initializable {
 
     // Modal for deleting a category
     private void showDeleteCategoryModal(String categoryId, String displayName) {
+        if (isVaultLoading()) return;
         Dialog<ButtonType> dialog = new Dialog<>();
         dialog.setTitle("Delete Category");
         dialog.setHeaderText("Are you sure you want to delete this category?");
@@ -0,0 +1,87 @@
+package com.passmate.models;
+
+/**
+ * A restore point of an incremental backup: what it holds and what its run had to write.
+ * Points are numbered in the order they were taken.
+ */
+public class BackupPoint {
+    private long id;
+    private long createdAt;
+    private int passwords;
+    private int categories;
+    private int newChunks;
+    private long newBytes;
+
+    public BackupPoint() {
+    }
+
+    public BackupPoint(long id, long createdAt, int passwords, int categories, int newChunks, long newBytes) {
+        this.id = id;
+        this.createdAt = createdAt;
+        this.passwords = passwords;
+        this.categories = categories;
+        this.newChunks = newChunks;
+        this.newBytes = newBytes;
+    }
+
+    // Getters and setters
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(long createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public int getPasswords() {
+        return passwords;
+    }
+
+    public void setPasswords(int passwords) {
+        this.passwords = passwords;
+    }
+
+    public int getCategories() {
+        return categories;
+    }
+
+    public void setCategories(int categories) {
+        this.categories = categories;
+    }
+
+    /**
+     * @return Chunks the run stored because no earlier point had them
+     */
+    public int getNewChunks() {
+        return newChunks;
+    }
+
+    public void setNewChunks(int newChunks) {
+        this.newChunks = newChunks;
+    }
+
+    /**
+     * @return Bytes of the new chunks and their index; the point itself adds a few hundred more
+     */
+    public long getNewBytes() {
+        return newBytes;
+    }
+
+    public void setNewBytes(long newBytes) {
+        this.newBytes = newBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "backup point " + id + " (" + passwords + " passwords, " + categories + " categories, "
+            + newChunks + " new chunks, " + newBytes + " bytes written)";
+    }
+}
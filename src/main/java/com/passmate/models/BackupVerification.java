@@ -0,0 +1,111 @@
+package com.passmate.models;
+
+/**
+ * The outcome of checking a backup file without restoring it: what it holds if it decrypted and
+ * parsed, or why it did not.
+ */
+public class BackupVerification {
+    private String file;
+    private long bytes;
+    private double millis;
+    private int passwords;
+    private int categories;
+    private boolean vault;
+    private boolean settings;
+    private String error;
+
+    public BackupVerification() {
+    }
+
+    public BackupVerification(String file, long bytes) {
+        this.file = file;
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return True if every part of the backup authenticated, parsed and matched its recorded counts
+     */
+    public boolean isValid() {
+        return error == null;
+    }
+
+    // Getters and setters
+    public String getFile() {
+        return file;
+    }
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return Time the check took, including waiting for disk but not for other checks
+     */
+    public double getMillis() {
+        return millis;
+    }
+
+    public void setMillis(double millis) {
+        this.millis = millis;
+    }
+
+    public int getPasswords() {
+        return passwords;
+    }
+
+    public void setPasswords(int passwords) {
+        this.passwords = passwords;
+    }
+
+    public int getCategories() {
+        return categories;
+    }
+
+    public void setCategories(int categories) {
+        this.categories = categories;
+    }
+
+    public boolean hasVault() {
+        return vault;
+    }
+
+    public void setVault(boolean vault) {
+        this.vault = vault;
+    }
+
+    public boolean hasSettings() {
+        return settings;
+    }
+
+    public void setSettings(boolean settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * @return Why the backup is unusable, or null if it is valid
+     */
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    @Override
+    public String toString() {
+        if (!isValid()) {
+            return file + ": CORRUPT (" + error + ")";
+        }
+        return file + ": ok (" + passwords + " passwords, " + categories + " categories"
+            + (vault ? ", vault" : "") + (settings ? ", settings" : "") + ")";
+    }
+}
@@ -0,0 +1,55 @@
+package com.passmate.models;
+
+/**
+ * Progress of an unfinished data key rotation, persisted so it can resume after a restart.
+ * Entries are rotated in id order, so everything up to and including {@code lastEntryId} is done.
+ */
+public class KeyRotationCheckpoint {
+    private String lastEntryId;
+    private int processed;
+    private int total;
+    private long startedAt;
+
+    public KeyRotationCheckpoint() {
+    }
+
+    public KeyRotationCheckpoint(String lastEntryId, int processed, int total, long startedAt) {
+        this.lastEntryId = lastEntryId;
+        this.processed = processed;
+        this.total = total;
+        this.startedAt = startedAt;
+    }
+
+    // Getters and setters
+    public String getLastEntryId() {
+        return lastEntryId;
+    }
+
+    public void setLastEntryId(String lastEntryId) {
+        this.lastEntryId = lastEntryId;
+    }
+
+    public int getProcessed() {
+        return processed;
+    }
+
+    public void setProcessed(int processed) {
+        this.processed = processed;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(long startedAt) {
+        this.startedAt = startedAt;
+    }
+}
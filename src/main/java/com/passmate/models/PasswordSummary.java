@@ -0,0 +1,80 @@
+package com.passmate.models;
+
+/**
+ * The fields of a password entry needed to list it, stored apart from the full entries so the
+ * list can be drawn before the full entries are decrypted. Holds no secrets beyond what the list shows.
+ */
+public class PasswordSummary {
+    private String id;
+    private String name;
+    private String username;
+    private String website;
+    private String categoryId;
+    private String iconUrl;
+
+    public PasswordSummary() {
+    }
+
+    public PasswordSummary(String id, String name, String username, String website, String categoryId, String iconUrl) {
+        this.id = id;
+        this.name = name;
+        this.username = username;
+        this.website = website;
+        this.categoryId = categoryId;
+        this.iconUrl = iconUrl;
+    }
+
+    public static PasswordSummary of(Password password) {
+        return new PasswordSummary(password.getId(), password.getName(), password.getUsername(),
+            password.getWebsite(), password.getCategoryId(), password.getIconUrl());
+    }
+
+    // Getters and setters
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public String getWebsite() {
+        return website;
+    }
+
+    public void setWebsite(String website) {
+        this.website = website;
+    }
+
+    public String getCategoryId() {
+        return categoryId;
+    }
+
+    public void setCategoryId(String categoryId) {
+        this.categoryId = categoryId;
+    }
+
+    public String getIconUrl() {
+        return iconUrl;
+    }
+
+    public void setIconUrl(String iconUrl) {
+        this.iconUrl = iconUrl;
+    }
+}
@@ -0,0 +1,133 @@
+package com.passmate.models;
+
+/**
+ * How a search pipeline has fared since it started: how many searches were asked for, how many
+ * were shown and how many were dropped for newer text, and how long the shown ones took.
+ */
+public class SearchMetrics {
+    private long submitted;
+    private long published;
+    private long debounced;
+    private long cancelled;
+    private long failed;
+    private double averageQueryMillis;
+    private double maxQueryMillis;
+    private double averageLatencyMillis;
+    private double maxLatencyMillis;
+    private double lastLatencyMillis;
+
+    public SearchMetrics() {
+    }
+
+    /**
+     * @return Searches dropped because newer text arrived, whether before or after they started
+     */
+    public long getDropped() {
+        return debounced + cancelled;
+    }
+
+    // Getters and setters
+    public long getSubmitted() {
+        return submitted;
+    }
+
+    public void setSubmitted(long submitted) {
+        this.submitted = submitted;
+    }
+
+    /**
+     * @return Searches whose results were shown
+     */
+    public long getPublished() {
+        return published;
+    }
+
+    public void setPublished(long published) {
+        this.published = published;
+    }
+
+    /**
+     * @return Searches replaced by newer text before they started
+     */
+    public long getDebounced() {
+        return debounced;
+    }
+
+    public void setDebounced(long debounced) {
+        this.debounced = debounced;
+    }
+
+    /**
+     * @return Searches replaced by newer text while running or waiting to be shown
+     */
+    public long getCancelled() {
+        return cancelled;
+    }
+
+    public void setCancelled(long cancelled) {
+        this.cancelled = cancelled;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public void setFailed(long failed) {
+        this.failed = failed;
+    }
+
+    /**
+     * @return Average time the shown searches ran on the worker
+     */
+    public double getAverageQueryMillis() {
+        return averageQueryMillis;
+    }
+
+    public void setAverageQueryMillis(double averageQueryMillis) {
+        this.averageQueryMillis = averageQueryMillis;
+    }
+
+    public double getMaxQueryMillis() {
+        return maxQueryMillis;
+    }
+
+    public void setMaxQueryMillis(double maxQueryMillis) {
+        this.maxQueryMillis = maxQueryMillis;
+    }
+
+    /**
+     * @return Average time from the text changing to its results being shown, debounce included
+     */
+    public double getAverageLatencyMillis() {
+        return averageLatencyMillis;
+    }
+
+    public void setAverageLatencyMillis(double averageLatencyMillis) {
+        this.averageLatencyMillis = averageLatencyMillis;
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxLatencyMillis;
+    }
+
+    public void setMaxLatencyMillis(double maxLatencyMillis) {
+        this.maxLatencyMillis = maxLatencyMillis;
+    }
+
+    public double getLastLatencyMillis() {
+        return lastLatencyMillis;
+    }
+
+    public void setLastLatencyMillis(double lastLatencyMillis) {
+        this.lastLatencyMillis = lastLatencyMillis;
+    }
+
+    @Override
+    public String toString() {
+        return submitted + " searches, " + published + " shown, " + getDropped() + " dropped ("
+            + debounced + " debounced, " + cancelled + " cancelled), " + failed + " failed; query "
+            + String.format("%.1f", averageQueryMillis) + " ms avg, " + String.format("%.1f", maxQueryMillis)
+            + " ms max; latency " + String.format("%.1f", averageLatencyMillis) + " ms avg, "
+            + String.format("%.1f", maxLatencyMillis) + " ms max";
+    }
+}
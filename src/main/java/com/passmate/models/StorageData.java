@@ -12,6 +12,8 @@ public class StorageData {
     private List<Category> categories;
     private Vault vault;
     private Map<String, Object> settings;
+    private Integer passwordCount;
+    private Integer categoryCount;
     private String version;
     private long timestamp;
 
@@ -61,6 +63,29 @@ public class StorageData {
         this.settings = settings;
     }
 
+    /**
+     * @return Number of passwords recorded when a backup was written, to check it against when it is
+     *         read back; null in backups written before counts were recorded
+     */
+    public Integer getPasswordCount() {
+        return passwordCount;
+    }
+
+    public void setPasswordCount(Integer passwordCount) {
+        this.passwordCount = passwordCount;
+    }
+
+    /**
+     * @return Number of categories recorded when a backup was written; null in older backups
+     */
+    public Integer getCategoryCount() {
+        return categoryCount;
+    }
+
+    public void setCategoryCount(Integer categoryCount) {
+        this.categoryCount = categoryCount;
+    }
+
     public String getVersion() {
         return version;
     }
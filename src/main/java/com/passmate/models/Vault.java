@@ -5,6 +5,8 @@ import javafx.beans.property.StringProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 
+import java.util.List;
+
 public class Vault {
     private final StringProperty name;
     private final StringProperty owner;
@@ -36,9 +38,11 @@ public class Vault {
 
     // Passwords list
     public ObservableList<Password> getPasswords() { return passwords; }
+    public void setPasswords(List<Password> passwords) { this.passwords.setAll(passwords); }
 
     // Categories list
     public ObservableList<Category> getCategories() { return categories; }
+    public void setCategories(List<Category> categories) { this.categories.setAll(categories); }
 
     // Methods for existing code compatibility
     public void addCategory(Category category) {
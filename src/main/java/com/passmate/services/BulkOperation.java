@@ -0,0 +1,57 @@
+package com.passmate.services;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Handle to a background operation over many vault entries.
+ * Cancellation is cooperative: workers stop at the next item and the result completes with a
+ * {@link java.util.concurrent.CancellationException}.
+ * @param <T> The result type
+ */
+public class BulkOperation<T> {
+    private final CompletableFuture<T> result;
+    private final AtomicBoolean cancelled;
+
+    public BulkOperation(CompletableFuture<T> result, AtomicBoolean cancelled) {
+        this.result = result;
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * @return Future completing with the operation result
+     */
+    public CompletableFuture<T> getResult() {
+        return result;
+    }
+
+    /**
+     * Derives an operation whose result is transformed by {@code fn}; cancelling either cancels both.
+     * @param fn Function applied to the result on completion
+     * @return The derived operation
+     */
+    public <U> BulkOperation<U> thenApply(Function<? super T, ? extends U> fn) {
+        return new BulkOperation<>(result.thenApply(fn), cancelled);
+    }
+
+    /**
+     * Requests cancellation. Items already processed are discarded.
+     */
+    public void cancel() {
+        cancelled.set(true);
+        result.cancel(false);
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * Waits for the operation to finish.
+     * @return The result
+     */
+    public T join() {
+        return result.join();
+    }
+}
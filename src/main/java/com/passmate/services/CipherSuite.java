@@ -0,0 +1,107 @@
+package com.passmate.services;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+
+/**
+ * AEAD cipher suites usable for session encryption.
+ * The id is written into every ciphertext header, so vaults may mix suites and a suite
+ * can be switched at any time without re-encrypting existing data.
+ */
+public enum CipherSuite {
+
+    AES_256_GCM(1, "AES/GCM/NoPadding", "AES") {
+        @Override
+        public AlgorithmParameterSpec parameterSpec(byte[] nonce, int offset) {
+            return new GCMParameterSpec(TAG_LENGTH * 8, nonce, offset, NONCE_LENGTH);
+        }
+    },
+
+    /** Faster than AES-GCM on CPUs without AES instructions. */
+    CHACHA20_POLY1305(2, "ChaCha20-Poly1305", "ChaCha20") {
+        @Override
+        public AlgorithmParameterSpec parameterSpec(byte[] nonce, int offset) {
+            return new IvParameterSpec(nonce, offset, NONCE_LENGTH);
+        }
+
+        /**
+         * The JDK cipher refuses the key and nonce of its previous initialization in every mode,
+         * but decrypting the same ciphertext twice legitimately repeats them. Moving the cipher
+         * to a different nonce first clears that state; it only matters for decryption, since
+         * encryption always uses fresh nonces.
+         */
+        @Override
+        public void init(Cipher cipher, int mode, Key key, byte[] nonce, int offset) throws GeneralSecurityException {
+            if (mode == Cipher.DECRYPT_MODE) {
+                byte[] other = Arrays.copyOfRange(nonce, offset, offset + NONCE_LENGTH);
+                other[0] ^= 1;
+                try {
+                    cipher.init(mode, key, new IvParameterSpec(other));
+                } catch (InvalidKeyException e) {
+                    // The previous nonce was "other", so the real one is accepted below
+                }
+            }
+            super.init(cipher, mode, key, nonce, offset);
+        }
+    };
+
+    /** Both suites use 96-bit nonces and 128-bit tags, so ciphertext layouts are identical. */
+    public static final int NONCE_LENGTH = 12;
+    public static final int TAG_LENGTH = 16;
+
+    private final int id;
+    private final String transformation;
+    private final String keyAlgorithm;
+
+    CipherSuite(int id, String transformation, String keyAlgorithm) {
+        this.id = id;
+        this.transformation = transformation;
+        this.keyAlgorithm = keyAlgorithm;
+    }
+
+    public int getId() { return id; }
+
+    public String getTransformation() { return transformation; }
+
+    public String getKeyAlgorithm() { return keyAlgorithm; }
+
+    /**
+     * @param nonce Buffer holding the nonce
+     * @param offset Offset of the nonce in the buffer
+     * @return The cipher parameters for the given nonce
+     */
+    public abstract AlgorithmParameterSpec parameterSpec(byte[] nonce, int offset);
+
+    /**
+     * Initializes a cipher of this suite for one message.
+     * @param cipher A cipher created from {@link #getTransformation()}
+     * @param mode {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}
+     * @param key The key, with algorithm {@link #getKeyAlgorithm()}
+     * @param nonce Buffer holding the nonce
+     * @param offset Offset of the nonce in the buffer
+     * @throws GeneralSecurityException If the cipher rejects the key or nonce
+     */
+    public void init(Cipher cipher, int mode, Key key, byte[] nonce, int offset) throws GeneralSecurityException {
+        cipher.init(mode, key, parameterSpec(nonce, offset));
+    }
+
+    /**
+     * @param id A suite id read from a ciphertext header
+     * @return The matching suite
+     * @throws IllegalArgumentException If the id is unknown
+     */
+    public static CipherSuite fromId(int id) {
+        for (CipherSuite suite : values()) {
+            if (suite.id == id) {
+                return suite;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported cipher suite: " + id);
+    }
+}
@@ -0,0 +1,36 @@
+package com.passmate.services;
+
+/**
+ * Compression applied to stored payloads before encryption.
+ * The algorithm id is written into the payload header, so storage may mix compressed and
+ * uncompressed payloads and the setting can be changed at any time.
+ * Compressed sizes depend on the content, so an observer of file sizes who can also add chosen
+ * entries learns something about the others; leave it off where that matters.
+ */
+public enum Compression {
+
+    NONE(0),
+
+    /** Deflate (java.util.zip); single records use a preset dictionary of common names and values. */
+    DEFLATE(1);
+
+    private final int id;
+
+    Compression(int id) {
+        this.id = id;
+    }
+
+    public int getId() { return id; }
+
+    /**
+     * @throws IllegalArgumentException If the id names no known algorithm
+     */
+    public static Compression fromId(int id) {
+        for (Compression compression : values()) {
+            if (compression.id == id) {
+                return compression;
+            }
+        }
+        throw new IllegalArgumentException("Unknown compression algorithm id: " + id);
+    }
+}
@@ -2,6 +2,10 @@ package com.passmate.services;
 
 import com.passmate.services.exceptions.CryptoException;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
 /**
  * Service interface for encryption and decryption operations.
  * Provides secure AES-256 encryption for password storage.
@@ -40,4 +44,218 @@ public interface EncryptionService {
      * @throws CryptoException If key derivation fails
      */
     byte[] deriveKey(char[] masterPassword, byte[] salt) throws CryptoException;
+
+    /**
+     * Derives a key from the master password and salt with explicit parameters.
+     * @param masterPassword The master password
+     * @param salt The salt for key derivation
+     * @param kdfParameters The algorithm and work factor to use
+     * @return The derived key
+     * @throws CryptoException If key derivation fails
+     */
+    byte[] deriveKey(char[] masterPassword, byte[] salt, KdfParameters kdfParameters) throws CryptoException;
+
+    /**
+     * Generates a new random vault data key and wraps it with a key-encryption key
+     * derived from the master password, using parameters calibrated for this machine.
+     * @param masterKey The master key used to derive the key-encryption key
+     * @return The wrapped data key (versioned vault header) as a Base64 encoded string
+     * @throws CryptoException If key generation or wrapping fails
+     */
+    String createWrappedDataKey(char[] masterKey) throws CryptoException;
+
+    /**
+     * Generates a new random vault data key and wraps it using the given key derivation parameters.
+     * @param masterKey The master key used to derive the key-encryption key
+     * @param kdfParameters The key derivation parameters stored in the header
+     * @return The wrapped data key as a Base64 encoded string
+     * @throws CryptoException If key generation or wrapping fails
+     */
+    String createWrappedDataKey(char[] masterKey, KdfParameters kdfParameters) throws CryptoException;
+
+    /**
+     * Wraps the current session data key again, e.g. to upgrade the header or change KDF parameters.
+     * Data encrypted with the session key stays readable.
+     * @param masterKey The master key used to derive the new key-encryption key
+     * @param kdfParameters The key derivation parameters, or null to calibrate for this machine
+     * @return The new wrapped data key as a Base64 encoded string
+     * @throws CryptoException If no session is open or wrapping fails
+     */
+    String rewrapDataKey(char[] masterKey, KdfParameters kdfParameters) throws CryptoException;
+
+    /**
+     * Replaces the session data key with a new random key wrapped under {@code newMasterKey}.
+     * The replaced key stays in the session and in the returned key ring, so records encrypted
+     * with it remain readable until {@link #retirePreviousDataKeys(String)} is called; new data
+     * is encrypted with the new key immediately.
+     * @param newMasterKey The master key protecting the key ring from now on
+     * @param kdfParameters The key derivation parameters, or null to calibrate for this machine
+     * @return The key ring to store in place of the wrapped data key
+     * @throws CryptoException If no session is open or wrapping fails
+     */
+    String rotateDataKey(char[] newMasterKey, KdfParameters kdfParameters) throws CryptoException;
+
+    /**
+     * Retires the previous data keys once no record depends on them any more. Records are no
+     * longer decrypted with them, but they stay in the key ring, wrapped with the current data key,
+     * so streams written with them, such as backups, remain readable; see {@link #newDecryptingStream}.
+     * @param wrappedDataKey The current key ring
+     * @return The key ring holding the current data key and the retired keys
+     * @throws CryptoException If no session is open or the key ring is invalid
+     */
+    String retirePreviousDataKeys(String wrappedDataKey) throws CryptoException;
+
+    /**
+     * @return true if the session holds data keys from an unfinished rotation
+     */
+    boolean hasPreviousDataKeys();
+
+    /**
+     * Reads the key derivation parameters from a wrapped data key header.
+     * @param wrappedDataKey The wrapped data key
+     * @return The stored parameters
+     * @throws CryptoException If the header is invalid
+     */
+    KdfParameters getKdfParameters(String wrappedDataKey) throws CryptoException;
+
+    /**
+     * @param wrappedDataKey The wrapped data key
+     * @return true if the header uses an older format and should be rewrapped
+     * @throws CryptoException If the header is invalid
+     */
+    boolean needsRewrap(String wrappedDataKey) throws CryptoException;
+
+    /**
+     * Unwraps the vault data key and keeps it for the session.
+     * Key derivation runs exactly once here; session encrypt/decrypt calls do not repeat it.
+     * A key ring left by an unfinished rotation also unlocks the previous data keys, and
+     * decryption then accepts records written with any of them.
+     * @param masterKey The master key used to derive the key-encryption key
+     * @param wrappedDataKey The wrapped data key as returned by {@link #createWrappedDataKey(char[])}
+     * @throws CryptoException If the master key is wrong or the wrapped key is corrupt
+     */
+    void openSession(char[] masterKey, String wrappedDataKey) throws CryptoException;
+
+    /**
+     * Opens a second session on another wrapped data key, such as the one a backup carries,
+     * and leaves this session untouched. The returned service uses this one's cipher suite and
+     * calibrated key derivation parameters; close it with {@link #closeSession()} when done.
+     * @param masterKey The master key used to derive the key-encryption key
+     * @param wrappedDataKey The wrapped data key or key ring to unlock
+     * @return A service holding only the unwrapped keys
+     * @throws CryptoException If the master key is wrong or the wrapped key is corrupt
+     */
+    EncryptionService openDetachedSession(char[] masterKey, String wrappedDataKey) throws CryptoException;
+
+    /**
+     * Wipes the session data key from memory.
+     */
+    void closeSession();
+
+    /**
+     * @return true if a session data key is available
+     */
+    boolean hasSession();
+
+    /**
+     * Selects the cipher suite for new session ciphertext. Ciphertext records its suite,
+     * so data written with any suite remains readable.
+     * @param cipherSuite The suite to use, or null to pick the fastest one on this machine
+     */
+    void setCipherSuite(CipherSuite cipherSuite);
+
+    /**
+     * @return The cipher suite used for new session ciphertext
+     */
+    CipherSuite getCipherSuite();
+
+    /**
+     * Encrypts the given plaintext with the session data key.
+     * @param plaintext The text to encrypt
+     * @return The versioned ciphertext
+     * @throws CryptoException If no session is open or encryption fails
+     */
+    String encrypt(String plaintext) throws CryptoException;
+
+    /**
+     * Decrypts ciphertext produced by {@link #encrypt(String)}.
+     * @param ciphertext The versioned ciphertext
+     * @return The decrypted plaintext
+     * @throws CryptoException If no session is open or decryption fails
+     */
+    String decrypt(String ciphertext) throws CryptoException;
+
+    /**
+     * @return The number of bytes session ciphertext adds to the plaintext (suite id, nonce and authentication tag)
+     */
+    int getCiphertextOverhead();
+
+    /**
+     * Encrypts a byte range with the session data key into a caller-supplied buffer.
+     * The output buffer must have room for {@code inputLength + getCiphertextOverhead()} bytes.
+     * @param input The plaintext buffer
+     * @param inputOffset Offset of the plaintext in the input buffer
+     * @param inputLength Length of the plaintext
+     * @param output The buffer receiving the ciphertext
+     * @param outputOffset Offset in the output buffer at which the ciphertext is written
+     * @return The number of bytes written to the output buffer
+     * @throws CryptoException If no session is open, the buffer is too small or encryption fails
+     */
+    int encrypt(byte[] input, int inputOffset, int inputLength, byte[] output, int outputOffset) throws CryptoException;
+
+    /**
+     * Decrypts a byte range in place with the session data key.
+     * The plaintext is written back into the same buffer starting at {@code offset}.
+     * @param buffer The buffer holding the ciphertext
+     * @param offset Offset of the ciphertext in the buffer
+     * @param length Length of the ciphertext
+     * @return The length of the plaintext
+     * @throws CryptoException If no session is open or authentication fails
+     */
+    int decrypt(byte[] buffer, int offset, int length) throws CryptoException;
+
+    /**
+     * Encrypts the remaining bytes of {@code input} with the session data key into {@code output}.
+     * @param input The plaintext buffer
+     * @param output The buffer receiving the ciphertext
+     * @return The number of bytes written to the output buffer
+     * @throws CryptoException If no session is open, the buffer is too small or encryption fails
+     */
+    int encrypt(ByteBuffer input, ByteBuffer output) throws CryptoException;
+
+    /**
+     * Decrypts the remaining bytes of {@code input} with the session data key into {@code output}.
+     * @param input The ciphertext buffer
+     * @param output The buffer receiving the plaintext
+     * @return The number of bytes written to the output buffer
+     * @throws CryptoException If no session is open or authentication fails
+     */
+    int decrypt(ByteBuffer input, ByteBuffer output) throws CryptoException;
+
+    /**
+     * Wraps a stream so everything written to it is encrypted with the session data key
+     * in authenticated fixed-size segments. Closing the returned stream seals the final segment.
+     * @param out The stream receiving the ciphertext
+     * @return The encrypting stream
+     * @throws CryptoException If no session is open
+     */
+    OutputStream newEncryptingStream(OutputStream out) throws CryptoException;
+
+    /**
+     * Wraps a stream produced by {@link #newEncryptingStream(OutputStream)} for decryption.
+     * Each segment is authenticated before its plaintext is returned. Besides the keys used for
+     * records, keys retired by completed rotations are accepted.
+     * @param in The stream supplying the ciphertext
+     * @return The decrypting stream
+     * @throws CryptoException If no session is open or the stream header is invalid
+     */
+    InputStream newDecryptingStream(InputStream in) throws CryptoException;
+
+    /**
+     * Checks whether the ciphertext uses the legacy per-call PBKDF2 format
+     * and therefore still needs migration to the session format.
+     * @param ciphertext The ciphertext to inspect
+     * @return true if the ciphertext is in the legacy format
+     */
+    boolean isLegacyCiphertext(String ciphertext);
 }
@@ -0,0 +1,62 @@
+package com.passmate.services;
+
+import java.util.Objects;
+
+/**
+ * Key derivation settings stored in the vault header.
+ * The algorithm id is persisted, so new algorithms can be added without breaking existing vaults.
+ */
+public final class KdfParameters {
+
+    /** PBKDF2 with HMAC-SHA256, the only algorithm currently supported by the JDK provider we use. */
+    public static final int PBKDF2_HMAC_SHA256 = 1;
+
+    /** Parameters of vaults created before calibration existed. */
+    public static final KdfParameters LEGACY = new KdfParameters(PBKDF2_HMAC_SHA256, 100_000);
+
+    private final int algorithm;
+    private final int iterations;
+
+    public KdfParameters(int algorithm, int iterations) {
+        if (algorithm != PBKDF2_HMAC_SHA256) {
+            throw new IllegalArgumentException("Unsupported key derivation algorithm: " + algorithm);
+        }
+        if (iterations <= 0) {
+            throw new IllegalArgumentException("Iterations must be positive: " + iterations);
+        }
+        this.algorithm = algorithm;
+        this.iterations = iterations;
+    }
+
+    public int getAlgorithm() { return algorithm; }
+
+    public int getIterations() { return iterations; }
+
+    /**
+     * @return The JCA algorithm name
+     */
+    public String getAlgorithmName() {
+        return "PBKDF2WithHmacSHA256";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof KdfParameters)) return false;
+        KdfParameters that = (KdfParameters) o;
+        return algorithm == that.algorithm && iterations == that.iterations;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(algorithm, iterations);
+    }
+
+    @Override
+    public String toString() {
+        return "KdfParameters{" +
+                "algorithm=" + getAlgorithmName() +
+                ", iterations=" + iterations +
+                '}';
+    }
+}
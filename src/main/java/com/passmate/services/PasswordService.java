@@ -1,25 +1,62 @@
 package com.passmate.services;
 
+import com.passmate.models.BackupPoint;
 import com.passmate.models.Password;
 import com.passmate.models.Category;
+import com.passmate.models.KeyRotationCheckpoint;
+import com.passmate.models.PasswordSummary;
+import com.passmate.models.StorageData;
+import com.passmate.models.Vault;
 import com.passmate.services.exceptions.CryptoException;
 import com.passmate.services.impl.AESEncryptionService;
+import com.passmate.services.impl.BulkCryptoExecutor;
 import com.passmate.services.impl.EncryptedStorageService;
+import com.passmate.services.impl.KeyRotationEngine;
+import com.passmate.services.impl.ModelChangeTracker;
+import com.passmate.services.impl.PasswordSearchIndex;
+import com.passmate.services.impl.StartupLoader;
+import com.passmate.services.impl.WriteBehindWriter;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+import java.util.function.Consumer;
 
 /**
  * Service for managing passwords with AES encryption and persistent storage.
  * Handles CRUD operations for passwords with secure storage and automatic encryption.
  */
 public class PasswordService {
+    /** Restore points kept after each incremental backup: two days of hourly backups. */
+    public static final int DEFAULT_BACKUP_RETENTION = 48;
+
     private final ObservableList<Password> passwords;
     private final List<Category> categories;
     private final EncryptionService encryptionService;
     private final EncryptedStorageService storageService;
+    private final BulkCryptoExecutor bulkExecutor;
+    private final KeyRotationEngine keyRotationEngine;
+    private final WriteBehindWriter writeBehind;
+    private final ModelChangeTracker changeTracker;
+    private final PasswordSearchIndex searchIndex;
+    private final ScheduledExecutorService backupExecutor;
+    private ScheduledFuture<?> scheduledBackups;
+    private volatile int backupRetention = DEFAULT_BACKUP_RETENTION;
+    /** Directory of the last incremental backup, whose key a master password change re-wraps. */
+    private volatile String backupDirectory;
+    private BulkOperation<KeyRotationEngine.Report> keyRotation;
+    private Vault vault;
+    private Map<String, Object> settings = Map.of();
     private static PasswordService instance;
     private char[] masterKey;
     private boolean isInitialized = false;
@@ -29,6 +66,19 @@ public class PasswordService {
         this.categories = new ArrayList<>();
         this.encryptionService = new AESEncryptionService();
         this.storageService = new EncryptedStorageService(encryptionService);
+        this.bulkExecutor = new BulkCryptoExecutor();
+        this.keyRotationEngine = new KeyRotationEngine(encryptionService, bulkExecutor);
+        this.writeBehind = new WriteBehindWriter(this::writeChanges);
+        // Property edits made directly on entries are saved without an explicit update call
+        this.changeTracker = new ModelChangeTracker(this::savePassword, this::saveCategory);
+        this.passwords.addListener(changeTracker.passwordListListener());
+        this.searchIndex = new PasswordSearchIndex();
+        this.passwords.addListener(searchIndex.passwordListListener());
+        this.backupExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "PassMate-backup");
+            thread.setDaemon(true);
+            return thread;
+        });
         loadSampleDataIfNeeded();
     }
 
@@ -47,47 +97,213 @@ public class PasswordService {
         this.masterKey = masterKey != null ? masterKey.clone() : null;
 
         if (this.masterKey != null) {
-            // Initialize encrypted storage
-            storageService.initialize(this.masterKey);
-
-            // Load existing data or create defaults
-            loadAllData();
+            // Initialize encrypted storage, then load every file of it at once
+            StartupLoader loader = new StartupLoader(storageService);
+            loader.unlock(this.masterKey);
+            loadAllData(loader);
+            System.out.println(loader.report());
             isInitialized = true;
+            resumeKeyRotation();
 
             System.out.println("PasswordService initialized with encrypted storage");
         }
     }
 
     /**
-     * Load all data from encrypted storage
+     * Unlocks encrypted storage and returns the first entries of the password list right away,
+     * loading everything in the background. The loaded data replaces the current lists on
+     * {@code applyOn}, normally the UI thread, where {@code onLoaded} then runs with null, or with
+     * the failure if the data could not be loaded. Until then nothing is saved, so callers should
+     * not offer edits before {@code onLoaded}.
+     * @param masterKey The master key to use
+     * @param previewSize Number of entries to return
+     * @return List fields of the first entries, in list order
+     * @throws CryptoException If the storage cannot be unlocked
      */
-    private void loadAllData() throws CryptoException {
+    public List<PasswordSummary> unlock(char[] masterKey, int previewSize, Executor applyOn,
+                                        Consumer<CryptoException> onLoaded) throws CryptoException {
+        this.masterKey = masterKey.clone();
+        StartupLoader loader = new StartupLoader(storageService);
+        loader.unlock(this.masterKey);
+        List<PasswordSummary> preview = List.of();
         try {
-            // Load passwords
-            List<Password> loadedPasswords = storageService.loadPasswords();
-            passwords.clear();
-            if (loadedPasswords != null) {
-                passwords.addAll(loadedPasswords);
-            }
-            List<Category> loadedCategories = storageService.loadCategories();
-            categories.clear();
-            if (loadedCategories != null) {
-                categories.addAll(loadedCategories);
+            preview = loader.preview(previewSize);
+        } catch (CryptoException e) {
+            // The full load reports the same failure if it is not a summary file problem
+            System.err.println("Failed to read password list preview: " + e.getMessage());
+        }
+
+        Thread thread = new Thread(() -> {
+            StorageData[] loaded = new StorageData[1];
+            CryptoException failure = null;
+            try {
+                loader.load(data -> loaded[0] = data);
+            } catch (CryptoException e) {
+                failure = e;
             }
+            CryptoException loadFailure = failure;
+            // Applied on the given executor, as the lists are observed there
+            applyOn.execute(() -> {
+                CryptoException result = loadFailure;
+                if (result == null) {
+                    try {
+                        applyData(loaded[0]);
+                    } catch (CryptoException e) {
+                        result = e;
+                    }
+                }
+                if (result != null) {
+                    System.err.println("Failed to load data from encrypted storage: " + result.getMessage());
+                }
+                isInitialized = true;
+                try {
+                    resumeKeyRotation();
+                } catch (CryptoException e) {
+                    System.err.println("Failed to resume key rotation: " + e.getMessage());
+                }
+                System.out.println(loader.report());
+                onLoaded.accept(result);
+            });
+        }, "PassMate-unlock");
+        thread.setDaemon(true);
+        thread.start();
+        return preview;
+    }
+
+    /**
+     * Load all data from encrypted storage, decrypting the storage files in parallel
+     */
+    private void loadAllData(StartupLoader loader) {
+        try {
+            loader.load(this::applyData);
             System.out.println("Loaded " + passwords.size() + " passwords and " + categories.size() + " categories from encrypted storage");
         } catch (CryptoException e) {
             System.err.println("Failed to load data from encrypted storage: " + e.getMessage());
         }
     }
 
+    private void applyData(StorageData data) throws CryptoException {
+        synchronized (passwords) {
+            passwords.clear();
+            passwords.addAll(data.getPasswords());
+        }
+        replaceCategories(data.getCategories());
+        vault = data.getVault();
+        settings = data.getSettings();
+        migrateLegacyPasswordHashes();
+    }
+
     /**
-     * Save all current data to encrypted storage
+     * Re-encrypt per-entry passwords still in the legacy PBKDF2 format with the session data key
      */
-    private void saveAllData() throws CryptoException {
-        if (!isInitialized) return;
+    private void migrateLegacyPasswordHashes() throws CryptoException {
+        if (!encryptionService.hasSession()) return;
+
+        List<Password> legacy = new ArrayList<>();
+        for (Password password : passwords) {
+            if (encryptionService.isLegacyCiphertext(password.getPasswordHash())) {
+                legacy.add(password);
+            }
+        }
+        if (legacy.isEmpty()) return;
 
+        // Every legacy entry costs a full PBKDF2 run, so spread them over all cores
+        Map<String, String> reencrypted = awaitBulk(reencryptAll(legacy, ProgressListener.NONE));
+        for (Password password : legacy) {
+            password.setPasswordHash(reencrypted.get(password.getId()));
+        }
         storageService.savePasswords(new ArrayList<>(passwords));
-        storageService.saveCategories(new ArrayList<>(categories));
+        System.out.println("Migrated " + legacy.size() + " password entries to session encryption");
+    }
+
+    /**
+     * Encrypt a single secret with the session data key, falling back to per-call
+     * key derivation when encrypted storage could not be opened
+     */
+    private String encryptSecret(String plainText) throws CryptoException {
+        if (encryptionService.hasSession()) {
+            return encryptionService.encrypt(plainText);
+        }
+        return encryptionService.encrypt(plainText, masterKey);
+    }
+
+    /**
+     * Queue a created or changed password for the background writer
+     */
+    private void savePassword(Password password) {
+        if (!isInitialized) return;
+
+        writeBehind.passwordChanged(password);
+    }
+
+    private void saveCategory(Category category) {
+        if (!isInitialized) return;
+
+        writeBehind.categoryChanged(category);
+    }
+
+    /**
+     * Write a coalesced batch of changes to the journal, on the writer thread.
+     * Once the journal has grown larger than the snapshot files it is folded into them.
+     */
+    private void writeChanges(StorageChanges changes) throws CryptoException {
+        storageService.saveChanges(changes);
+        if (storageService.isJournalCompactionDue()) {
+            storageService.compactJournal(snapshotPasswords(), snapshotCategories());
+        }
+    }
+
+    /**
+     * Replace all categories, moving change tracking to the new ones
+     */
+    private void replaceCategories(List<Category> newCategories) {
+        synchronized (categories) {
+            categories.forEach(changeTracker::untrack);
+            categories.clear();
+            categories.addAll(newCategories);
+            categories.forEach(changeTracker::track);
+        }
+    }
+
+    /**
+     * Copy the password list for use off the owning thread
+     */
+    private List<Password> snapshotPasswords() {
+        synchronized (passwords) {
+            return new ArrayList<>(passwords);
+        }
+    }
+
+    private List<Category> snapshotCategories() {
+        synchronized (categories) {
+            return new ArrayList<>(categories);
+        }
+    }
+
+    /**
+     * Writes all queued changes to storage and waits for them. Use before locking,
+     * exiting or copying the vault files.
+     * @throws CryptoException If the changes cannot be written; they stay queued
+     */
+    public void flush() throws CryptoException {
+        writeBehind.flush();
+    }
+
+    /**
+     * Sets how long changes are collected before the background writer persists them.
+     * @param millis The coalescing window in milliseconds
+     */
+    public void setSaveDelay(long millis) {
+        writeBehind.setCoalesceMillis(millis);
+    }
+
+    /**
+     * Sets the handler notified when a background save fails. It is called on the writer
+     * thread; the failed changes are retried and written by the next {@link #flush()}.
+     * @param handler The error handler
+     */
+    public void setSaveErrorHandler(Consumer<CryptoException> handler) {
+        writeBehind.setErrorHandler(handler);
     }
 
     /**
@@ -112,7 +328,7 @@ public class PasswordService {
         password.setCategoryId(categoryId);
 
         // Encrypt the password
-        String encryptedPassword = encryptionService.encrypt(plainPassword, masterKey);
+        String encryptedPassword = encryptSecret(plainPassword);
         password.setPasswordHash(encryptedPassword);
 
         // Set metadata
@@ -121,16 +337,12 @@ public class PasswordService {
         password.setCreatedDate(currentDate);
         password.setLastUpdated(currentDate);
 
-        passwords.add(password);
+        synchronized (passwords) {
+            passwords.add(password);
+        }
 
         // Save to encrypted storage
-        try {
-            saveAllData();
-        } catch (CryptoException e) {
-            // Remove from memory if save failed
-            passwords.remove(password);
-            throw e;
-        }
+        savePassword(password);
 
         return password;
     }
@@ -146,7 +358,7 @@ public class PasswordService {
         }
 
         // Encrypt the password
-        String encryptedPassword = encryptionService.encrypt(password.getPassword(), masterKey);
+        String encryptedPassword = encryptSecret(password.getPassword());
         password.setPasswordHash(encryptedPassword);
 
         // Set metadata
@@ -155,10 +367,12 @@ public class PasswordService {
         password.setCreatedDate(currentDate);
         password.setLastUpdated(currentDate);
 
-        passwords.add(password);
+        synchronized (passwords) {
+            passwords.add(password);
+        }
 
         // Save to encrypted storage
-        saveAllData();
+        savePassword(password);
     }
 
     /**
@@ -173,8 +387,11 @@ public class PasswordService {
         }
 
         if (newPlainPassword != null && !newPlainPassword.isEmpty()) {
-            String encryptedPassword = encryptionService.encrypt(newPlainPassword, masterKey);
-            password.setPasswordHash(encryptedPassword);
+            String encryptedPassword = encryptSecret(newPlainPassword);
+            // A running key rotation replaces the hash under the entry's lock; see KeyRotationEngine
+            synchronized (password) {
+                password.setPasswordHash(encryptedPassword);
+            }
         }
 
         // Update last modified date
@@ -182,7 +399,7 @@ public class PasswordService {
         password.setLastUpdated(currentDate);
 
         // Save to encrypted storage
-        saveAllData();
+        savePassword(password);
     }
 
     /**
@@ -204,16 +421,201 @@ public class PasswordService {
         return encryptionService.decrypt(encryptedPassword, masterKey);
     }
 
+    /**
+     * Decrypts many entries in parallel on the bulk crypto pool, off the calling thread.
+     * Entries without ciphertext fall back to their plain password, as in {@link #getDecryptedPassword}.
+     * @param entries The entries to decrypt; snapshotted before this method returns
+     * @param listener Progress listener, called on worker threads
+     * @return Handle completing with the decrypted passwords keyed by entry id
+     * @throws CryptoException If the master key is not set
+     */
+    public BulkOperation<Map<String, String>> decryptAll(Collection<Password> entries, ProgressListener listener)
+            throws CryptoException {
+        if (masterKey == null) {
+            throw new CryptoException("Master key not set");
+        }
+
+        Map<String, String> hashes = new LinkedHashMap<>();
+        Map<String, String> plain = new HashMap<>();
+        for (Password password : entries) {
+            String hash = password.getPasswordHash();
+            if (hash == null || hash.isEmpty()) {
+                plain.put(password.getId(), Objects.requireNonNullElse(password.getPassword(), ""));
+            } else {
+                hashes.put(password.getId(), hash);
+            }
+        }
+
+        char[] key = masterKey.clone();
+        BulkOperation<Map<String, String>> operation =
+            bulkExecutor.submit(hashes, hash -> encryptionService.decrypt(hash, key), listener);
+        operation.getResult().whenComplete((result, error) -> Arrays.fill(key, '\0'));
+        return operation.thenApply(result -> {
+            plain.forEach(result::putIfAbsent);
+            return result;
+        });
+    }
+
+    /**
+     * Re-encrypts many entries with the current session data key in parallel (re-keying, legacy migration).
+     * The entries themselves are not modified; apply the returned ciphertexts on the owning thread.
+     * @param entries The entries to re-encrypt; snapshotted before this method returns
+     * @param listener Progress listener, called on worker threads
+     * @return Handle completing with the new ciphertexts keyed by entry id
+     * @throws CryptoException If the master key is not set or no session is open
+     */
+    public BulkOperation<Map<String, String>> reencryptAll(Collection<Password> entries, ProgressListener listener)
+            throws CryptoException {
+        if (masterKey == null || !encryptionService.hasSession()) {
+            throw new CryptoException("Encryption session not open");
+        }
+
+        Map<String, String> hashes = new LinkedHashMap<>();
+        for (Password password : entries) {
+            String hash = password.getPasswordHash();
+            if (hash != null && !hash.isEmpty()) {
+                hashes.put(password.getId(), hash);
+            }
+        }
+
+        char[] key = masterKey.clone();
+        BulkOperation<Map<String, String>> operation = bulkExecutor.submit(hashes,
+            hash -> encryptionService.encrypt(encryptionService.decrypt(hash, key)), listener);
+        operation.getResult().whenComplete((result, error) -> Arrays.fill(key, '\0'));
+        return operation;
+    }
+
+    /**
+     * Changes the master password without touching any entry: only the data key is re-wrapped.
+     * @param newMasterKey The new master password
+     * @throws CryptoException If the service is not initialized or the key file cannot be written
+     */
+    public void changeMasterPassword(char[] newMasterKey) throws CryptoException {
+        if (!isInitialized) {
+            throw new CryptoException("Service not initialized");
+        }
+        useBackupDirectory();
+        storageService.changeMasterKey(newMasterKey);
+        replaceMasterKey(newMasterKey);
+    }
+
+    /**
+     * Changes the master password and replaces the vault data key, re-encrypting every entry
+     * in the background. The vault stays usable while the rotation runs, and an interrupted
+     * rotation resumes on the next unlock.
+     * @param newMasterKey The new master password
+     * @param listener Progress listener, called on a background thread
+     * @return Handle completing once every entry uses the new data key
+     * @throws CryptoException If the service is not initialized, a rotation is already running
+     *                         or the rotation cannot be started
+     */
+    public BulkOperation<KeyRotationEngine.Report> rotateMasterKey(char[] newMasterKey, ProgressListener listener)
+            throws CryptoException {
+        if (!isInitialized) {
+            throw new CryptoException("Service not initialized");
+        }
+        if (storageService.isKeyRotationPending()) {
+            throw new CryptoException("A key rotation is already in progress");
+        }
+
+        // Legacy entries are tied to the old master password, so they must move to the data key first
+        migrateLegacyPasswordHashes();
+        useBackupDirectory();
+        storageService.beginKeyRotation(newMasterKey);
+        replaceMasterKey(newMasterKey);
+        return startKeyRotation(null, listener);
+    }
+
+    /**
+     * Makes sure the incremental backup in use is open, so its key follows the master password.
+     */
+    private void useBackupDirectory() throws CryptoException {
+        String directory = backupDirectory;
+        if (directory != null) {
+            storageService.useBackupDirectory(directory);
+        }
+    }
+
+    /**
+     * @return The running or last key rotation, or null if none was started in this session
+     */
+    public BulkOperation<KeyRotationEngine.Report> getKeyRotation() {
+        return keyRotation;
+    }
+
+    /**
+     * Continue a rotation interrupted by a crash or shutdown
+     */
+    private void resumeKeyRotation() throws CryptoException {
+        if (!storageService.isKeyRotationPending()) return;
+
+        KeyRotationCheckpoint checkpoint = null;
+        try {
+            checkpoint = storageService.loadRotationCheckpoint();
+        } catch (CryptoException e) {
+            // Unreadable checkpoint: start over, rotating an entry twice is harmless
+            System.err.println("Ignoring key rotation checkpoint: " + e.getMessage());
+        }
+        System.out.println("Resuming key rotation" + (checkpoint != null
+            ? " at " + checkpoint.getProcessed() + "/" + checkpoint.getTotal() + " entries" : ""));
+        startKeyRotation(checkpoint, ProgressListener.NONE);
+    }
+
+    private BulkOperation<KeyRotationEngine.Report> startKeyRotation(KeyRotationCheckpoint checkpoint,
+                                                                     ProgressListener listener) {
+        keyRotation = keyRotationEngine.start(snapshotPasswords(), checkpoint, new KeyRotationEngine.Store() {
+            @Override
+            public void persist(KeyRotationCheckpoint progress) throws CryptoException {
+                // Changes journaled while the list is copied are replayed on top of this snapshot
+                long mark = storageService.getJournalMark();
+                storageService.savePasswords(snapshotPasswords(), mark);
+                storageService.saveRotationCheckpoint(progress);
+            }
+
+            @Override
+            public void complete() throws CryptoException {
+                storageService.completeKeyRotation();
+            }
+        }, listener);
+        keyRotation.getResult().whenComplete((report, error) -> {
+            if (error != null) {
+                System.err.println("Key rotation stopped: " + error.getMessage());
+            } else {
+                System.out.println("Key rotation finished: " + report);
+            }
+        });
+        return keyRotation;
+    }
+
+    private void replaceMasterKey(char[] newMasterKey) {
+        Arrays.fill(masterKey, '\0');
+        masterKey = newMasterKey.clone();
+    }
+
+    /**
+     * Waits for a bulk operation, unwrapping crypto failures.
+     */
+    private static <T> T awaitBulk(BulkOperation<T> operation) throws CryptoException {
+        try {
+            return operation.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof CryptoException) {
+                throw (CryptoException) e.getCause();
+            }
+            throw new CryptoException("Bulk operation failed: " + e.getMessage(), e);
+        }
+    }
+
     /**
      * Removes a password entry and updates storage.
      * @param password The password to remove
      */
     public void deletePassword(Password password) {
-        passwords.remove(password);
-        try {
-            saveAllData();
-        } catch (CryptoException e) {
-            System.err.println("Failed to save after password deletion: " + e.getMessage());
+        synchronized (passwords) {
+            passwords.remove(password);
+        }
+        if (isInitialized) {
+            writeBehind.passwordDeleted(password.getId());
         }
     }
 
@@ -239,13 +641,10 @@ public class PasswordService {
         duplicate.setCreatedDate(currentDate);
         duplicate.setLastUpdated(currentDate);
 
-        passwords.add(duplicate);
-
-        try {
-            saveAllData();
-        } catch (CryptoException e) {
-            System.err.println("Failed to save duplicated password: " + e.getMessage());
+        synchronized (passwords) {
+            passwords.add(duplicate);
         }
+        savePassword(duplicate);
 
         return duplicate;
     }
@@ -256,12 +655,11 @@ public class PasswordService {
      */
     public void createCategory(Category category) {
         if (!categories.stream().anyMatch(c -> c.getId().equals(category.getId()))) {
-            categories.add(category);
-            try {
-                saveAllData();
-            } catch (CryptoException e) {
-                System.err.println("Failed to save new category: " + e.getMessage());
+            synchronized (categories) {
+                categories.add(category);
+                changeTracker.track(category);
             }
+            saveCategory(category);
         }
     }
 
@@ -274,14 +672,7 @@ public class PasswordService {
         categories.stream()
             .filter(c -> c.getId().equals(categoryId))
             .findFirst()
-            .ifPresent(category -> {
-                category.setName(newName);
-                try {
-                    saveAllData();
-                } catch (CryptoException e) {
-                    System.err.println("Failed to save renamed category: " + e.getMessage());
-                }
-            });
+            .ifPresent(category -> category.setName(newName));
     }
 
     /**
@@ -294,18 +685,21 @@ public class PasswordService {
             return;
         }
 
-        // Move passwords from deleted category to personal
+        // Move passwords from deleted category to personal; change tracking saves them
         passwords.stream()
             .filter(p -> categoryId.equals(p.getCategoryId()))
             .forEach(p -> p.setCategoryId("personal"));
 
         // Remove category
-        categories.removeIf(c -> c.getId().equals(categoryId));
-
-        try {
-            saveAllData();
-        } catch (CryptoException e) {
-            System.err.println("Failed to save after category deletion: " + e.getMessage());
+        synchronized (categories) {
+            categories.removeIf(c -> {
+                if (!c.getId().equals(categoryId)) return false;
+                changeTracker.untrack(c);
+                return true;
+            });
+        }
+        if (isInitialized) {
+            writeBehind.categoryDeleted(categoryId);
         }
     }
 
@@ -317,6 +711,30 @@ public class PasswordService {
         return passwords;
     }
 
+    /**
+     * Finds the passwords whose name, username or website contains the query, ignoring case,
+     * from an index kept up to date with the password list.
+     * @param query The search text; blank matches every password
+     * @return The matches, as of this call
+     */
+    public PasswordSearchIndex.Matches search(String query) {
+        return searchIndex.search(query);
+    }
+
+    /**
+     * Finds the passwords best matching the query, tolerating typos, and ranks them by where and
+     * how closely they match and how recently they were updated.
+     * @param limit Most passwords to return
+     * @param filter Passwords that may be returned
+     * @param cancelled Checked now and then; the search stops once it answers true
+     * @return The best matches, best first, as of this call; none if the query is blank
+     * @throws java.util.concurrent.CancellationException If the search was cancelled
+     */
+    public PasswordSearchIndex.Ranking search(String query, int limit, Predicate<? super Password> filter,
+                                              BooleanSupplier cancelled) {
+        return searchIndex.rank(query, limit, filter, cancelled);
+    }
+
     /**
      * Gets all categories.
      * @return List of categories
@@ -325,6 +743,20 @@ public class PasswordService {
         return new ArrayList<>(categories);
     }
 
+    /**
+     * @return The vault configuration loaded at unlock, or null before unlock
+     */
+    public Vault getVault() {
+        return vault;
+    }
+
+    /**
+     * @return The application settings loaded at unlock
+     */
+    public Map<String, Object> getSettings() {
+        return Collections.unmodifiableMap(settings);
+    }
+
     /**
      * Backup all data to specified path.
      * @param backupPath Path to save backup
@@ -334,6 +766,7 @@ public class PasswordService {
         if (!isInitialized) {
             throw new CryptoException("Service not initialized");
         }
+        flush();
         storageService.backupData(backupPath);
     }
 
@@ -346,8 +779,109 @@ public class PasswordService {
         if (!isInitialized) {
             throw new CryptoException("Service not initialized");
         }
+        // Queued edits must not land on top of the restored data
+        flush();
         storageService.restoreData(backupPath);
-        loadAllData(); // Reload data after restore
+        loadAllData(new StartupLoader(storageService)); // Reload data after restore
+    }
+
+    /**
+     * Adds a restore point to the incremental backup in a directory, on the background backup
+     * thread, then prunes the points beyond the retention. Entries are backed up as held in memory,
+     * including changes not yet written to storage.
+     * @param directory The backup directory
+     * @return The new point, or the failure
+     */
+    public CompletableFuture<BackupPoint> createBackupPoint(String directory) {
+        if (!isInitialized) {
+            return CompletableFuture.failedFuture(new CryptoException("Service not initialized"));
+        }
+        backupDirectory = directory;
+        List<Password> passwordSnapshot = snapshotPasswords();
+        List<Category> categorySnapshot = snapshotCategories();
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return backUp(directory, passwordSnapshot, categorySnapshot);
+            } catch (CryptoException e) {
+                throw new CompletionException(e);
+            }
+        }, backupExecutor);
+    }
+
+    /**
+     * Creates a restore point in a directory at a fixed interval on the background backup thread,
+     * replacing any earlier schedule. Failures are logged and the next run tries again.
+     * @param directory The backup directory
+     * @param intervalMillis Time between runs in milliseconds; the first run is one interval from now
+     */
+    public synchronized void scheduleBackups(String directory, long intervalMillis) {
+        cancelScheduledBackups();
+        backupDirectory = directory;
+        scheduledBackups = backupExecutor.scheduleAtFixedRate(() -> {
+            if (!isInitialized) return;
+            try {
+                backUp(directory, snapshotPasswords(), snapshotCategories());
+            } catch (CryptoException e) {
+                System.err.println("Scheduled backup failed: " + e.getMessage());
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the runs set up by {@link #scheduleBackups(String, long)}; a run in progress completes.
+     */
+    public synchronized void cancelScheduledBackups() {
+        if (scheduledBackups != null) {
+            scheduledBackups.cancel(false);
+            scheduledBackups = null;
+        }
+    }
+
+    /**
+     * Sets how many restore points are kept after each incremental backup.
+     * @param points Number of points, at least one
+     */
+    public void setBackupRetention(int points) {
+        if (points < 1) {
+            throw new IllegalArgumentException("At least one backup point must be kept");
+        }
+        backupRetention = points;
+    }
+
+    private BackupPoint backUp(String directory, List<Password> passwordSnapshot, List<Category> categorySnapshot)
+            throws CryptoException {
+        BackupPoint point = storageService.createBackupPoint(directory, passwordSnapshot, categorySnapshot);
+        int pruned = storageService.pruneBackupPoints(directory, backupRetention);
+        if (pruned > 0) {
+            System.out.println("Pruned " + pruned + " backup points");
+        }
+        return point;
+    }
+
+    /**
+     * @return The restore points of the incremental backup in a directory, oldest first
+     */
+    public List<BackupPoint> listBackupPoints(String directory) throws CryptoException {
+        if (!isInitialized) {
+            throw new CryptoException("Service not initialized");
+        }
+        return storageService.listBackupPoints(directory);
+    }
+
+    /**
+     * Restore a point of the incremental backup in a directory and reload.
+     * @param directory The backup directory
+     * @param pointId Id of the point, see {@link #listBackupPoints(String)}
+     * @throws CryptoException If the point cannot be restored; storage is then unchanged
+     */
+    public void restoreBackupPoint(String directory, long pointId) throws CryptoException {
+        if (!isInitialized) {
+            throw new CryptoException("Service not initialized");
+        }
+        // Queued edits must not land on top of the restored data
+        flush();
+        storageService.restoreBackupPoint(directory, pointId);
+        loadAllData(new StartupLoader(storageService)); // Reload data after restore
     }
 
     /**
@@ -355,9 +889,12 @@ public class PasswordService {
      * @throws CryptoException If clearing fails
      */
     public void clearAllData() throws CryptoException {
-        passwords.clear();
-        categories.clear();
+        synchronized (passwords) {
+            passwords.clear();
+        }
+        replaceCategories(List.of());
         if (isInitialized) {
+            flush();
             storageService.clearStorage();
         }
     }
@@ -390,7 +927,7 @@ public class PasswordService {
         }
 
         if (categories.isEmpty()) {
-            categories.addAll(Arrays.asList(
+            replaceCategories(Arrays.asList(
                 new Category("personal", "Personal", "folder-personal-icon"),
                 new Category("work", "Work", "folder-work-icon"),
                 new Category("games", "Games", "folder-games-icon")
@@ -402,6 +939,14 @@ public class PasswordService {
      * Cleanup resources
      */
     public void cleanup() {
+        cancelScheduledBackups();
+        if (isInitialized) {
+            try {
+                flush();
+            } catch (CryptoException e) {
+                System.err.println("Failed to save pending changes: " + e.getMessage());
+            }
+        }
         if (masterKey != null) {
             Arrays.fill(masterKey, '\0');
             masterKey = null;
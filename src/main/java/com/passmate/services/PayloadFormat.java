@@ -0,0 +1,40 @@
+package com.passmate.services;
+
+import java.util.Arrays;
+
+/**
+ * Serialization formats for stored data, applied before encryption.
+ * Every payload starts with the header of its format, so storage may mix formats and the
+ * format can be switched at any time; JSON has no header and is recognized by its absence.
+ */
+public enum PayloadFormat {
+
+    /** Indented JSON, as written before binary payloads existed. */
+    JSON(new byte[0]),
+
+    /** Jackson Smile: binary JSON with back-referenced names and strings and raw binary values. */
+    SMILE(new byte[]{':', ')', '\n'});
+
+    /** Longest header of any format; read this much to detect the format of a payload. */
+    public static final int MAX_HEADER_LENGTH = 3;
+
+    private final byte[] header;
+
+    PayloadFormat(byte[] header) {
+        this.header = header;
+    }
+
+    /**
+     * @param data Buffer holding the start of a payload
+     * @param offset Offset of the payload in the buffer
+     * @param length Number of payload bytes available, at least {@link #MAX_HEADER_LENGTH} unless the payload is shorter
+     * @return The format the payload was written in
+     */
+    public static PayloadFormat detect(byte[] data, int offset, int length) {
+        byte[] smile = SMILE.header;
+        if (length >= smile.length && Arrays.equals(data, offset, offset + smile.length, smile, 0, smile.length)) {
+            return SMILE;
+        }
+        return JSON;
+    }
+}
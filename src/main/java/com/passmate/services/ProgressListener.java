@@ -0,0 +1,20 @@
+package com.passmate.services;
+
+/**
+ * Receives progress updates from long-running background operations.
+ * Called on worker threads; UI code must hop to the JavaFX thread itself (e.g. Platform.runLater).
+ */
+@FunctionalInterface
+public interface ProgressListener {
+
+    /**
+     * @param completed Number of items processed so far
+     * @param total Total number of items
+     */
+    void onProgress(int completed, int total);
+
+    /**
+     * A listener that ignores all updates.
+     */
+    ProgressListener NONE = (completed, total) -> { };
+}
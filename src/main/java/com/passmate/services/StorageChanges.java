@@ -0,0 +1,65 @@
+package com.passmate.services;
+
+import com.passmate.models.Category;
+import com.passmate.models.Password;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Password and category changes waiting to be persisted, keyed by id.
+ * A later change to an item replaces an earlier one, so a burst of edits is written once.
+ * A null value marks a deletion.
+ */
+public class StorageChanges {
+    private final Map<String, Password> passwords = new LinkedHashMap<>();
+    private final Map<String, Category> categories = new LinkedHashMap<>();
+
+    public void putPassword(Password password) {
+        passwords.put(password.getId(), password);
+    }
+
+    public void deletePassword(String passwordId) {
+        passwords.put(passwordId, null);
+    }
+
+    public void putCategory(Category category) {
+        categories.put(category.getId(), category);
+    }
+
+    public void deleteCategory(String categoryId) {
+        categories.put(categoryId, null);
+    }
+
+    /**
+     * Adds the changes of a newer set, which win over changes to the same items in this one.
+     * @param newer Changes made after the ones in this set
+     */
+    public void addAll(StorageChanges newer) {
+        passwords.putAll(newer.passwords);
+        categories.putAll(newer.categories);
+    }
+
+    /**
+     * @return Changed passwords by id; null values are deletions
+     */
+    public Map<String, Password> getPasswords() {
+        return Collections.unmodifiableMap(passwords);
+    }
+
+    /**
+     * @return Changed categories by id; null values are deletions
+     */
+    public Map<String, Category> getCategories() {
+        return Collections.unmodifiableMap(categories);
+    }
+
+    public int size() {
+        return passwords.size() + categories.size();
+    }
+
+    public boolean isEmpty() {
+        return passwords.isEmpty() && categories.isEmpty();
+    }
+}
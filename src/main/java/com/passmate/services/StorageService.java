@@ -34,6 +34,13 @@ public interface StorageService {
      */
     List<Password> loadPasswords() throws CryptoException;
 
+    /**
+     * Persist only the passwords and categories that changed, leaving the rest of storage untouched.
+     * @param changes The changed and deleted items of each collection
+     * @throws CryptoException If encryption/saving fails
+     */
+    void saveChanges(StorageChanges changes) throws CryptoException;
+
     /**
      * Save all categories to encrypted storage.
      * @param categories List of categories to save
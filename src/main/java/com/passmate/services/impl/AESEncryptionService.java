@@ -1,8 +1,11 @@
 package com.passmate.services.impl;
 
+import com.passmate.services.CipherSuite;
 import com.passmate.services.EncryptionService;
+import com.passmate.services.KdfParameters;
 import com.passmate.services.exceptions.CryptoException;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
@@ -10,26 +13,68 @@ import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
-import java.security.SecureRandom;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.spec.KeySpec;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * AES-256-GCM encryption service implementation.
  * Provides secure encryption/decryption with authentication.
+ *
+ * Supports two modes: the legacy mode derives a key from the master password on every call,
+ * while the session (envelope) mode derives a key-encryption key once, unwraps a random
+ * vault data key and uses it for all subsequent field and file encryption.
+ * Session ciphertext carries the id of its {@link CipherSuite}; new data uses the suite that
+ * a startup probe found fastest on this CPU unless one is set explicitly. The legacy mode and
+ * the data key wrap always use AES-GCM.
  */
 public class AESEncryptionService implements EncryptionService {
 
     private static final String ALGORITHM = "AES";
-    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
     private static final String KEY_DERIVATION_ALGORITHM = "PBKDF2WithHmacSHA256";
     private static final int GCM_IV_LENGTH = 12;
     private static final int GCM_TAG_LENGTH = 16;
     private static final int KEY_LENGTH = 256;
-    private static final int PBKDF2_ITERATIONS = 100000;
     private static final int SALT_LENGTH = 32;
 
+    /** Prefix marking session ciphertext: "v3:" + Base64([suite][nonce][ciphertext+tag]) */
+    private static final String SESSION_PREFIX = "v3:";
+    /** Session ciphertext written before cipher suites existed, always AES-GCM: "v2:" + Base64([iv][ciphertext+tag]) */
+    private static final String SESSION_V2_PREFIX = "v2:";
+    /**
+     * Versions of the wrapped data key (vault header) format:
+     * 1 = [version][salt][iv][wrapped key+tag] with the legacy fixed iteration count,
+     * 2 = [version][kdf algorithm][kdf iterations][salt][iv][wrapped key+tag].
+     * The bytes before the salt are authenticated as associated data.
+     * A key ring stores one header per line: the current data key first, followed by
+     * previous data keys still needed during key rotation, each as
+     * 3 = [version][iv][wrapped key+tag], wrapped with the current data key, and keys of completed
+     * rotations kept only to read streams written with them, such as backups, each as
+     * 4 = [version][iv][wrapped key+tag], wrapped with the current data key.
+     */
+    private static final byte WRAPPED_KEY_V1 = 1;
+    private static final byte WRAPPED_KEY_V2 = 2;
+    private static final byte WRAPPED_KEY_CHAINED = 3;
+    private static final byte WRAPPED_KEY_RETIRED = 4;
+    private static final int WRAPPED_KEY_V2_PARAMS_LENGTH = 1 + 1 + Integer.BYTES;
+    private static final int DATA_KEY_LENGTH = KEY_LENGTH / 8;
+
+    private final CryptoContext context = new CryptoContext(KEY_DERIVATION_ALGORITHM);
+    private byte[] dataKey;
+    /** Data keys replaced by a rotation that may still protect some records, newest first */
+    private final List<byte[]> previousDataKeys = new ArrayList<>();
+    /** Data keys of completed rotations, used only by decrypting streams, newest first */
+    private final List<byte[]> retiredDataKeys = new ArrayList<>();
+    private volatile CipherSuite cipherSuite;
+    private long kdfTargetMillis = KdfCalibrator.DEFAULT_TARGET_MILLIS;
+    private KdfParameters calibratedKdf;
+
     /**
      * Encrypts plaintext using AES-256-GCM with PBKDF2 key derivation.
      * Format: [salt][iv][ciphertext+tag]
@@ -44,14 +89,14 @@ public class AESEncryptionService implements EncryptionService {
             // Generate random salt and IV
             byte[] salt = generateSalt();
             byte[] iv = new byte[GCM_IV_LENGTH];
-            new SecureRandom().nextBytes(iv);
+            context.nextBytes(iv);
 
             // Derive key from master password
             byte[] derivedKey = deriveKey(masterKey, salt);
             SecretKey secretKey = new SecretKeySpec(derivedKey, ALGORITHM);
 
             // Encrypt with AES-GCM
-            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            Cipher cipher = context.cipher(CipherSuite.AES_256_GCM);
             GCMParameterSpec gcmSpec = new GCMParameterSpec(GCM_TAG_LENGTH * 8, iv);
             cipher.init(Cipher.ENCRYPT_MODE, secretKey, gcmSpec);
 
@@ -75,12 +120,16 @@ public class AESEncryptionService implements EncryptionService {
 
     /**
      * Decrypts ciphertext using AES-256-GCM with PBKDF2 key derivation.
+     * Session-format ciphertext is routed to {@link #decrypt(String)} without key derivation.
      */
     @Override
     public String decrypt(String ciphertext, char[] masterKey) throws CryptoException {
         if (ciphertext == null || masterKey == null) {
             throw new CryptoException("Ciphertext and master key cannot be null");
         }
+        if (!isLegacyCiphertext(ciphertext)) {
+            return decrypt(ciphertext);
+        }
 
         try {
             byte[] combined = Base64.getDecoder().decode(ciphertext);
@@ -103,7 +152,7 @@ public class AESEncryptionService implements EncryptionService {
             SecretKey secretKey = new SecretKeySpec(derivedKey, ALGORITHM);
 
             // Decrypt with AES-GCM
-            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            Cipher cipher = context.cipher(CipherSuite.AES_256_GCM);
             GCMParameterSpec gcmSpec = new GCMParameterSpec(GCM_TAG_LENGTH * 8, iv);
             cipher.init(Cipher.DECRYPT_MODE, secretKey, gcmSpec);
 
@@ -122,18 +171,635 @@ public class AESEncryptionService implements EncryptionService {
         }
     }
 
+    /**
+     * Sets the unlock latency that new vault headers are calibrated for.
+     * @param targetMillis Target time of one key derivation in milliseconds
+     */
+    public synchronized void setKdfTargetMillis(long targetMillis) {
+        this.kdfTargetMillis = targetMillis;
+        this.calibratedKdf = null;
+    }
+
+    /**
+     * @return Key derivation parameters calibrated for this machine, measured once per instance
+     */
+    public synchronized KdfParameters getCalibratedKdfParameters() throws CryptoException {
+        if (calibratedKdf == null) {
+            calibratedKdf = new KdfCalibrator(this).calibrate(kdfTargetMillis);
+        }
+        return calibratedKdf;
+    }
+
+    @Override
+    public String createWrappedDataKey(char[] masterKey) throws CryptoException {
+        return createWrappedDataKey(masterKey, getCalibratedKdfParameters());
+    }
+
+    @Override
+    public String createWrappedDataKey(char[] masterKey, KdfParameters kdfParameters) throws CryptoException {
+        if (masterKey == null) {
+            throw new CryptoException("Master key cannot be null");
+        }
+
+        byte[] newDataKey = new byte[DATA_KEY_LENGTH];
+        try {
+            context.nextBytes(newDataKey);
+            return wrapDataKey(newDataKey, masterKey, kdfParameters);
+        } finally {
+            Arrays.fill(newDataKey, (byte) 0);
+        }
+    }
+
+    @Override
+    public String rewrapDataKey(char[] masterKey, KdfParameters kdfParameters) throws CryptoException {
+        if (masterKey == null) {
+            throw new CryptoException("Master key cannot be null");
+        }
+
+        byte[] currentKey;
+        synchronized (this) {
+            if (dataKey == null) {
+                throw new CryptoException("Encryption session not open");
+            }
+            currentKey = dataKey.clone();
+        }
+        try {
+            String header = wrapDataKey(currentKey, masterKey,
+                kdfParameters != null ? kdfParameters : getCalibratedKdfParameters());
+            synchronized (this) {
+                return header + wrapPreviousDataKeys(currentKey, previousDataKeys, WRAPPED_KEY_CHAINED)
+                    + wrapPreviousDataKeys(currentKey, retiredDataKeys, WRAPPED_KEY_RETIRED);
+            }
+        } finally {
+            Arrays.fill(currentKey, (byte) 0);
+        }
+    }
+
+    @Override
+    public String rotateDataKey(char[] newMasterKey, KdfParameters kdfParameters) throws CryptoException {
+        if (newMasterKey == null) {
+            throw new CryptoException("Master key cannot be null");
+        }
+        if (!hasSession()) {
+            throw new CryptoException("Encryption session not open");
+        }
+
+        byte[] newDataKey = new byte[DATA_KEY_LENGTH];
+        context.nextBytes(newDataKey);
+        // Key derivation is slow, so it runs before the session keys are swapped under the lock
+        String header = wrapDataKey(newDataKey, newMasterKey,
+            kdfParameters != null ? kdfParameters : getCalibratedKdfParameters());
+
+        synchronized (this) {
+            if (dataKey == null) {
+                Arrays.fill(newDataKey, (byte) 0);
+                throw new CryptoException("Encryption session not open");
+            }
+            List<byte[]> previous = new ArrayList<>();
+            previous.add(dataKey);
+            previous.addAll(previousDataKeys);
+            String keyRing = header + wrapPreviousDataKeys(newDataKey, previous, WRAPPED_KEY_CHAINED)
+                + wrapPreviousDataKeys(newDataKey, retiredDataKeys, WRAPPED_KEY_RETIRED);
+
+            previousDataKeys.clear();
+            previousDataKeys.addAll(previous);
+            dataKey = newDataKey;
+            return keyRing;
+        }
+    }
+
+    @Override
+    public synchronized String retirePreviousDataKeys(String wrappedDataKey) throws CryptoException {
+        String header = keyRingLines(wrappedDataKey)[0];
+        if (dataKey == null) {
+            throw new CryptoException("Encryption session not open");
+        }
+        List<byte[]> retired = new ArrayList<>(previousDataKeys);
+        retired.addAll(retiredDataKeys);
+        String keyRing = header + wrapPreviousDataKeys(dataKey, retired, WRAPPED_KEY_RETIRED);
+        retiredDataKeys.clear();
+        retiredDataKeys.addAll(retired);
+        previousDataKeys.clear();
+        return keyRing;
+    }
+
+    @Override
+    public synchronized boolean hasPreviousDataKeys() {
+        return !previousDataKeys.isEmpty();
+    }
+
+    @Override
+    public KdfParameters getKdfParameters(String wrappedDataKey) throws CryptoException {
+        return parseKdfParameters(decodeWrappedKey(keyRingLines(wrappedDataKey)[0]));
+    }
+
+    @Override
+    public boolean needsRewrap(String wrappedDataKey) throws CryptoException {
+        return decodeWrappedKey(keyRingLines(wrappedDataKey)[0])[0] != WRAPPED_KEY_V2;
+    }
+
+    @Override
+    public synchronized void openSession(char[] masterKey, String wrappedDataKey) throws CryptoException {
+        if (masterKey == null || wrappedDataKey == null) {
+            throw new CryptoException("Master key and wrapped data key cannot be null");
+        }
+
+        byte[] kek = null;
+        try {
+            String[] keyRing = keyRingLines(wrappedDataKey);
+            byte[] combined = decodeWrappedKey(keyRing[0]);
+            KdfParameters kdfParameters = parseKdfParameters(combined);
+            int saltOffset = combined[0] == WRAPPED_KEY_V1 ? 1 : WRAPPED_KEY_V2_PARAMS_LENGTH;
+            int headerLength = saltOffset + SALT_LENGTH + GCM_IV_LENGTH;
+
+            // Key derivation reads its parameters from the header instead of a constant
+            byte[] salt = Arrays.copyOfRange(combined, saltOffset, saltOffset + SALT_LENGTH);
+            kek = deriveKey(masterKey, salt, kdfParameters);
+
+            Cipher cipher = context.cipher(CipherSuite.AES_256_GCM);
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(kek, ALGORITHM),
+                new GCMParameterSpec(GCM_TAG_LENGTH * 8, combined, saltOffset + SALT_LENGTH, GCM_IV_LENGTH));
+            cipher.updateAAD(combined, 0, saltOffset);
+            byte[] unwrapped = cipher.doFinal(combined, headerLength, combined.length - headerLength);
+
+            List<byte[]> previous = new ArrayList<>();
+            List<byte[]> retired = new ArrayList<>();
+            for (int i = 1; i < keyRing.length; i++) {
+                byte[] chained = decodeChainedKey(keyRing[i]);
+                (chained[0] == WRAPPED_KEY_RETIRED ? retired : previous).add(unwrapPreviousDataKey(chained, unwrapped));
+            }
+
+            closeSession();
+            this.dataKey = unwrapped;
+            this.previousDataKeys.addAll(previous);
+            this.retiredDataKeys.addAll(retired);
+            if (cipherSuite == null) {
+                CipherSuiteProbe.start();
+            }
+
+        } catch (CryptoException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CryptoException("Failed to unlock data key: " + e.getMessage(), e);
+        } finally {
+            if (kek != null) {
+                Arrays.fill(kek, (byte) 0);
+            }
+        }
+    }
+
+    @Override
+    public EncryptionService openDetachedSession(char[] masterKey, String wrappedDataKey) throws CryptoException {
+        AESEncryptionService detached = new AESEncryptionService();
+        detached.cipherSuite = cipherSuite;
+        synchronized (this) {
+            detached.kdfTargetMillis = kdfTargetMillis;
+            detached.calibratedKdf = calibratedKdf;
+        }
+        detached.openSession(masterKey, wrappedDataKey);
+        return detached;
+    }
+
+    /**
+     * Wraps a data key in the current header format.
+     */
+    private String wrapDataKey(byte[] keyToWrap, char[] masterKey, KdfParameters kdfParameters) throws CryptoException {
+        byte[] kek = null;
+        try {
+            byte[] salt = generateSalt();
+            byte[] iv = new byte[GCM_IV_LENGTH];
+            context.nextBytes(iv);
+
+            ByteBuffer result = ByteBuffer.allocate(WRAPPED_KEY_V2_PARAMS_LENGTH + SALT_LENGTH + GCM_IV_LENGTH
+                + DATA_KEY_LENGTH + GCM_TAG_LENGTH);
+            result.put(WRAPPED_KEY_V2)
+                .put((byte) kdfParameters.getAlgorithm())
+                .putInt(kdfParameters.getIterations());
+
+            kek = deriveKey(masterKey, salt, kdfParameters);
+            Cipher cipher = context.cipher(CipherSuite.AES_256_GCM);
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(kek, ALGORITHM),
+                new GCMParameterSpec(GCM_TAG_LENGTH * 8, iv));
+            cipher.updateAAD(result.array(), 0, WRAPPED_KEY_V2_PARAMS_LENGTH);
+            byte[] wrapped = cipher.doFinal(keyToWrap);
+
+            result.put(salt).put(iv).put(wrapped);
+            return Base64.getEncoder().encodeToString(result.array());
+
+        } catch (CryptoException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CryptoException("Data key wrapping failed: " + e.getMessage(), e);
+        } finally {
+            if (kek != null) {
+                Arrays.fill(kek, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * Wraps previous or retired data keys with the current one: one key derivation at unlock opens the whole ring.
+     * @param version {@link #WRAPPED_KEY_CHAINED} or {@link #WRAPPED_KEY_RETIRED}, authenticated with each key
+     * @return The chained headers, each on its own line preceded by a line break
+     */
+    private String wrapPreviousDataKeys(byte[] currentKey, List<byte[]> keys, byte version) throws CryptoException {
+        StringBuilder lines = new StringBuilder();
+        try {
+            for (byte[] key : keys) {
+                byte[] iv = new byte[GCM_IV_LENGTH];
+                context.nextBytes(iv);
+                ByteBuffer result = ByteBuffer.allocate(1 + GCM_IV_LENGTH + DATA_KEY_LENGTH + GCM_TAG_LENGTH);
+                result.put(version).put(iv);
+
+                Cipher cipher = context.cipher(CipherSuite.AES_256_GCM);
+                cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(currentKey, ALGORITHM),
+                    new GCMParameterSpec(GCM_TAG_LENGTH * 8, iv));
+                cipher.updateAAD(result.array(), 0, 1);
+                result.put(cipher.doFinal(key));
+
+                lines.append('\n').append(Base64.getEncoder().encodeToString(result.array()));
+            }
+            return lines.toString();
+        } catch (Exception e) {
+            throw new CryptoException("Data key wrapping failed: " + e.getMessage(), e);
+        }
+    }
+
+    private static byte[] decodeChainedKey(String line) throws CryptoException {
+        byte[] combined;
+        try {
+            combined = Base64.getDecoder().decode(line.trim());
+        } catch (IllegalArgumentException e) {
+            throw new CryptoException("Invalid wrapped data key format", e);
+        }
+        if (combined.length != 1 + GCM_IV_LENGTH + DATA_KEY_LENGTH + GCM_TAG_LENGTH
+                || (combined[0] != WRAPPED_KEY_CHAINED && combined[0] != WRAPPED_KEY_RETIRED)) {
+            throw new CryptoException("Invalid wrapped data key format");
+        }
+        return combined;
+    }
+
+    private byte[] unwrapPreviousDataKey(byte[] combined, byte[] currentKey) throws CryptoException {
+        try {
+            Cipher cipher = context.cipher(CipherSuite.AES_256_GCM);
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(currentKey, ALGORITHM),
+                new GCMParameterSpec(GCM_TAG_LENGTH * 8, combined, 1, GCM_IV_LENGTH));
+            cipher.updateAAD(combined, 0, 1);
+            return cipher.doFinal(combined, 1 + GCM_IV_LENGTH, combined.length - 1 - GCM_IV_LENGTH);
+        } catch (Exception e) {
+            throw new CryptoException("Failed to unlock previous data key: " + e.getMessage(), e);
+        }
+    }
+
+    private static String[] keyRingLines(String wrappedDataKey) throws CryptoException {
+        if (wrappedDataKey == null || wrappedDataKey.isBlank()) {
+            throw new CryptoException("Wrapped data key cannot be null");
+        }
+        return wrappedDataKey.trim().split("\\R");
+    }
+
+    private static byte[] decodeWrappedKey(String wrappedDataKey) throws CryptoException {
+        if (wrappedDataKey == null) {
+            throw new CryptoException("Wrapped data key cannot be null");
+        }
+        byte[] combined;
+        try {
+            combined = Base64.getDecoder().decode(wrappedDataKey.trim());
+        } catch (IllegalArgumentException e) {
+            throw new CryptoException("Invalid wrapped data key format", e);
+        }
+
+        int tail = SALT_LENGTH + GCM_IV_LENGTH + DATA_KEY_LENGTH + GCM_TAG_LENGTH;
+        boolean valid = combined.length > 0
+            && ((combined[0] == WRAPPED_KEY_V1 && combined.length == 1 + tail)
+             || (combined[0] == WRAPPED_KEY_V2 && combined.length == WRAPPED_KEY_V2_PARAMS_LENGTH + tail));
+        if (!valid) {
+            throw new CryptoException("Invalid wrapped data key format");
+        }
+        return combined;
+    }
+
+    private static KdfParameters parseKdfParameters(byte[] combined) throws CryptoException {
+        if (combined[0] == WRAPPED_KEY_V1) {
+            return KdfParameters.LEGACY;
+        }
+        ByteBuffer header = ByteBuffer.wrap(combined, 1, WRAPPED_KEY_V2_PARAMS_LENGTH - 1);
+        try {
+            return new KdfParameters(header.get(), header.getInt());
+        } catch (IllegalArgumentException e) {
+            throw new CryptoException("Invalid key derivation parameters: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public synchronized void closeSession() {
+        if (dataKey != null) {
+            Arrays.fill(dataKey, (byte) 0);
+            dataKey = null;
+        }
+        for (byte[] key : previousDataKeys) {
+            Arrays.fill(key, (byte) 0);
+        }
+        previousDataKeys.clear();
+        for (byte[] key : retiredDataKeys) {
+            Arrays.fill(key, (byte) 0);
+        }
+        retiredDataKeys.clear();
+    }
+
+    @Override
+    public synchronized boolean hasSession() {
+        return dataKey != null;
+    }
+
+    /**
+     * Sets the suite used for new session ciphertext. Existing ciphertext stays readable
+     * whichever suite is selected.
+     */
+    @Override
+    public void setCipherSuite(CipherSuite cipherSuite) {
+        this.cipherSuite = cipherSuite;
+    }
+
+    /**
+     * @return The suite set explicitly, otherwise the current result of the cipher suite probe
+     */
+    @Override
+    public CipherSuite getCipherSuite() {
+        CipherSuite suite = cipherSuite;
+        return suite != null ? suite : CipherSuiteProbe.fastest();
+    }
+
+    /**
+     * Encrypts plaintext with the session data key. No key derivation is performed.
+     * Format: "v3:" + Base64([suite][nonce][ciphertext+tag])
+     */
+    @Override
+    public String encrypt(String plaintext) throws CryptoException {
+        if (plaintext == null) {
+            throw new CryptoException("Plaintext cannot be null");
+        }
+
+        byte[] input = plaintext.getBytes(StandardCharsets.UTF_8);
+        byte[] result = new byte[input.length + getCiphertextOverhead()];
+        encrypt(input, 0, input.length, result, 0);
+        Arrays.fill(input, (byte) 0);
+
+        return SESSION_PREFIX + Base64.getEncoder().encodeToString(result);
+    }
+
+    /**
+     * Decrypts ciphertext produced by {@link #encrypt(String)} with the session data key.
+     */
+    @Override
+    public String decrypt(String ciphertext) throws CryptoException {
+        boolean v2 = ciphertext != null && ciphertext.startsWith(SESSION_V2_PREFIX);
+        if (ciphertext == null || (!v2 && !ciphertext.startsWith(SESSION_PREFIX))) {
+            throw new CryptoException("Ciphertext is not in session format");
+        }
+
+        byte[] combined;
+        try {
+            combined = Base64.getDecoder().decode(ciphertext.substring((v2 ? SESSION_V2_PREFIX : SESSION_PREFIX).length()));
+        } catch (IllegalArgumentException e) {
+            throw new CryptoException("Decryption failed: " + e.getMessage(), e);
+        }
+
+        int length = v2
+            ? open(CipherSuite.AES_256_GCM, combined, 0, combined.length, 0)
+            : decrypt(combined, 0, combined.length);
+        String result = new String(combined, 0, length, StandardCharsets.UTF_8);
+        Arrays.fill(combined, (byte) 0);
+        return result;
+    }
+
+    @Override
+    public int getCiphertextOverhead() {
+        return 1 + CipherSuite.NONCE_LENGTH + CipherSuite.TAG_LENGTH;
+    }
+
+    /**
+     * Encrypts into a caller-supplied buffer with the session data key.
+     * Format: [suite][nonce][ciphertext+tag]
+     */
+    @Override
+    public int encrypt(byte[] input, int inputOffset, int inputLength,
+                       byte[] output, int outputOffset) throws CryptoException {
+        if (input == null || output == null) {
+            throw new CryptoException("Input and output buffers cannot be null");
+        }
+        if (output.length - outputOffset < inputLength + getCiphertextOverhead()) {
+            throw new CryptoException("Output buffer too small");
+        }
+        CipherSuite suite = getCipherSuite();
+        SecretKey secretKey = sessionKey(suite);
+
+        try {
+            byte[] nonce = new byte[CipherSuite.NONCE_LENGTH];
+            context.nextBytes(nonce);
+            output[outputOffset] = (byte) suite.getId();
+            System.arraycopy(nonce, 0, output, outputOffset + 1, nonce.length);
+
+            Cipher cipher = context.cipher(suite);
+            suite.init(cipher, Cipher.ENCRYPT_MODE, secretKey, nonce, 0);
+
+            return 1 + nonce.length + cipher.doFinal(input, inputOffset, inputLength,
+                output, outputOffset + 1 + nonce.length);
+
+        } catch (Exception e) {
+            throw new CryptoException("Encryption failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Decrypts [suite][nonce][ciphertext+tag] in place with the session data key.
+     * The plaintext is written starting at {@code offset}.
+     */
+    @Override
+    public int decrypt(byte[] buffer, int offset, int length) throws CryptoException {
+        if (buffer == null) {
+            throw new CryptoException("Buffer cannot be null");
+        }
+        if (length < getCiphertextOverhead()) {
+            throw new CryptoException("Invalid ciphertext format");
+        }
+        return open(suiteOf(buffer[offset]), buffer, offset + 1, offset + length, offset);
+    }
+
+    @Override
+    public int encrypt(ByteBuffer input, ByteBuffer output) throws CryptoException {
+        if (input == null || output == null) {
+            throw new CryptoException("Input and output buffers cannot be null");
+        }
+        if (output.remaining() < input.remaining() + getCiphertextOverhead()) {
+            throw new CryptoException("Output buffer too small");
+        }
+        CipherSuite suite = getCipherSuite();
+        SecretKey secretKey = sessionKey(suite);
+
+        try {
+            byte[] nonce = new byte[CipherSuite.NONCE_LENGTH];
+            context.nextBytes(nonce);
+            output.put((byte) suite.getId()).put(nonce);
+
+            Cipher cipher = context.cipher(suite);
+            suite.init(cipher, Cipher.ENCRYPT_MODE, secretKey, nonce, 0);
+
+            return 1 + nonce.length + cipher.doFinal(input, output);
+
+        } catch (Exception e) {
+            throw new CryptoException("Encryption failed: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public int decrypt(ByteBuffer input, ByteBuffer output) throws CryptoException {
+        if (input == null || output == null) {
+            throw new CryptoException("Input and output buffers cannot be null");
+        }
+        if (input.remaining() < getCiphertextOverhead()) {
+            throw new CryptoException("Invalid ciphertext format");
+        }
+        CipherSuite suite = suiteOf(input.get());
+        byte[] nonce = new byte[CipherSuite.NONCE_LENGTH];
+        input.get(nonce);
+        int inputPosition = input.position();
+        int outputPosition = output.position();
+
+        AEADBadTagException failure = null;
+        for (SecretKey secretKey : sessionKeys(suite)) {
+            try {
+                Cipher cipher = context.cipher(suite);
+                suite.init(cipher, Cipher.DECRYPT_MODE, secretKey, nonce, 0);
+                return cipher.doFinal(input, output);
+
+            } catch (AEADBadTagException e) {
+                // Written with another key of the ring (during rotation); retry from the same position
+                failure = e;
+                input.position(inputPosition);
+                output.position(outputPosition);
+            } catch (Exception e) {
+                throw new CryptoException("Decryption failed: " + e.getMessage(), e);
+            }
+        }
+        throw new CryptoException("Decryption failed: " + failure.getMessage(), failure);
+    }
+
+    @Override
+    public OutputStream newEncryptingStream(OutputStream out) throws CryptoException {
+        CipherSuite suite = getCipherSuite();
+        SecretKey secretKey = sessionKey(suite);
+        try {
+            return new StreamingAeadOutputStream(out, secretKey, suite, context,
+                StreamingAeadOutputStream.DEFAULT_SEGMENT_SIZE);
+        } catch (Exception e) {
+            throw new CryptoException("Failed to open encrypting stream: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public InputStream newDecryptingStream(InputStream in) throws CryptoException {
+        // Fail fast if the session is closed, before the header names a suite
+        sessionKey(CipherSuite.AES_256_GCM);
+        try {
+            return new StreamingAeadInputStream(in, this::streamKeys, context);
+        } catch (CryptoException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CryptoException("Failed to open decrypting stream: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean isLegacyCiphertext(String ciphertext) {
+        return ciphertext != null && !ciphertext.isEmpty()
+            && !ciphertext.startsWith(SESSION_PREFIX) && !ciphertext.startsWith(SESSION_V2_PREFIX);
+    }
+
+    /**
+     * Decrypts [nonce][ciphertext+tag] held in {@code buffer[nonceOffset, end)} in place,
+     * writing the plaintext at {@code outputOffset}.
+     */
+    private int open(CipherSuite suite, byte[] buffer, int nonceOffset, int end, int outputOffset)
+            throws CryptoException {
+        if (end - nonceOffset < CipherSuite.NONCE_LENGTH + CipherSuite.TAG_LENGTH) {
+            throw new CryptoException("Invalid ciphertext format");
+        }
+        int dataOffset = nonceOffset + CipherSuite.NONCE_LENGTH;
+
+        AEADBadTagException failure = null;
+        for (SecretKey secretKey : sessionKeys(suite)) {
+            try {
+                Cipher cipher = context.cipher(suite);
+                suite.init(cipher, Cipher.DECRYPT_MODE, secretKey, buffer, nonceOffset);
+                return cipher.doFinal(buffer, dataOffset, end - dataOffset, buffer, outputOffset);
+
+            } catch (AEADBadTagException e) {
+                // Written with another key of the ring (during rotation). The tag is checked
+                // before any plaintext is released, so the buffer still holds the ciphertext
+                failure = e;
+            } catch (Exception e) {
+                throw new CryptoException("Decryption failed: " + e.getMessage(), e);
+            }
+        }
+        throw new CryptoException("Decryption failed: " + failure.getMessage(), failure);
+    }
+
+    private static CipherSuite suiteOf(byte id) throws CryptoException {
+        try {
+            return CipherSuite.fromId(id);
+        } catch (IllegalArgumentException e) {
+            throw new CryptoException("Decryption failed: " + e.getMessage(), e);
+        }
+    }
+
+    private synchronized SecretKey sessionKey(CipherSuite suite) throws CryptoException {
+        if (dataKey == null) {
+            throw new CryptoException("Encryption session not open");
+        }
+        return new SecretKeySpec(dataKey, suite.getKeyAlgorithm());
+    }
+
+    /**
+     * @return Every key that may have encrypted session data, current key first
+     */
+    private synchronized List<SecretKey> sessionKeys(CipherSuite suite) throws CryptoException {
+        List<SecretKey> keys = new ArrayList<>(1 + previousDataKeys.size());
+        keys.add(sessionKey(suite));
+        for (byte[] key : previousDataKeys) {
+            keys.add(new SecretKeySpec(key, suite.getKeyAlgorithm()));
+        }
+        return keys;
+    }
+
+    /**
+     * @return The session keys followed by the retired ones, which only streams such as backups may still use
+     */
+    private synchronized List<SecretKey> streamKeys(CipherSuite suite) throws CryptoException {
+        List<SecretKey> keys = sessionKeys(suite);
+        for (byte[] key : retiredDataKeys) {
+            keys.add(new SecretKeySpec(key, suite.getKeyAlgorithm()));
+        }
+        return keys;
+    }
+
     @Override
     public byte[] generateSalt() {
         byte[] salt = new byte[SALT_LENGTH];
-        new SecureRandom().nextBytes(salt);
+        context.nextBytes(salt);
         return salt;
     }
 
     @Override
     public byte[] deriveKey(char[] masterPassword, byte[] salt) throws CryptoException {
+        return deriveKey(masterPassword, salt, KdfParameters.LEGACY);
+    }
+
+    @Override
+    public byte[] deriveKey(char[] masterPassword, byte[] salt, KdfParameters kdfParameters) throws CryptoException {
         try {
-            KeySpec spec = new PBEKeySpec(masterPassword, salt, PBKDF2_ITERATIONS, KEY_LENGTH);
-            SecretKeyFactory factory = SecretKeyFactory.getInstance(KEY_DERIVATION_ALGORITHM);
+            KeySpec spec = new PBEKeySpec(masterPassword, salt, kdfParameters.getIterations(), KEY_LENGTH);
+            SecretKeyFactory factory = context.keyFactory();
             return factory.generateSecret(spec).getEncoded();
         } catch (Exception e) {
             throw new CryptoException("Key derivation failed: " + e.getMessage(), e);
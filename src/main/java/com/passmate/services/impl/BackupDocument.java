@@ -0,0 +1,163 @@
+package com.passmate.services.impl;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.passmate.models.Category;
+import com.passmate.models.Password;
+import com.passmate.models.StorageData;
+import com.passmate.models.Vault;
+import com.passmate.services.exceptions.CryptoException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Reads a backup, a {@link StorageData} document, while it is parsed: list entries are bound to
+ * their model classes one at a time and handed to a visitor, so backups of any size are read in
+ * bounded memory. The entry counts recorded in the backup, if any, are checked against what was read.
+ */
+final class BackupDocument {
+
+    private static final TypeReference<Map<String, Object>> SETTINGS_TYPE = new TypeReference<>() { };
+
+    /**
+     * Receives the parts of a backup in document order. Entries a visitor does not consume are
+     * still parsed and counted; by default every part is only checked.
+     */
+    interface Visitor {
+        default void passwords(Iterator<Password> passwords) throws IOException, CryptoException {
+        }
+
+        default void categories(Iterator<Category> categories) throws IOException, CryptoException {
+        }
+
+        default void vault(Vault vault) throws IOException, CryptoException {
+        }
+
+        default void settings(Map<String, Object> settings) throws IOException, CryptoException {
+        }
+    }
+
+    /**
+     * What a backup holds.
+     */
+    static final class Contents {
+        private int passwords;
+        private int categories;
+        private boolean vault;
+        private boolean settings;
+
+        int getPasswords() {
+            return passwords;
+        }
+
+        int getCategories() {
+            return categories;
+        }
+
+        boolean hasVault() {
+            return vault;
+        }
+
+        boolean hasSettings() {
+            return settings;
+        }
+    }
+
+    private interface ElementsVisitor<T> {
+        void accept(Iterator<T> elements) throws IOException, CryptoException;
+    }
+
+    private BackupDocument() { }
+
+    /**
+     * Parses a backup from its start to the end of its storage data.
+     * @throws IOException If the backup is malformed, ends early or holds other counts than it records
+     */
+    static Contents read(JsonParser parser, Visitor visitor) throws IOException, CryptoException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Backup does not hold storage data");
+        }
+        Contents contents = new Contents();
+        Integer passwordCount = null;
+        Integer categoryCount = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            if (parser.nextToken() == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (field) {
+                case "passwords":
+                    contents.passwords = readElements(parser, field, Password.class, visitor::passwords);
+                    break;
+                case "categories":
+                    contents.categories = readElements(parser, field, Category.class, visitor::categories);
+                    break;
+                case "vault":
+                    visitor.vault(parser.readValueAs(Vault.class));
+                    contents.vault = true;
+                    break;
+                case "settings":
+                    visitor.settings(parser.readValueAs(SETTINGS_TYPE));
+                    contents.settings = true;
+                    break;
+                case "passwordCount":
+                    passwordCount = parser.getIntValue();
+                    break;
+                case "categoryCount":
+                    categoryCount = parser.getIntValue();
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        if (parser.currentToken() != JsonToken.END_OBJECT) {
+            throw new EOFException("Backup ends inside its storage data");
+        }
+        checkCount("passwords", passwordCount, contents.passwords);
+        checkCount("categories", categoryCount, contents.categories);
+        return contents;
+    }
+
+    /**
+     * Hands the visitor the elements of the array the parser is at, then reads any it left.
+     * @return The number of elements in the array
+     */
+    private static <T> int readElements(JsonParser parser, String field, Class<T> type, ElementsVisitor<T> visitor)
+            throws IOException, CryptoException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            throw new IOException("Backup holds " + field + " that are not a list");
+        }
+        // Iterate the contents of the array rather than binding the array as one value
+        parser.clearCurrentToken();
+        Iterator<T> parsed = parser.readValuesAs(type);
+        int[] count = {0};
+        Iterator<T> elements = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return parsed.hasNext();
+            }
+
+            @Override
+            public T next() {
+                T element = parsed.next();
+                count[0]++;
+                return element;
+            }
+        };
+        visitor.accept(elements);
+        while (elements.hasNext()) {
+            elements.next();
+        }
+        return count[0];
+    }
+
+    private static void checkCount(String field, Integer recorded, int read) throws IOException {
+        if (recorded != null && recorded != read) {
+            throw new IOException("Backup records " + recorded + " " + field + " but holds " + read);
+        }
+    }
+}
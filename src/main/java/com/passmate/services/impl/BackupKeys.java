@@ -0,0 +1,119 @@
+package com.passmate.services.impl;
+
+import com.passmate.services.EncryptionService;
+import com.passmate.services.exceptions.CryptoException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Opens backups that carry the wrapped data key they are encrypted with, so they can be read with
+ * the master password alone, even once the storage directory and its vault.key are gone.
+ * Format: [magic][key length][wrapped key or key ring, UTF-8][streaming ciphertext]. The
+ * {@code store.enc} file of a {@link BackupStore} carries the key of its store the same way.
+ * <p>
+ * A backup whose key is the one of the open session is read without key derivation; any other key
+ * is unwrapped once per instance and its session closed by {@link #close()}. A key the master key
+ * does not open, such as one wrapped under the password used before a key rotation, falls back to
+ * the open session, which keeps the keys retired by completed rotations.
+ */
+final class BackupKeys implements AutoCloseable {
+
+    static final byte[] MAGIC = {(byte) 0x89, 'P', 'M', 'K'};
+    private static final int MAX_KEY_LENGTH = 64 * 1024;
+
+    private final EncryptionService encryptionService;
+    private final char[] masterKey;
+    private final String sessionKey;
+    private final Map<String, EncryptionService> detached = new HashMap<>();
+    /** Keys the master key did not open, so a wrong one costs one key derivation, not one per backup. */
+    private final Map<String, CryptoException> failed = new HashMap<>();
+
+    /**
+     * @param sessionKey The wrapped key of the open session, or null if no vault is unlocked
+     */
+    BackupKeys(EncryptionService encryptionService, char[] masterKey, String sessionKey) {
+        this.encryptionService = encryptionService;
+        this.masterKey = masterKey;
+        this.sessionKey = sessionKey;
+    }
+
+    /**
+     * Writes the header naming the key of the ciphertext that follows it.
+     */
+    static void writeHeader(OutputStream out, String wrappedKey) throws IOException {
+        byte[] key = wrappedKey.getBytes(StandardCharsets.UTF_8);
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(MAGIC);
+        data.writeInt(key.length);
+        data.write(key);
+        data.flush();
+    }
+
+    /**
+     * Reads the header of a backup and wraps the rest of it for decryption.
+     * Closing the returned stream closes {@code in}.
+     */
+    InputStream open(InputStream in) throws IOException, CryptoException {
+        return session(readHeader(in)).newDecryptingStream(in);
+    }
+
+    /**
+     * Reads the header written by {@link #writeHeader}, leaving {@code in} at the ciphertext.
+     * @return The wrapped key
+     */
+    static String readHeader(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        byte[] magic = data.readNBytes(MAGIC.length);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("File does not carry its key");
+        }
+        int length = data.readInt();
+        if (length <= 0 || length > MAX_KEY_LENGTH) {
+            throw new IOException("Corrupt key header");
+        }
+        byte[] key = data.readNBytes(length);
+        if (key.length != length) {
+            throw new IOException("Corrupt key header");
+        }
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    private synchronized EncryptionService session(String wrappedKey) throws CryptoException {
+        if (wrappedKey.equals(sessionKey) && encryptionService.hasSession()) {
+            return encryptionService;
+        }
+        EncryptionService session = detached.get(wrappedKey);
+        if (session == null) {
+            if (!failed.containsKey(wrappedKey)) {
+                try {
+                    session = encryptionService.openDetachedSession(masterKey, wrappedKey);
+                    detached.put(wrappedKey, session);
+                    return session;
+                } catch (CryptoException e) {
+                    failed.put(wrappedKey, e);
+                }
+            }
+            if (!encryptionService.hasSession()) {
+                throw failed.get(wrappedKey);
+            }
+            return encryptionService;
+        }
+        return session;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (EncryptionService session : detached.values()) {
+            session.closeSession();
+        }
+        detached.clear();
+    }
+}
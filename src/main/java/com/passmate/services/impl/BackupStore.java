@@ -0,0 +1,734 @@
+package com.passmate.services.impl;
+
+import com.passmate.models.BackupPoint;
+import com.passmate.services.EncryptionService;
+import com.passmate.services.KdfParameters;
+import com.passmate.services.PayloadFormat;
+import com.passmate.services.exceptions.CryptoException;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Incremental, deduplicated backups in a directory of their own. Every record (password entry or
+ * category), every other storage file and the ordered id list of each snapshot is a chunk addressed
+ * by a hash of its content. A backup run stores only the chunks no earlier run stored, appended to one
+ * new pack, and a restore point naming the chunks it consists of; any point kept can be restored.
+ * <p>
+ * Layout: {@code store.enc} holds the store key and the hash salt, {@code packs/N.pack} holds chunks as
+ * [length][ciphertext of id + payload] with their locations in {@code packs/N.idx}, and
+ * {@code points/N.enc} describes point N. Chunk ids are the first 16 bytes of SHA-256 over the secret
+ * salt and the payload, so nothing about a record can be confirmed from its id without the key.
+ * A pack and its index are forced to disk before the point using them is published by an atomic rename:
+ * a crash leaves at most unreferenced packs, which pruning removes.
+ * <p>
+ * All files are encrypted with a random key of the store's own, kept in {@code store.enc} wrapped
+ * under the master password, so a store outlives rotations of the vault data key and the loss of
+ * the storage directory; changing the master password only re-wraps it, see {@link #rewrapKey}.
+ * Stores written before they had a key of their own take over the vault key ring they were written with.
+ */
+final class BackupStore {
+
+    /**
+     * What a restore point holds: serialized records in list order and the plaintext of other storage files.
+     */
+    static final class Contents {
+        final List<byte[]> passwords = new ArrayList<>();
+        final List<byte[]> categories = new ArrayList<>();
+        /** Plaintext of other storage files by name. */
+        final Map<String, byte[]> documents = new TreeMap<>();
+        /** Payload format of each document. */
+        final Map<String, PayloadFormat> formats = new TreeMap<>();
+    }
+
+    private static final String STORE_FILE = "store.enc";
+    private static final String PACKS_DIR = "packs";
+    private static final String POINTS_DIR = "points";
+    private static final String PACK_EXTENSION = ".pack";
+    private static final String INDEX_EXTENSION = ".idx";
+    private static final String POINT_EXTENSION = ".enc";
+    private static final Pattern NUMBERED_FILE = Pattern.compile("(\\d+)(\\.[a-z]+)");
+    private static final int ID_LENGTH = 16;
+    /** Packs whose live chunks take less than this share of them are rewritten when pruning. */
+    private static final double REPACK_THRESHOLD = 0.5;
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final Path directory;
+    /** The vault session, used only to create or unwrap the store key. */
+    private final EncryptionService encryptionService;
+    private final KdfParameters kdfParameters;
+    private final PayloadCodec codec;
+    private char[] masterKey;
+    /** Session holding the store key, which encrypts everything in the store; null until opened. */
+    private EncryptionService keys;
+    private String wrappedKey;
+    private byte[] salt;
+    /** Location of every stored chunk by hex id, the newest pack winning; null until opened. */
+    private Map<String, Location> index;
+    /** Highest number given to a pack or point; packs and points of one run share it. */
+    private long lastNumber;
+
+    /**
+     * @param masterKey The master key wrapping the store key
+     * @param kdfParameters Key derivation parameters for a new store key, such as those of the vault header
+     */
+    BackupStore(Path directory, EncryptionService encryptionService, char[] masterKey, KdfParameters kdfParameters,
+                PayloadCodec codec) {
+        this.directory = directory;
+        this.encryptionService = encryptionService;
+        this.masterKey = Arrays.copyOf(masterKey, masterKey.length);
+        this.kdfParameters = kdfParameters;
+        this.codec = codec;
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Adds a restore point holding the given contents.
+     * @return The new point
+     */
+    synchronized BackupPoint write(Contents contents) throws IOException, CryptoException {
+        open();
+        long number = ++lastNumber;
+        Point point = new Point();
+        int chunks;
+        long bytes;
+        try (PackWriter pack = new PackWriter(number)) {
+            point.setPasswords(HEX.formatHex(pack.store(idList(contents.passwords, pack))));
+            point.setCategories(HEX.formatHex(pack.store(idList(contents.categories, pack))));
+            for (Map.Entry<String, byte[]> document : contents.documents.entrySet()) {
+                point.getDocuments().put(document.getKey(), new Document(HEX.formatHex(pack.store(document.getValue())),
+                    contents.formats.get(document.getKey())));
+            }
+            bytes = pack.finish();
+            chunks = pack.added.size();
+        }
+
+        BackupPoint summary = new BackupPoint(number, System.currentTimeMillis(), contents.passwords.size(),
+            contents.categories.size(), chunks, bytes);
+        point.setSummary(summary);
+        writeDocument(pointPath(number), point);
+        return summary;
+    }
+
+    /**
+     * Reads the contents of a restore point, checking every chunk against its id.
+     */
+    synchronized Contents read(long number) throws IOException, CryptoException {
+        open();
+        Point point = readPoint(number);
+        Contents contents = new Contents();
+        try (ChunkReader chunks = new ChunkReader()) {
+            for (String id : chunks.readList(point.getPasswords())) {
+                contents.passwords.add(chunks.read(id));
+            }
+            for (String id : chunks.readList(point.getCategories())) {
+                contents.categories.add(chunks.read(id));
+            }
+            for (Map.Entry<String, Document> document : point.getDocuments().entrySet()) {
+                contents.documents.put(document.getKey(), chunks.read(document.getValue().getChunk()));
+                contents.formats.put(document.getKey(), document.getValue().getFormat());
+            }
+        }
+        return contents;
+    }
+
+    /**
+     * @return All restore points, oldest first
+     */
+    synchronized List<BackupPoint> list() throws IOException, CryptoException {
+        open();
+        List<BackupPoint> points = new ArrayList<>();
+        for (long number : numbers(points(), POINT_EXTENSION)) {
+            points.add(readPoint(number).getSummary());
+        }
+        return points;
+    }
+
+    /**
+     * Deletes all but the newest restore points, then the chunks no remaining point uses: packs
+     * without live chunks are deleted and packs mostly holding dead ones are rewritten.
+     * @param keep Number of points to keep
+     * @return Number of points deleted
+     */
+    synchronized int prune(int keep) throws IOException, CryptoException {
+        open();
+        List<Long> numbers = numbers(points(), POINT_EXTENSION);
+        int removed = Math.max(0, numbers.size() - keep);
+        for (long number : numbers.subList(0, removed)) {
+            Files.delete(pointPath(number));
+        }
+        if (removed > 0) {
+            StorageFiles.forceDirectory(points());
+        }
+        collectGarbage();
+        return removed;
+    }
+
+    /**
+     * Wraps the store key under a new master key; nothing else in the store is rewritten.
+     * @return The previous wrapped key, for {@link #restoreKey} if the new master key is not kept
+     */
+    synchronized String rewrapKey(char[] newMasterKey, KdfParameters kdfParameters) throws IOException, CryptoException {
+        open();
+        String previous = wrappedKey;
+        writeStoreFile(keys.rewrapDataKey(newMasterKey, kdfParameters));
+        replaceMasterKey(newMasterKey);
+        return previous;
+    }
+
+    /**
+     * Puts back a wrapped key returned by {@link #rewrapKey}.
+     */
+    synchronized void restoreKey(char[] masterKey, String wrappedKey) throws IOException, CryptoException {
+        open();
+        writeStoreFile(wrappedKey);
+        replaceMasterKey(masterKey);
+    }
+
+    /**
+     * Wipes the store key and master key from memory; the store cannot be used afterwards.
+     */
+    synchronized void close() {
+        if (keys != null) {
+            keys.closeSession();
+            keys = null;
+        }
+        Arrays.fill(masterKey, '\0');
+        index = null;
+    }
+
+    private void replaceMasterKey(char[] newMasterKey) {
+        Arrays.fill(masterKey, '\0');
+        masterKey = Arrays.copyOf(newMasterKey, newMasterKey.length);
+    }
+
+    /**
+     * Reads the salt and the pack indexes once, and deletes what an interrupted run left behind.
+     */
+    private void open() throws IOException, CryptoException {
+        if (index != null) {
+            return;
+        }
+        StorageFiles.createPrivateDirectory(directory);
+        StorageFiles.createPrivateDirectory(packs());
+        StorageFiles.createPrivateDirectory(points());
+        deleteTemporaryFiles(directory);
+        deleteTemporaryFiles(packs());
+        deleteTemporaryFiles(points());
+
+        try {
+            openKey(directory.resolve(STORE_FILE));
+        } catch (IOException | CryptoException e) {
+            if (keys != null) {
+                keys.closeSession();
+                keys = null;
+            }
+            throw e;
+        }
+
+        Map<String, Location> loaded = new HashMap<>();
+        long highest = 0;
+        for (long number : numbers(packs(), INDEX_EXTENSION)) {
+            loaded.putAll(readIndex(number));
+            highest = Math.max(highest, number);
+        }
+        for (long number : numbers(packs(), PACK_EXTENSION)) {
+            if (!Files.exists(indexPath(number))) {
+                Files.delete(packPath(number));
+                System.out.println("Deleted backup pack " + number + " left behind by an unfinished run");
+            }
+            highest = Math.max(highest, number);
+        }
+        for (long number : numbers(points(), POINT_EXTENSION)) {
+            highest = Math.max(highest, number);
+        }
+        lastNumber = highest;
+        index = loaded;
+    }
+
+    /**
+     * Unwraps the store key and reads the salt, creating both for a new store.
+     */
+    private void openKey(Path storePath) throws IOException, CryptoException {
+        if (!Files.exists(storePath)) {
+            String newKey = encryptionService.createWrappedDataKey(masterKey, kdfParameters);
+            keys = encryptionService.openDetachedSession(masterKey, newKey);
+            salt = encryptionService.generateSalt();
+            writeStoreFile(newKey);
+            return;
+        }
+
+        boolean ownKey = hasStoreKey(storePath);
+        InputStream file = MappedFileInputStream.open(storePath);
+        try {
+            if (ownKey) {
+                String storeKey = BackupKeys.readHeader(file);
+                keys = encryptionService.openDetachedSession(masterKey, storeKey);
+                wrappedKey = storeKey;
+                salt = readSalt(keys.newDecryptingStream(file));
+            } else {
+                // Written with the vault data key: keep using the vault key ring, now as the store key
+                salt = readSalt(encryptionService.newDecryptingStream(file));
+                String storeKey = encryptionService.rewrapDataKey(masterKey, kdfParameters);
+                keys = encryptionService.openDetachedSession(masterKey, storeKey);
+                writeStoreFile(storeKey);
+                System.out.println("Gave backup store " + directory + " a key of its own");
+            }
+        } catch (IOException | CryptoException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private boolean hasStoreKey(Path storePath) throws IOException {
+        try (InputStream in = Files.newInputStream(storePath)) {
+            return Arrays.equals(in.readNBytes(BackupKeys.MAGIC.length), BackupKeys.MAGIC);
+        }
+    }
+
+    private byte[] readSalt(InputStream in) throws IOException {
+        try (in) {
+            Map<String, String> store = codec.read(in,
+                codec.getTypeFactory().constructMapType(HashMap.class, String.class, String.class));
+            return Base64.getDecoder().decode(store.get("salt"));
+        }
+    }
+
+    /**
+     * Replaces {@code store.enc} with the given wrapped store key and the salt encrypted under it.
+     */
+    private void writeStoreFile(String storeKey) throws IOException, CryptoException {
+        writeDocument(directory.resolve(STORE_FILE), storeKey, Map.of("salt", Base64.getEncoder().encodeToString(salt)));
+        wrappedKey = storeKey;
+    }
+
+    private void collectGarbage() throws IOException, CryptoException {
+        Set<String> live = new HashSet<>();
+        try (ChunkReader chunks = new ChunkReader()) {
+            for (long number : numbers(points(), POINT_EXTENSION)) {
+                Point point = readPoint(number);
+                for (String list : List.of(point.getPasswords(), point.getCategories())) {
+                    live.add(list);
+                    live.addAll(chunks.readList(list));
+                }
+                for (Document document : point.getDocuments().values()) {
+                    live.add(document.getChunk());
+                }
+            }
+        }
+
+        Map<Long, Map<String, Location>> liveByPack = new TreeMap<>();
+        for (Map.Entry<String, Location> chunk : index.entrySet()) {
+            Map<String, Location> chunks = liveByPack.computeIfAbsent(chunk.getValue().getPack(), pack -> new LinkedHashMap<>());
+            if (live.contains(chunk.getKey())) {
+                chunks.put(chunk.getKey(), chunk.getValue());
+            }
+        }
+        for (long number : numbers(packs(), PACK_EXTENSION)) {
+            Map<String, Location> chunks = liveByPack.getOrDefault(number, Map.of());
+            long liveBytes = 0;
+            for (Location location : chunks.values()) {
+                liveBytes += Integer.BYTES + location.getLength();
+            }
+            if (liveBytes == 0) {
+                deletePack(number);
+            } else if (liveBytes < Files.size(packPath(number)) * REPACK_THRESHOLD) {
+                repack(number, chunks);
+            }
+        }
+    }
+
+    /**
+     * Copies the live chunks of a pack into a new one, unchanged, and deletes the old pack.
+     */
+    private void repack(long number, Map<String, Location> chunks) throws IOException, CryptoException {
+        try (PackWriter pack = new PackWriter(++lastNumber);
+             FileChannel source = FileChannel.open(packPath(number), StandardOpenOption.READ)) {
+            for (Map.Entry<String, Location> chunk : chunks.entrySet()) {
+                pack.copy(chunk.getKey(), readEntry(source, chunk.getValue()));
+            }
+            pack.finish();
+        }
+        deletePack(number);
+        System.out.println("Repacked " + chunks.size() + " live chunks of backup pack " + number);
+    }
+
+    private void deletePack(long number) throws IOException {
+        // The index goes first, so a pack is never listed without its file
+        Files.deleteIfExists(indexPath(number));
+        Files.deleteIfExists(packPath(number));
+        index.values().removeIf(location -> location.getPack() == number);
+    }
+
+    private byte[] idList(List<byte[]> payloads, PackWriter pack) throws IOException, CryptoException {
+        ByteBuffer ids = ByteBuffer.allocate(payloads.size() * ID_LENGTH);
+        for (byte[] payload : payloads) {
+            ids.put(pack.store(payload));
+        }
+        return ids.array();
+    }
+
+    private byte[] chunkId(byte[] payload) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(salt);
+            digest.update(payload);
+            return Arrays.copyOf(digest.digest(), ID_LENGTH);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Appends the new chunks of one run to a pack, created on the first chunk.
+     * Closing it before {@link #finish()} deletes the pack.
+     */
+    private final class PackWriter implements Closeable {
+        private final long number;
+        private final Map<String, Location> added = new LinkedHashMap<>();
+        private DataOutputStream out;
+        private long size;
+
+        PackWriter(long number) {
+            this.number = number;
+        }
+
+        /**
+         * Stores a chunk unless the store already has it.
+         * @return The chunk id
+         */
+        byte[] store(byte[] payload) throws IOException, CryptoException {
+            byte[] id = chunkId(payload);
+            String key = HEX.formatHex(id);
+            if (index.containsKey(key) || added.containsKey(key)) {
+                return id;
+            }
+            // The id is encrypted with the payload, so a chunk cannot be passed off as another
+            byte[] plaintext = new byte[ID_LENGTH + payload.length];
+            System.arraycopy(id, 0, plaintext, 0, ID_LENGTH);
+            System.arraycopy(payload, 0, plaintext, ID_LENGTH, payload.length);
+            byte[] ciphertext = new byte[plaintext.length + keys.getCiphertextOverhead()];
+            int length;
+            try {
+                length = keys.encrypt(plaintext, 0, plaintext.length, ciphertext, 0);
+            } finally {
+                Arrays.fill(plaintext, (byte) 0);
+            }
+            append(key, ciphertext, length);
+            return id;
+        }
+
+        /**
+         * Appends a chunk read from another pack as it is.
+         */
+        void copy(String key, byte[] ciphertext) throws IOException {
+            append(key, ciphertext, ciphertext.length);
+        }
+
+        private void append(String key, byte[] ciphertext, int length) throws IOException {
+            if (out == null) {
+                out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(packPath(number),
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)));
+            }
+            out.writeInt(length);
+            out.write(ciphertext, 0, length);
+            added.put(key, new Location(number, size, length));
+            size += Integer.BYTES + length;
+        }
+
+        /**
+         * Forces the pack to disk and publishes its index.
+         * @return Bytes written, index included
+         */
+        long finish() throws IOException, CryptoException {
+            if (out == null) {
+                return 0;
+            }
+            out.close();
+            out = null;
+            Path path = packPath(number);
+            StorageFiles.setOwnerOnlyPermissions(path);
+            StorageFiles.force(path);
+            writeDocument(indexPath(number), added);
+            index.putAll(added);
+            return size + Files.size(indexPath(number));
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out != null) {
+                out.close();
+                out = null;
+                Files.deleteIfExists(packPath(number));
+            }
+        }
+    }
+
+    /**
+     * Reads chunks, keeping each pack open until closed.
+     */
+    private final class ChunkReader implements Closeable {
+        private final Map<Long, FileChannel> channels = new HashMap<>();
+
+        byte[] read(String key) throws IOException, CryptoException {
+            Location location = index.get(key);
+            if (location == null) {
+                throw new CryptoException("Backup chunk " + key + " is missing");
+            }
+            FileChannel channel = channels.get(location.getPack());
+            if (channel == null) {
+                channel = FileChannel.open(packPath(location.getPack()), StandardOpenOption.READ);
+                channels.put(location.getPack(), channel);
+            }
+            byte[] chunk = readEntry(channel, location);
+            int length;
+            try {
+                length = keys.decrypt(chunk, 0, chunk.length);
+            } catch (CryptoException e) {
+                throw new CryptoException("Backup chunk " + key + " cannot be decrypted: " + e.getMessage(), e);
+            }
+            byte[] payload = Arrays.copyOfRange(chunk, ID_LENGTH, length);
+            Arrays.fill(chunk, (byte) 0);
+            if (!HEX.formatHex(chunkId(payload)).equals(key)) {
+                throw new CryptoException("Backup chunk " + key + " does not match its content");
+            }
+            return payload;
+        }
+
+        /**
+         * Reads a chunk holding a list of chunk ids.
+         */
+        List<String> readList(String key) throws IOException, CryptoException {
+            byte[] list = read(key);
+            List<String> ids = new ArrayList<>(list.length / ID_LENGTH);
+            for (int offset = 0; offset < list.length; offset += ID_LENGTH) {
+                ids.add(HEX.formatHex(list, offset, offset + ID_LENGTH));
+            }
+            return ids;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (FileChannel channel : channels.values()) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * @return The ciphertext of the chunk at a location
+     */
+    private static byte[] readEntry(FileChannel channel, Location location) throws IOException, CryptoException {
+        ByteBuffer entry = ByteBuffer.allocate(Integer.BYTES + location.getLength());
+        while (entry.hasRemaining()) {
+            if (channel.read(entry, location.getOffset() + entry.position()) < 0) {
+                throw new CryptoException("Backup pack " + location.getPack() + " is truncated");
+            }
+        }
+        entry.flip();
+        if (entry.getInt() != location.getLength()) {
+            throw new CryptoException("Backup pack " + location.getPack() + " does not match its index");
+        }
+        return Arrays.copyOfRange(entry.array(), Integer.BYTES, entry.limit());
+    }
+
+    private Point readPoint(long number) throws IOException, CryptoException {
+        Path path = pointPath(number);
+        if (!Files.exists(path)) {
+            throw new CryptoException("Backup point not found: " + number);
+        }
+        return readDocument(path, codec.getTypeFactory().constructType(Point.class));
+    }
+
+    private Map<String, Location> readIndex(long number) throws IOException, CryptoException {
+        TypeFactory types = codec.getTypeFactory();
+        return readDocument(indexPath(number), types.constructMapType(LinkedHashMap.class, String.class, Location.class));
+    }
+
+    /**
+     * Writes an encrypted document through a temporary file that replaces the target once on disk.
+     */
+    private void writeDocument(Path path, Object value) throws IOException, CryptoException {
+        writeDocument(path, null, value);
+    }
+
+    /**
+     * @param storeKey Wrapped key to write ahead of the ciphertext, or null for none
+     */
+    private void writeDocument(Path path, String storeKey, Object value) throws IOException, CryptoException {
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            PayloadFormat format = codec.getFormat();
+            OutputStream file = new BufferedOutputStream(Files.newOutputStream(tempPath));
+            if (storeKey != null) {
+                BackupKeys.writeHeader(file, storeKey);
+            }
+            try (OutputStream out = keys.newEncryptingStream(file)) {
+                codec.write(out, format, value);
+            }
+            StorageFiles.setOwnerOnlyPermissions(tempPath);
+            StorageFiles.force(tempPath);
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            StorageFiles.forceDirectory(path.getParent());
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    private <T> T readDocument(Path path, JavaType type) throws IOException, CryptoException {
+        InputStream file = MappedFileInputStream.open(path);
+        try (InputStream in = keys.newDecryptingStream(file)) {
+            return codec.read(in, type);
+        } catch (CryptoException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return Numbers of the files with the given extension in a directory, ascending
+     */
+    private static List<Long> numbers(Path dir, String extension) throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                Matcher matcher = NUMBERED_FILE.matcher(file.getFileName().toString());
+                if (matcher.matches() && matcher.group(2).equals(extension)) {
+                    numbers.add(Long.parseLong(matcher.group(1)));
+                }
+            }
+        }
+        numbers.sort(null);
+        return numbers;
+    }
+
+    private static void deleteTemporaryFiles(Path dir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.tmp")) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private Path packs() {
+        return directory.resolve(PACKS_DIR);
+    }
+
+    private Path points() {
+        return directory.resolve(POINTS_DIR);
+    }
+
+    private Path packPath(long number) {
+        return packs().resolve(number + PACK_EXTENSION);
+    }
+
+    private Path indexPath(long number) {
+        return packs().resolve(number + INDEX_EXTENSION);
+    }
+
+    private Path pointPath(long number) {
+        return points().resolve(number + POINT_EXTENSION);
+    }
+
+    /**
+     * Where a chunk is stored: its pack and the offset of its [length][ciphertext] entry.
+     */
+    static final class Location {
+        private long pack;
+        private long offset;
+        private int length;
+
+        Location() {
+        }
+
+        Location(long pack, long offset, int length) {
+            this.pack = pack;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public long getPack() { return pack; }
+        public void setPack(long pack) { this.pack = pack; }
+
+        public long getOffset() { return offset; }
+        public void setOffset(long offset) { this.offset = offset; }
+
+        public int getLength() { return length; }
+        public void setLength(int length) { this.length = length; }
+    }
+
+    /**
+     * A storage file in a restore point.
+     */
+    static final class Document {
+        private String chunk;
+        private PayloadFormat format;
+
+        Document() {
+        }
+
+        Document(String chunk, PayloadFormat format) {
+            this.chunk = chunk;
+            this.format = format;
+        }
+
+        public String getChunk() { return chunk; }
+        public void setChunk(String chunk) { this.chunk = chunk; }
+
+        public PayloadFormat getFormat() { return format; }
+        public void setFormat(PayloadFormat format) { this.format = format; }
+    }
+
+    /**
+     * The serialized restore point. The password and category lists are chunks of concatenated chunk ids.
+     */
+    static final class Point {
+        private BackupPoint summary;
+        private String passwords;
+        private String categories;
+        private Map<String, Document> documents = new TreeMap<>();
+
+        public BackupPoint getSummary() { return summary; }
+        public void setSummary(BackupPoint summary) { this.summary = summary; }
+
+        public String getPasswords() { return passwords; }
+        public void setPasswords(String passwords) { this.passwords = passwords; }
+
+        public String getCategories() { return categories; }
+        public void setCategories(String categories) { this.categories = categories; }
+
+        public Map<String, Document> getDocuments() { return documents; }
+        public void setDocuments(Map<String, Document> documents) { this.documents = documents; }
+    }
+}
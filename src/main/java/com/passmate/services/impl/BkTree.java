@@ -0,0 +1,122 @@
+package com.passmate.services.impl;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Burkhard-Keller tree of words under edit distance, finding the words within a distance of a
+ * query while comparing it with only part of them: a child is kept under its distance from its
+ * parent, so by the triangle inequality only children at the parent's distance from the query,
+ * give or take the bound, can hold matches. Words cannot be removed; build a new tree instead.
+ * Not thread-safe: distances are computed in rows the tree reuses.
+ */
+final class BkTree {
+
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private Node root;
+    private int size;
+    private int[] previous = new int[16];
+    private int[] current = new int[16];
+
+    /**
+     * Receives a word found by a search and its distance from the query.
+     */
+    interface Visitor {
+        void found(String word, int distance);
+    }
+
+    private static final class Node {
+        final String word;
+        /** Children by their distance from this word. */
+        Node[] children = NO_CHILDREN;
+
+        Node(String word) {
+            this.word = word;
+        }
+    }
+
+    void add(String word) {
+        if (root == null) {
+            root = new Node(word);
+            size++;
+            return;
+        }
+        Node node = root;
+        while (true) {
+            int distance = distance(node.word, word);
+            if (distance == 0) {
+                return;
+            }
+            if (distance >= node.children.length) {
+                node.children = Arrays.copyOf(node.children, distance + 1);
+            }
+            if (node.children[distance] == null) {
+                node.children[distance] = new Node(word);
+                size++;
+                return;
+            }
+            node = node.children[distance];
+        }
+    }
+
+    /**
+     * Hands the visitor every word within the given distance of the query, in no particular order.
+     */
+    void search(String query, int maxDistance, Visitor visitor) {
+        if (root == null) {
+            return;
+        }
+        ArrayDeque<Node> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            int distance = distance(node.word, query);
+            if (distance <= maxDistance) {
+                visitor.found(node.word, distance);
+            }
+            int to = Math.min(node.children.length - 1, distance + maxDistance);
+            for (int i = Math.max(1, distance - maxDistance); i <= to; i++) {
+                if (node.children[i] != null) {
+                    pending.push(node.children[i]);
+                }
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return The Levenshtein distance: the fewest inserted, deleted or replaced characters turning one word into the other
+     */
+    int distance(String a, String b) {
+        if (a.length() < b.length()) {
+            String shorter = a;
+            a = b;
+            b = shorter;
+        }
+        if (b.length() >= previous.length) {
+            previous = new int[b.length() + 1];
+            current = new int[b.length() + 1];
+        }
+        int[] previous = this.previous;
+        int[] current = this.current;
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            char c = a.charAt(i - 1);
+            for (int j = 1; j <= b.length(); j++) {
+                int replace = previous[j - 1] + (c == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(replace, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+}
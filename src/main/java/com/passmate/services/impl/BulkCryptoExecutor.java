@@ -0,0 +1,115 @@
+package com.passmate.services.impl;
+
+import com.passmate.services.BulkOperation;
+import com.passmate.services.ProgressListener;
+import com.passmate.services.exceptions.CryptoException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs per-entry crypto work for whole-vault operations on a bounded ForkJoin pool.
+ * Inputs are split into chunks so cheap operations (session decrypt) amortize scheduling overhead
+ * while expensive ones (legacy PBKDF2 decrypt) still spread over every worker.
+ */
+public class BulkCryptoExecutor {
+
+    /**
+     * Crypto operation applied to a single input value.
+     */
+    @FunctionalInterface
+    public interface ItemFunction {
+        String apply(String input) throws CryptoException;
+    }
+
+    private static final int MAX_CHUNK_SIZE = 256;
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    private final ForkJoinPool pool;
+
+    public BulkCryptoExecutor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public BulkCryptoExecutor(int parallelism) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.pool = new ForkJoinPool(parallelism, p -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setName("PassMate-crypto-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Applies {@code function} to every input value in parallel.
+     * @param inputs Input values keyed by entry id; must not be modified while the operation runs
+     * @param function The per-entry operation
+     * @param listener Progress listener, called on worker threads
+     * @return Handle completing with the results keyed by entry id
+     */
+    public BulkOperation<Map<String, String>> submit(Map<String, String> inputs, ItemFunction function,
+                                                     ProgressListener listener) {
+        List<Map.Entry<String, String>> items = new ArrayList<>(inputs.entrySet());
+        int total = items.size();
+        int chunkSize = Math.max(1, Math.min(MAX_CHUNK_SIZE,
+            (total + pool.getParallelism() * CHUNKS_PER_WORKER - 1) / (pool.getParallelism() * CHUNKS_PER_WORKER)));
+
+        AtomicBoolean cancelled = new AtomicBoolean();
+        AtomicReference<CryptoException> failure = new AtomicReference<>();
+        AtomicInteger completed = new AtomicInteger();
+        Map<String, String> results = new ConcurrentHashMap<>(Math.max(16, total * 2));
+        ProgressListener progress = listener != null ? listener : ProgressListener.NONE;
+
+        List<CompletableFuture<Void>> chunks = new ArrayList<>();
+        for (int start = 0; start < total; start += chunkSize) {
+            List<Map.Entry<String, String>> chunk = items.subList(start, Math.min(total, start + chunkSize));
+            chunks.add(CompletableFuture.runAsync(() -> {
+                for (Map.Entry<String, String> item : chunk) {
+                    if (cancelled.get() || failure.get() != null) {
+                        throw new CancellationException();
+                    }
+                    try {
+                        results.put(item.getKey(), function.apply(item.getValue()));
+                    } catch (CryptoException e) {
+                        failure.compareAndSet(null,
+                            new CryptoException("Bulk operation failed for entry " + item.getKey() + ": " + e.getMessage(), e));
+                        throw e;
+                    }
+                    progress.onProgress(completed.incrementAndGet(), total);
+                }
+            }, pool));
+        }
+
+        CompletableFuture<Map<String, String>> result = CompletableFuture
+            .allOf(chunks.toArray(new CompletableFuture<?>[0]))
+            .handle((done, error) -> {
+                // Report the root failure rather than the cancellations it caused in other chunks
+                if (failure.get() != null) {
+                    throw failure.get();
+                }
+                if (error != null) {
+                    throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+                }
+                return results;
+            });
+        return new BulkOperation<>(result, cancelled);
+    }
+
+    /**
+     * @return The maximum number of worker threads
+     */
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+}
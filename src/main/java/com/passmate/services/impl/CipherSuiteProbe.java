@@ -0,0 +1,142 @@
+package com.passmate.services.impl;
+
+import com.passmate.services.CipherSuite;
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Picks the fastest AEAD suite on the current CPU.
+ * AES-GCM wins by a wide margin with AES instructions, ChaCha20-Poly1305 without them
+ * (e.g. VMs that do not pass AES-NI through).
+ *
+ * When the JVM reports hardware AES support, AES-GCM is chosen outright: its intrinsics only
+ * kick in once the JIT has fully compiled the GCM code, long after a startup probe could see
+ * them. Otherwise both suites run in software and a micro-probe compares them fairly. The
+ * probe runs once per process on a low-priority background thread so unlock does not wait for
+ * it; AES-GCM is reported until it finishes, and since every ciphertext names its suite,
+ * switching mid-session is harmless.
+ */
+public final class CipherSuiteProbe {
+
+    public static final CipherSuite DEFAULT_SUITE = CipherSuite.AES_256_GCM;
+    public static final long DEFAULT_BUDGET_MILLIS = 300;
+
+    private static final int PAYLOAD_SIZE = 16 * 1024;
+    private static final int MIN_ROUNDS = 3;
+    private static final AtomicBoolean STARTED = new AtomicBoolean();
+
+    private static volatile CipherSuite fastest;
+
+    private CipherSuiteProbe() {
+    }
+
+    /**
+     * Starts the background probe unless it already ran.
+     */
+    public static void start() {
+        if (!STARTED.compareAndSet(false, true)) {
+            return;
+        }
+        if (hasHardwareAes()) {
+            fastest = CipherSuite.AES_256_GCM;
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            CipherSuite suite = select(measure(DEFAULT_BUDGET_MILLIS));
+            fastest = suite;
+            System.out.println("Cipher suite probe selected " + suite);
+        }, "PassMate-cipher-probe");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * @return true if the JVM uses AES instructions; false if it does not or cannot tell
+     */
+    public static boolean hasHardwareAes() {
+        try {
+            HotSpotDiagnosticMXBean hotSpot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            return hotSpot != null && Boolean.parseBoolean(hotSpot.getVMOption("UseAES").getValue());
+        } catch (RuntimeException e) {
+            // Not a HotSpot VM or no such flag on this platform
+            return false;
+        }
+    }
+
+    /**
+     * @return The fastest suite on this machine, or {@link #DEFAULT_SUITE} while the probe is running
+     */
+    public static CipherSuite fastest() {
+        start();
+        CipherSuite suite = fastest;
+        return suite != null ? suite : DEFAULT_SUITE;
+    }
+
+    /**
+     * Measures encryption throughput of every suite.
+     * Suites run in alternating rounds so JIT warm-up affects them equally, and the best
+     * round of each suite is reported since noise only ever slows a round down.
+     * @param budgetMillis Approximate total time to spend
+     * @return Throughput in MB/s per suite; suites unavailable in this JDK are omitted
+     */
+    public static Map<CipherSuite, Double> measure(long budgetMillis) {
+        // Key and payload contents do not affect speed
+        byte[] key = new byte[32];
+        byte[] payload = new byte[PAYLOAD_SIZE];
+        byte[] output = new byte[PAYLOAD_SIZE + CipherSuite.TAG_LENGTH];
+        byte[] nonce = new byte[CipherSuite.NONCE_LENGTH];
+
+        Map<CipherSuite, Cipher> ciphers = new EnumMap<>(CipherSuite.class);
+        for (CipherSuite suite : CipherSuite.values()) {
+            try {
+                ciphers.put(suite, Cipher.getInstance(suite.getTransformation()));
+            } catch (GeneralSecurityException e) {
+                // Not provided by this JDK, never selected
+            }
+        }
+
+        Map<CipherSuite, Double> best = new EnumMap<>(CipherSuite.class);
+        long deadline = System.nanoTime() + budgetMillis * 1_000_000L;
+        int counter = 0;
+        for (int round = 0; round < MIN_ROUNDS || System.nanoTime() < deadline; round++) {
+            for (Iterator<Map.Entry<CipherSuite, Cipher>> it = ciphers.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<CipherSuite, Cipher> entry = it.next();
+                CipherSuite suite = entry.getKey();
+                try {
+                    // ChaCha20-Poly1305 refuses to reuse a nonce, so every probe gets a fresh one
+                    ByteBuffer.wrap(nonce).putInt(++counter);
+                    long start = System.nanoTime();
+                    Cipher cipher = entry.getValue();
+                    suite.init(cipher, Cipher.ENCRYPT_MODE, new SecretKeySpec(key, suite.getKeyAlgorithm()), nonce, 0);
+                    cipher.doFinal(payload, 0, payload.length, output, 0);
+                    double micros = Math.max((System.nanoTime() - start) / 1e3, 0.001);
+                    best.merge(suite, payload.length / micros, Math::max);
+                } catch (GeneralSecurityException e) {
+                    it.remove();
+                    best.remove(suite);
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return The suite with the highest throughput, {@link #DEFAULT_SUITE} if nothing could be measured
+     */
+    public static CipherSuite select(Map<CipherSuite, Double> throughput) {
+        return throughput.entrySet().stream()
+            .max(Map.Entry.comparingByValue())
+            .map(Map.Entry::getKey)
+            .orElse(DEFAULT_SUITE);
+    }
+}
@@ -0,0 +1,62 @@
+package com.passmate.services.impl;
+
+import com.passmate.services.CipherSuite;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+/**
+ * Thread-safe holder of reusable JCA objects.
+ * Provider lookups via {@code getInstance} are done once per thread and cipher suite instead of
+ * once per call; {@link SecureRandom} is thread-safe and shared by all threads.
+ */
+final class CryptoContext {
+
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+    private final String keyDerivationAlgorithm;
+    private final ThreadLocal<Cipher[]> ciphers;
+    private final ThreadLocal<SecretKeyFactory> keyFactories;
+
+    CryptoContext(String keyDerivationAlgorithm) {
+        this.keyDerivationAlgorithm = keyDerivationAlgorithm;
+        this.ciphers = ThreadLocal.withInitial(() -> new Cipher[CipherSuite.values().length]);
+        this.keyFactories = new ThreadLocal<>();
+    }
+
+    /**
+     * Returns this thread's cipher for the suite. Callers must fully initialize it before use and
+     * must not keep it beyond a single operation, since the next call on the same thread reuses it.
+     */
+    Cipher cipher(CipherSuite suite) throws GeneralSecurityException {
+        Cipher[] perSuite = ciphers.get();
+        Cipher cipher = perSuite[suite.ordinal()];
+        if (cipher == null) {
+            cipher = Cipher.getInstance(suite.getTransformation());
+            perSuite[suite.ordinal()] = cipher;
+        }
+        return cipher;
+    }
+
+    /**
+     * Returns a cipher owned by the caller, for long-lived users such as streams.
+     */
+    Cipher newCipher(CipherSuite suite) throws GeneralSecurityException {
+        return Cipher.getInstance(suite.getTransformation());
+    }
+
+    SecretKeyFactory keyFactory() throws GeneralSecurityException {
+        SecretKeyFactory factory = keyFactories.get();
+        if (factory == null) {
+            factory = SecretKeyFactory.getInstance(keyDerivationAlgorithm);
+            keyFactories.set(factory);
+        }
+        return factory;
+    }
+
+    void nextBytes(byte[] bytes) {
+        SECURE_RANDOM.nextBytes(bytes);
+    }
+}
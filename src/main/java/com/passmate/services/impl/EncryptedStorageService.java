@@ -1,22 +1,47 @@
 package com.passmate.services.impl;
 
+import com.passmate.models.BackupPoint;
+import com.passmate.models.BackupVerification;
 import com.passmate.models.Password;
+import com.passmate.models.PasswordSummary;
 import com.passmate.models.Category;
+import com.passmate.models.KeyRotationCheckpoint;
 import com.passmate.models.Vault;
 import com.passmate.models.StorageData;
+import com.passmate.services.StorageChanges;
 import com.passmate.services.StorageService;
+import com.passmate.services.CipherSuite;
+import com.passmate.services.Compression;
 import com.passmate.services.EncryptionService;
+import com.passmate.services.PayloadFormat;
 import com.passmate.services.exceptions.CryptoException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.type.TypeFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
- * Implementation of StorageService that encrypts all data using AES and stores it in JSON files.
- * All passwords, categories, vaults, and settings are encrypted before storage.
+ * Implementation of StorageService that encrypts all data using AES and stores it in binary files.
+ * All passwords, categories, vaults, and settings are serialized (Smile by default, see {@link PayloadFormat}),
+ * optionally compressed (see {@link Compression}) and encrypted before storage.
+ * Single password and category changes are appended to an encrypted journal and folded into the
+ * snapshot files once the journal outgrows them. Data files are replaced through manifest commits,
+ * so files written together become visible together and an unlock only sees one consistent generation.
  */
 public class EncryptedStorageService implements StorageService {
 
@@ -25,17 +50,38 @@ public class EncryptedStorageService implements StorageService {
     private static final String CATEGORIES_FILE = "categories.enc";
     private static final String VAULT_FILE = "vault.enc";
     private static final String SETTINGS_FILE = "settings.enc";
+    private static final String ROTATION_CHECKPOINT_FILE = "rotation.enc";
+    private static final String JOURNAL_FILE = "journal.enc";
+    /** List fields of every password, rewritten whenever the password file is; see {@link #streamSummaries()}. */
+    private static final String SUMMARIES_FILE = "summaries.enc";
+    /** Files the journal applies to, in the order of the snapshot indices below. */
+    private static final List<String> SNAPSHOT_FILES = List.of(PASSWORDS_FILE, CATEGORIES_FILE);
+    private static final int PASSWORDS_SNAPSHOT = 0;
+    private static final int CATEGORIES_SNAPSHOT = 1;
+    /** Journal size below which compaction is never due, however small the snapshots are. */
+    private static final long MIN_JOURNAL_COMPACTION_BYTES = 256 * 1024;
+    private static final List<String> DATA_FILES = List.of(PASSWORDS_FILE, CATEGORIES_FILE, VAULT_FILE, SETTINGS_FILE);
+    /** Files listed in the vault manifest. */
+    private static final List<String> MANIFEST_FILES = List.of(PASSWORDS_FILE, CATEGORIES_FILE, VAULT_FILE,
+        SETTINGS_FILE, ROTATION_CHECKPOINT_FILE);
+    /** Header of the single-message binary format: [magic][iv][ciphertext+tag]. Read-only; superseded by the streaming format. */
+    private static final byte[] BINARY_MAGIC = {(byte) 0x89, 'P', 'M', 'B'};
+    /** Header of the segmented streaming format written by {@link EncryptionService#newEncryptingStream}. */
+    private static final byte[] STREAM_MAGIC = {(byte) 0x89, 'P', 'M', 'S'};
     private static final String BACKUP_EXTENSION = ".backup";
 
     private final EncryptionService encryptionService;
-    private final ObjectMapper objectMapper;
+    private final PayloadCodec codec;
     private char[] masterKey;
     private Path storagePath;
+    private VaultKeyFile keyFile;
+    private VaultManifest manifest;
+    private VaultJournal journal;
+    private BackupStore backupStore;
 
     public EncryptedStorageService(EncryptionService encryptionService) {
         this.encryptionService = encryptionService;
-        this.objectMapper = new ObjectMapper();
-        this.objectMapper.configure(SerializationFeature.INDENT_OUTPUT, true);
+        this.codec = new PayloadCodec(PayloadFormat.SMILE, Compression.NONE);
     }
 
     @Override
@@ -46,17 +92,24 @@ public class EncryptedStorageService implements StorageService {
 
         this.masterKey = Arrays.copyOf(masterKey, masterKey.length);
         this.storagePath = Paths.get(STORAGE_DIR);
+        this.keyFile = new VaultKeyFile(storagePath);
+        this.manifest = new VaultManifest(storagePath, encryptionService, codec.getJsonMapper());
+        this.journal = new VaultJournal(storagePath.resolve(JOURNAL_FILE), SNAPSHOT_FILES, manifest, encryptionService);
 
         try {
-            // Create storage directory if it doesn't exist
-            Files.createDirectories(storagePath);
-
-            // Set directory permissions (owner only)
-            if (!System.getProperty("os.name").toLowerCase().contains("windows")) {
-                Files.setPosixFilePermissions(storagePath,
-                    Set.of(java.nio.file.attribute.PosixFilePermission.OWNER_READ,
-                           java.nio.file.attribute.PosixFilePermission.OWNER_WRITE,
-                           java.nio.file.attribute.PosixFilePermission.OWNER_EXECUTE));
+            // Create storage directory (owner only) if it doesn't exist
+            StorageFiles.createPrivateDirectory(storagePath);
+
+            // Unlock the vault data key once for the whole session
+            keyFile.openSession(encryptionService, masterKey);
+            manifest.load();
+            migrateLegacyFiles();
+            keyFile.writeCreatedKey();
+            try {
+                migratePayloadFormat();
+            } catch (CryptoException e) {
+                // Files in the old format stay readable; the migration is retried on the next unlock
+                System.err.println("Payload format migration failed: " + e.getMessage());
             }
 
             System.out.println("Encrypted storage initialized at: " + storagePath.toString());
@@ -68,45 +121,96 @@ public class EncryptedStorageService implements StorageService {
 
     @Override
     public void savePasswords(List<Password> passwords) throws CryptoException {
+        savePasswords(passwords, getJournalMark());
+    }
+
+    /**
+     * Saves a password snapshot that may lag behind the journal, such as one taken on another thread.
+     * @param passwords The passwords to save
+     * @param mark Journal mark read before the list was copied; journaled changes after it are kept
+     * @throws CryptoException If encryption/saving fails
+     */
+    public void savePasswords(List<Password> passwords, long mark) throws CryptoException {
         validateInitialized();
-        saveEncryptedData(passwords, PASSWORDS_FILE);
+        saveSnapshot(PASSWORDS_SNAPSHOT, passwords, mark);
         System.out.println("Saved " + passwords.size() + " passwords to encrypted storage");
     }
 
     @Override
     public List<Password> loadPasswords() throws CryptoException {
         validateInitialized();
-        List<Password> passwords = loadEncryptedData(PASSWORDS_FILE,
-            objectMapper.getTypeFactory().constructCollectionType(List.class, Password.class));
-
-        if (passwords == null) {
-            passwords = new ArrayList<>();
-        }
+        List<Password> passwords = collectSnapshot(PASSWORDS_SNAPSHOT, openSnapshot(PASSWORDS_FILE),
+            Password.class, Password::getId, List.of());
 
         System.out.println("Loaded " + passwords.size() + " passwords from encrypted storage");
         return passwords;
     }
 
+    /**
+     * Streams the passwords as they are decrypted and parsed, with journaled changes applied, in the
+     * order {@link #loadPasswords()} returns them. Only the entry being parsed and the journaled
+     * changes are held in memory, so the first entries are available long before the file is read.
+     * Every segment is authenticated before it is parsed; the check that the file is the one the
+     * manifest names completes when the stream is closed, which callers must do.
+     * @throws CryptoException If the file cannot be opened; failures while streaming are thrown by
+     *         the stream operations
+     */
+    public Stream<Password> streamPasswords() throws CryptoException {
+        validateInitialized();
+        return streamSnapshot(PASSWORDS_SNAPSHOT, openSnapshot(PASSWORDS_FILE), Password.class, Password::getId, List.of());
+    }
+
+    /**
+     * Streams the list fields of the passwords, with journaled changes applied, in the order of
+     * {@link #loadPasswords()}. They come from a summary file a fraction of the size of the password
+     * file, so the first entries of the list can be shown right after unlock; vaults without a
+     * summary file matching the current password file, such as those last saved by an older
+     * version, fall back to streaming the password file. The caller closes the stream.
+     * @throws CryptoException If the file cannot be opened; failures while streaming are thrown by
+     *         the stream operations
+     */
+    public Stream<PasswordSummary> streamSummaries() throws CryptoException {
+        validateInitialized();
+        InputStream file = openSnapshot(SUMMARIES_FILE);
+        if (file == null) {
+            return streamPasswords().map(PasswordSummary::of);
+        }
+        String passwordsFile = manifest.contains(PASSWORDS_FILE)
+            ? manifest.resolve(PASSWORDS_FILE).getFileName().toString() : "";
+        MappingIterator<PasswordSummary> parsed;
+        try {
+            DataInputStream in = new DataInputStream(encryptionService.newDecryptingStream(file));
+            try {
+                if (!in.readUTF().equals(passwordsFile)) {
+                    in.close();
+                    return streamPasswords().map(PasswordSummary::of);
+                }
+                parsed = codec.readElements(in, codec.getTypeFactory().constructType(PasswordSummary.class));
+            } catch (IOException e) {
+                closeQuietly(in, e);
+                throw e;
+            }
+        } catch (Exception e) {
+            closeQuietly(file, e);
+            throw new CryptoException("Failed to load encrypted data from " + SUMMARIES_FILE + ": " + e.getMessage(), e);
+        }
+        JavaType passwordType = codec.getTypeFactory().constructType(Password.class);
+        return replayJournal(PASSWORDS_SNAPSHOT, SUMMARIES_FILE, parsed, PasswordSummary::getId, List.of(),
+            payload -> PasswordSummary.of(codec.<Password>read(payload, passwordType)));
+    }
+
     @Override
     public void saveCategories(List<Category> categories) throws CryptoException {
         validateInitialized();
-        saveEncryptedData(categories, CATEGORIES_FILE);
+        saveSnapshot(CATEGORIES_SNAPSHOT, categories, getJournalMark());
         System.out.println("Saved " + categories.size() + " categories to encrypted storage");
     }
 
     @Override
     public List<Category> loadCategories() throws CryptoException {
         validateInitialized();
-        List<Category> categories = loadEncryptedData(CATEGORIES_FILE,
-            objectMapper.getTypeFactory().constructCollectionType(List.class, Category.class));
-
-        if (categories == null) {
-            categories = new ArrayList<>();
-            // Add default categories
-            categories.add(new Category("personal", "Personal", "folder-personal-icon"));
-            categories.add(new Category("work", "Work", "folder-work-icon"));
-            categories.add(new Category("games", "Games", "folder-games-icon"));
-        }
+        List<Category> categories = collectSnapshot(CATEGORIES_SNAPSHOT, openSnapshot(CATEGORIES_FILE),
+            Category.class, Category::getId, defaultCategories());
 
         System.out.println("Loaded " + categories.size() + " categories from encrypted storage");
         return categories;
@@ -125,8 +229,7 @@ public class EncryptedStorageService implements StorageService {
         Vault vault = loadEncryptedData(VAULT_FILE, Vault.class);
 
         if (vault == null) {
-            // Create default vault
-            vault = new Vault("My Vault", "Default User");
+            vault = defaultVault();
         }
 
         System.out.println("Loaded vault configuration from encrypted storage");
@@ -147,38 +250,85 @@ public class EncryptedStorageService implements StorageService {
         Map<String, Object> settings = loadEncryptedData(SETTINGS_FILE, Map.class);
 
         if (settings == null) {
-            settings = new HashMap<>();
-            // Add default settings
-            settings.put("theme", "light");
-            settings.put("autoLock", true);
-            settings.put("autoLockTimeout", 300); // 5 minutes
-            settings.put("clipboardTimeout", 30); // 30 seconds
-            settings.put("showToasts", true);
+            settings = defaultSettings();
         }
 
         System.out.println("Loaded application settings from encrypted storage");
         return settings;
     }
 
+    /**
+     * Loads passwords, categories, vault and settings together for unlock, decrypting the four files
+     * in parallel. The files are opened at once, so they belong to one generation even if a save is
+     * published meanwhile; journaled changes are applied as by the single loads.
+     * @param executor Runs the load of each file
+     * @param timings Receives the time each file took to load, by file name, in milliseconds
+     * @return The loaded data, with defaults for files that do not exist yet
+     * @throws CryptoException If any file cannot be loaded
+     */
+    public StorageData loadAll(Executor executor, BiConsumer<String, Double> timings) throws CryptoException {
+        validateInitialized();
+        List<InputStream> files;
+        try {
+            files = manifest.newInputStreams(DATA_FILES);
+        } catch (IOException e) {
+            throw new CryptoException("Failed to open storage files: " + e.getMessage(), e);
+        }
+        TypeFactory types = codec.getTypeFactory();
+
+        CompletableFuture<List<Password>> passwords = loadAsync(executor, timings, PASSWORDS_FILE, () ->
+            collectSnapshot(PASSWORDS_SNAPSHOT, files.get(0), Password.class, Password::getId, List.of()));
+        CompletableFuture<List<Category>> categories = loadAsync(executor, timings, CATEGORIES_FILE, () ->
+            collectSnapshot(CATEGORIES_SNAPSHOT, files.get(1), Category.class, Category::getId, defaultCategories()));
+        CompletableFuture<Vault> vault = loadAsync(executor, timings, VAULT_FILE, () -> {
+            Vault loaded = readEncryptedData(VAULT_FILE, files.get(2), types.constructType(Vault.class));
+            return loaded != null ? loaded : defaultVault();
+        });
+        CompletableFuture<Map<String, Object>> settings = loadAsync(executor, timings, SETTINGS_FILE, () -> {
+            Map<String, Object> loaded = readEncryptedData(SETTINGS_FILE, files.get(3), types.constructType(Map.class));
+            return loaded != null ? loaded : defaultSettings();
+        });
+
+        try {
+            CompletableFuture.allOf(passwords, categories, vault, settings).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof CryptoException) {
+                throw (CryptoException) e.getCause();
+            }
+            throw new CryptoException("Failed to load storage: " + e.getCause().getMessage(), e.getCause());
+        }
+        StorageData data = new StorageData(passwords.join(), categories.join(), vault.join(), settings.join());
+        System.out.println("Loaded " + data.getPasswords().size() + " passwords, " + data.getCategories().size()
+            + " categories, vault and settings from encrypted storage");
+        return data;
+    }
+
     @Override
     public boolean storageExists() {
         if (storagePath == null) return false;
 
-        return Files.exists(storagePath.resolve(PASSWORDS_FILE)) ||
-               Files.exists(storagePath.resolve(CATEGORIES_FILE)) ||
-               Files.exists(storagePath.resolve(VAULT_FILE)) ||
-               Files.exists(storagePath.resolve(SETTINGS_FILE));
+        return manifest.exists(PASSWORDS_FILE) ||
+               manifest.exists(CATEGORIES_FILE) ||
+               Files.exists(storagePath.resolve(JOURNAL_FILE)) ||
+               manifest.exists(VAULT_FILE) ||
+               manifest.exists(SETTINGS_FILE);
     }
 
     @Override
     public void clearStorage() throws CryptoException {
         validateInitialized();
 
-        try {
-            deleteFileIfExists(PASSWORDS_FILE);
-            deleteFileIfExists(CATEGORIES_FILE);
-            deleteFileIfExists(VAULT_FILE);
-            deleteFileIfExists(SETTINGS_FILE);
+        try (VaultManifest.Commit commit = manifest.begin()) {
+            journal.delete();
+            for (String filename : DATA_FILES) {
+                if (manifest.contains(filename)) {
+                    commit.remove(filename);
+                }
+            }
+            if (manifest.contains(SUMMARIES_FILE)) {
+                commit.remove(SUMMARIES_FILE);
+            }
+            commit.publish();
 
             System.out.println("Cleared all encrypted storage files");
 
@@ -201,12 +351,11 @@ public class EncryptedStorageService implements StorageService {
             allData.setCategories(loadCategories());
             allData.setVault(loadVault());
             allData.setSettings(loadSettings());
+            allData.setPasswordCount(allData.getPasswords().size());
+            allData.setCategoryCount(allData.getCategories().size());
 
             // Encrypt and save backup
-            String json = objectMapper.writeValueAsString(allData);
-            String encryptedData = encryptionService.encrypt(json, masterKey);
-
-            Files.write(backup, encryptedData.getBytes());
+            writeEncryptedFile(backup, allData);
 
             System.out.println("Created encrypted backup at: " + backupPath);
 
@@ -225,101 +374,1068 @@ public class EncryptedStorageService implements StorageService {
                 throw new CryptoException("Backup file not found: " + backupPath);
             }
 
-            // Read and decrypt backup
-            String encryptedData = new String(Files.readAllBytes(backup));
-            String json = encryptionService.decrypt(encryptedData, masterKey);
+            // Stage each file while the backup is parsed, one entry at a time, and publish them in one
+            // commit only once all of the backup is authenticated, so a bad or partial backup changes nothing
+            long mark = journal.mark();
+            int restored;
+            try (VaultManifest.Commit commit = manifest.begin()) {
+                try (BackupKeys keys = backupKeys();
+                     InputStream in = openEncryptedFile(backup, keys);
+                     JsonParser parser = codec.parse(in)) {
+                    restored = stageBackup(commit, parser);
+                }
+                publish(commit, mark);
+            }
 
-            StorageData allData = objectMapper.readValue(json, StorageData.class);
+            System.out.println("Restored " + restored + " entries from backup: " + backupPath);
 
-            // Restore all data
-            if (allData.getPasswords() != null) {
-                savePasswords(allData.getPasswords());
+        } catch (Exception e) {
+            throw new CryptoException("Failed to restore from backup: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Keeps the master key for checking backups, which open with the key they carry. Nothing in
+     * the storage directory is read or written, so this works without a vault on this machine.
+     * Vault operations stay unavailable until {@link #initialize(char[])}.
+     */
+    public void unlockBackups(char[] masterKey) throws CryptoException {
+        if (masterKey == null || masterKey.length == 0) {
+            throw new CryptoException("Master key cannot be null or empty");
+        }
+        this.masterKey = Arrays.copyOf(masterKey, masterKey.length);
+    }
+
+    /**
+     * Checks backup files without restoring them, several at a time: every segment is authenticated,
+     * every entry parsed and the counts a backup records compared with the entries it holds.
+     * Each distinct backup key is unwrapped once with the master key, so this also works after
+     * {@link #unlockBackups(char[])}; backups written before they carried their key need the vault unlocked.
+     * @param executor Runs the check of each file
+     * @return One result per file, in the order given; corrupt files are reported there, not thrown
+     */
+    public List<BackupVerification> verifyBackups(List<Path> backups, Executor executor) throws CryptoException {
+        if (masterKey == null) {
+            throw new CryptoException("Storage service not unlocked. Call initialize() or unlockBackups() first.");
+        }
+        List<CompletableFuture<BackupVerification>> checks = new ArrayList<>(backups.size());
+        try (BackupKeys keys = backupKeys()) {
+            for (Path backup : backups) {
+                checks.add(CompletableFuture.supplyAsync(() -> verifyBackup(backup, keys), executor));
+            }
+            return checks.stream().map(CompletableFuture::join).collect(Collectors.toList());
+        }
+    }
+
+    private BackupVerification verifyBackup(Path backup, BackupKeys keys) {
+        long start = System.nanoTime();
+        BackupVerification result = new BackupVerification(backup.toString(), 0);
+        try {
+            result.setBytes(Files.size(backup));
+            BackupDocument.Contents contents;
+            try (InputStream in = openEncryptedFile(backup, keys);
+                 JsonParser parser = codec.parse(in)) {
+                contents = BackupDocument.read(parser, new BackupDocument.Visitor() { });
+            }
+            result.setPasswords(contents.getPasswords());
+            result.setCategories(contents.getCategories());
+            result.setVault(contents.hasVault());
+            result.setSettings(contents.hasSettings());
+        } catch (Exception e) {
+            result.setError(e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+        result.setMillis((System.nanoTime() - start) / 1e6);
+        return result;
+    }
+
+    /**
+     * Adds a restore point to the incremental backup in a directory, creating it on first use.
+     * Unlike {@link #backupData(String)}, nothing is loaded from storage and only records and files
+     * no earlier point holds are encrypted and written, so a run after a few edits writes a few chunks
+     * and the new order of the lists.
+     * @param directory The backup directory, used only for incremental backups
+     * @param passwords All passwords, such as those held by the application
+     * @param categories All categories
+     * @return The new point
+     * @throws CryptoException If the point cannot be written; earlier points stay intact
+     */
+    public BackupPoint createBackupPoint(String directory, List<Password> passwords, List<Category> categories)
+            throws CryptoException {
+        validateInitialized();
+        try {
+            BackupStore.Contents contents = new BackupStore.Contents();
+            for (Password password : passwords) {
+                contents.passwords.add(codec.writeRecord(password));
+            }
+            for (Category category : categories) {
+                contents.categories.add(codec.writeRecord(category));
             }
-            if (allData.getCategories() != null) {
-                saveCategories(allData.getCategories());
+            // Other files are kept as they are stored, without binding them to model classes
+            for (String filename : DATA_FILES) {
+                if (SNAPSHOT_FILES.contains(filename) || !manifest.contains(filename)) {
+                    continue;
+                }
+                try (InputStream in = encryptionService.newDecryptingStream(manifest.newInputStream(filename))) {
+                    contents.documents.put(filename, in.readAllBytes());
+                }
+                contents.formats.put(filename, manifest.formatOf(filename));
             }
-            if (allData.getVault() != null) {
-                saveVault(allData.getVault());
+            BackupPoint point = backupStore(directory).write(contents);
+            System.out.println("Created " + point);
+            return point;
+        } catch (IOException e) {
+            throw new CryptoException("Failed to create backup point: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return The restore points of the incremental backup in a directory, oldest first
+     */
+    public List<BackupPoint> listBackupPoints(String directory) throws CryptoException {
+        validateInitialized();
+        try {
+            return backupStore(directory).list();
+        } catch (IOException e) {
+            throw new CryptoException("Failed to list backup points: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Replaces all data with a restore point of an incremental backup, in one commit. Files the point
+     * does not hold, such as settings never saved before it was taken, are removed.
+     * @throws CryptoException If the point cannot be read or fails verification; storage is then unchanged
+     */
+    public void restoreBackupPoint(String directory, long pointId) throws CryptoException {
+        validateInitialized();
+        try {
+            BackupStore.Contents contents = backupStore(directory).read(pointId);
+            List<Password> passwords = new ArrayList<>(contents.passwords.size());
+            JavaType passwordType = codec.getTypeFactory().constructType(Password.class);
+            for (byte[] record : contents.passwords) {
+                passwords.add(codec.read(record, passwordType));
             }
-            if (allData.getSettings() != null) {
-                saveSettings(allData.getSettings());
+            List<Category> categories = new ArrayList<>(contents.categories.size());
+            JavaType categoryType = codec.getTypeFactory().constructType(Category.class);
+            for (byte[] record : contents.categories) {
+                categories.add(codec.read(record, categoryType));
             }
 
-            System.out.println("Restored data from backup: " + backupPath);
+            long mark = journal.mark();
+            try (VaultManifest.Commit commit = manifest.begin()) {
+                stageEncryptedData(commit, PASSWORDS_FILE, passwords);
+                stageEncryptedData(commit, CATEGORIES_FILE, categories);
+                for (String filename : DATA_FILES) {
+                    if (SNAPSHOT_FILES.contains(filename)) {
+                        continue;
+                    }
+                    byte[] document = contents.documents.get(filename);
+                    if (document != null) {
+                        stage(commit, filename, contents.formats.get(filename), out -> out.write(document));
+                    } else if (manifest.contains(filename)) {
+                        commit.remove(filename);
+                    }
+                }
+                publish(commit, mark);
+            }
+            System.out.println("Restored backup point " + pointId + " from " + directory);
+        } catch (IOException e) {
+            throw new CryptoException("Failed to restore backup point " + pointId + ": " + e.getMessage(), e);
+        }
+    }
 
-        } catch (Exception e) {
-            throw new CryptoException("Failed to restore from backup: " + e.getMessage(), e);
+    /**
+     * Opens the incremental backup in a directory, such as the one scheduled backups go to, so that
+     * {@link #changeMasterKey(char[])} and {@link #beginKeyRotation(char[])} re-wrap its key too.
+     * Stores in other directories keep opening with the master key they were last used with.
+     */
+    public void useBackupDirectory(String directory) throws CryptoException {
+        validateInitialized();
+        try {
+            backupStore(directory);
+        } catch (IOException e) {
+            throw new CryptoException("Failed to open backup directory: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Keeps the newest restore points of an incremental backup and deletes the rest, with the
+     * chunks only they used.
+     * @param keep Number of points to keep
+     * @return Number of points deleted
+     */
+    public int pruneBackupPoints(String directory, int keep) throws CryptoException {
+        validateInitialized();
+        try {
+            return backupStore(directory).prune(keep);
+        } catch (IOException e) {
+            throw new CryptoException("Failed to prune backup points: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void saveChanges(StorageChanges changes) throws CryptoException {
+        validateInitialized();
+        try {
+            List<VaultJournal.Record> records = new ArrayList<>(changes.size());
+            for (Map.Entry<String, Password> change : changes.getPasswords().entrySet()) {
+                records.add(toRecord(PASSWORDS_SNAPSHOT, change.getKey(), change.getValue()));
+            }
+            for (Map.Entry<String, Category> change : changes.getCategories().entrySet()) {
+                records.add(toRecord(CATEGORIES_SNAPSHOT, change.getKey(), change.getValue()));
+            }
+            journal.append(records);
+        } catch (IOException e) {
+            throw new CryptoException("Failed to append to journal: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return The current journal position, to pass to {@link #savePasswords(List, long)}
+     * @throws CryptoException If the journal cannot be read
+     */
+    public long getJournalMark() throws CryptoException {
+        validateInitialized();
+        try {
+            return journal.mark();
+        } catch (IOException e) {
+            throw new CryptoException("Failed to read journal: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return true once the journal is larger than the snapshots, so rewriting them
+     *         costs no more than what was appended since the last compaction
+     */
+    public boolean isJournalCompactionDue() {
+        if (storagePath == null) return false;
+        try {
+            long snapshotBytes = 0;
+            for (String filename : SNAPSHOT_FILES) {
+                snapshotBytes += manifest.size(filename);
+            }
+            return journal.size() > Math.max(MIN_JOURNAL_COMPACTION_BYTES, snapshotBytes);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Folds the journal into new snapshots and truncates it. Only snapshot files with
+     * journaled changes are rewritten, in one commit.
+     * @param passwords All passwords, including every journaled change
+     * @param categories All categories, including every journaled change
+     * @throws CryptoException If a snapshot or the journal cannot be written
+     */
+    public void compactJournal(List<Password> passwords, List<Category> categories) throws CryptoException {
+        validateInitialized();
+        try (VaultManifest.Commit commit = manifest.begin()) {
+            long mark = journal.mark();
+            if (journal.hasRecords(PASSWORDS_SNAPSHOT)) {
+                stageEncryptedData(commit, PASSWORDS_FILE, passwords);
+            }
+            if (journal.hasRecords(CATEGORIES_SNAPSHOT)) {
+                stageEncryptedData(commit, CATEGORIES_FILE, categories);
+            }
+            publish(commit, mark);
+            journal.compact();
+        } catch (IOException e) {
+            throw new CryptoException("Failed to compact journal: " + e.getMessage(), e);
+        }
+        System.out.println("Compacted journal into encrypted storage");
+    }
+
+    /**
+     * Changes the master password by re-wrapping the data key, and the key of the incremental
+     * backup in use (see {@link #useBackupDirectory(String)}). Takes one key derivation per key,
+     * independent of vault size; the data files are not touched.
+     * @param newMasterKey The new master password
+     * @throws CryptoException If a key file cannot be written; both keys then stay as they were
+     */
+    public void changeMasterKey(char[] newMasterKey) throws CryptoException {
+        validateInitialized();
+        try {
+            String wrappedKey = encryptionService.rewrapDataKey(newMasterKey, null);
+            BackupStore store = openedBackupStore();
+            String storeKey = store != null
+                ? store.rewrapKey(newMasterKey, encryptionService.getKdfParameters(wrappedKey)) : null;
+            try {
+                keyFile.write(wrappedKey);
+            } catch (IOException e) {
+                restoreBackupStoreKey(store, storeKey, e);
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new CryptoException("Failed to write vault key: " + e.getMessage(), e);
+        }
+        replaceMasterKey(newMasterKey);
+    }
+
+    /**
+     * Starts a data key rotation under a new master password. From here on new data is written
+     * with the new data key, while the key file keeps the previous one (wrapped by the new key)
+     * so records not yet rotated stay readable. Only the new master password unlocks the vault.
+     * @param newMasterKey The new master password
+     * @throws CryptoException If the key file cannot be written; the session is left unchanged
+     */
+    public void beginKeyRotation(char[] newMasterKey) throws CryptoException {
+        validateInitialized();
+        try {
+            removeFile(ROTATION_CHECKPOINT_FILE);
+            String keyRing = encryptionService.rotateDataKey(newMasterKey, null);
+            BackupStore store = openedBackupStore();
+            String storeKey = null;
+            try {
+                // The backup store has a key of its own: only the master key protecting it changes
+                if (store != null) {
+                    storeKey = store.rewrapKey(newMasterKey, encryptionService.getKdfParameters(keyRing));
+                }
+                keyFile.write(keyRing);
+            } catch (IOException | CryptoException e) {
+                // Go back to the keys on disk so nothing is written with a key that was never saved
+                restoreBackupStoreKey(store, storeKey, e);
+                encryptionService.openSession(masterKey, keyFile.read());
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new CryptoException("Failed to start key rotation: " + e.getMessage(), e);
+        }
+        replaceMasterKey(newMasterKey);
+    }
+
+    /**
+     * @return true if a data key rotation was started and not yet completed
+     */
+    public boolean isKeyRotationPending() {
+        return encryptionService.hasPreviousDataKeys();
+    }
+
+    /**
+     * @return The last saved rotation progress, or null if none was saved
+     */
+    public KeyRotationCheckpoint loadRotationCheckpoint() throws CryptoException {
+        validateInitialized();
+        return loadEncryptedData(ROTATION_CHECKPOINT_FILE, KeyRotationCheckpoint.class);
+    }
+
+    public void saveRotationCheckpoint(KeyRotationCheckpoint checkpoint) throws CryptoException {
+        validateInitialized();
+        saveEncryptedData(checkpoint, ROTATION_CHECKPOINT_FILE);
+    }
+
+    /**
+     * Finishes a data key rotation once every password entry has been re-encrypted: rewrites the
+     * data files with the new data key in one commit and retires the previous keys in the key file.
+     * Retired keys no longer decrypt records but stay in the key file, wrapped with the new data key,
+     * so backups written before the rotation can still be restored with the new master password.
+     * @throws CryptoException If a file cannot be rewritten; the rotation then stays pending
+     */
+    public void completeKeyRotation() throws CryptoException {
+        validateInitialized();
+        try (VaultManifest.Commit commit = manifest.begin()) {
+            // Journal frames may still use the previous key: fold them into snapshots written with
+            // the new one. Both snapshots go through the journal so it knows what they contain.
+            long mark = journal.mark();
+            stageEncryptedData(commit, PASSWORDS_FILE, loadPasswords());
+            stageEncryptedData(commit, CATEGORIES_FILE, loadCategories());
+            for (String filename : DATA_FILES) {
+                if (SNAPSHOT_FILES.contains(filename) || !manifest.contains(filename)) {
+                    continue;
+                }
+                // Plain re-encryption of the file stream, no parsing
+                stage(commit, filename, manifest.formatOf(filename), out -> {
+                    try (InputStream in = encryptionService.newDecryptingStream(manifest.newInputStream(filename))) {
+                        in.transferTo(out);
+                    }
+                });
+            }
+            publish(commit, mark);
+            journal.compact();
+
+            keyFile.write(encryptionService.retirePreviousDataKeys(keyFile.read()));
+            removeFile(ROTATION_CHECKPOINT_FILE);
+            System.out.println("Completed vault data key rotation");
+
+        } catch (IOException e) {
+            throw new CryptoException("Failed to complete key rotation: " + e.getMessage(), e);
+        }
+    }
+
+    public PayloadFormat getPayloadFormat() {
+        return codec.getFormat();
+    }
+
+    /**
+     * Selects the serialization format of everything saved from now on. Files in another format
+     * stay readable; {@link #migratePayloadFormat()} rewrites them.
+     */
+    public void setPayloadFormat(PayloadFormat format) {
+        codec.setFormat(format);
+    }
+
+    public Compression getCompression() {
+        return codec.getCompression();
+    }
+
+    /**
+     * Selects the compression applied before encryption to everything saved from now on, backups
+     * included. Files and journal records are read whatever compression they were written with.
+     */
+    public void setCompression(Compression compression) {
+        codec.setCompression(compression);
+    }
+
+    /**
+     * Rewrites every data file not yet in the selected payload format, in one commit. Snapshots are
+     * loaded with their journal and saved like any snapshot; other files are transcoded without
+     * binding them to model classes. Runs on unlock, and only reads the manifest once a vault is migrated.
+     * @return Number of files rewritten
+     * @throws CryptoException If a file cannot be rewritten; the previous files then stay in place
+     */
+    public int migratePayloadFormat() throws CryptoException {
+        validateInitialized();
+        PayloadFormat format = codec.getFormat();
+        List<String> outdated = new ArrayList<>();
+        for (String filename : MANIFEST_FILES) {
+            PayloadFormat current = manifest.formatOf(filename);
+            if (current != null && current != format) {
+                outdated.add(filename);
+            }
+        }
+        if (outdated.isEmpty()) {
+            return 0;
+        }
+
+        try (VaultManifest.Commit commit = manifest.begin()) {
+            long mark = journal.mark();
+            for (String filename : outdated) {
+                if (filename.equals(PASSWORDS_FILE)) {
+                    stageEncryptedData(commit, filename, loadPasswords());
+                } else if (filename.equals(CATEGORIES_FILE)) {
+                    stageEncryptedData(commit, filename, loadCategories());
+                } else {
+                    stage(commit, filename, format, out -> {
+                        try (InputStream in = encryptionService.newDecryptingStream(manifest.newInputStream(filename))) {
+                            codec.transcode(in, out, format);
+                        }
+                    });
+                }
+            }
+            publish(commit, mark);
+        } catch (IOException e) {
+            throw new CryptoException("Failed to migrate storage to " + format + " payloads: " + e.getMessage(), e);
         }
+        System.out.println("Migrated " + outdated.size() + " storage files to " + format + " payloads");
+        return outdated.size();
     }
 
     // Private helper methods
 
+    private void replaceMasterKey(char[] newMasterKey) {
+        Arrays.fill(masterKey, '\0');
+        masterKey = Arrays.copyOf(newMasterKey, newMasterKey.length);
+    }
+
+    /**
+     * @return The backup store of a directory, kept open between runs so its index is read once
+     */
+    private synchronized BackupStore backupStore(String directory) throws IOException, CryptoException {
+        Path path = Paths.get(directory).toAbsolutePath();
+        if (backupStore == null || !backupStore.getDirectory().equals(path)) {
+            if (backupStore != null) {
+                backupStore.close();
+            }
+            // A new store key is derived like the vault key
+            backupStore = new BackupStore(path, encryptionService, masterKey,
+                encryptionService.getKdfParameters(keyFile.read()), codec);
+        }
+        return backupStore;
+    }
+
+    private synchronized BackupStore openedBackupStore() {
+        return backupStore;
+    }
+
+    /**
+     * Puts back the key a backup store had before a master key change that did not go through.
+     */
+    private void restoreBackupStoreKey(BackupStore store, String storeKey, Exception failure) {
+        if (storeKey == null) {
+            return;
+        }
+        try {
+            store.restoreKey(masterKey, storeKey);
+        } catch (IOException | CryptoException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
     private void validateInitialized() throws CryptoException {
         if (masterKey == null || storagePath == null) {
             throw new CryptoException("Storage service not initialized. Call initialize() first.");
         }
     }
 
-    private <T> void saveEncryptedData(T data, String filename) throws CryptoException {
+    /**
+     * Brings a vault written before manifests existed under a manifest, in one commit: files in the
+     * streaming format are recorded where they are, files still in an older format (legacy PBKDF2
+     * text, session text or single-message binary) are rewritten into the streaming format.
+     * Once a manifest is published, files it does not list are never picked up again, and the
+     * originals of rewritten files are deleted.
+     */
+    private void migrateLegacyFiles() throws CryptoException {
+        if (manifest.isPublished()) {
+            deleteMigratedFiles();
+            return;
+        }
+        try (VaultManifest.Commit commit = manifest.begin()) {
+            for (String filename : MANIFEST_FILES) {
+                Path filePath = storagePath.resolve(filename);
+                try {
+                    if (!Files.exists(filePath)) {
+                        continue;
+                    }
+                    if (hasMagic(readPrefix(filePath), STREAM_MAGIC)) {
+                        commit.adopt(filename);
+                        continue;
+                    }
+
+                    ByteBuffer json = readDecrypted(filePath);
+                    try {
+                        stage(commit, filename, PayloadFormat.JSON,
+                            out -> out.write(json.array(), json.position(), json.remaining()));
+                    } finally {
+                        Arrays.fill(json.array(), (byte) 0);
+                    }
+                    System.out.println("Migrated " + filename + " to streaming format");
+
+                } catch (Exception e) {
+                    throw new CryptoException("Failed to migrate " + filename + ": " + e.getMessage(), e);
+                }
+            }
+            // Every legacy file decrypted, so the master key is right: keep the key the rewritten files need
+            keyFile.writeCreatedKey();
+            commit.publish();
+        } catch (IOException e) {
+            throw new CryptoException("Failed to write vault manifest: " + e.getMessage(), e);
+        }
+        deleteMigratedFiles();
+    }
+
+    /**
+     * Deletes legacy files the manifest no longer points at. Each still holds the vault as it was
+     * before the upgrade, under the old encryption, including entries deleted since. Also run on
+     * later unlocks, in case the last one stopped between publishing and deleting.
+     */
+    private void deleteMigratedFiles() {
+        for (String filename : MANIFEST_FILES) {
+            Path original = storagePath.resolve(filename);
+            if (manifest.resolve(filename).equals(original)) {
+                continue;
+            }
+            try {
+                if (Files.deleteIfExists(original)) {
+                    System.out.println("Deleted " + filename + " superseded by its migrated copy");
+                }
+            } catch (IOException e) {
+                // Retried on the next unlock
+                System.err.println("Could not delete migrated " + filename + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private VaultJournal.Record toRecord(int snapshot, String id, Object item) throws IOException {
+        return item == null
+            ? VaultJournal.Record.delete(snapshot, id)
+            : VaultJournal.Record.put(snapshot, codec.writeRecord(item));
+    }
+
+    /**
+     * Opens the current version of a snapshot file.
+     * @return The file, or null if it does not exist
+     */
+    private InputStream openSnapshot(String filename) throws CryptoException {
         try {
-            // Convert to JSON
-            String json = objectMapper.writeValueAsString(data);
+            return manifest.contains(filename) ? manifest.newInputStream(filename) : null;
+        } catch (IOException e) {
+            throw new CryptoException("Failed to load encrypted data from " + filename + ": " + e.getMessage(), e);
+        }
+    }
 
-            // Encrypt JSON
-            String encryptedData = encryptionService.encrypt(json, masterKey);
+    private <T> List<T> collectSnapshot(int snapshot, InputStream file, Class<T> type, Function<T, String> idOf,
+                                        List<T> defaults) throws CryptoException {
+        try (Stream<T> items = streamSnapshot(snapshot, file, type, idOf, defaults)) {
+            return items.collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
 
-            // Write to file
-            Path filePath = storagePath.resolve(filename);
-            Files.write(filePath, encryptedData.getBytes());
+    /**
+     * Parses a snapshot file item by item and applies the journaled changes it does not contain.
+     * @param file The snapshot file, closed with the stream; null if it does not exist
+     * @param defaults Items to start from if the file does not exist
+     */
+    private <T> Stream<T> streamSnapshot(int snapshot, InputStream file, Class<T> type, Function<T, String> idOf,
+                                         List<T> defaults) throws CryptoException {
+        String filename = SNAPSHOT_FILES.get(snapshot);
+        JavaType itemType = codec.getTypeFactory().constructType(type);
+        MappingIterator<T> parsed = null;
+        if (file != null) {
+            try {
+                parsed = codec.readElements(encryptionService.newDecryptingStream(file), itemType);
+            } catch (Exception e) {
+                closeQuietly(file, e);
+                throw new CryptoException("Failed to load encrypted data from " + filename + ": " + e.getMessage(), e);
+            }
+        }
+        return replayJournal(snapshot, filename, parsed, idOf, defaults, payload -> codec.read(payload, itemType));
+    }
 
-            // Set file permissions (owner only)
-            if (!System.getProperty("os.name").toLowerCase().contains("windows")) {
-                Files.setPosixFilePermissions(filePath,
-                    Set.of(java.nio.file.attribute.PosixFilePermission.OWNER_READ,
-                           java.nio.file.attribute.PosixFilePermission.OWNER_WRITE));
+    /**
+     * Applies the journaled changes of a snapshot to its items as they are parsed.
+     * @param filename The file the items are parsed from, for error messages
+     * @param parsed The items, closed with the stream; null if the file does not exist
+     * @param records Reads the item of a journaled put
+     */
+    private <T> Stream<T> replayJournal(int snapshot, String filename, MappingIterator<T> parsed,
+                                        Function<T, String> idOf, List<T> defaults, RecordReader<T> records)
+            throws CryptoException {
+        Iterator<T> items = parsed != null ? new SnapshotItems<>(parsed, filename) : defaults.iterator();
+        Closeable source = parsed != null ? parsed : () -> { };
+
+        JournalReplayIterator<T> replay = new JournalReplayIterator<>(items, idOf);
+        try {
+            for (VaultJournal.Record record : journal.read(snapshot)) {
+                if (record.isDelete()) {
+                    replay.delete(new String(record.getPayload(), StandardCharsets.UTF_8));
+                } else {
+                    replay.put(records.read(record.getPayload()));
+                }
             }
+        } catch (IOException | CryptoException e) {
+            closeQuietly(source, e);
+            throw new CryptoException("Failed to replay journal for " + filename + ": " + e.getMessage(), e);
+        }
+
+        Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(replay, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false)
+            .onClose(() -> {
+                try {
+                    source.close();
+                } catch (IOException e) {
+                    throw new CryptoException("Failed to load encrypted data from " + filename + ": " + e.getMessage(), e);
+                }
+            });
+    }
+
+    @FunctionalInterface
+    private interface RecordReader<T> {
+        T read(byte[] payload) throws IOException;
+    }
+
+    /**
+     * The items of a snapshot file as they are parsed, with parse and decryption failures
+     * reported as {@link CryptoException}.
+     */
+    private static final class SnapshotItems<T> implements Iterator<T> {
+        private final MappingIterator<T> parsed;
+        private final String filename;
+        private T next;
+
+        SnapshotItems(MappingIterator<T> parsed, String filename) {
+            this.parsed = parsed;
+            this.filename = filename;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                // A snapshot written as null holds no items
+                while (next == null && parsed.hasNextValue()) {
+                    next = parsed.nextValue();
+                }
+                return next != null;
+            } catch (IOException e) {
+                throw new CryptoException("Failed to load encrypted data from " + filename + ": " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T item = next;
+            next = null;
+            return item;
+        }
+    }
+
+    private static void closeQuietly(Closeable resource, Exception failure) {
+        try {
+            resource.close();
+        } catch (IOException suppressed) {
+            failure.addSuppressed(suppressed);
+        }
+    }
 
+    /**
+     * Writes a snapshot file and lets the journal install it, so the journal knows which of its
+     * records the new file contains.
+     */
+    private void saveSnapshot(int snapshot, Object data, long mark) throws CryptoException {
+        String filename = SNAPSHOT_FILES.get(snapshot);
+        try (VaultManifest.Commit commit = manifest.begin()) {
+            stageEncryptedData(commit, filename, data);
+            publish(commit, mark);
         } catch (Exception e) {
             throw new CryptoException("Failed to save encrypted data to " + filename + ": " + e.getMessage(), e);
         }
     }
 
-    private <T> T loadEncryptedData(String filename, Class<T> type) throws CryptoException {
-        return loadEncryptedData(filename, objectMapper.getTypeFactory().constructType(type));
+    private <T> void saveEncryptedData(T data, String filename) throws CryptoException {
+        try (VaultManifest.Commit commit = manifest.begin()) {
+            stageEncryptedData(commit, filename, data);
+            commit.publish();
+        } catch (Exception e) {
+            throw new CryptoException("Failed to save encrypted data to " + filename + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Publishes a commit through the journal, which records what the staged snapshots contain.
+     * @param mark Journal mark read before the staged contents were read
+     */
+    private void publish(VaultManifest.Commit commit, long mark) throws IOException, CryptoException {
+        for (String filename : journal.commit(commit, mark)) {
+            System.out.println("Skipped outdated snapshot of " + filename);
+        }
+    }
+
+    private void stageEncryptedData(VaultManifest.Commit commit, String filename, Object data)
+            throws IOException, CryptoException {
+        PayloadFormat format = codec.getFormat();
+        if (filename.equals(PASSWORDS_FILE)) {
+            stagePasswords(commit, ((List<?>) data).iterator(), format);
+        } else {
+            stage(commit, filename, format, out -> codec.write(out, format, data));
+        }
+    }
+
+    /**
+     * Stages the storage files held by a backup as it is parsed, entry by entry.
+     * @return The number of passwords and categories staged
+     */
+    private int stageBackup(VaultManifest.Commit commit, JsonParser parser) throws IOException, CryptoException {
+        PayloadFormat format = codec.getFormat();
+        BackupDocument.Contents contents = BackupDocument.read(parser, new BackupDocument.Visitor() {
+            @Override
+            public void passwords(Iterator<Password> passwords) throws IOException, CryptoException {
+                stagePasswords(commit, passwords, format);
+            }
+
+            @Override
+            public void categories(Iterator<Category> categories) throws IOException, CryptoException {
+                stageElements(commit, CATEGORIES_FILE, categories, format);
+            }
+
+            @Override
+            public void vault(Vault vault) throws IOException, CryptoException {
+                stageEncryptedData(commit, VAULT_FILE, vault);
+            }
+
+            @Override
+            public void settings(Map<String, Object> settings) throws IOException, CryptoException {
+                stageEncryptedData(commit, SETTINGS_FILE, settings);
+            }
+        });
+        return contents.getPasswords() + contents.getCategories();
+    }
+
+    /**
+     * Writes a snapshot file element by element, so the elements can come from a parser.
+     */
+    private void stageElements(VaultManifest.Commit commit, String filename, Iterator<?> elements, PayloadFormat format)
+            throws IOException, CryptoException {
+        stage(commit, filename, format, out -> {
+            try (JsonGenerator generator = codec.generate(out, format)) {
+                generator.writeStartArray();
+                while (elements.hasNext()) {
+                    generator.writeObject(elements.next());
+                }
+                generator.writeEndArray();
+            }
+        });
+    }
+
+    /**
+     * Writes a password file and its summary file side by side in one pass over the entries.
+     * The summary plaintext starts with the name the password file is staged under, so summaries
+     * are only used together with the passwords they were taken from, even if a later commit
+     * replaces the password file alone.
+     */
+    private void stagePasswords(VaultManifest.Commit commit, Iterator<?> passwords, PayloadFormat format)
+            throws IOException, CryptoException {
+        String passwordsFile = commit.reserveName(PASSWORDS_FILE);
+        stage(commit, PASSWORDS_FILE, format, passwordsOut -> stage(commit, SUMMARIES_FILE, format, summariesOut -> {
+            new DataOutputStream(summariesOut).writeUTF(passwordsFile);
+            try (JsonGenerator entries = codec.generate(passwordsOut, format);
+                 JsonGenerator summaries = codec.generate(summariesOut, format)) {
+                entries.writeStartArray();
+                summaries.writeStartArray();
+                while (passwords.hasNext()) {
+                    Password password = (Password) passwords.next();
+                    entries.writeObject(password);
+                    summaries.writeObject(password == null ? null : PasswordSummary.of(password));
+                }
+                entries.writeEndArray();
+                summaries.writeEndArray();
+            }
+        }));
+    }
+
+    /**
+     * Writes a new version of a storage file through an encrypting stream, to be published by the commit.
+     * @param format The payload format the writer produces
+     */
+    private void stage(VaultManifest.Commit commit, String filename, PayloadFormat format, PlaintextWriter writer)
+            throws IOException, CryptoException {
+        commit.stage(filename, format, file -> {
+            try (OutputStream out = encryptionService.newEncryptingStream(file)) {
+                writer.write(out);
+            }
+        });
     }
 
-    private <T> T loadEncryptedData(String filename, com.fasterxml.jackson.databind.JavaType type) throws CryptoException {
+    /**
+     * Drops a file from the manifest, if it is listed.
+     */
+    private void removeFile(String filename) throws IOException, CryptoException {
+        if (!manifest.contains(filename)) {
+            return;
+        }
+        try (VaultManifest.Commit commit = manifest.begin()) {
+            commit.remove(filename);
+            commit.publish();
+        }
+    }
+
+    /**
+     * Serializes straight into an encrypting stream, so only one segment of plaintext is buffered.
+     */
+    private void writeEncryptedFile(Path filePath, Object data) throws IOException, CryptoException {
+        PayloadFormat format = codec.getFormat();
+        writeFileAtomically(filePath, out -> codec.write(out, format, data));
+    }
+
+    /**
+     * Writes plaintext through an encrypting stream into a temporary file that then replaces
+     * {@code filePath}, so a crash mid-write leaves the previous version intact.
+     * Used for backups, which start with the wrapped vault key so they open without the key file.
+     */
+    private void writeFileAtomically(Path filePath, PlaintextWriter writer) throws IOException, CryptoException {
+        Path tempPath = filePath.resolveSibling(filePath.getFileName() + ".tmp");
         try {
-            Path filePath = storagePath.resolve(filename);
+            try (OutputStream out = openEncryptingStream(tempPath)) {
+                writer.write(out);
+            }
+            StorageFiles.setOwnerOnlyPermissions(tempPath);
+            StorageFiles.force(tempPath);
+            Files.move(tempPath, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            StorageFiles.forceDirectory(filePath.toAbsolutePath().getParent());
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
 
-            if (!Files.exists(filePath)) {
-                return null; // File doesn't exist, return null
+    @FunctionalInterface
+    private interface PlaintextWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface FileLoader<T> {
+        T load() throws CryptoException;
+    }
+
+    /**
+     * Runs the load of one file on the executor and reports how long it took.
+     */
+    private static <T> CompletableFuture<T> loadAsync(Executor executor, BiConsumer<String, Double> timings,
+                                                      String filename, FileLoader<T> loader) {
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            try {
+                return loader.load();
+            } catch (CryptoException e) {
+                throw new CompletionException(e);
+            } finally {
+                timings.accept(filename, (System.nanoTime() - start) / 1e6);
             }
+        }, executor);
+    }
 
-            // Read encrypted data
-            String encryptedData = new String(Files.readAllBytes(filePath));
+    private static List<Category> defaultCategories() {
+        List<Category> categories = new ArrayList<>();
+        categories.add(new Category("personal", "Personal", "folder-personal-icon"));
+        categories.add(new Category("work", "Work", "folder-work-icon"));
+        categories.add(new Category("games", "Games", "folder-games-icon"));
+        return categories;
+    }
 
-            // Decrypt data
-            String json = encryptionService.decrypt(encryptedData, masterKey);
+    private static Vault defaultVault() {
+        return new Vault("My Vault", "Default User");
+    }
 
-            // Parse JSON
-            return objectMapper.readValue(json, type);
+    private static Map<String, Object> defaultSettings() {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("theme", "light");
+        settings.put("autoLock", true);
+        settings.put("autoLockTimeout", 300); // 5 minutes
+        settings.put("clipboardTimeout", 30); // 30 seconds
+        settings.put("showToasts", true);
+        return settings;
+    }
 
-        } catch (Exception e) {
+    private OutputStream openEncryptingStream(Path filePath) throws IOException, CryptoException {
+        OutputStream file = GatheringFileOutputStream.create(filePath, null);
+        try {
+            BackupKeys.writeHeader(file, keyFile.read());
+            return encryptionService.newEncryptingStream(file);
+        } catch (IOException | CryptoException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return Keys for opening backups, reusing the session for those written under the current vault key
+     */
+    private BackupKeys backupKeys() throws CryptoException {
+        try {
+            return new BackupKeys(encryptionService, masterKey, keyFile != null ? keyFile.read() : null);
+        } catch (IOException e) {
+            throw new CryptoException("Failed to read vault key: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Opens a backup or other file outside the vault manifest for reading its plaintext. Streaming
+     * files are decrypted as they are read (over a mapping of large files), and closing them
+     * authenticates whatever was not read; older formats are decrypted into a buffer wiped on close.
+     * Backups that carry their key are opened with it, the others with the session.
+     */
+    private InputStream openEncryptedFile(Path filePath, BackupKeys keys) throws IOException, CryptoException {
+        byte[] prefix = readPrefix(filePath);
+        if (!hasMagic(prefix, BackupKeys.MAGIC) && !encryptionService.hasSession()
+                && (hasMagic(prefix, STREAM_MAGIC) || hasMagic(prefix, BINARY_MAGIC))) {
+            throw new CryptoException("Backup does not carry its key; unlock the vault it was written from to read it");
+        }
+        if (hasMagic(prefix, BackupKeys.MAGIC) || hasMagic(prefix, STREAM_MAGIC)) {
+            InputStream file = MappedFileInputStream.open(filePath);
+            try {
+                return hasMagic(prefix, BackupKeys.MAGIC) ? keys.open(file) : encryptionService.newDecryptingStream(file);
+            } catch (IOException | CryptoException e) {
+                file.close();
+                throw e;
+            }
+        }
+
+        ByteBuffer plaintext = readDecrypted(filePath);
+        return new ByteArrayInputStream(plaintext.array(), plaintext.position(), plaintext.remaining()) {
+            @Override
+            public void close() {
+                Arrays.fill(plaintext.array(), (byte) 0);
+            }
+        };
+    }
+
+    /**
+     * Reads and decrypts a file in the single-message binary or the legacy Base64 text format.
+     * Binary files are decrypted in place; the returned buffer is a view over the plaintext
+     * and its backing array should be wiped by the caller.
+     */
+    private ByteBuffer readDecrypted(Path filePath) throws IOException, CryptoException {
+        byte[] data = Files.readAllBytes(filePath);
+
+        if (hasMagic(data, BINARY_MAGIC)) {
+            // Binary files predate cipher suites and are always AES-GCM: reuse the last magic
+            // byte as the suite id so the message can still be decrypted in place
+            int frameOffset = BINARY_MAGIC.length - 1;
+            data[frameOffset] = (byte) CipherSuite.AES_256_GCM.getId();
+            int length = encryptionService.decrypt(data, frameOffset, data.length - frameOffset);
+            return ByteBuffer.wrap(data, frameOffset, length);
+        }
+
+        String json = encryptionService.decrypt(new String(data), masterKey);
+        return ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] readPrefix(Path filePath) throws IOException {
+        try (InputStream in = Files.newInputStream(filePath)) {
+            return in.readNBytes(STREAM_MAGIC.length);
+        }
+    }
+
+    private static boolean hasMagic(byte[] data, byte[] magic) {
+        return data.length >= magic.length && Arrays.equals(data, 0, magic.length, magic, 0, magic.length);
+    }
+
+    private <T> T loadEncryptedData(String filename, Class<T> type) throws CryptoException {
+        return loadEncryptedData(filename, codec.getTypeFactory().constructType(type));
+    }
+
+    /**
+     * Reads the version of a file named by the manifest, verified against its hash.
+     */
+    private <T> T loadEncryptedData(String filename, JavaType type) throws CryptoException {
+        InputStream file;
+        try {
+            if (!manifest.contains(filename)) {
+                return null; // File doesn't exist, return null
+            }
+            file = manifest.newInputStream(filename);
+        } catch (IOException e) {
             throw new CryptoException("Failed to load encrypted data from " + filename + ": " + e.getMessage(), e);
         }
+        return readEncryptedData(filename, file, type);
     }
 
-    private void deleteFileIfExists(String filename) throws IOException {
-        Path filePath = storagePath.resolve(filename);
-        Files.deleteIfExists(filePath);
+    /**
+     * Decrypts and parses an opened storage file and closes it.
+     * @param file The file as opened through the manifest, or null if it does not exist
+     */
+    private <T> T readEncryptedData(String filename, InputStream file, JavaType type) throws CryptoException {
+        if (file == null) {
+            return null;
+        }
+        try {
+            try (InputStream in = encryptionService.newDecryptingStream(file)) {
+                return codec.read(in, type);
+            } catch (CryptoException e) {
+                try {
+                    file.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+
+        } catch (Exception e) {
+            throw new CryptoException("Failed to load encrypted data from " + filename + ": " + e.getMessage(), e);
+        }
     }
 
     // Cleanup method
     public void cleanup() {
+        synchronized (this) {
+            if (backupStore != null) {
+                backupStore.close();
+                backupStore = null;
+            }
+        }
         if (masterKey != null) {
             Arrays.fill(masterKey, '\0');
             masterKey = null;
         }
+        encryptionService.closeSession();
     }
 }
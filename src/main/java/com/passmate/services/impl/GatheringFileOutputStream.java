@@ -0,0 +1,126 @@
+package com.passmate.services.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+
+/**
+ * Output stream over a file channel that accepts several buffers in one gathering write.
+ * {@link StreamingAeadOutputStream} recognizes it and hands over its header and sealed segments
+ * without copying them through a stream buffer. Small writes are still buffered.
+ */
+final class GatheringFileOutputStream extends OutputStream {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final FileChannel channel;
+    private final MessageDigest digest;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private boolean closed;
+
+    private GatheringFileOutputStream(FileChannel channel, MessageDigest digest) {
+        this.channel = channel;
+        this.digest = digest;
+    }
+
+    /**
+     * Creates or truncates a file for writing.
+     * @param digest Updated with everything written, or null
+     * @return A gathering stream, or a buffered stream unless channel I/O is enabled
+     */
+    static OutputStream create(Path path, MessageDigest digest) throws IOException {
+        if (!StorageFiles.isChannelIoEnabled()) {
+            OutputStream out = new BufferedOutputStream(Files.newOutputStream(path));
+            return digest == null ? out : new DigestOutputStream(out, digest);
+        }
+        return new GatheringFileOutputStream(FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), digest);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (!buffer.hasRemaining()) {
+            drain();
+        }
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len < buffer.capacity()) {
+            if (len > buffer.remaining()) {
+                drain();
+            }
+            buffer.put(b, off, len);
+            return;
+        }
+        write(ByteBuffer.wrap(b, off, len));
+    }
+
+    /**
+     * Writes the remaining bytes of all buffers, after anything buffered, in as few system calls as possible.
+     */
+    void write(ByteBuffer... buffers) throws IOException {
+        ensureOpen();
+        drain();
+        writeFully(buffers);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (!closed) {
+            drain();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            drain();
+        } finally {
+            closed = true;
+            channel.close();
+        }
+    }
+
+    private void drain() throws IOException {
+        if (buffer.position() > 0) {
+            buffer.flip();
+            writeFully(buffer);
+            buffer.clear();
+        }
+    }
+
+    private void writeFully(ByteBuffer... buffers) throws IOException {
+        if (digest != null) {
+            for (ByteBuffer b : buffers) {
+                digest.update(b.duplicate());
+            }
+        }
+        int first = 0;
+        while (first < buffers.length) {
+            channel.write(buffers, first, buffers.length - first);
+            while (first < buffers.length && !buffers[first].hasRemaining()) {
+                first++;
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
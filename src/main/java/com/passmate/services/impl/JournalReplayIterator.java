@@ -0,0 +1,78 @@
+package com.passmate.services.impl;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Applies journaled changes to a snapshot read one item at a time. Items come out in the order a
+ * replay over the whole list gives: changed items at their snapshot position, deleted items dropped,
+ * and new or deleted-and-added-again items at the end in journal order. Only the journaled items
+ * are held in memory.
+ */
+final class JournalReplayIterator<T> implements Iterator<T> {
+
+    private final Iterator<T> snapshot;
+    private final Function<T, String> idOf;
+    /** Journaled items by id, in the order the replay appends those not in the snapshot. */
+    private final Map<String, T> journaled = new LinkedHashMap<>();
+    /** Ids deleted at some point, which lose their snapshot position. */
+    private final Set<String> deleted = new HashSet<>();
+    private Iterator<T> appended;
+    private T next;
+
+    JournalReplayIterator(Iterator<T> snapshot, Function<T, String> idOf) {
+        this.snapshot = snapshot;
+        this.idOf = idOf;
+    }
+
+    /**
+     * Applies a journaled put; all records go in before iteration starts.
+     */
+    void put(T item) {
+        journaled.put(idOf.apply(item), item);
+    }
+
+    /**
+     * Applies a journaled delete; all records go in before iteration starts.
+     */
+    void delete(String id) {
+        journaled.remove(id);
+        deleted.add(id);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && appended == null && snapshot.hasNext()) {
+            T item = snapshot.next();
+            String id = idOf.apply(item);
+            if (!deleted.contains(id)) {
+                T changed = journaled.remove(id);
+                next = changed != null ? changed : item;
+            }
+        }
+        if (next == null) {
+            if (appended == null) {
+                appended = journaled.values().iterator();
+            }
+            if (appended.hasNext()) {
+                next = appended.next();
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T item = next;
+        next = null;
+        return item;
+    }
+}
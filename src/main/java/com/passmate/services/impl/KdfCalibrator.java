@@ -0,0 +1,61 @@
+package com.passmate.services.impl;
+
+import com.passmate.services.EncryptionService;
+import com.passmate.services.KdfParameters;
+import com.passmate.services.exceptions.CryptoException;
+
+/**
+ * Picks key derivation parameters that hit a target unlock latency on the current machine.
+ * PBKDF2 cost is linear in the iteration count, so short probes are enough to extrapolate.
+ */
+public class KdfCalibrator {
+
+    public static final long DEFAULT_TARGET_MILLIS = 300;
+    /** Lower bound so slow machines still get a meaningful work factor. */
+    public static final int MIN_ITERATIONS = 50_000;
+    public static final int MAX_ITERATIONS = 10_000_000;
+
+    private static final int PROBE_ITERATIONS = 2_000;
+    private static final int ROUNDING = 1_000;
+    private static final int MIN_PROBES = 3;
+    private static final int CALIBRATION_BUDGET_FACTOR = 2;
+    private static final long MIN_CALIBRATION_MILLIS = 1_500;
+
+    private final EncryptionService encryptionService;
+
+    public KdfCalibrator(EncryptionService encryptionService) {
+        this.encryptionService = encryptionService;
+    }
+
+    /**
+     * Measures this machine and returns parameters for the target latency.
+     * @param targetMillis Desired time for one key derivation
+     * @return The calibrated parameters
+     * @throws CryptoException If key derivation fails
+     */
+    public KdfParameters calibrate(long targetMillis) throws CryptoException {
+        char[] password = "calibration-probe".toCharArray();
+        byte[] salt = encryptionService.generateSalt();
+
+        // Repeat short probes for twice the target, or at least long enough for the JIT to compile
+        // the PBKDF2 inner loop. Runs are slowed by interpretation and scheduling noise but never
+        // sped up, so the fastest observed rate is the best estimate of steady-state speed
+        long budgetMillis = Math.max(MIN_CALIBRATION_MILLIS, targetMillis * CALIBRATION_BUDGET_FACTOR);
+        long deadline = System.nanoTime() + budgetMillis * 1_000_000L;
+        KdfParameters probe = new KdfParameters(KdfParameters.PBKDF2_HMAC_SHA256, PROBE_ITERATIONS);
+        double iterationsPerMilli = 0;
+        int probes = 0;
+        do {
+            long start = System.nanoTime();
+            encryptionService.deriveKey(password, salt, probe);
+            double probeMillis = Math.max((System.nanoTime() - start) / 1e6, 0.001);
+            iterationsPerMilli = Math.max(iterationsPerMilli, PROBE_ITERATIONS / probeMillis);
+            probes++;
+        } while (probes < MIN_PROBES || System.nanoTime() < deadline);
+
+        long iterations = Math.round(iterationsPerMilli * targetMillis / ROUNDING) * ROUNDING;
+        iterations = Math.max(MIN_ITERATIONS, Math.min(MAX_ITERATIONS, iterations));
+
+        return new KdfParameters(KdfParameters.PBKDF2_HMAC_SHA256, (int) iterations);
+    }
+}
@@ -0,0 +1,209 @@
+package com.passmate.services.impl;
+
+import com.passmate.models.KeyRotationCheckpoint;
+import com.passmate.models.Password;
+import com.passmate.services.BulkOperation;
+import com.passmate.services.EncryptionService;
+import com.passmate.services.ProgressListener;
+import com.passmate.services.exceptions.CryptoException;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Re-encrypts password entries with the current data key after a rotation was started.
+ * Entries are processed in id order and in batches on the bulk crypto pool, driven from a single
+ * background thread. Progress is checkpointed periodically, so a restarted rotation skips work
+ * already persisted; redoing a batch is harmless because decryption accepts either key.
+ */
+public class KeyRotationEngine {
+
+    /**
+     * Persists rotation progress.
+     */
+    public interface Store {
+        /**
+         * Saves the entries rotated so far together with the checkpoint describing them.
+         */
+        void persist(KeyRotationCheckpoint checkpoint) throws CryptoException;
+
+        /**
+         * Called once every entry is rotated and persisted.
+         */
+        void complete() throws CryptoException;
+    }
+
+    /**
+     * Outcome of a rotation run.
+     */
+    public static final class Report {
+        private final int rotated;
+        private final int skipped;
+        private final int batches;
+        private final int checkpoints;
+        private final long elapsedMillis;
+
+        Report(int rotated, int skipped, int batches, int checkpoints, long elapsedMillis) {
+            this.rotated = rotated;
+            this.skipped = skipped;
+            this.batches = batches;
+            this.checkpoints = checkpoints;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /** @return Entries re-encrypted by this run */
+        public int getRotated() { return rotated; }
+
+        /** @return Entries skipped because an earlier run had already checkpointed them */
+        public int getSkipped() { return skipped; }
+
+        public int getBatches() { return batches; }
+
+        public int getCheckpoints() { return checkpoints; }
+
+        /** @return Time to complete, including checkpoints and the final file rewrite */
+        public long getElapsedMillis() { return elapsedMillis; }
+
+        public double getEntriesPerSecond() {
+            return elapsedMillis == 0 ? rotated : rotated * 1000.0 / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                "rotated %d entries (%d skipped) in %d ms, %.0f entries/s, %d batches, %d checkpoints",
+                rotated, skipped, elapsedMillis, getEntriesPerSecond(), batches, checkpoints);
+        }
+    }
+
+    public static final int DEFAULT_BATCH_SIZE = 1_000;
+    public static final long DEFAULT_CHECKPOINT_INTERVAL_MILLIS = 2_000;
+
+    private final EncryptionService encryptionService;
+    private final BulkCryptoExecutor bulkExecutor;
+    private final ExecutorService driver;
+    private final int batchSize;
+    private final long checkpointIntervalMillis;
+
+    public KeyRotationEngine(EncryptionService encryptionService, BulkCryptoExecutor bulkExecutor) {
+        this(encryptionService, bulkExecutor, DEFAULT_BATCH_SIZE, DEFAULT_CHECKPOINT_INTERVAL_MILLIS);
+    }
+
+    public KeyRotationEngine(EncryptionService encryptionService, BulkCryptoExecutor bulkExecutor,
+                             int batchSize, long checkpointIntervalMillis) {
+        this.encryptionService = encryptionService;
+        this.bulkExecutor = bulkExecutor;
+        this.batchSize = batchSize;
+        this.checkpointIntervalMillis = checkpointIntervalMillis;
+        this.driver = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "PassMate-key-rotation");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts rotating the given entries in the background.
+     * Entry hashes are updated in place, but only if they did not change meanwhile; an entry
+     * edited during the rotation was already encrypted with the new key.
+     * @param entries The entries to rotate; the list is copied, the entries are not
+     * @param resumeFrom Checkpoint of an interrupted run, or null to start from the beginning
+     * @param store Persists progress
+     * @param listener Progress listener, called on the driver thread
+     * @return Handle completing with the run report once the rotation is complete
+     */
+    public BulkOperation<Report> start(List<Password> entries, KeyRotationCheckpoint resumeFrom,
+                                       Store store, ProgressListener listener) {
+        List<Password> pending = new ArrayList<>();
+        for (Password password : entries) {
+            String hash = password.getPasswordHash();
+            if (hash != null && !hash.isEmpty()) {
+                pending.add(password);
+            }
+        }
+        pending.sort(Comparator.comparing(Password::getId));
+
+        int total = pending.size();
+        String resumeAfter = resumeFrom != null ? resumeFrom.getLastEntryId() : null;
+        long startedAt = resumeFrom != null ? resumeFrom.getStartedAt() : System.currentTimeMillis();
+        if (resumeAfter != null) {
+            pending.removeIf(password -> password.getId().compareTo(resumeAfter) <= 0);
+        }
+
+        AtomicBoolean cancelled = new AtomicBoolean();
+        ProgressListener progress = listener != null ? listener : ProgressListener.NONE;
+        CompletableFuture<Report> result = CompletableFuture.supplyAsync(
+            () -> run(pending, total, resumeAfter, startedAt, store, progress, cancelled), driver);
+        return new BulkOperation<>(result, cancelled);
+    }
+
+    private Report run(List<Password> pending, int total, String resumeAfter, long startedAt, Store store,
+                       ProgressListener progress, AtomicBoolean cancelled) {
+        long start = System.nanoTime();
+        long lastCheckpoint = start;
+        int skipped = total - pending.size();
+        int done = skipped;
+        int batches = 0;
+        int checkpoints = 0;
+        String lastId = resumeAfter;
+
+        for (int from = 0; from < pending.size(); from += batchSize) {
+            if (cancelled.get()) {
+                throw new CancellationException();
+            }
+            List<Password> batch = pending.subList(from, Math.min(pending.size(), from + batchSize));
+            Map<String, String> hashes = new LinkedHashMap<>();
+            for (Password password : batch) {
+                hashes.put(password.getId(), password.getPasswordHash());
+            }
+
+            Map<String, String> rotated = join(bulkExecutor.submit(hashes,
+                hash -> encryptionService.encrypt(encryptionService.decrypt(hash)), ProgressListener.NONE));
+            for (Password password : batch) {
+                // Same lock as PasswordService.updatePassword, so an edit cannot land between check and set
+                synchronized (password) {
+                    if (Objects.equals(password.getPasswordHash(), hashes.get(password.getId()))) {
+                        password.setPasswordHash(rotated.get(password.getId()));
+                    }
+                }
+            }
+
+            batches++;
+            done += batch.size();
+            lastId = batch.get(batch.size() - 1).getId();
+            progress.onProgress(done, total);
+
+            if (System.nanoTime() - lastCheckpoint >= checkpointIntervalMillis * 1_000_000L) {
+                store.persist(new KeyRotationCheckpoint(lastId, done, total, startedAt));
+                checkpoints++;
+                lastCheckpoint = System.nanoTime();
+            }
+        }
+
+        store.persist(new KeyRotationCheckpoint(lastId, done, total, startedAt));
+        store.complete();
+        return new Report(done - skipped, skipped, batches, checkpoints + 1, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static <T> T join(BulkOperation<T> operation) {
+        try {
+            return operation.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof CryptoException) {
+                throw (CryptoException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.passmate.services.impl;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/**
+ * Input stream over a read-only memory mapping of a whole file, so reading does not copy the file
+ * through a stream buffer. {@link StreamingAeadInputStream} recognizes it and decrypts segments
+ * straight from the mapped region.
+ * <p>
+ * Only map files that are never modified in place (published vault files and backups are replaced
+ * by rename): truncating a mapped file makes later reads of it crash the JVM.
+ */
+final class MappedFileInputStream extends InputStream {
+
+    /** Below this, mapping costs more than it saves. */
+    static final long MAP_THRESHOLD = 1024 * 1024;
+
+    private static final boolean WINDOWS = System.getProperty("os.name").toLowerCase().contains("windows");
+
+    /**
+     * Checks the size and hash of a whole file once it has been read.
+     */
+    @FunctionalInterface
+    interface Verifier {
+        void verify(long size, byte[] hash) throws IOException;
+    }
+
+    private ByteBuffer buffer;
+    private MessageDigest digest;
+    private Verifier verifier;
+
+    private MappedFileInputStream(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Opens a file for reading, mapped if it is large enough.
+     * Windows locks mapped files until the mapping is garbage collected, which would keep replaced
+     * vault files from being deleted, so files are never mapped there.
+     * @return A mapped stream, or a buffered stream for small files
+     */
+    static InputStream open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (WINDOWS || size < MAP_THRESHOLD || size > Integer.MAX_VALUE
+                    || !StorageFiles.isChannelIoEnabled()) {
+                return new BufferedInputStream(Files.newInputStream(path));
+            }
+            // The mapping stays valid after the channel is closed
+            return new MappedFileInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * Hashes the file as it is consumed; closing the stream hashes the rest and hands the result to the
+     * verifier, so the mapping is only traversed once. Call before reading.
+     */
+    void verifyOnClose(MessageDigest digest, Verifier verifier) {
+        this.digest = digest;
+        this.verifier = verifier;
+    }
+
+    /**
+     * Consumes up to {@code length} bytes without copying them.
+     * @return A read-only view of the consumed bytes, empty at the end of the file
+     */
+    ByteBuffer slice(int length) throws IOException {
+        ensureOpen();
+        ByteBuffer slice = buffer.slice().limit(Math.min(length, buffer.remaining())).asReadOnlyBuffer();
+        buffer.position(buffer.position() + slice.remaining());
+        if (digest != null) {
+            digest.update(slice.duplicate());
+        }
+        return slice;
+    }
+
+    @Override
+    public int read() throws IOException {
+        ensureOpen();
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        byte b = buffer.get();
+        if (digest != null) {
+            digest.update(b);
+        }
+        return b & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        if (digest != null) {
+            digest.update(b, off, n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        ensureOpen();
+        return slice((int) Math.max(0, Math.min(n, buffer.remaining()))).remaining();
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return buffer.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            if (verifier != null) {
+                digest.update(buffer);
+                verifier.verify(buffer.capacity(), digest.digest());
+            }
+        } finally {
+            // Mappings cannot be released explicitly; dropping the reference lets the GC unmap it
+            buffer = null;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (buffer == null) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
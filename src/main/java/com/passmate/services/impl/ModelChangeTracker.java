@@ -0,0 +1,91 @@
+package com.passmate.services.impl;
+
+import com.passmate.models.Category;
+import com.passmate.models.Password;
+import javafx.beans.property.StringProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.collections.ListChangeListener;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Marks passwords and categories dirty when one of their properties changes, so an edit made
+ * directly on a model object is saved without the caller having to report it.
+ * Password hashes are not tracked: they are only replaced through PasswordService or by a key
+ * rotation, which persist them themselves, and tracking them would journal every rotated entry.
+ */
+public class ModelChangeTracker {
+
+    private final Consumer<Password> passwordChanged;
+    private final Consumer<Category> categoryChanged;
+    private final Map<Object, ChangeListener<String>> listeners = new IdentityHashMap<>();
+
+    /**
+     * @param passwordChanged Called with a password whose properties changed
+     * @param categoryChanged Called with a category whose properties changed
+     */
+    public ModelChangeTracker(Consumer<Password> passwordChanged, Consumer<Category> categoryChanged) {
+        this.passwordChanged = passwordChanged;
+        this.categoryChanged = categoryChanged;
+    }
+
+    /**
+     * @return A list listener that tracks passwords while they are in the observed list
+     */
+    public ListChangeListener<Password> passwordListListener() {
+        return change -> {
+            while (change.next()) {
+                for (Password password : change.getRemoved()) {
+                    untrack(password);
+                }
+                for (Password password : change.getAddedSubList()) {
+                    track(password);
+                }
+            }
+        };
+    }
+
+    public synchronized void track(Password password) {
+        if (!listeners.containsKey(password)) {
+            ChangeListener<String> listener = (property, oldValue, newValue) -> passwordChanged.accept(password);
+            properties(password).forEach(property -> property.addListener(listener));
+            listeners.put(password, listener);
+        }
+    }
+
+    public synchronized void untrack(Password password) {
+        ChangeListener<String> listener = listeners.remove(password);
+        if (listener != null) {
+            properties(password).forEach(property -> property.removeListener(listener));
+        }
+    }
+
+    public synchronized void track(Category category) {
+        if (!listeners.containsKey(category)) {
+            ChangeListener<String> listener = (property, oldValue, newValue) -> categoryChanged.accept(category);
+            properties(category).forEach(property -> property.addListener(listener));
+            listeners.put(category, listener);
+        }
+    }
+
+    public synchronized void untrack(Category category) {
+        ChangeListener<String> listener = listeners.remove(category);
+        if (listener != null) {
+            properties(category).forEach(property -> property.removeListener(listener));
+        }
+    }
+
+    private static List<StringProperty> properties(Password password) {
+        return List.of(password.nameProperty(), password.usernameProperty(), password.passwordProperty(),
+            password.websiteProperty(), password.notesProperty(), password.categoryProperty(),
+            password.categoryIdProperty(), password.createdByProperty(), password.createdDateProperty(),
+            password.lastUpdatedProperty(), password.iconUrlProperty());
+    }
+
+    private static List<StringProperty> properties(Category category) {
+        return List.of(category.nameProperty(), category.iconNameProperty(), category.colorProperty());
+    }
+}
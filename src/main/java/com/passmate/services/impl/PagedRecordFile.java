@@ -0,0 +1,291 @@
+package com.passmate.services.impl;
+
+import com.passmate.services.exceptions.CryptoException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+/**
+ * File of fixed-size pages holding variable-length records, each in a run of consecutive pages (an extent).
+ * Format: page 0 = [magic][version][page size], then extents of [crc32c][page count][length][data][zero padding].
+ * The checksum covers the rest of the extent, so a torn or damaged page is detected before its data is used.
+ * <p>
+ * Records are never overwritten in place: a new version goes to free pages and the caller releases the
+ * old extent once the move is recorded, so a crash leaves the old version intact. Which pages are in use
+ * is not stored here; the owner of the record index passes the live extents to {@link #markUsed} on open.
+ */
+final class PagedRecordFile implements Closeable {
+
+    /**
+     * A run of consecutive pages holding one record.
+     */
+    static final class Extent {
+        private final int page;
+        private final int pages;
+        private final int checksum;
+
+        Extent(int page, int pages, int checksum) {
+            this.page = page;
+            this.pages = pages;
+            this.checksum = checksum;
+        }
+
+        int getPage() { return page; }
+
+        int getPages() { return pages; }
+
+        /** @return The checksum written with the record, to detect a different record at the same pages */
+        int getChecksum() { return checksum; }
+    }
+
+    /** Small pages: a typical password record takes two, so little space is lost to padding. */
+    static final int PAGE_SIZE = 256;
+    static final byte[] MAGIC = {(byte) 0x89, 'P', 'M', 'P'};
+    static final byte VERSION = 1;
+
+    private static final int EXTENT_HEADER_LENGTH = 3 * Integer.BYTES;
+    private static final int MAX_RECORD_LENGTH = 16 * 1024 * 1024;
+
+    private final Path path;
+    private final FileChannel channel;
+    /** Free runs by first page, coalesced; pages past the end of the file are free as well. */
+    private final TreeMap<Integer, Integer> free = new TreeMap<>();
+    private int pageCount;
+
+    private PagedRecordFile(Path path, FileChannel channel, int pageCount) {
+        this.path = path;
+        this.channel = channel;
+        this.pageCount = pageCount;
+    }
+
+    /**
+     * Opens a record file, creating it with its header page if missing.
+     * Until {@link #markUsed} is called every page is considered in use.
+     */
+    static PagedRecordFile open(Path path) throws IOException, CryptoException {
+        boolean created = !Files.exists(path);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        try {
+            if (created || channel.size() == 0) {
+                StorageFiles.setOwnerOnlyPermissions(path);
+                ByteBuffer header = ByteBuffer.allocate(PAGE_SIZE);
+                header.put(MAGIC).put(VERSION).putInt(PAGE_SIZE).clear();
+                writeFully(channel, header, 0);
+                channel.force(true);
+                StorageFiles.forceDirectory(path.toAbsolutePath().getParent());
+                return new PagedRecordFile(path, channel, 1);
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 1 + Integer.BYTES);
+            readFully(channel, header, 0);
+            header.flip();
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new CryptoException("Not a vault page file: " + path.getFileName());
+            }
+            byte version = header.get();
+            if (version != VERSION) {
+                throw new CryptoException("Unsupported vault page file version: " + version);
+            }
+            if (header.getInt() != PAGE_SIZE) {
+                throw new CryptoException("Unsupported vault page size in " + path.getFileName());
+            }
+            // A torn append may leave a partial page at the end; it is never referenced and gets reused
+            return new PagedRecordFile(path, channel, (int) ((channel.size() + PAGE_SIZE - 1) / PAGE_SIZE));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Rebuilds the free list: every page not covered by one of the given extents becomes free.
+     * @param used The extents of all live records
+     */
+    synchronized void markUsed(Collection<Extent> used) {
+        boolean[] inUse = new boolean[pageCount];
+        inUse[0] = true;
+        for (Extent extent : used) {
+            for (int page = extent.page; page < extent.page + extent.pages && page < pageCount; page++) {
+                inUse[page] = true;
+            }
+            pageCount = Math.max(pageCount, extent.page + extent.pages);
+        }
+        free.clear();
+        int start = -1;
+        for (int page = 1; page <= inUse.length; page++) {
+            boolean isFree = page < inUse.length && !inUse[page];
+            if (isFree && start < 0) {
+                start = page;
+            } else if (!isFree && start >= 0) {
+                free.put(start, page - start);
+                start = -1;
+            }
+        }
+        trimEnd();
+    }
+
+    /**
+     * Writes a record into free pages.
+     * @return Where the record was written; release it if it ends up unused
+     */
+    synchronized Extent write(byte[] data, int offset, int length) throws IOException {
+        if (length > MAX_RECORD_LENGTH) {
+            throw new IOException("Record too large for the vault page file: " + length + " bytes");
+        }
+        int pages = (EXTENT_HEADER_LENGTH + length + PAGE_SIZE - 1) / PAGE_SIZE;
+        int page = allocate(pages);
+
+        ByteBuffer buffer = ByteBuffer.allocate(pages * PAGE_SIZE);
+        buffer.position(Integer.BYTES);
+        buffer.putInt(pages).putInt(length).put(data, offset, length);
+        int checksum = checksum(buffer.array(), pages * PAGE_SIZE);
+        buffer.putInt(0, checksum).clear();
+        try {
+            writeFully(channel, buffer, (long) page * PAGE_SIZE);
+        } catch (IOException e) {
+            release(new Extent(page, pages, checksum));
+            throw e;
+        }
+        return new Extent(page, pages, checksum);
+    }
+
+    /**
+     * Reads a record and verifies its page checksum.
+     * @return The record data
+     * @throws CryptoException If the pages are damaged or hold a different record than expected
+     */
+    byte[] read(Extent extent) throws IOException, CryptoException {
+        ByteBuffer buffer = ByteBuffer.allocate(extent.pages * PAGE_SIZE);
+        readFully(channel, buffer, (long) extent.page * PAGE_SIZE);
+        if (buffer.hasRemaining()) {
+            throw new CryptoException("Vault page file is truncated at page " + extent.page);
+        }
+        byte[] bytes = buffer.array();
+        int stored = buffer.getInt(0);
+        if (stored != extent.checksum || checksum(bytes, bytes.length) != stored) {
+            throw new CryptoException("Page checksum mismatch at page " + extent.page + " of " + path.getFileName());
+        }
+        int length = buffer.getInt(2 * Integer.BYTES);
+        if (buffer.getInt(Integer.BYTES) != extent.pages || length < 0
+                || length > bytes.length - EXTENT_HEADER_LENGTH) {
+            throw new CryptoException("Invalid record header at page " + extent.page + " of " + path.getFileName());
+        }
+        return Arrays.copyOfRange(bytes, EXTENT_HEADER_LENGTH, EXTENT_HEADER_LENGTH + length);
+    }
+
+    /**
+     * Returns an extent's pages to the free list. Only call once nothing refers to it any more.
+     */
+    synchronized void release(Extent extent) throws IOException {
+        int start = extent.page;
+        int length = extent.pages;
+        Map.Entry<Integer, Integer> before = free.floorEntry(start);
+        if (before != null && before.getKey() + before.getValue() == start) {
+            start = before.getKey();
+            length += before.getValue();
+            free.remove(before.getKey());
+        }
+        Integer after = free.get(start + length);
+        if (after != null) {
+            free.remove(start + length);
+            length += after;
+        }
+        free.put(start, length);
+        if (trimEnd()) {
+            channel.truncate((long) pageCount * PAGE_SIZE);
+        }
+    }
+
+    /**
+     * Forces written records to disk.
+     */
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * @return Number of free pages inside the file
+     */
+    synchronized int getFreePages() {
+        return free.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    synchronized int getPageCount() {
+        return pageCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Private helpers
+
+    /**
+     * First fit over the free runs; grows the file if none is large enough.
+     */
+    private int allocate(int pages) {
+        for (Map.Entry<Integer, Integer> run : free.entrySet()) {
+            if (run.getValue() >= pages) {
+                int page = run.getKey();
+                free.remove(page);
+                if (run.getValue() > pages) {
+                    free.put(page + pages, run.getValue() - pages);
+                }
+                return page;
+            }
+        }
+        int page = pageCount;
+        pageCount += pages;
+        return page;
+    }
+
+    /**
+     * Drops a free run at the end of the file.
+     * @return true if the file became shorter
+     */
+    private boolean trimEnd() {
+        Map.Entry<Integer, Integer> last = free.lastEntry();
+        if (last != null && last.getKey() + last.getValue() >= pageCount) {
+            free.remove(last.getKey());
+            pageCount = last.getKey();
+            return true;
+        }
+        return false;
+    }
+
+    private static int checksum(byte[] extent, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(extent, Integer.BYTES, length - Integer.BYTES);
+        return (int) crc.getValue();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return;
+            }
+            position += read;
+        }
+    }
+}
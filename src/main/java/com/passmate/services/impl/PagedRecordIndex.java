@@ -0,0 +1,363 @@
+package com.passmate.services.impl;
+
+import com.passmate.services.EncryptionService;
+import com.passmate.services.exceptions.CryptoException;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encrypted map from record ids to their extents in a {@link PagedRecordFile}, kept as an append-only
+ * log so that an update costs one small append. Loaded completely at unlock; the log is rewritten once
+ * superseded entries outnumber live ones.
+ * Format: [magic][version][entry]..., entry = [length int][session ciphertext of
+ * [op][kind][order long][page int][pages int][checksum int][id]]. A torn final entry is ignored and
+ * truncated before the next append, like in {@link VaultJournal}.
+ */
+final class PagedRecordIndex {
+
+    /**
+     * Where one record lives, plus its position in the collection's order.
+     */
+    static final class Location {
+        private final long order;
+        private final PagedRecordFile.Extent extent;
+
+        Location(long order, PagedRecordFile.Extent extent) {
+            this.order = order;
+            this.extent = extent;
+        }
+
+        long getOrder() { return order; }
+
+        PagedRecordFile.Extent getExtent() { return extent; }
+    }
+
+    /**
+     * A change to the index: a record written to a new extent, or removed when the extent is null.
+     */
+    static final class Update {
+        private final int kind;
+        private final String id;
+        private final PagedRecordFile.Extent extent;
+
+        private Update(int kind, String id, PagedRecordFile.Extent extent) {
+            this.kind = kind;
+            this.id = id;
+            this.extent = extent;
+        }
+
+        static Update put(int kind, String id, PagedRecordFile.Extent extent) {
+            return new Update(kind, id, extent);
+        }
+
+        static Update delete(int kind, String id) {
+            return new Update(kind, id, null);
+        }
+    }
+
+    static final byte[] MAGIC = {(byte) 0x89, 'P', 'M', 'X'};
+    static final byte VERSION = 1;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+    private static final int FIXED_LENGTH = 2 + Long.BYTES + 3 * Integer.BYTES;
+    private static final int MAX_ENTRY_LENGTH = 64 * 1024;
+    /** Superseded entries tolerated regardless of collection size before the log is rewritten. */
+    private static final int MIN_STALE_ENTRIES = 1024;
+
+    private final Path path;
+    private final EncryptionService encryptionService;
+    private final Map<Integer, Map<String, Location>> kinds = new HashMap<>();
+    private long nextOrder;
+    private long entries;
+    private long validLength;
+
+    private PagedRecordIndex(Path path, EncryptionService encryptionService) {
+        this.path = path;
+        this.encryptionService = encryptionService;
+    }
+
+    /**
+     * Reads and authenticates the whole index; needs the encryption session to be open.
+     */
+    static PagedRecordIndex load(Path path, EncryptionService encryptionService) throws IOException, CryptoException {
+        PagedRecordIndex index = new PagedRecordIndex(path, encryptionService);
+        if (Files.exists(path)) {
+            index.replay(Files.readAllBytes(path));
+        }
+        return index;
+    }
+
+    /**
+     * @return The record's location, or null if there is none
+     */
+    synchronized Location get(int kind, String id) {
+        return records(kind).get(id);
+    }
+
+    /**
+     * @return Ids and locations of every record of a kind, in collection order
+     */
+    synchronized List<Map.Entry<String, Location>> list(int kind) {
+        List<Map.Entry<String, Location>> list = new ArrayList<>(records(kind).entrySet());
+        list.sort(Comparator.comparingLong(entry -> entry.getValue().order));
+        return list;
+    }
+
+    /**
+     * @return The extents of all live records
+     */
+    synchronized List<PagedRecordFile.Extent> extents() {
+        List<PagedRecordFile.Extent> extents = new ArrayList<>();
+        for (Map<String, Location> records : kinds.values()) {
+            records.values().forEach(location -> extents.add(location.extent));
+        }
+        return extents;
+    }
+
+    synchronized int size(int kind) {
+        return records(kind).size();
+    }
+
+    synchronized boolean isEmpty() {
+        return kinds.values().stream().allMatch(Map::isEmpty);
+    }
+
+    /**
+     * Appends updates with a single write and forces them to disk. A record keeps its place in the
+     * collection order when it is updated; new records go to the end.
+     * @return The extents no longer referenced, which may now be released
+     */
+    synchronized List<PagedRecordFile.Extent> append(List<Update> updates) throws IOException, CryptoException {
+        List<byte[]> frames = new ArrayList<>(updates.size());
+        List<PagedRecordFile.Extent> superseded = new ArrayList<>();
+        // Only the touched records are staged, and applied once the append is on disk
+        Map<Integer, Map<String, Location>> staged = new HashMap<>();
+        long order = nextOrder;
+        for (Update update : updates) {
+            Map<String, Location> touched = staged.computeIfAbsent(update.kind, kind -> new HashMap<>());
+            Location previous = touched.containsKey(update.id) ? touched.get(update.id) : records(update.kind).get(update.id);
+            if (update.extent == null) {
+                if (previous == null) {
+                    continue;
+                }
+                touched.put(update.id, null);
+                frames.add(encode(OP_DELETE, update.kind, previous.order, previous.extent, update.id));
+            } else {
+                Location location = new Location(previous != null ? previous.order : order++, update.extent);
+                touched.put(update.id, location);
+                frames.add(encode(OP_PUT, update.kind, location.order, update.extent, update.id));
+            }
+            if (previous != null) {
+                superseded.add(previous.extent);
+            }
+        }
+        if (frames.isEmpty()) {
+            return superseded;
+        }
+
+        writeAtEnd(frames);
+        for (Map.Entry<Integer, Map<String, Location>> kind : staged.entrySet()) {
+            Map<String, Location> records = records(kind.getKey());
+            for (Map.Entry<String, Location> record : kind.getValue().entrySet()) {
+                if (record.getValue() == null) {
+                    records.remove(record.getKey());
+                } else {
+                    records.put(record.getKey(), record.getValue());
+                }
+            }
+        }
+        nextOrder = order;
+        entries += frames.size();
+        return superseded;
+    }
+
+    /**
+     * @return true once superseded entries outnumber live ones
+     */
+    synchronized boolean isCompactionDue() {
+        long live = kinds.values().stream().mapToLong(Map::size).sum();
+        return entries - live > Math.max(MIN_STALE_ENTRIES, live);
+    }
+
+    /**
+     * Rewrites the log with one entry per live record, or deletes it if there are none.
+     */
+    synchronized void compact() throws IOException, CryptoException {
+        if (isEmpty()) {
+            delete();
+            return;
+        }
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            long length = MAGIC.length + 1;
+            long written = 0;
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tempPath))) {
+                out.write(MAGIC);
+                out.write(VERSION);
+                for (Map.Entry<Integer, Map<String, Location>> kind : kinds.entrySet()) {
+                    for (Map.Entry<String, Location> record : kind.getValue().entrySet()) {
+                        Location location = record.getValue();
+                        byte[] frame = encode(OP_PUT, kind.getKey(), location.order, location.extent, record.getKey());
+                        out.write(ByteBuffer.allocate(Integer.BYTES).putInt(frame.length).array());
+                        out.write(frame);
+                        length += Integer.BYTES + frame.length;
+                        written++;
+                    }
+                }
+            }
+            StorageFiles.setOwnerOnlyPermissions(tempPath);
+            StorageFiles.force(tempPath);
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            StorageFiles.forceDirectory(path.toAbsolutePath().getParent());
+            validLength = length;
+            entries = written;
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    synchronized void delete() throws IOException {
+        Files.deleteIfExists(path);
+        kinds.clear();
+        entries = 0;
+        validLength = 0;
+    }
+
+    // Private helpers
+
+    private Map<String, Location> records(int kind) {
+        return kinds.computeIfAbsent(kind, k -> new LinkedHashMap<>());
+    }
+
+    private void writeAtEnd(List<byte[]> frames) throws IOException {
+        boolean created = !Files.exists(path) || validLength == 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            int length = created ? MAGIC.length + 1 : 0;
+            for (byte[] frame : frames) {
+                length += Integer.BYTES + frame.length;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            if (created) {
+                buffer.put(MAGIC).put(VERSION);
+                validLength = 0;
+            }
+            for (byte[] frame : frames) {
+                buffer.putInt(frame.length).put(frame);
+            }
+            buffer.flip();
+            if (channel.size() > validLength) {
+                // Drop a torn entry left by a crash before appending after it
+                channel.truncate(validLength);
+            }
+            long position = validLength;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.force(false);
+            validLength = position;
+        }
+        if (created) {
+            StorageFiles.setOwnerOnlyPermissions(path);
+            StorageFiles.forceDirectory(path.toAbsolutePath().getParent());
+        }
+    }
+
+    private byte[] encode(byte op, int kind, long order, PagedRecordFile.Extent extent, String id)
+            throws CryptoException {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        byte[] plaintext = ByteBuffer.allocate(FIXED_LENGTH + idBytes.length)
+            .put(op).put((byte) kind).putLong(order)
+            .putInt(extent.getPage()).putInt(extent.getPages()).putInt(extent.getChecksum())
+            .put(idBytes).array();
+        byte[] ciphertext = new byte[plaintext.length + encryptionService.getCiphertextOverhead()];
+        encryptionService.encrypt(plaintext, 0, plaintext.length, ciphertext, 0);
+        Arrays.fill(plaintext, (byte) 0);
+        return ciphertext;
+    }
+
+    private void replay(byte[] data) throws CryptoException {
+        if (data.length < MAGIC.length + 1 || !Arrays.equals(data, 0, MAGIC.length, MAGIC, 0, MAGIC.length)) {
+            throw new CryptoException("Not a vault page index: " + path.getFileName());
+        }
+        if (data[MAGIC.length] != VERSION) {
+            throw new CryptoException("Unsupported vault page index version: " + data[MAGIC.length]);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.position(MAGIC.length + 1);
+        long length = buffer.position();
+        while (buffer.remaining() >= Integer.BYTES) {
+            int frameLength = buffer.getInt();
+            int offset = buffer.position();
+            boolean plausible = frameLength > encryptionService.getCiphertextOverhead() && frameLength <= MAX_ENTRY_LENGTH;
+            if (!plausible || frameLength > buffer.remaining()) {
+                // Only a frame cut off by the end of the file, or space a crash left zero-filled, is a
+                // torn write; the next append truncates it, so anything else must not be dropped
+                if (plausible || isZeroFilled(data, offset - Integer.BYTES)) {
+                    break;
+                }
+                throw new CryptoException("Vault page index is corrupt at offset " + (offset - Integer.BYTES));
+            }
+            int plaintextLength;
+            try {
+                plaintextLength = encryptionService.decrypt(data, offset, frameLength);
+            } catch (CryptoException e) {
+                if (offset + frameLength == data.length) {
+                    break;
+                }
+                throw new CryptoException("Vault page index is corrupt at offset " + offset, e);
+            }
+            if (plaintextLength < FIXED_LENGTH) {
+                throw new CryptoException("Invalid vault page index entry at offset " + offset);
+            }
+            ByteBuffer entry = ByteBuffer.wrap(data, offset, plaintextLength);
+            byte op = entry.get();
+            int kind = entry.get();
+            long order = entry.getLong();
+            PagedRecordFile.Extent extent = new PagedRecordFile.Extent(entry.getInt(), entry.getInt(), entry.getInt());
+            String id = new String(data, entry.position(), entry.remaining(), StandardCharsets.UTF_8);
+            Arrays.fill(data, offset, offset + plaintextLength, (byte) 0);
+            if (op == OP_PUT) {
+                records(kind).put(id, new Location(order, extent));
+            } else if (op == OP_DELETE) {
+                records(kind).remove(id);
+            } else {
+                throw new CryptoException("Invalid vault page index operation: " + op);
+            }
+            nextOrder = Math.max(nextOrder, order + 1);
+            entries++;
+            buffer.position(offset + frameLength);
+            length = buffer.position();
+        }
+        if (length < data.length) {
+            System.err.println("Ignoring torn write at the end of " + path.getFileName());
+        }
+        validLength = length;
+    }
+
+    private static boolean isZeroFilled(byte[] data, int from) {
+        for (int i = from; i < data.length; i++) {
+            if (data[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
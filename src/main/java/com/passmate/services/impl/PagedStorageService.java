@@ -0,0 +1,555 @@
+package com.passmate.services.impl;
+
+import com.passmate.models.Category;
+import com.passmate.models.Password;
+import com.passmate.models.StorageData;
+import com.passmate.models.Vault;
+import com.passmate.services.Compression;
+import com.passmate.services.EncryptionService;
+import com.passmate.services.PayloadFormat;
+import com.passmate.services.StorageChanges;
+import com.passmate.services.StorageService;
+import com.passmate.services.exceptions.CryptoException;
+import com.fasterxml.jackson.databind.JavaType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Implementation of StorageService that keeps every password, category and document as its own
+ * encrypted record in a paged file, located through an encrypted id-to-extent index loaded at unlock.
+ * Reading, updating or deleting one entry costs one record of I/O and crypto instead of a rewrite of
+ * the whole collection. Records are written to free pages before the index points at them, so a crash
+ * leaves either the old or the new version, and the pages of replaced records are reused.
+ * <p>
+ * Shares the key file with {@link EncryptedStorageService} but not its data files, so a vault is held
+ * by one of the two. Key rotation is not supported here.
+ */
+public class PagedStorageService implements StorageService {
+
+    private static final String STORAGE_DIR = System.getProperty("user.home") + File.separator + ".passmate";
+    private static final String PAGES_FILE = "vault.pages";
+    private static final String INDEX_FILE = "vault.index";
+    private static final int KIND_PASSWORD = 1;
+    private static final int KIND_CATEGORY = 2;
+    /** Single documents such as the vault configuration, keyed by name. */
+    private static final int KIND_DOCUMENT = 3;
+    private static final String VAULT_DOCUMENT = "vault";
+    private static final String SETTINGS_DOCUMENT = "settings";
+
+    private final EncryptionService encryptionService;
+    private final PayloadCodec codec;
+    private char[] masterKey;
+    private Path storagePath;
+    private VaultKeyFile keyFile;
+    private PagedRecordFile pages;
+    private PagedRecordIndex index;
+
+    public PagedStorageService(EncryptionService encryptionService) {
+        this.encryptionService = encryptionService;
+        this.codec = new PayloadCodec(PayloadFormat.SMILE, Compression.NONE);
+    }
+
+    @Override
+    public void initialize(char[] masterKey) throws CryptoException {
+        if (masterKey == null || masterKey.length == 0) {
+            throw new CryptoException("Master key cannot be null or empty");
+        }
+
+        this.masterKey = Arrays.copyOf(masterKey, masterKey.length);
+        this.storagePath = Paths.get(STORAGE_DIR);
+
+        try {
+            StorageFiles.createPrivateDirectory(storagePath);
+            keyFile = new VaultKeyFile(storagePath);
+            keyFile.openSession(encryptionService, masterKey);
+            // No older files to check the master key against
+            keyFile.writeCreatedKey();
+            open();
+            System.out.println("Paged storage initialized at: " + storagePath + " (" + index.size(KIND_PASSWORD)
+                + " passwords in " + pages.getPageCount() + " pages)");
+
+        } catch (IOException e) {
+            throw new CryptoException("Failed to initialize paged storage: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void savePasswords(List<Password> passwords) throws CryptoException {
+        validateInitialized();
+        replaceAll(KIND_PASSWORD, passwords, Password::getId);
+        System.out.println("Saved " + passwords.size() + " passwords to paged storage");
+    }
+
+    @Override
+    public List<Password> loadPasswords() throws CryptoException {
+        validateInitialized();
+        List<Password> passwords = readAll(KIND_PASSWORD, Password.class);
+        System.out.println("Loaded " + passwords.size() + " passwords from paged storage");
+        return passwords;
+    }
+
+    /**
+     * Reads a single password without touching any other record.
+     * @param passwordId The password id
+     * @return The password, or null if there is none with this id
+     * @throws CryptoException If the record cannot be read or decrypted
+     */
+    public Password loadPassword(String passwordId) throws CryptoException {
+        validateInitialized();
+        return read(KIND_PASSWORD, passwordId, Password.class);
+    }
+
+    /**
+     * Writes a single password, new or updated.
+     * @param password The password to save
+     * @throws CryptoException If encryption/saving fails
+     */
+    public void savePassword(Password password) throws CryptoException {
+        validateInitialized();
+        StorageChanges changes = new StorageChanges();
+        changes.putPassword(password);
+        saveChanges(changes);
+    }
+
+    /**
+     * Deletes a single password and frees its pages.
+     * @param passwordId The password id
+     * @throws CryptoException If the index cannot be written
+     */
+    public void deletePassword(String passwordId) throws CryptoException {
+        validateInitialized();
+        StorageChanges changes = new StorageChanges();
+        changes.deletePassword(passwordId);
+        saveChanges(changes);
+    }
+
+    @Override
+    public void saveChanges(StorageChanges changes) throws CryptoException {
+        validateInitialized();
+        List<Change> batch = new ArrayList<>(changes.size());
+        changes.getPasswords().forEach((id, password) -> batch.add(new Change(KIND_PASSWORD, id, password)));
+        changes.getCategories().forEach((id, category) -> batch.add(new Change(KIND_CATEGORY, id, category)));
+        write(batch);
+    }
+
+    @Override
+    public void saveCategories(List<Category> categories) throws CryptoException {
+        validateInitialized();
+        replaceAll(KIND_CATEGORY, categories, Category::getId);
+        System.out.println("Saved " + categories.size() + " categories to paged storage");
+    }
+
+    @Override
+    public List<Category> loadCategories() throws CryptoException {
+        validateInitialized();
+        List<Category> categories = readAll(KIND_CATEGORY, Category.class);
+
+        if (categories.isEmpty() && index.isEmpty()) {
+            // Add default categories
+            categories.add(new Category("personal", "Personal", "folder-personal-icon"));
+            categories.add(new Category("work", "Work", "folder-work-icon"));
+            categories.add(new Category("games", "Games", "folder-games-icon"));
+        }
+
+        System.out.println("Loaded " + categories.size() + " categories from paged storage");
+        return categories;
+    }
+
+    @Override
+    public void saveVault(Vault vault) throws CryptoException {
+        validateInitialized();
+        write(List.of(new Change(KIND_DOCUMENT, VAULT_DOCUMENT, vault)));
+        System.out.println("Saved vault configuration to paged storage");
+    }
+
+    @Override
+    public Vault loadVault() throws CryptoException {
+        validateInitialized();
+        Vault vault = read(KIND_DOCUMENT, VAULT_DOCUMENT, Vault.class);
+
+        if (vault == null) {
+            // Create default vault
+            vault = new Vault("My Vault", "Default User");
+        }
+        return vault;
+    }
+
+    @Override
+    public void saveSettings(Map<String, Object> settings) throws CryptoException {
+        validateInitialized();
+        write(List.of(new Change(KIND_DOCUMENT, SETTINGS_DOCUMENT, settings)));
+        System.out.println("Saved application settings to paged storage");
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> loadSettings() throws CryptoException {
+        validateInitialized();
+        Map<String, Object> settings = read(KIND_DOCUMENT, SETTINGS_DOCUMENT, Map.class);
+
+        if (settings == null) {
+            settings = new HashMap<>();
+            // Add default settings
+            settings.put("theme", "light");
+            settings.put("autoLock", true);
+            settings.put("autoLockTimeout", 300); // 5 minutes
+            settings.put("clipboardTimeout", 30); // 30 seconds
+            settings.put("showToasts", true);
+        }
+        return settings;
+    }
+
+    @Override
+    public boolean storageExists() {
+        if (storagePath == null) return false;
+        return index != null ? !index.isEmpty() : Files.exists(storagePath.resolve(INDEX_FILE));
+    }
+
+    @Override
+    public synchronized void clearStorage() throws CryptoException {
+        validateInitialized();
+        try {
+            index.delete();
+            pages.close();
+            Files.deleteIfExists(storagePath.resolve(PAGES_FILE));
+            open();
+            System.out.println("Cleared paged storage");
+        } catch (IOException e) {
+            throw new CryptoException("Failed to clear storage: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void backupData(String backupPath) throws CryptoException {
+        validateInitialized();
+
+        try {
+            Path backup = Paths.get(backupPath);
+            Files.createDirectories(backup.toAbsolutePath().getParent());
+
+            StorageData allData = new StorageData();
+            allData.setPasswords(loadPasswords());
+            allData.setCategories(loadCategories());
+            allData.setVault(loadVault());
+            allData.setSettings(loadSettings());
+            allData.setPasswordCount(allData.getPasswords().size());
+            allData.setCategoryCount(allData.getCategories().size());
+
+            // Same format as EncryptedStorageService backups, key header included, so either can restore it
+            Path tempPath = backup.resolveSibling(backup.getFileName() + ".tmp");
+            try {
+                OutputStream file = new BufferedOutputStream(Files.newOutputStream(tempPath));
+                try (OutputStream out = openEncryptingStream(file)) {
+                    codec.write(out, codec.getFormat(), allData);
+                } catch (IOException | CryptoException e) {
+                    file.close();
+                    throw e;
+                }
+                StorageFiles.setOwnerOnlyPermissions(tempPath);
+                StorageFiles.force(tempPath);
+                Files.move(tempPath, backup, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempPath);
+            }
+
+            System.out.println("Created encrypted backup at: " + backupPath);
+
+        } catch (Exception e) {
+            throw new CryptoException("Failed to create backup: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void restoreData(String backupPath) throws CryptoException {
+        validateInitialized();
+
+        try {
+            Path backup = Paths.get(backupPath);
+            if (!Files.exists(backup)) {
+                throw new CryptoException("Backup file not found: " + backupPath);
+            }
+
+            StorageData allData;
+            InputStream file = new BufferedInputStream(Files.newInputStream(backup));
+            try (BackupKeys keys = new BackupKeys(encryptionService, masterKey, keyFile.read());
+                 InputStream in = openDecryptingStream(file, keys)) {
+                allData = codec.read(in, codec.getTypeFactory().constructType(StorageData.class));
+            } catch (IOException | CryptoException e) {
+                file.close();
+                throw e;
+            }
+
+            if (allData.getPasswords() != null) {
+                savePasswords(allData.getPasswords());
+            }
+            if (allData.getCategories() != null) {
+                saveCategories(allData.getCategories());
+            }
+            if (allData.getVault() != null) {
+                saveVault(allData.getVault());
+            }
+            if (allData.getSettings() != null) {
+                saveSettings(allData.getSettings());
+            }
+
+            System.out.println("Restored data from backup: " + backupPath);
+
+        } catch (Exception e) {
+            throw new CryptoException("Failed to restore from backup: " + e.getMessage(), e);
+        }
+    }
+
+    private OutputStream openEncryptingStream(OutputStream file) throws IOException, CryptoException {
+        BackupKeys.writeHeader(file, keyFile.read());
+        return encryptionService.newEncryptingStream(file);
+    }
+
+    /**
+     * Opens a backup with the key it carries, or with the session if it was written before backups carried one.
+     */
+    private InputStream openDecryptingStream(InputStream file, BackupKeys keys) throws IOException, CryptoException {
+        file.mark(BackupKeys.MAGIC.length);
+        byte[] prefix = file.readNBytes(BackupKeys.MAGIC.length);
+        file.reset();
+        return Arrays.equals(prefix, BackupKeys.MAGIC) ? keys.open(file) : encryptionService.newDecryptingStream(file);
+    }
+
+    /**
+     * @return Number of pages in the page file, the header page included
+     */
+    public int getPageCount() {
+        return pages.getPageCount();
+    }
+
+    /**
+     * @return Number of pages freed by updates and deletes and not yet reused
+     */
+    public int getFreePages() {
+        return pages.getFreePages();
+    }
+
+    public Compression getCompression() {
+        return codec.getCompression();
+    }
+
+    /**
+     * Selects the compression of records and backups written from now on; each record is
+     * compressed on its own against a preset dictionary. Existing records stay readable.
+     */
+    public void setCompression(Compression compression) {
+        codec.setCompression(compression);
+    }
+
+    // Private helper methods
+
+    private void validateInitialized() throws CryptoException {
+        if (masterKey == null || storagePath == null) {
+            throw new CryptoException("Storage service not initialized. Call initialize() first.");
+        }
+    }
+
+    /**
+     * Loads the index and rebuilds the free page list from it.
+     */
+    private void open() throws IOException, CryptoException {
+        index = PagedRecordIndex.load(storagePath.resolve(INDEX_FILE), encryptionService);
+        pages = PagedRecordFile.open(storagePath.resolve(PAGES_FILE));
+        pages.markUsed(index.extents());
+    }
+
+    /**
+     * A record to write, or to delete when the item is null.
+     */
+    private static final class Change {
+        final int kind;
+        final String id;
+        final Object item;
+
+        Change(int kind, String id, Object item) {
+            this.kind = kind;
+            this.id = id;
+            this.item = item;
+        }
+    }
+
+    /**
+     * Writes new record versions to free pages, forces them, then records them in the index with
+     * one forced append. Only then are the pages of the replaced versions released.
+     */
+    private synchronized void write(List<Change> changes) throws CryptoException {
+        List<PagedRecordFile.Extent> written = new ArrayList<>();
+        try {
+            List<PagedRecordIndex.Update> updates = new ArrayList<>(changes.size());
+            for (Change change : changes) {
+                if (change.item == null) {
+                    updates.add(PagedRecordIndex.Update.delete(change.kind, change.id));
+                    continue;
+                }
+                byte[] record = encryptRecord(change.kind, change.id, codec.writeRecord(change.item));
+                PagedRecordFile.Extent extent = pages.write(record, 0, record.length);
+                written.add(extent);
+                updates.add(PagedRecordIndex.Update.put(change.kind, change.id, extent));
+            }
+            if (!written.isEmpty()) {
+                pages.force();
+            }
+            List<PagedRecordFile.Extent> superseded = index.append(updates);
+            written.clear();
+            for (PagedRecordFile.Extent extent : superseded) {
+                pages.release(extent);
+            }
+            if (index.isCompactionDue()) {
+                index.compact();
+            }
+        } catch (IOException e) {
+            releaseQuietly(written);
+            throw new CryptoException("Failed to write paged storage: " + e.getMessage(), e);
+        } catch (CryptoException e) {
+            releaseQuietly(written);
+            throw e;
+        }
+    }
+
+    /**
+     * Replaces every record of a kind: the given items are written, all others deleted.
+     */
+    private <T> void replaceAll(int kind, List<T> items, Function<T, String> idOf)
+            throws CryptoException {
+        List<Change> changes = new ArrayList<>(items.size());
+        Set<String> kept = new HashSet<>();
+        for (T item : items) {
+            String id = idOf.apply(item);
+            kept.add(id);
+            changes.add(new Change(kind, id, item));
+        }
+        for (Map.Entry<String, PagedRecordIndex.Location> record : index.list(kind)) {
+            if (!kept.contains(record.getKey())) {
+                changes.add(new Change(kind, record.getKey(), null));
+            }
+        }
+        write(changes);
+    }
+
+    /**
+     * Synchronized with writes, which may reuse the pages of a record they replace.
+     */
+    private synchronized <T> T read(int kind, String id, Class<T> type) throws CryptoException {
+        PagedRecordIndex.Location location = index.get(kind, id);
+        if (location == null) {
+            return null;
+        }
+        try {
+            return decryptRecord(kind, id, pages.read(location.getExtent()), codec.getTypeFactory().constructType(type));
+        } catch (IOException e) {
+            throw new CryptoException("Failed to read record " + id + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads every record of a kind in page order, so the file is scanned sequentially,
+     * and returns them in collection order.
+     */
+    private synchronized <T> List<T> readAll(int kind, Class<T> type) throws CryptoException {
+        List<Map.Entry<String, PagedRecordIndex.Location>> records = index.list(kind);
+        List<Integer> byPage = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            byPage.add(i);
+        }
+        byPage.sort(Comparator.comparingInt(i -> records.get(i).getValue().getExtent().getPage()));
+
+        JavaType javaType = codec.getTypeFactory().constructType(type);
+        List<T> items = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            items.add(null);
+        }
+        try {
+            for (int i : byPage) {
+                Map.Entry<String, PagedRecordIndex.Location> record = records.get(i);
+                items.set(i, decryptRecord(kind, record.getKey(), pages.read(record.getValue().getExtent()), javaType));
+            }
+        } catch (IOException e) {
+            throw new CryptoException("Failed to read paged storage: " + e.getMessage(), e);
+        }
+        return items;
+    }
+
+    /**
+     * Record plaintext: [kind][id length short][id][payload]. The id and kind are checked on read,
+     * so a record moved to another index entry is rejected. Payloads of either format may be mixed.
+     */
+    private byte[] encryptRecord(int kind, String id, byte[] payload) throws CryptoException {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        byte[] plaintext = ByteBuffer.allocate(1 + Short.BYTES + idBytes.length + payload.length)
+            .put((byte) kind).putShort((short) idBytes.length).put(idBytes).put(payload).array();
+        byte[] ciphertext = new byte[plaintext.length + encryptionService.getCiphertextOverhead()];
+        try {
+            encryptionService.encrypt(plaintext, 0, plaintext.length, ciphertext, 0);
+        } finally {
+            Arrays.fill(plaintext, (byte) 0);
+            Arrays.fill(payload, (byte) 0);
+        }
+        return ciphertext;
+    }
+
+    private <T> T decryptRecord(int kind, String id, byte[] record, JavaType type) throws CryptoException, IOException {
+        int length = encryptionService.decrypt(record, 0, record.length);
+        try {
+            ByteBuffer plaintext = ByteBuffer.wrap(record, 0, length);
+            int storedKind = plaintext.get();
+            byte[] storedId = new byte[plaintext.getShort()];
+            plaintext.get(storedId);
+            if (storedKind != kind || !id.equals(new String(storedId, StandardCharsets.UTF_8))) {
+                throw new CryptoException("Record " + id + " does not match its index entry");
+            }
+            return codec.read(record, plaintext.position(), plaintext.remaining(), type);
+        } finally {
+            Arrays.fill(record, (byte) 0);
+        }
+    }
+
+    private void releaseQuietly(List<PagedRecordFile.Extent> extents) {
+        for (PagedRecordFile.Extent extent : extents) {
+            try {
+                pages.release(extent);
+            } catch (IOException e) {
+                // Unreferenced pages are reclaimed on the next unlock
+            }
+        }
+    }
+
+    // Cleanup method
+    public void cleanup() {
+        if (masterKey != null) {
+            Arrays.fill(masterKey, '\0');
+            masterKey = null;
+        }
+        if (pages != null) {
+            try {
+                pages.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close page file: " + e.getMessage());
+            }
+        }
+        encryptionService.closeSession();
+    }
+}
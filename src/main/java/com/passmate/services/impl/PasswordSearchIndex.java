@@ -0,0 +1,829 @@
+package com.passmate.services.impl;
+
+import com.passmate.models.Password;
+import javafx.beans.property.StringProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.collections.ListChangeListener;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Trigram index over the name, username and website of passwords, answering the case-insensitive
+ * substring search of the password list from the entries that can match instead of every entry.
+ * Each field is indexed by the trigram starting at every one of its characters, padded past its
+ * end, so a query of one or two characters is the union of the trigrams it starts and a longer
+ * query the intersection of its own trigrams, checked against the fields if it spans several.
+ * Entries are indexed while they are in the observed list and re-indexed when a searched field changes.
+ * Ranked searches also look query words up among the words of the fields, within a few edits.
+ */
+public class PasswordSearchIndex {
+
+    /** Pads fields past their end; removed from fields and queries, so no trigram key is 0. */
+    private static final char END = '\0';
+    private static final int INITIAL_CAPACITY = 1024;
+    /** Removed entries tolerated in the posting lists before they are purged, beyond the live count. */
+    private static final int MIN_PURGE_THRESHOLD = 1024;
+
+    // Ranking: a query word scores the best of its matches, weighted by the field it is in
+    /** Weights of the name, username and website. */
+    private static final double[] FIELD_WEIGHTS = {3, 2, 1};
+    private static final double WHOLE_WORD = 1.0;
+    private static final double WORD_START = 0.8;
+    /** A word a few edits away, less {@link #PER_EDIT} for each edit. */
+    private static final double TYPO = 0.8;
+    private static final double PER_EDIT = 0.2;
+    private static final double PART_OF_WORD = 0.5;
+    /** Most an entry gains from being recently updated, halving every {@link #RECENCY_HALF_LIFE_DAYS}. */
+    private static final double RECENCY = 0.5;
+    private static final double RECENCY_HALF_LIFE_DAYS = 90;
+    /** Entries scored between checks whether a ranked search was cancelled. */
+    private static final int CANCEL_CHECK_INTERVAL = 1024;
+    private static final Comparator<Scored> WORST_FIRST =
+        Comparator.<Scored>comparingDouble(scored -> scored.score).thenComparingInt(scored -> scored.id);
+
+    /** Open-addressing table of posting lists by packed trigram; empty slots have key 0. */
+    private long[] trigrams = new long[INITIAL_CAPACITY];
+    private Postings[] postings = new Postings[INITIAL_CAPACITY];
+    private int trigramCount;
+    /** Posting lists by the first character of their trigram, for one-character queries. */
+    private final Map<Character, List<Postings>> byFirst = new HashMap<>();
+    /** Posting lists by the first two characters of their trigram, for two-character queries. */
+    private final Map<Integer, List<Postings>> byFirstTwo = new HashMap<>();
+
+    /** Entry ids; concurrent so results can be checked without the index lock. Passwords compare by identity. */
+    private final Map<Password, Integer> ids = new ConcurrentHashMap<>();
+    private final Map<Password, ChangeListener<String>> listeners = new IdentityHashMap<>();
+    /** Normalized searched fields by entry id; null once the entry is removed. */
+    private String[][] fields = new String[INITIAL_CAPACITY][];
+    /** Indexed passwords by entry id; null once the entry is removed. */
+    private Password[] passwords = new Password[INITIAL_CAPACITY];
+    /** Posting lists of the words in the fields, built by the first search tolerating typos. */
+    private Map<String, Postings> words;
+    /** The words in the posting lists but numbers, for finding those close to a query word; rebuilt after a purge. */
+    private BkTree wordTree;
+    /**
+     * Ids of removed and re-indexed entries still in the posting lists. Edited entries get a new id
+     * rather than being taken out of every list they were in, which costs as much as a purge.
+     */
+    private final BitSet removed = new BitSet();
+    private int removedCount;
+    /** Ids only grow, so a result never refers to a later entry, until the index empties. */
+    private int nextId;
+    /** Counts the times the index emptied and ids started over. */
+    private volatile int epoch;
+    private final Matches all = new Matches(null, 0);
+
+    /**
+     * Passwords a search matched, as of the search. Entries added or edited since do not match.
+     */
+    public final class Matches {
+        private final BitSet ids;
+        private final int epoch;
+
+        private Matches(BitSet ids, int epoch) {
+            this.ids = ids;
+            this.epoch = epoch;
+        }
+
+        public boolean contains(Password password) {
+            if (ids == null) {
+                return true;
+            }
+            Integer id = PasswordSearchIndex.this.ids.get(password);
+            return id != null && epoch == PasswordSearchIndex.this.epoch && ids.get(id);
+        }
+
+        /**
+         * @return Number of matched entries; all indexed entries for an empty query
+         */
+        public int size() {
+            return ids != null ? ids.cardinality() : PasswordSearchIndex.this.ids.size();
+        }
+    }
+
+    /**
+     * Passwords a ranked search matched, best first.
+     */
+    public static final class Ranking {
+        private final List<Password> results;
+        private final Map<Password, Integer> positions = new IdentityHashMap<>();
+
+        private Ranking(List<Password> results) {
+            this.results = Collections.unmodifiableList(results);
+            for (int i = 0; i < results.size(); i++) {
+                positions.put(results.get(i), i);
+            }
+        }
+
+        public List<Password> getResults() {
+            return results;
+        }
+
+        public boolean contains(Password password) {
+            return positions.containsKey(password);
+        }
+
+        /**
+         * @return Position of the password in the results, or past them all if it is not one
+         */
+        public int positionOf(Password password) {
+            return positions.getOrDefault(password, Integer.MAX_VALUE);
+        }
+
+        public int size() {
+            return results.size();
+        }
+    }
+
+    /**
+     * @return A list listener that indexes passwords while they are in the observed list
+     */
+    public ListChangeListener<Password> passwordListListener() {
+        return change -> {
+            synchronized (this) {
+                while (change.next()) {
+                    for (Password password : change.getRemoved()) {
+                        remove(password);
+                    }
+                    for (Password password : change.getAddedSubList()) {
+                        add(password);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Finds the indexed passwords whose name, username or website contains the query, ignoring case.
+     * @return The matches; every entry if the query is blank
+     */
+    public synchronized Matches search(String query) {
+        if (query == null || query.trim().isEmpty()) {
+            return all;
+        }
+        return new Matches(matching(normalize(query)), epoch);
+    }
+
+    /**
+     * Ranks the indexed passwords matching a query, tolerating typos: every word of the query has
+     * to occur in a field, or be a few edits away from a word of one, a swap of neighbouring
+     * characters counting as one. Entries score by the field
+     * they match in, whether the query words are whole words, word starts or parts of words there,
+     * the edits a typo needs and how recently the entry was updated. Only the best entries are kept,
+     * in a heap the size of the limit, so the matches are never sorted as a whole.
+     * @param filter Entries that may be ranked, tested under the index lock
+     * @return The best matches, best first; none if the query is blank
+     */
+    public Ranking rank(String query, int limit, Predicate<? super Password> filter) {
+        return rank(query, limit, filter, () -> false);
+    }
+
+    /**
+     * Ranks like {@link #rank(String, int, Predicate)}, checking now and then whether to stop.
+     * @throws CancellationException Once cancelled answers true
+     */
+    public synchronized Ranking rank(String query, int limit, Predicate<? super Password> filter,
+                                     BooleanSupplier cancelled) {
+        String phrase = normalize(query).trim();
+        if (phrase.isEmpty() || limit <= 0) {
+            return new Ranking(List.of());
+        }
+        String[] terms = words(phrase);
+        BitSet candidates = terms.length == 1 && terms[0].equals(phrase) ? new BitSet() : matching(phrase);
+        List<Map<Integer, Typo>> typos = new ArrayList<>(terms.length);
+        BitSet termCandidates = null;
+        for (String term : terms) {
+            checkCancelled(cancelled);
+            BitSet matched = matching(term);
+            Map<Integer, Typo> termTypos = new HashMap<>();
+            int edits = maxEdits(term);
+            if (edits > 0) {
+                buildWordTree();
+                BkTree.Visitor typo = (word, distance) -> {
+                    Postings list = words.get(word);
+                    for (int i = 0; distance > 0 && i < list.size; i++) {
+                        matched.set(list.ids[i]);
+                        termTypos.merge(list.ids[i], new Typo(word, distance), Typo::closer);
+                    }
+                };
+                wordTree.search(term, edits, typo);
+                // Swapped neighbours take two edits but are one typo
+                for (String word : transpositions(term)) {
+                    if (words.containsKey(word)) {
+                        typo.found(word, 1);
+                    }
+                }
+            }
+            typos.add(termTypos);
+            if (termCandidates == null) {
+                termCandidates = matched;
+            } else {
+                termCandidates.and(matched);
+            }
+        }
+        if (termCandidates != null) {
+            candidates.or(termCandidates);
+        }
+        candidates.andNot(removed);
+
+        int today = (int) LocalDate.now().toEpochDay();
+        PriorityQueue<Scored> best = new PriorityQueue<>(Math.min(limit, 256), WORST_FIRST);
+        int scored = 0;
+        for (int id = candidates.nextSetBit(0); id >= 0; id = candidates.nextSetBit(id + 1)) {
+            if (++scored % CANCEL_CHECK_INTERVAL == 0) {
+                checkCancelled(cancelled);
+            }
+            Password password = passwords[id];
+            if (!filter.test(password)) {
+                continue;
+            }
+            double score = score(fields[id], phrase, terms, typos, id);
+            if (best.size() == limit && score + RECENCY < best.peek().score) {
+                // Not even updated today would it make the results
+                continue;
+            }
+            score += recency(password, today);
+            if (best.size() < limit) {
+                best.add(new Scored(id, score));
+            } else if (score > best.peek().score || (score == best.peek().score && id > best.peek().id)) {
+                best.poll();
+                best.add(new Scored(id, score));
+            }
+        }
+        Password[] ranked = new Password[best.size()];
+        for (int i = ranked.length - 1; i >= 0; i--) {
+            ranked[i] = passwords[best.poll().id];
+        }
+        return new Ranking(Arrays.asList(ranked));
+    }
+
+    private static void checkCancelled(BooleanSupplier cancelled) {
+        if (cancelled.getAsBoolean()) {
+            throw new CancellationException("Search cancelled");
+        }
+    }
+
+    /**
+     * @return Number of indexed passwords
+     */
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * @return Ids of the entries with a field containing the normalized text
+     */
+    private BitSet matching(String normalized) {
+        BitSet matched = new BitSet(nextId);
+        if (normalized.isEmpty()) {
+            return matched;
+        }
+
+        if (normalized.length() < 3) {
+            List<Postings> lists = normalized.length() == 1
+                ? byFirst.get(normalized.charAt(0))
+                : byFirstTwo.get(prefix(normalized.charAt(0), normalized.charAt(1)));
+            if (lists != null) {
+                for (Postings list : lists) {
+                    list.addTo(matched);
+                }
+            }
+            matched.andNot(removed);
+            return matched;
+        }
+
+        Postings[] lists = new Postings[normalized.length() - 2];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = get(pack(normalized.charAt(i), normalized.charAt(i + 1), normalized.charAt(i + 2)));
+            if (lists[i] == null) {
+                return matched;
+            }
+        }
+        // Start from the rarest trigram so the candidates shrink fastest
+        Arrays.sort(lists, Comparator.comparingInt(list -> list.size));
+        int[] candidates = Arrays.copyOf(lists[0].ids, lists[0].size);
+        int count = candidates.length;
+        for (int i = 1; i < lists.length && count > 0; i++) {
+            count = lists[i].retainAll(candidates, count);
+        }
+        // A single trigram is the query itself; longer queries may have their trigrams in different fields
+        boolean check = normalized.length() > 3;
+        for (int i = 0; i < count; i++) {
+            int id = candidates[i];
+            if (!removed.get(id) && (!check || contains(fields[id], normalized))) {
+                matched.set(id);
+            }
+        }
+        return matched;
+    }
+
+    private synchronized void add(Password password) {
+        if (ids.containsKey(password)) {
+            return;
+        }
+        index(password);
+        ChangeListener<String> listener = (property, oldValue, newValue) -> reindex(password);
+        properties(password).forEach(property -> property.addListener(listener));
+        listeners.put(password, listener);
+    }
+
+    private synchronized void remove(Password password) {
+        Integer id = ids.remove(password);
+        if (id == null) {
+            return;
+        }
+        ChangeListener<String> listener = listeners.remove(password);
+        properties(password).forEach(property -> property.removeListener(listener));
+
+        if (ids.isEmpty()) {
+            clear();
+        } else {
+            unindex(id);
+        }
+    }
+
+    private synchronized void reindex(Password password) {
+        Integer id = ids.get(password);
+        if (id != null) {
+            unindex(id);
+            index(password);
+        }
+    }
+
+    private void index(Password password) {
+        int id = nextId++;
+        if (id == fields.length) {
+            fields = Arrays.copyOf(fields, fields.length * 2);
+            passwords = Arrays.copyOf(passwords, passwords.length * 2);
+        }
+        fields[id] = new String[]{
+            normalize(password.getName()), normalize(password.getUsername()), normalize(password.getWebsite())
+        };
+        passwords[id] = password;
+        for (long trigram : trigrams(fields[id])) {
+            getOrCreate(trigram).add(id);
+        }
+        if (words != null) {
+            indexWords(id);
+        }
+        ids.put(password, id);
+    }
+
+    private void unindex(int id) {
+        fields[id] = null;
+        passwords[id] = null;
+        removed.set(id);
+        if (++removedCount > Math.max(MIN_PURGE_THRESHOLD, ids.size())) {
+            purge();
+        }
+    }
+
+    /**
+     * Takes removed entries out of the posting lists and drops the lists left empty.
+     */
+    private void purge() {
+        long[] oldTrigrams = trigrams;
+        Postings[] oldPostings = postings;
+        trigrams = new long[oldTrigrams.length];
+        postings = new Postings[oldPostings.length];
+        trigramCount = 0;
+        byFirst.clear();
+        byFirstTwo.clear();
+        for (int i = 0; i < oldTrigrams.length; i++) {
+            if (oldTrigrams[i] != 0 && oldPostings[i].removeAll(removed) > 0) {
+                put(oldTrigrams[i], oldPostings[i]);
+            }
+        }
+        if (words != null && words.values().removeIf(list -> list.removeAll(removed) == 0)) {
+            wordTree = null;
+        }
+        removed.clear();
+        removedCount = 0;
+    }
+
+    private void clear() {
+        trigrams = new long[INITIAL_CAPACITY];
+        postings = new Postings[INITIAL_CAPACITY];
+        trigramCount = 0;
+        byFirst.clear();
+        byFirstTwo.clear();
+        fields = new String[INITIAL_CAPACITY][];
+        passwords = new Password[INITIAL_CAPACITY];
+        words = null;
+        wordTree = null;
+        removed.clear();
+        removedCount = 0;
+        nextId = 0;
+        epoch++;
+    }
+
+    // Words
+
+    /**
+     * Indexes the words of every entry if they are not yet, and puts them in a tree if they are not.
+     */
+    private void buildWordTree() {
+        if (words == null) {
+            words = new HashMap<>();
+            for (int id = 0; id < nextId; id++) {
+                if (fields[id] != null) {
+                    indexWords(id);
+                }
+            }
+        }
+        if (wordTree == null) {
+            wordTree = new BkTree();
+            for (String word : words.keySet()) {
+                if (!isNumber(word)) {
+                    wordTree.add(word);
+                }
+            }
+        }
+    }
+
+    private void indexWords(int id) {
+        for (String field : fields[id]) {
+            for (String word : words(field)) {
+                Postings list = words.get(word);
+                if (list == null) {
+                    list = new Postings();
+                    words.put(word, list);
+                    if (wordTree != null && !isNumber(word)) {
+                        wordTree.add(word);
+                    }
+                }
+                // Ids are added in order, so a word the entry already has ends its list
+                if (list.size == 0 || list.ids[list.size - 1] != id) {
+                    list.add(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The runs of letters and digits in the text
+     */
+    private static String[] words(String text) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                words.add(text.substring(start, i));
+                start = -1;
+            }
+        }
+        return words.toArray(new String[0]);
+    }
+
+    /**
+     * @return The edits a typo in a query word may need; none for short words, which would match
+     *         too many others, or for numbers, where a typo makes another number
+     */
+    private static int maxEdits(String term) {
+        if (term.length() < 4 || isNumber(term)) {
+            return 0;
+        }
+        return term.length() < 7 ? 1 : 2;
+    }
+
+    /**
+     * @return The distinct words made by swapping two different neighbouring characters of the word
+     */
+    private static Set<String> transpositions(String word) {
+        Set<String> swapped = new HashSet<>();
+        char[] chars = word.toCharArray();
+        for (int i = 0; i + 1 < chars.length; i++) {
+            if (chars[i] != chars[i + 1]) {
+                swap(chars, i);
+                swapped.add(new String(chars));
+                swap(chars, i);
+            }
+        }
+        return swapped;
+    }
+
+    private static void swap(char[] chars, int i) {
+        char c = chars[i];
+        chars[i] = chars[i + 1];
+        chars[i + 1] = c;
+    }
+
+    private static boolean isNumber(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (!Character.isDigit(word.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Scoring
+
+    private double score(String[] entry, String phrase, String[] terms, List<Map<Integer, Typo>> typos, int id) {
+        // A query of several words scores again if the fields hold them as typed
+        double score = terms.length == 1 ? 0 : fieldMatch(entry, phrase);
+        for (int i = 0; i < terms.length; i++) {
+            double term = fieldMatch(entry, terms[i]);
+            Typo typo = typos.get(i).get(id);
+            if (typo != null) {
+                for (int field = 0; field < entry.length; field++) {
+                    if (match(entry[field], typo.word) == WHOLE_WORD) {
+                        term = Math.max(term, FIELD_WEIGHTS[field] * (TYPO - PER_EDIT * typo.distance));
+                    }
+                }
+            }
+            score += term;
+        }
+        return score;
+    }
+
+    private static double fieldMatch(String[] entry, String text) {
+        double best = 0;
+        for (int field = 0; field < entry.length; field++) {
+            best = Math.max(best, FIELD_WEIGHTS[field] * match(entry[field], text));
+        }
+        return best;
+    }
+
+    /**
+     * @return How the text occurs in the field at best: as a whole word, a word start or within a word
+     */
+    private static double match(String field, String text) {
+        double best = 0;
+        for (int at = field.indexOf(text); at >= 0; at = field.indexOf(text, at + 1)) {
+            if (!isWordBoundary(field, at)) {
+                best = Math.max(best, PART_OF_WORD);
+            } else if (isWordBoundary(field, at + text.length())) {
+                return WHOLE_WORD;
+            } else {
+                best = WORD_START;
+            }
+        }
+        return best;
+    }
+
+    private static boolean isWordBoundary(String field, int index) {
+        return index == 0 || index == field.length()
+            || !Character.isLetterOrDigit(field.charAt(index - 1)) || !Character.isLetterOrDigit(field.charAt(index));
+    }
+
+    private static double recency(Password password, int today) {
+        int updated = epochDay(password.getLastUpdated());
+        if (updated < 0) {
+            updated = epochDay(password.getCreatedDate());
+        }
+        if (updated < 0) {
+            return 0;
+        }
+        return RECENCY * Math.pow(0.5, Math.max(0, today - updated) / RECENCY_HALF_LIFE_DAYS);
+    }
+
+    /**
+     * @return The day of a dd.MM.yyyy date, or -1 if it is not one
+     */
+    private static int epochDay(String date) {
+        if (date == null || date.length() != 10 || date.charAt(2) != '.' || date.charAt(5) != '.') {
+            return -1;
+        }
+        try {
+            return (int) LocalDate.of(Integer.parseInt(date.substring(6)), Integer.parseInt(date.substring(3, 5)),
+                Integer.parseInt(date.substring(0, 2))).toEpochDay();
+        } catch (NumberFormatException | DateTimeException e) {
+            return -1;
+        }
+    }
+
+    // Trigram table
+
+    private Postings get(long trigram) {
+        int mask = trigrams.length - 1;
+        for (int slot = slot(trigram, mask); trigrams[slot] != 0; slot = (slot + 1) & mask) {
+            if (trigrams[slot] == trigram) {
+                return postings[slot];
+            }
+        }
+        return null;
+    }
+
+    private Postings getOrCreate(long trigram) {
+        Postings list = get(trigram);
+        if (list == null) {
+            list = new Postings();
+            put(trigram, list);
+        }
+        return list;
+    }
+
+    private void put(long trigram, Postings list) {
+        if ((trigramCount + 1) * 2 > trigrams.length) {
+            long[] oldTrigrams = trigrams;
+            Postings[] oldPostings = postings;
+            trigrams = new long[oldTrigrams.length * 2];
+            postings = new Postings[oldPostings.length * 2];
+            for (int i = 0; i < oldTrigrams.length; i++) {
+                if (oldTrigrams[i] != 0) {
+                    insert(oldTrigrams[i], oldPostings[i]);
+                }
+            }
+        }
+        insert(trigram, list);
+        trigramCount++;
+        byFirst.computeIfAbsent(first(trigram), key -> new ArrayList<>()).add(list);
+        byFirstTwo.computeIfAbsent(firstTwo(trigram), key -> new ArrayList<>()).add(list);
+    }
+
+    private void insert(long trigram, Postings list) {
+        int mask = trigrams.length - 1;
+        int slot = slot(trigram, mask);
+        while (trigrams[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        trigrams[slot] = trigram;
+        postings[slot] = list;
+    }
+
+    private static int slot(long trigram, int mask) {
+        return (int) ((trigram * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+    }
+
+    // Trigrams
+
+    /**
+     * @return The distinct trigrams starting at each character of the fields
+     */
+    private static long[] trigrams(String[] fields) {
+        int length = 0;
+        for (String field : fields) {
+            length += field.length();
+        }
+        long[] trigrams = new long[length];
+        int count = 0;
+        for (String field : fields) {
+            for (int i = 0; i < field.length(); i++) {
+                trigrams[count++] = pack(field.charAt(i), charAt(field, i + 1), charAt(field, i + 2));
+            }
+        }
+        Arrays.sort(trigrams);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || trigrams[i] != trigrams[i - 1]) {
+                trigrams[distinct++] = trigrams[i];
+            }
+        }
+        return Arrays.copyOf(trigrams, distinct);
+    }
+
+    private static char charAt(String field, int index) {
+        return index < field.length() ? field.charAt(index) : END;
+    }
+
+    private static long pack(int first, int second, int third) {
+        return ((long) first << 32) | ((long) second << 16) | third;
+    }
+
+    private static int prefix(int first, int second) {
+        return first << 16 | second;
+    }
+
+    private static char first(long trigram) {
+        return (char) (trigram >>> 32);
+    }
+
+    private static int firstTwo(long trigram) {
+        return (int) (trigram >>> 16);
+    }
+
+    private static boolean contains(String[] fields, String query) {
+        for (String field : fields) {
+            if (field.contains(query)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        return lower.indexOf(END) < 0 ? lower : lower.replace(String.valueOf(END), "");
+    }
+
+    private static List<StringProperty> properties(Password password) {
+        return List.of(password.nameProperty(), password.usernameProperty(), password.websiteProperty());
+    }
+
+    /**
+     * A word of an entry that a query word matches with a typo.
+     */
+    private static final class Typo {
+        final String word;
+        final int distance;
+
+        Typo(String word, int distance) {
+            this.word = word;
+            this.distance = distance;
+        }
+
+        Typo closer(Typo other) {
+            return other.distance < distance ? other : this;
+        }
+    }
+
+    private static final class Scored {
+        final int id;
+        final double score;
+
+        Scored(int id, double score) {
+            this.id = id;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Ids of the entries holding a trigram or word, in increasing order as ids are handed out.
+     */
+    private static final class Postings {
+        private int[] ids = new int[2];
+        private int size;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        /**
+         * @return The number of ids left
+         */
+        int removeAll(BitSet removed) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (!removed.get(ids[i])) {
+                    ids[kept++] = ids[i];
+                }
+            }
+            size = kept;
+            if (size < ids.length / 4) {
+                ids = Arrays.copyOf(ids, Math.max(2, size));
+            }
+            return size;
+        }
+
+        void addTo(BitSet set) {
+            for (int i = 0; i < size; i++) {
+                set.set(ids[i]);
+            }
+        }
+
+        /**
+         * Keeps the sorted candidates that are also in this list.
+         * @return The number of candidates kept, moved to the front
+         */
+        int retainAll(int[] candidates, int count) {
+            int kept = 0;
+            int from = 0;
+            // Look few candidates up in a long list; walk lists of similar length side by side
+            boolean search = size > count * 16;
+            for (int i = 0; i < count && from < size; i++) {
+                int candidate = candidates[i];
+                if (search) {
+                    int at = Arrays.binarySearch(ids, from, size, candidate);
+                    from = at >= 0 ? at : -at - 1;
+                } else {
+                    while (from < size && ids[from] < candidate) {
+                        from++;
+                    }
+                }
+                if (from < size && ids[from] == candidate) {
+                    candidates[kept++] = candidate;
+                    from++;
+                }
+            }
+            return kept;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.passmate.services.impl;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.passmate.services.Compression;
+import com.passmate.services.PayloadFormat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Serializes stored data in the selected {@link PayloadFormat}, optionally compressed, and reads
+ * any format back, recognizing it by the header at the start of the payload.
+ * Compressed payloads start with [0][algorithm id][dictionary id], which no format can start with.
+ */
+final class PayloadCodec {
+
+    private static final byte COMPRESSED = 0;
+    private static final int COMPRESSION_HEADER_LENGTH = 3;
+    private static final int NO_DICTIONARY = 0;
+    private static final int RECORD_DICTIONARY_ID = 1;
+    /**
+     * Preset dictionary for single records, which are too short to compress on their own: field names
+     * and values common across entries, most frequent last. Never change it; add one under a new id.
+     */
+    private static final byte[] RECORD_DICTIONARY = ("\"iconName\":\"\",\"color\":\"#666666\",\"iconUrl\":\"\","
+        + "\"category\":\"\",\"createdBy\":\"User\",\"createdDate\":\"\",\"lastUpdated\":\"\",\"notes\":\"\","
+        + "@outlook.com@yahoo.com@hotmail.com@example.com@gmail.com.org.net.com\",\"website\":\"https://www.\","
+        + "\"password\":\"\",\"title\":\"\",\"username\":\"\",\"categoryId\":\"\",\"passwordHash\":\"v3:\","
+        + "{\"id\":\"\",\"name\":\"\"}").getBytes(StandardCharsets.UTF_8);
+    private static final int LEVEL = Deflater.BEST_SPEED;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final ObjectMapper json;
+    private final ObjectWriter jsonRecords;
+    private final ObjectMapper smile;
+    private volatile PayloadFormat format;
+    private volatile Compression compression;
+
+    PayloadCodec(PayloadFormat format, Compression compression) {
+        this.json = new ObjectMapper();
+        this.json.configure(SerializationFeature.INDENT_OUTPUT, true);
+        this.jsonRecords = json.writer().without(SerializationFeature.INDENT_OUTPUT);
+        // Entries repeat short values (websites, categories, usernames); back-reference them too
+        this.smile = new ObjectMapper(SmileFactory.builder()
+            .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+            .build());
+        this.format = format;
+        this.compression = compression;
+    }
+
+    PayloadFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Selects the format of everything written from now on; existing payloads stay readable.
+     */
+    void setFormat(PayloadFormat format) {
+        this.format = format;
+    }
+
+    Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Selects the compression of everything written from now on; existing payloads stay readable.
+     */
+    void setCompression(Compression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * @return The JSON mapper, for documents that stay JSON whatever the payload format
+     */
+    ObjectMapper getJsonMapper() {
+        return json;
+    }
+
+    TypeFactory getTypeFactory() {
+        return json.getTypeFactory();
+    }
+
+    /**
+     * Writes a document, such as a snapshot file, compressed as currently selected.
+     * @param format The format to write, normally {@link #getFormat()} read once by the caller
+     */
+    void write(OutputStream out, PayloadFormat format, Object value) throws IOException {
+        mapper(format).writeValue(compressing(out), value);
+    }
+
+    /**
+     * Rewrites a document in another format token by token, without binding it to model classes.
+     */
+    void transcode(InputStream in, OutputStream out, PayloadFormat format) throws IOException {
+        try (JsonParser parser = parse(in);
+             JsonGenerator generator = generate(out, format)) {
+            if (parser.nextToken() != null) {
+                generator.copyCurrentStructure(parser);
+            }
+        }
+    }
+
+    /**
+     * Serializes a single record, such as a journal entry, in the selected format without indentation.
+     * Compressed records use the record dictionary and are kept uncompressed if that is not smaller.
+     */
+    byte[] writeRecord(Object value) throws IOException {
+        PayloadFormat current = format;
+        byte[] payload = current == PayloadFormat.JSON
+            ? jsonRecords.writeValueAsBytes(value)
+            : mapper(current).writeValueAsBytes(value);
+        if (compression == Compression.NONE) {
+            return payload;
+        }
+
+        Deflater deflater = new Deflater(LEVEL);
+        try {
+            deflater.setDictionary(RECORD_DICTIONARY);
+            deflater.setInput(payload);
+            deflater.finish();
+            byte[] record = new byte[payload.length];
+            record[0] = COMPRESSED;
+            record[1] = (byte) Compression.DEFLATE.getId();
+            record[2] = RECORD_DICTIONARY_ID;
+            int length = COMPRESSION_HEADER_LENGTH;
+            while (!deflater.finished() && length < record.length) {
+                length += deflater.deflate(record, length, record.length - length);
+            }
+            if (!deflater.finished()) {
+                return payload;
+            }
+            Arrays.fill(payload, (byte) 0);
+            return Arrays.copyOf(record, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    <T> T read(InputStream in, JavaType type) throws IOException {
+        PushbackInputStream decoded = decompressing(in);
+        return mapper(detect(decoded)).readValue(decoded, type);
+    }
+
+    /**
+     * Reads a document holding an array one element at a time, so only the element being parsed
+     * is held in memory.
+     * @return The elements; closing the iterator closes {@code in}
+     */
+    <T> MappingIterator<T> readElements(InputStream in, JavaType elementType) throws IOException {
+        PushbackInputStream decoded = decompressing(in);
+        return mapper(detect(decoded)).readerFor(elementType).readValues(decoded);
+    }
+
+    /**
+     * Opens a document for reading token by token, so documents of any size can be parsed in bounded
+     * memory; values within it can still be bound with {@link JsonParser#readValueAs(Class)}.
+     * @return The parser; closing it closes {@code in}
+     */
+    JsonParser parse(InputStream in) throws IOException {
+        PushbackInputStream decoded = decompressing(in);
+        return mapper(detect(decoded)).createParser(decoded);
+    }
+
+    /**
+     * Starts writing a document token by token, compressed as currently selected. Values can be
+     * written whole with {@link JsonGenerator#writeObject(Object)}.
+     * @return The generator; closing it closes {@code out}
+     */
+    JsonGenerator generate(OutputStream out, PayloadFormat format) throws IOException {
+        JsonGenerator generator = mapper(format).createGenerator(compressing(out));
+        if (format == PayloadFormat.JSON) {
+            generator.useDefaultPrettyPrinter();
+        }
+        return generator;
+    }
+
+    <T> T read(byte[] data, int offset, int length, JavaType type) throws IOException {
+        if (length < COMPRESSION_HEADER_LENGTH || data[offset] != COMPRESSED) {
+            return mapper(PayloadFormat.detect(data, offset, length)).readValue(data, offset, length, type);
+        }
+        byte[] payload = inflate(data, offset, length);
+        try {
+            return mapper(PayloadFormat.detect(payload, 0, payload.length)).readValue(payload, type);
+        } finally {
+            Arrays.fill(payload, (byte) 0);
+        }
+    }
+
+    <T> T read(byte[] data, JavaType type) throws IOException {
+        return read(data, 0, data.length, type);
+    }
+
+    // Private helpers
+
+    /**
+     * Starts a compressed payload if compression is selected.
+     * @return The stream to write the document to; closing it closes {@code out}
+     */
+    private OutputStream compressing(OutputStream out) throws IOException {
+        Compression current = compression;
+        if (current == Compression.NONE) {
+            return out;
+        }
+        out.write(new byte[]{COMPRESSED, (byte) current.getId(), NO_DICTIONARY});
+        Deflater deflater = new Deflater(LEVEL);
+        return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return The payload of a document with any compression undone, ready for format detection
+     */
+    private static PushbackInputStream decompressing(InputStream in) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(in, COMPRESSION_HEADER_LENGTH);
+        byte[] header = pushback.readNBytes(COMPRESSION_HEADER_LENGTH);
+        if (header.length < COMPRESSION_HEADER_LENGTH || header[0] != COMPRESSED) {
+            pushback.unread(header);
+            return new PushbackInputStream(pushback, PayloadFormat.MAX_HEADER_LENGTH);
+        }
+        if (checkHeader(header, 0)) {
+            throw new IOException("Compressed documents cannot use a dictionary");
+        }
+        Inflater inflater = new Inflater();
+        InputStream inflating = new InflaterInputStream(pushback, inflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+        return new PushbackInputStream(inflating, PayloadFormat.MAX_HEADER_LENGTH);
+    }
+
+    private static byte[] inflate(byte[] data, int offset, int length) throws IOException {
+        boolean dictionary = checkHeader(data, offset);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, offset + COMPRESSION_HEADER_LENGTH, length - COMPRESSION_HEADER_LENGTH);
+            byte[] payload = new byte[Math.max(256, length * 4)];
+            int size = 0;
+            while (!inflater.finished()) {
+                if (size == payload.length) {
+                    byte[] larger = Arrays.copyOf(payload, payload.length * 2);
+                    Arrays.fill(payload, (byte) 0);
+                    payload = larger;
+                }
+                int n = inflater.inflate(payload, size, payload.length - size);
+                if (n == 0 && inflater.needsDictionary() && dictionary) {
+                    inflater.setDictionary(RECORD_DICTIONARY);
+                    dictionary = false;
+                } else if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated compressed payload");
+                }
+                size += n;
+            }
+            byte[] result = Arrays.copyOf(payload, size);
+            Arrays.fill(payload, (byte) 0);
+            return result;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed payload: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return Whether the payload was compressed against the record dictionary
+     */
+    private static boolean checkHeader(byte[] header, int offset) throws IOException {
+        Compression compression;
+        try {
+            compression = Compression.fromId(header[offset + 1]);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        if (compression != Compression.DEFLATE) {
+            throw new IOException("Unsupported compression in payload header: " + compression);
+        }
+        if (header[offset + 2] != NO_DICTIONARY && header[offset + 2] != RECORD_DICTIONARY_ID) {
+            throw new IOException("Unknown compression dictionary: " + header[offset + 2]);
+        }
+        return header[offset + 2] == RECORD_DICTIONARY_ID;
+    }
+
+    private static PayloadFormat detect(PushbackInputStream in) throws IOException {
+        byte[] header = in.readNBytes(PayloadFormat.MAX_HEADER_LENGTH);
+        in.unread(header);
+        return PayloadFormat.detect(header, 0, header.length);
+    }
+
+    private ObjectMapper mapper(PayloadFormat format) {
+        return format == PayloadFormat.SMILE ? smile : json;
+    }
+}
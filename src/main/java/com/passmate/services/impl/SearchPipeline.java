@@ -0,0 +1,175 @@
+package com.passmate.services.impl;
+
+import com.passmate.models.SearchMetrics;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Runs the searches of a search field on a background thread so typing never waits for them.
+ * A search starts once the text has not changed for the debounce delay; newer text replaces a
+ * search that has not started, cancels one that is running and discards a result not yet shown,
+ * so only the result for the latest text reaches the listener, on the publishing executor.
+ * @param <R> The search result type
+ */
+public class SearchPipeline<R> {
+
+    /**
+     * A search, run on the search thread. Cancellation is cooperative: a search checks the
+     * supplier now and then and throws a {@link CancellationException} once it answers true.
+     */
+    @FunctionalInterface
+    public interface Query<R> {
+        R run(BooleanSupplier cancelled);
+    }
+
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 150;
+
+    private final Executor publisher;
+    private final Consumer<R> listener;
+    private final ScheduledExecutorService searcher;
+    private volatile long debounceMillis;
+    /** Counts submissions and cancellations; a search is stale once it changes. Changed under the lock. */
+    private volatile long generation;
+    /** The search waiting for the debounce delay, if it has not started. */
+    private Future<?> scheduled;
+    private final SearchMetrics metrics = new SearchMetrics();
+    private double totalQueryMillis;
+    private double totalLatencyMillis;
+
+    /**
+     * @param publisher Runs the listener, e.g. {@code Platform::runLater}
+     * @param listener Receives the result of the latest search
+     */
+    public SearchPipeline(Executor publisher, Consumer<R> listener) {
+        this(publisher, listener, DEFAULT_DEBOUNCE_MILLIS);
+    }
+
+    public SearchPipeline(Executor publisher, Consumer<R> listener, long debounceMillis) {
+        this.publisher = publisher;
+        this.listener = listener;
+        this.debounceMillis = debounceMillis;
+        this.searcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "PassMate-search");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Searches once the text stops changing, superseding every earlier search.
+     */
+    public synchronized void submit(Query<R> query) {
+        long submittedAt = System.nanoTime();
+        long search = supersede();
+        metrics.setSubmitted(metrics.getSubmitted() + 1);
+        scheduled = searcher.schedule(() -> run(query, search, submittedAt), debounceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Drops every search submitted so far, e.g. when the results were just computed another way.
+     */
+    public synchronized void cancel() {
+        supersede();
+    }
+
+    /**
+     * @param debounceMillis How long the text has to stay unchanged before it is searched
+     */
+    public void setDebounceMillis(long debounceMillis) {
+        this.debounceMillis = debounceMillis;
+    }
+
+    public long getDebounceMillis() {
+        return debounceMillis;
+    }
+
+    /**
+     * @return A snapshot of the counts and timings so far
+     */
+    public synchronized SearchMetrics getMetrics() {
+        SearchMetrics snapshot = new SearchMetrics();
+        snapshot.setSubmitted(metrics.getSubmitted());
+        snapshot.setPublished(metrics.getPublished());
+        snapshot.setDebounced(metrics.getDebounced());
+        snapshot.setCancelled(metrics.getCancelled());
+        snapshot.setFailed(metrics.getFailed());
+        snapshot.setAverageQueryMillis(metrics.getAverageQueryMillis());
+        snapshot.setMaxQueryMillis(metrics.getMaxQueryMillis());
+        snapshot.setAverageLatencyMillis(metrics.getAverageLatencyMillis());
+        snapshot.setMaxLatencyMillis(metrics.getMaxLatencyMillis());
+        snapshot.setLastLatencyMillis(metrics.getLastLatencyMillis());
+        return snapshot;
+    }
+
+    /**
+     * Makes every search so far stale and unschedules the one waiting for the debounce delay.
+     * @return The generation of the next search
+     */
+    private long supersede() {
+        if (scheduled != null && scheduled.cancel(false)) {
+            metrics.setDebounced(metrics.getDebounced() + 1);
+        }
+        scheduled = null;
+        return ++generation;
+    }
+
+    private void run(Query<R> query, long search, long submittedAt) {
+        BooleanSupplier cancelled = () -> generation != search;
+        synchronized (this) {
+            if (cancelled.getAsBoolean()) {
+                // Superseded as it started, and counted as debounced then
+                return;
+            }
+            // Started: from now on newer text cancels it rather than unscheduling it
+            scheduled = null;
+        }
+        long start = System.nanoTime();
+        R result;
+        try {
+            result = query.run(cancelled);
+        } catch (CancellationException e) {
+            dropped();
+            return;
+        } catch (RuntimeException e) {
+            System.err.println("Search failed: " + e.getMessage());
+            synchronized (this) {
+                metrics.setFailed(metrics.getFailed() + 1);
+            }
+            return;
+        }
+        double queryMillis = (System.nanoTime() - start) / 1e6;
+
+        publisher.execute(() -> {
+            // Newer text may have arrived while the result waited for the publisher
+            if (cancelled.getAsBoolean()) {
+                dropped();
+                return;
+            }
+            listener.accept(result);
+            published(queryMillis, (System.nanoTime() - submittedAt) / 1e6);
+        });
+    }
+
+    private synchronized void dropped() {
+        metrics.setCancelled(metrics.getCancelled() + 1);
+    }
+
+    private synchronized void published(double queryMillis, double latencyMillis) {
+        long published = metrics.getPublished() + 1;
+        totalQueryMillis += queryMillis;
+        totalLatencyMillis += latencyMillis;
+        metrics.setPublished(published);
+        metrics.setAverageQueryMillis(totalQueryMillis / published);
+        metrics.setMaxQueryMillis(Math.max(metrics.getMaxQueryMillis(), queryMillis));
+        metrics.setAverageLatencyMillis(totalLatencyMillis / published);
+        metrics.setMaxLatencyMillis(Math.max(metrics.getMaxLatencyMillis(), latencyMillis));
+        metrics.setLastLatencyMillis(latencyMillis);
+    }
+}
@@ -0,0 +1,118 @@
+package com.passmate.services.impl;
+
+import com.passmate.models.PasswordSummary;
+import com.passmate.models.StorageData;
+import com.passmate.services.exceptions.CryptoException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Unlocks encrypted storage and loads everything it holds, timing each phase: the unlock itself
+ * (key derivation, manifest, migrations), an optional preview of the first entries, the load of
+ * each storage file, which run in parallel, and the hand-over of the loaded data to the application.
+ */
+public class StartupLoader {
+
+    /**
+     * Takes over the loaded data, called on the loading thread.
+     */
+    @FunctionalInterface
+    public interface DataConsumer {
+        void accept(StorageData data) throws CryptoException;
+    }
+
+    /** One thread per storage file loaded at startup, as far as there are cores; decryption is CPU bound. */
+    private static final int LOADER_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    private final EncryptedStorageService storageService;
+    private final Map<String, Double> phases = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final long start = System.nanoTime();
+
+    public StartupLoader(EncryptedStorageService storageService) {
+        this.storageService = storageService;
+    }
+
+    /**
+     * Opens the storage with the master key; reported as phase "unlock".
+     */
+    public void unlock(char[] masterKey) throws CryptoException {
+        time("unlock", () -> storageService.initialize(masterKey));
+    }
+
+    /**
+     * Reads the list fields of the first entries, to show before the full load; reported as phase "preview".
+     * Takes about as long for any vault size, as only the start of the summary file is read.
+     * @param limit Maximum number of entries
+     */
+    public List<PasswordSummary> preview(int limit) throws CryptoException {
+        List<PasswordSummary> summaries = new ArrayList<>(limit);
+        time("preview", () -> {
+            try (Stream<PasswordSummary> stream = storageService.streamSummaries()) {
+                stream.limit(limit).forEach(summaries::add);
+            }
+        });
+        return summaries;
+    }
+
+    /**
+     * Loads passwords, categories, vault and settings in parallel and passes them to the consumer.
+     * Each file is reported as its own phase, the whole parallel load as "load" and the consumer as "apply".
+     */
+    public void load(DataConsumer consumer) throws CryptoException {
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(LOADER_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "PassMate-loader-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        StorageData[] data = new StorageData[1];
+        try {
+            time("load", () -> data[0] = storageService.loadAll(executor, phases::put));
+        } finally {
+            executor.shutdown();
+        }
+        time("apply", () -> consumer.accept(data[0]));
+    }
+
+    /**
+     * @return Milliseconds spent per phase, in the order the phases finished
+     */
+    public Map<String, Double> getPhaseMillis() {
+        synchronized (phases) {
+            return new LinkedHashMap<>(phases);
+        }
+    }
+
+    /**
+     * @return One line listing every phase and the total since this loader was created
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder("Startup phases:");
+        getPhaseMillis().forEach((phase, millis) ->
+            report.append(' ').append(phase).append(' ').append(String.format("%.1f", millis)).append(" ms,"));
+        return report.append(" total ").append(String.format("%.1f", (System.nanoTime() - start) / 1e6))
+            .append(" ms").toString();
+    }
+
+    @FunctionalInterface
+    private interface Phase {
+        void run() throws CryptoException;
+    }
+
+    private void time(String name, Phase phase) throws CryptoException {
+        long phaseStart = System.nanoTime();
+        try {
+            phase.run();
+        } finally {
+            phases.put(name, (System.nanoTime() - phaseStart) / 1e6);
+        }
+    }
+}
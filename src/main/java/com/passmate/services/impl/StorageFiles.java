@@ -0,0 +1,70 @@
+package com.passmate.services.impl;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Set;
+
+/**
+ * File system helpers shared by the storage implementations.
+ */
+final class StorageFiles {
+
+    /**
+     * Set to true to memory map large files for reading and save through gathering writes. Off by default:
+     * reads already stream one segment at a time, and MappedIoBenchmark measured no gain over buffered
+     * streams while the parser dominates, with slower cold reads (page faults get less readahead).
+     */
+    static final String CHANNEL_IO_PROPERTY = "passmate.storage.channelIo";
+
+    private StorageFiles() { }
+
+    /**
+     * @return Whether large files are memory mapped for reading and saves use gathering writes
+     */
+    static boolean isChannelIoEnabled() {
+        return Boolean.parseBoolean(System.getProperty(CHANNEL_IO_PROPERTY, "false"));
+    }
+
+    /**
+     * Forces a file's contents to disk.
+     */
+    static void force(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Forces the directory itself to disk so that creations and renames in it are durable.
+     * Some platforms cannot open directories; there this is left to the file system.
+     */
+    static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported here (e.g. Windows)
+        }
+    }
+
+    static void setOwnerOnlyPermissions(Path path) throws IOException {
+        // Set file permissions (owner only)
+        if (!System.getProperty("os.name").toLowerCase().contains("windows")) {
+            Files.setPosixFilePermissions(path, Set.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE));
+        }
+    }
+
+    /**
+     * Creates a storage directory readable only by its owner.
+     */
+    static void createPrivateDirectory(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        if (!System.getProperty("os.name").toLowerCase().contains("windows")) {
+            Files.setPosixFilePermissions(directory, Set.of(PosixFilePermission.OWNER_READ,
+                PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE));
+        }
+    }
+}
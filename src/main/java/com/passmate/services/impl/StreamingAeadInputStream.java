@@ -0,0 +1,214 @@
+package com.passmate.services.impl;
+
+import com.passmate.services.CipherSuite;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import static com.passmate.services.impl.StreamingAeadOutputStream.HEADER_LENGTH;
+import static com.passmate.services.impl.StreamingAeadOutputStream.MAGIC;
+import static com.passmate.services.impl.StreamingAeadOutputStream.TAG_LENGTH;
+import static com.passmate.services.impl.StreamingAeadOutputStream.V1_HEADER_LENGTH;
+import static com.passmate.services.impl.StreamingAeadOutputStream.VERSION;
+import static com.passmate.services.impl.StreamingAeadOutputStream.VERSION_1;
+
+/**
+ * Decrypting counterpart of {@link StreamingAeadOutputStream}.
+ * Plaintext of a segment is only released after its tag has been verified, and closing the
+ * stream early still authenticates the remaining segments so truncation is always detected.
+ * Several candidate keys may be supplied (during key rotation); the first segment decides
+ * which one the stream was written with.
+ * Over a {@link MappedFileInputStream}, segments are decrypted straight from the mapped file.
+ */
+final class StreamingAeadInputStream extends FilterInputStream {
+
+    private static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private final CipherSuite suite;
+    private final Cipher cipher;
+    private List<SecretKey> keys;
+    private final byte[] header;
+    private final MappedFileInputStream mapped;
+    private final byte[] ciphertext;
+    private final byte[] plaintext;
+    private int position;
+    private int available;
+    private int counter;
+    private int lookahead = -1;
+    private boolean finished;
+    private boolean closed;
+
+    /**
+     * @param keys Supplies the candidate keys for the suite named in the stream header
+     */
+    StreamingAeadInputStream(InputStream in, Function<CipherSuite, List<SecretKey>> keys, CryptoContext context)
+            throws IOException, GeneralSecurityException {
+        super(in);
+        byte[] prefix = in.readNBytes(MAGIC.length + 1);
+        if (prefix.length != MAGIC.length + 1 || !hasMagic(prefix)) {
+            throw new IOException("Not a streaming ciphertext");
+        }
+        byte version = prefix[MAGIC.length];
+        if (version != VERSION_1 && version != VERSION) {
+            throw new IOException("Unsupported streaming ciphertext version");
+        }
+
+        int headerLength = version == VERSION_1 ? V1_HEADER_LENGTH : HEADER_LENGTH;
+        this.header = Arrays.copyOf(prefix, headerLength);
+        if (in.readNBytes(header, prefix.length, headerLength - prefix.length) != headerLength - prefix.length) {
+            throw new IOException("Truncated streaming ciphertext header");
+        }
+        ByteBuffer parsed = ByteBuffer.wrap(header, prefix.length, headerLength - prefix.length);
+        try {
+            this.suite = version == VERSION_1 ? CipherSuite.AES_256_GCM : CipherSuite.fromId(parsed.get());
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        this.cipher = context.newCipher(suite);
+        this.keys = keys.apply(suite);
+
+        int segmentSize = parsed.getInt();
+        if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IOException("Invalid segment size: " + segmentSize);
+        }
+
+        this.mapped = in instanceof MappedFileInputStream ? (MappedFileInputStream) in : null;
+        this.ciphertext = mapped == null ? new byte[segmentSize + TAG_LENGTH] : null;
+        this.plaintext = new byte[segmentSize];
+    }
+
+    /**
+     * @return true if the stream starts with the streaming ciphertext magic
+     */
+    static boolean hasMagic(byte[] prefix) {
+        return prefix.length >= MAGIC.length && Arrays.equals(prefix, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        int n = read(one, 0, 1);
+        return n == -1 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+        while (position == available) {
+            if (finished) {
+                return -1;
+            }
+            openSegment();
+        }
+        int n = Math.min(len, available - position);
+        System.arraycopy(plaintext, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return available - position;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        byte[] scratch = new byte[(int) Math.min(n, 8192)];
+        while (skipped < n) {
+            int r = read(scratch, 0, (int) Math.min(scratch.length, n - skipped));
+            if (r == -1) {
+                break;
+            }
+            skipped += r;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            // Authenticate whatever the caller did not consume
+            while (!finished) {
+                openSegment();
+            }
+        } finally {
+            closed = true;
+            Arrays.fill(plaintext, (byte) 0);
+            in.close();
+        }
+    }
+
+    private void openSegment() throws IOException {
+        ByteBuffer segment = null;
+        int length = 0;
+        boolean last;
+        if (mapped != null) {
+            segment = mapped.slice(plaintext.length + TAG_LENGTH);
+            length = segment.remaining();
+            last = mapped.available() == 0;
+        } else {
+            if (lookahead != -1) {
+                ciphertext[length++] = (byte) lookahead;
+                lookahead = -1;
+            }
+            length += in.readNBytes(ciphertext, length, ciphertext.length - length);
+
+            // A segment is final if the input ends right after it
+            last = length < ciphertext.length;
+            if (!last) {
+                lookahead = in.read();
+                last = lookahead == -1;
+            }
+        }
+        if (length < TAG_LENGTH) {
+            throw new IOException("Truncated streaming ciphertext");
+        }
+
+        byte[] nonce = StreamingAeadOutputStream.segmentNonce(header, counter, last);
+        for (int i = 0; ; i++) {
+            try {
+                suite.init(cipher, Cipher.DECRYPT_MODE, keys.get(i), nonce, 0);
+                cipher.updateAAD(header);
+                available = segment != null
+                    ? cipher.doFinal(segment.duplicate(), ByteBuffer.wrap(plaintext))
+                    : cipher.doFinal(ciphertext, 0, length, plaintext, 0);
+                // Later segments can only be valid under the key that opened this one
+                keys = List.of(keys.get(i));
+                break;
+            } catch (GeneralSecurityException e) {
+                if (i + 1 >= keys.size()) {
+                    throw new IOException("Segment " + counter + " failed authentication", e);
+                }
+            }
+        }
+        position = 0;
+        counter++;
+        finished = last;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
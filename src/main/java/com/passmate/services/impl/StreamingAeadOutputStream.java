@@ -0,0 +1,171 @@
+package com.passmate.services.impl;
+
+import com.passmate.services.CipherSuite;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * Encrypting stream that splits plaintext into fixed-size segments, each sealed with the AEAD suite.
+ * Format: [header][segment 0]...[segment n], header = [magic][version][suite][segment size][nonce prefix].
+ * Version 1 headers have no suite byte and are always AES-GCM.
+ * Segment nonces are [nonce prefix][counter][final flag], so reordering, dropping or truncating
+ * segments fails authentication. Only one segment of plaintext is ever buffered.
+ * Over a {@link GatheringFileOutputStream}, the header and up to {@link #GATHERED_SEGMENTS} sealed
+ * segments are written together in one gathering write.
+ */
+final class StreamingAeadOutputStream extends FilterOutputStream {
+
+    static final byte[] MAGIC = {(byte) 0x89, 'P', 'M', 'S'};
+    static final byte VERSION_1 = 1;
+    static final byte VERSION = 2;
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+    static final int NONCE_PREFIX_LENGTH = 7;
+    static final int V1_HEADER_LENGTH = MAGIC.length + 1 + Integer.BYTES + NONCE_PREFIX_LENGTH;
+    static final int HEADER_LENGTH = V1_HEADER_LENGTH + 1;
+    static final int TAG_LENGTH = CipherSuite.TAG_LENGTH;
+    static final int GATHERED_SEGMENTS = 4;
+
+    private final CipherSuite suite;
+    private final Cipher cipher;
+    private final SecretKey key;
+    private final byte[] header;
+    private final byte[] plaintext;
+    private final byte[][] ciphertexts;
+    private final GatheringFileOutputStream gathering;
+    /** Header and sealed segments not yet written, in gathering mode */
+    private final ByteBuffer[] pending;
+    private int pendingCount;
+    private int buffered;
+    private int counter;
+    private boolean closed;
+
+    StreamingAeadOutputStream(OutputStream out, SecretKey key, CipherSuite suite, CryptoContext context,
+                              int segmentSize) throws IOException, GeneralSecurityException {
+        super(out);
+        this.suite = suite;
+        this.cipher = context.newCipher(suite);
+        this.key = key;
+        this.plaintext = new byte[segmentSize];
+        this.gathering = out instanceof GatheringFileOutputStream ? (GatheringFileOutputStream) out : null;
+        this.ciphertexts = new byte[gathering != null ? GATHERED_SEGMENTS : 1][segmentSize + TAG_LENGTH];
+        this.pending = gathering != null ? new ByteBuffer[GATHERED_SEGMENTS + 1] : null;
+
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        context.nextBytes(noncePrefix);
+        this.header = ByteBuffer.allocate(HEADER_LENGTH)
+            .put(MAGIC)
+            .put(VERSION)
+            .put((byte) suite.getId())
+            .putInt(segmentSize)
+            .put(noncePrefix)
+            .array();
+        if (gathering != null) {
+            pending[pendingCount++] = ByteBuffer.wrap(header);
+        } else {
+            out.write(header);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (buffered == plaintext.length) {
+                // A full segment is only sealed once more data arrives, so the final one is always flagged
+                sealSegment(false);
+            }
+            int n = Math.min(len, plaintext.length - buffered);
+            System.arraycopy(b, off, plaintext, buffered, n);
+            buffered += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // Partial segments cannot be emitted without ending the stream; flush what is already sealed
+        writePending();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            sealSegment(true);
+            writePending();
+            out.flush();
+        } finally {
+            Arrays.fill(plaintext, (byte) 0);
+            out.close();
+        }
+    }
+
+    private void sealSegment(boolean last) throws IOException {
+        try {
+            suite.init(cipher, Cipher.ENCRYPT_MODE, key, segmentNonce(header, counter, last), 0);
+            cipher.updateAAD(header);
+            if (gathering == null) {
+                byte[] ciphertext = ciphertexts[0];
+                out.write(ciphertext, 0, cipher.doFinal(plaintext, 0, buffered, ciphertext, 0));
+            } else {
+                // Segment buffers are reused in turn, so write out the previous round before the first is reused
+                if (counter % GATHERED_SEGMENTS == 0) {
+                    writePending();
+                }
+                byte[] ciphertext = ciphertexts[counter % GATHERED_SEGMENTS];
+                pending[pendingCount++] = ByteBuffer.wrap(ciphertext, 0,
+                    cipher.doFinal(plaintext, 0, buffered, ciphertext, 0));
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Segment encryption failed: " + e.getMessage(), e);
+        }
+        if (counter == Integer.MAX_VALUE) {
+            throw new IOException("Stream exceeds maximum number of segments");
+        }
+        counter++;
+        buffered = 0;
+    }
+
+    private void writePending() throws IOException {
+        if (pendingCount > 0) {
+            gathering.write(Arrays.copyOf(pending, pendingCount));
+            Arrays.fill(pending, null);
+            pendingCount = 0;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /**
+     * Builds the 12-byte nonce of a segment: [nonce prefix][counter][final flag].
+     * The nonce prefix ends the header in every version.
+     */
+    static byte[] segmentNonce(byte[] header, int counter, boolean last) {
+        return ByteBuffer.allocate(NONCE_PREFIX_LENGTH + Integer.BYTES + 1)
+            .put(header, header.length - NONCE_PREFIX_LENGTH, NONCE_PREFIX_LENGTH)
+            .putInt(counter)
+            .put((byte) (last ? 1 : 0))
+            .array();
+    }
+}
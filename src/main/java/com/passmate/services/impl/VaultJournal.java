@@ -0,0 +1,473 @@
+package com.passmate.services.impl;
+
+import com.passmate.services.EncryptionService;
+import com.passmate.services.exceptions.CryptoException;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Append-only log of encrypted mutations layered over snapshot files.
+ * Format: [magic][version][frame]..., frame = [length int][session ciphertext of [kind][snapshot][payload]].
+ * Every frame is encrypted on its own, so a mutation costs one small append instead of a snapshot rewrite.
+ * <p>
+ * Marker frames name the snapshot file they refer to by its stream header, which carries a random
+ * nonce prefix and therefore identifies one particular write of the file. A marker is appended
+ * before the manifest commit that installs a new snapshot and says which earlier records that
+ * snapshot already contains; replay applies only the records after the newest marker matching the
+ * current snapshot. A crash at any point thus leaves either the old snapshot with all records or
+ * the new one with the records it lacks. A torn final frame is dropped and truncated before the
+ * next append. Every append is forced to disk before it returns.
+ */
+final class VaultJournal {
+
+    /**
+     * A mutation of one snapshot.
+     */
+    static final class Record {
+        private final int snapshot;
+        private final boolean delete;
+        private final byte[] payload;
+
+        Record(int snapshot, boolean delete, byte[] payload) {
+            this.snapshot = snapshot;
+            this.delete = delete;
+            this.payload = payload;
+        }
+
+        static Record put(int snapshot, byte[] item) {
+            return new Record(snapshot, false, item);
+        }
+
+        static Record delete(int snapshot, String id) {
+            return new Record(snapshot, true, id.getBytes(StandardCharsets.UTF_8));
+        }
+
+        int getSnapshot() { return snapshot; }
+
+        /** @return true if the payload is the id of a removed item, false if it is the item itself */
+        boolean isDelete() { return delete; }
+
+        byte[] getPayload() { return payload; }
+    }
+
+    static final byte[] MAGIC = {(byte) 0x89, 'P', 'M', 'J'};
+    static final byte VERSION = 1;
+
+    private static final byte KIND_MARKER = 0;
+    private static final byte KIND_PUT = 1;
+    private static final byte KIND_DELETE = 2;
+    private static final int SNAPSHOT_ID_LENGTH = StreamingAeadOutputStream.HEADER_LENGTH;
+    private static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    private final Path path;
+    private final List<String> snapshots;
+    private final VaultManifest manifest;
+    private final EncryptionService encryptionService;
+
+    /** Frames of the file in order, loaded lazily; null until first needed. */
+    private List<Frame> frames;
+    /** End of the last intact frame; anything beyond is a torn write. */
+    private long validLength;
+    /** Sequence number of the next frame. Unlike file positions it survives compaction. */
+    private long nextSequence;
+    /** Mark of the snapshot last installed per file in this session. */
+    private long[] snapshotMarks;
+
+    /**
+     * @param path The journal file
+     * @param snapshots Names of the snapshot files records apply to, addressed by index
+     * @param manifest Locates the current version of each snapshot file
+     */
+    VaultJournal(Path path, List<String> snapshots, VaultManifest manifest, EncryptionService encryptionService) {
+        this.path = path;
+        this.snapshots = List.copyOf(snapshots);
+        this.manifest = manifest;
+        this.encryptionService = encryptionService;
+    }
+
+    /**
+     * @return The records not yet contained in the snapshot file currently on disk, in append order
+     */
+    synchronized List<Record> read(int snapshot) throws IOException, CryptoException {
+        load();
+        List<Record> records = new ArrayList<>();
+        for (Frame frame : liveFrames(snapshot)) {
+            records.add(new Record(snapshot, frame.kind == KIND_DELETE, frame.payload));
+        }
+        return records;
+    }
+
+    /**
+     * @return true if the journal holds changes the snapshot file on disk does not contain
+     */
+    synchronized boolean hasRecords(int snapshot) throws IOException, CryptoException {
+        load();
+        return !liveFrames(snapshot).isEmpty();
+    }
+
+    /**
+     * @return The current end of the journal. A snapshot built from state read after this call
+     *         contains every record appended before it.
+     */
+    synchronized long mark() throws IOException, CryptoException {
+        load();
+        return nextSequence;
+    }
+
+    /**
+     * Appends records with a single write and forces them to disk.
+     */
+    synchronized void append(List<Record> records) throws IOException, CryptoException {
+        load();
+        if (frames.isEmpty() || !Files.exists(path)) {
+            // No journal yet, or it was folded into the snapshots by another instance
+            frames.clear();
+            start();
+        }
+        List<Frame> batch = new ArrayList<>(records.size());
+        for (Record record : records) {
+            batch.add(encode(record.delete ? KIND_DELETE : KIND_PUT, record.snapshot, record.payload));
+        }
+        writeAtEnd(batch, true);
+    }
+
+    /**
+     * Publishes a manifest commit, installing the snapshot files staged in it.
+     * @param commit The commit, with new snapshot files staged under their snapshot names
+     * @param mark Journal position taken before the snapshot contents were read
+     * @return Names of staged snapshots left out because a snapshot taken at a later mark is
+     *         already installed; the rest of the commit is published
+     */
+    synchronized List<String> commit(VaultManifest.Commit commit, long mark) throws IOException, CryptoException {
+        load();
+        List<Integer> installed = new ArrayList<>();
+        List<String> skipped = new ArrayList<>();
+        for (int snapshot = 0; snapshot < snapshots.size(); snapshot++) {
+            String name = snapshots.get(snapshot);
+            if (!commit.isStaged(name)) {
+                continue;
+            }
+            if (mark < snapshotMarks[snapshot]) {
+                commit.discard(name);
+                skipped.add(name);
+            } else {
+                installed.add(snapshot);
+            }
+        }
+
+        if (!frames.isEmpty() && !installed.isEmpty()) {
+            // Record what the new files cover before they replace the old ones. Records are stored
+            // in sequence order, so they cover everything before the first record at or after the mark.
+            int covers = frames.size();
+            for (int i = frames.size() - 1; i >= 0; i--) {
+                Frame frame = frames.get(i);
+                if (frame.kind == KIND_MARKER) {
+                    continue;
+                }
+                if (frame.sequence < mark) {
+                    break;
+                }
+                covers = i;
+            }
+            List<Frame> markers = new ArrayList<>();
+            for (int snapshot : installed) {
+                markers.add(encodeMarker(snapshot, snapshotId(commit.stagedPath(snapshots.get(snapshot))), covers));
+            }
+            // Forced together with the commit's files rather than on its own
+            writeAtEnd(markers, false);
+            commit.alsoForce(path);
+        }
+        commit.publish();
+        for (int snapshot : installed) {
+            snapshotMarks[snapshot] = mark;
+        }
+        return skipped;
+    }
+
+    /**
+     * Rewrites the journal keeping only records the snapshots on disk do not contain yet,
+     * or deletes it if there are none.
+     */
+    synchronized void compact() throws IOException, CryptoException {
+        load();
+        List<Frame> live = new ArrayList<>();
+        for (int snapshot = 0; snapshot < snapshots.size(); snapshot++) {
+            for (Frame frame : liveFrames(snapshot)) {
+                live.add(frame);
+            }
+        }
+        if (live.isEmpty()) {
+            delete();
+            return;
+        }
+        live.sort(Comparator.comparingLong(frame -> frame.sequence));
+
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            List<Frame> rewritten = new ArrayList<>();
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tempPath))) {
+                out.write(MAGIC);
+                out.write(VERSION);
+                long length = MAGIC.length + 1;
+                for (int snapshot = 0; snapshot < snapshots.size(); snapshot++) {
+                    Frame marker = encodeMarker(snapshot, currentSnapshotId(snapshot), 0);
+                    length += writeFrame(out, marker);
+                    rewritten.add(marker);
+                }
+                for (Frame frame : live) {
+                    // Record ciphertext is position independent, so it is copied without re-encryption
+                    length += writeFrame(out, frame);
+                    rewritten.add(frame);
+                }
+                validLength = length;
+            }
+            StorageFiles.setOwnerOnlyPermissions(tempPath);
+            StorageFiles.force(tempPath);
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            StorageFiles.forceDirectory(path.getParent());
+            frames = rewritten;
+        } catch (IOException | CryptoException e) {
+            frames = null;
+            throw e;
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    synchronized void delete() throws IOException {
+        Files.deleteIfExists(path);
+        frames = new ArrayList<>();
+        validLength = 0;
+    }
+
+    /**
+     * @return Size of the journal file in bytes
+     */
+    synchronized long size() throws IOException {
+        return Files.exists(path) ? Files.size(path) : 0;
+    }
+
+    // Private helpers
+
+    /**
+     * @return The record frames after the newest marker matching the snapshot file on disk;
+     *         none if the file was replaced behind the journal's back
+     */
+    private List<Frame> liveFrames(int snapshot) throws IOException {
+        byte[] snapshotId = currentSnapshotId(snapshot);
+        int from = -1;
+        for (int i = frames.size() - 1; i >= 0 && from < 0; i--) {
+            Frame frame = frames.get(i);
+            if (frame.kind == KIND_MARKER && frame.snapshot == snapshot && Arrays.equals(frame.snapshotId, snapshotId)) {
+                from = frame.covers;
+            }
+        }
+        List<Frame> live = new ArrayList<>();
+        for (int i = Math.max(from, 0); from >= 0 && i < frames.size(); i++) {
+            Frame frame = frames.get(i);
+            if (frame.kind != KIND_MARKER && frame.snapshot == snapshot) {
+                live.add(frame);
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Creates the journal with one marker per snapshot, so records apply only on top of the files present now.
+     */
+    private void start() throws IOException, CryptoException {
+        Files.deleteIfExists(path);
+        validLength = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 1).put(MAGIC).put(VERSION).flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        }
+        StorageFiles.setOwnerOnlyPermissions(path);
+        validLength = MAGIC.length + 1;
+        StorageFiles.forceDirectory(path.getParent());
+        List<Frame> markers = new ArrayList<>();
+        for (int snapshot = 0; snapshot < snapshots.size(); snapshot++) {
+            markers.add(encodeMarker(snapshot, currentSnapshotId(snapshot), 0));
+        }
+        writeAtEnd(markers, false);
+    }
+
+    /**
+     * @param force Whether to force the file to disk before returning
+     */
+    private void writeAtEnd(List<Frame> batch, boolean force) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            if (channel.size() > validLength) {
+                // Drop a torn frame left by a crash before appending after it
+                channel.truncate(validLength);
+            }
+            int length = 0;
+            for (Frame frame : batch) {
+                length += Integer.BYTES + frame.ciphertext.length;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            for (Frame frame : batch) {
+                buffer.putInt(frame.ciphertext.length).put(frame.ciphertext);
+            }
+            buffer.flip();
+            long position = validLength;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            validLength = position;
+            if (force) {
+                channel.force(false);
+            }
+        }
+        frames.addAll(batch);
+    }
+
+    private static long writeFrame(OutputStream out, Frame frame) throws IOException {
+        out.write(ByteBuffer.allocate(Integer.BYTES).putInt(frame.ciphertext.length).array());
+        out.write(frame.ciphertext);
+        return Integer.BYTES + frame.ciphertext.length;
+    }
+
+    private Frame encodeMarker(int snapshot, byte[] snapshotId, int covers) throws CryptoException {
+        byte[] payload = ByteBuffer.allocate(SNAPSHOT_ID_LENGTH + Integer.BYTES).put(snapshotId).putInt(covers).array();
+        return encode(KIND_MARKER, snapshot, payload);
+    }
+
+    private Frame encode(byte kind, int snapshot, byte[] payload) throws CryptoException {
+        byte[] plaintext = new byte[2 + payload.length];
+        plaintext[0] = kind;
+        plaintext[1] = (byte) snapshot;
+        System.arraycopy(payload, 0, plaintext, 2, payload.length);
+        byte[] ciphertext = new byte[plaintext.length + encryptionService.getCiphertextOverhead()];
+        encryptionService.encrypt(plaintext, 0, plaintext.length, ciphertext, 0);
+        return Frame.decode(nextSequence++, ciphertext, plaintext, plaintext.length);
+    }
+
+    /**
+     * Reads and authenticates every frame once; later calls use the cached frames.
+     */
+    private void load() throws IOException, CryptoException {
+        if (frames != null) {
+            return;
+        }
+        List<Frame> loaded = new ArrayList<>();
+        long length = 0;
+        if (Files.exists(path)) {
+            byte[] data = Files.readAllBytes(path);
+            if (data.length < MAGIC.length + 1 || !Arrays.equals(data, 0, MAGIC.length, MAGIC, 0, MAGIC.length)) {
+                throw new CryptoException("Not a vault journal: " + path.getFileName());
+            }
+            if (data[MAGIC.length] != VERSION) {
+                throw new CryptoException("Unsupported vault journal version: " + data[MAGIC.length]);
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            buffer.position(MAGIC.length + 1);
+            length = buffer.position();
+            while (buffer.remaining() >= Integer.BYTES) {
+                int frameLength = buffer.getInt();
+                if (frameLength <= encryptionService.getCiphertextOverhead() || frameLength > MAX_FRAME_LENGTH
+                        || frameLength > buffer.remaining()) {
+                    break;
+                }
+                int offset = buffer.position();
+                byte[] ciphertext = Arrays.copyOfRange(data, offset, offset + frameLength);
+                int plaintextLength;
+                try {
+                    plaintextLength = encryptionService.decrypt(data, offset, frameLength);
+                } catch (CryptoException e) {
+                    if (offset + frameLength == data.length) {
+                        break;
+                    }
+                    throw new CryptoException("Vault journal is corrupt at offset " + offset, e);
+                }
+                buffer.position(offset + frameLength);
+                loaded.add(Frame.decode(nextSequence++, ciphertext, data, offset, plaintextLength));
+                length = buffer.position();
+            }
+            if (length < data.length) {
+                System.err.println("Ignoring torn write at the end of " + path.getFileName());
+            }
+        }
+        frames = loaded;
+        validLength = length;
+        snapshotMarks = new long[snapshots.size()];
+    }
+
+    private byte[] currentSnapshotId(int snapshot) throws IOException {
+        return snapshotId(manifest.resolve(snapshots.get(snapshot)));
+    }
+
+    private static byte[] snapshotId(Path snapshotPath) throws IOException {
+        if (!Files.exists(snapshotPath)) {
+            return new byte[SNAPSHOT_ID_LENGTH];
+        }
+        try (InputStream in = Files.newInputStream(snapshotPath)) {
+            return Arrays.copyOf(in.readNBytes(SNAPSHOT_ID_LENGTH), SNAPSHOT_ID_LENGTH);
+        }
+    }
+
+    /**
+     * One journal frame: the ciphertext as stored plus its decoded contents.
+     */
+    private static final class Frame {
+        final long sequence;
+        final byte[] ciphertext;
+        final byte kind;
+        final int snapshot;
+        final byte[] payload;
+        final byte[] snapshotId;
+        final int covers;
+
+        private Frame(long sequence, byte[] ciphertext, byte kind, int snapshot, byte[] payload,
+                      byte[] snapshotId, int covers) {
+            this.sequence = sequence;
+            this.ciphertext = ciphertext;
+            this.kind = kind;
+            this.snapshot = snapshot;
+            this.payload = payload;
+            this.snapshotId = snapshotId;
+            this.covers = covers;
+        }
+
+        static Frame decode(long sequence, byte[] ciphertext, byte[] plaintext, int length) throws CryptoException {
+            return decode(sequence, ciphertext, plaintext, 0, length);
+        }
+
+        static Frame decode(long sequence, byte[] ciphertext, byte[] plaintext, int offset, int length)
+                throws CryptoException {
+            if (length < 2) {
+                throw new CryptoException("Invalid vault journal frame");
+            }
+            byte kind = plaintext[offset];
+            int snapshot = plaintext[offset + 1];
+            byte[] payload = Arrays.copyOfRange(plaintext, offset + 2, offset + length);
+            if (kind == KIND_MARKER) {
+                ByteBuffer marker = ByteBuffer.wrap(payload);
+                byte[] snapshotId = new byte[SNAPSHOT_ID_LENGTH];
+                marker.get(snapshotId);
+                return new Frame(sequence, ciphertext, kind, snapshot, null, snapshotId, marker.getInt());
+            }
+            if (kind != KIND_PUT && kind != KIND_DELETE) {
+                throw new CryptoException("Invalid vault journal frame kind: " + kind);
+            }
+            return new Frame(sequence, ciphertext, kind, snapshot, payload, null, 0);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.passmate.services.impl;
+
+import com.passmate.services.EncryptionService;
+import com.passmate.services.exceptions.CryptoException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The file holding the wrapped vault data key (or key ring during a rotation).
+ */
+final class VaultKeyFile {
+
+    static final String FILE = "vault.key";
+
+    private final Path path;
+    /** A data key created by {@link #openSession} and not yet written; see {@link #writeCreatedKey()}. */
+    private String createdKey;
+
+    VaultKeyFile(Path directory) {
+        this.path = directory.resolve(FILE);
+    }
+
+    /**
+     * Loads the wrapped vault data key (creating one on first use) and opens the encryption session.
+     * A created key is only kept in memory: nothing has checked the master key yet, and a key
+     * written under a mistyped one would lock the vault. Call {@link #writeCreatedKey()} once the
+     * master key has opened the vault's files, before anything encrypted with the key is published.
+     */
+    void openSession(EncryptionService encryptionService, char[] masterKey) throws IOException, CryptoException {
+        String wrappedKey;
+
+        if (Files.exists(path)) {
+            wrappedKey = read();
+        } else {
+            wrappedKey = encryptionService.createWrappedDataKey(masterKey);
+            createdKey = wrappedKey;
+        }
+
+        encryptionService.openSession(masterKey, wrappedKey);
+
+        // Upgrade headers without stored KDF parameters to a calibrated, versioned header
+        if (encryptionService.needsRewrap(wrappedKey)) {
+            String rewrapped = encryptionService.rewrapDataKey(masterKey, null);
+            if (createdKey != null) {
+                createdKey = rewrapped;
+                return;
+            }
+            write(rewrapped);
+            System.out.println("Upgraded vault key header with calibrated key derivation parameters");
+        }
+    }
+
+    /**
+     * Writes the data key created when the session opened, if any.
+     */
+    void writeCreatedKey() throws IOException {
+        if (createdKey != null) {
+            write(createdKey);
+            createdKey = null;
+            System.out.println("Created new vault data key");
+        }
+    }
+
+    String read() throws IOException {
+        return Files.readString(path).trim();
+    }
+
+    /**
+     * Replaces the key file atomically; a torn write here would make the whole vault unreadable.
+     */
+    void write(String wrappedKey) throws IOException {
+        Path tempPath = path.resolveSibling(FILE + ".tmp");
+        Files.writeString(tempPath, wrappedKey);
+        StorageFiles.setOwnerOnlyPermissions(tempPath);
+        StorageFiles.force(tempPath);
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        StorageFiles.forceDirectory(path.getParent());
+    }
+}
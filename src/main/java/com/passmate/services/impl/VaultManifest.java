@@ -0,0 +1,543 @@
+package com.passmate.services.impl;
+
+import com.passmate.services.EncryptionService;
+import com.passmate.services.PayloadFormat;
+import com.passmate.services.exceptions.CryptoException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Names the files of one consistent generation of the vault, with their sizes and SHA-256 hashes.
+ * Format: encrypted stream of JSON {"generation": n, "files": {name: {"path", "size", "sha256", "format"}}}.
+ * <p>
+ * A commit never overwrites a file in use: it writes every new file under a fresh name
+ * ({@code passwords.12.enc}), forces them and the new manifest to disk in one barrier, and then
+ * publishes the manifest with a single atomic rename. A crash before the rename leaves the previous
+ * manifest and all the files it names; after it the new generation is complete. Files are checked
+ * against their hash as they are read, so an unlock never mixes files of different generations.
+ * A file without an entry, as in vaults written before manifests existed, is read under its own name.
+ */
+final class VaultManifest {
+
+    static final String FILE = "manifest.enc";
+
+    /** Writes the bytes of a new file, ciphertext included. */
+    @FunctionalInterface
+    interface FileWriter {
+        void write(OutputStream out) throws IOException, CryptoException;
+    }
+
+    private static final Pattern GENERATION_FILE = Pattern.compile("(.+)\\.(\\d+)(\\.[^.]+)");
+
+    private final Path directory;
+    private final EncryptionService encryptionService;
+    private final ObjectMapper objectMapper;
+    /** Numbers the files written by commits, so concurrent commits never pick the same name. */
+    private final AtomicLong nextFileNumber = new AtomicLong();
+    private long generation;
+    private Map<String, Entry> files = new TreeMap<>();
+
+    VaultManifest(Path directory, EncryptionService encryptionService, ObjectMapper objectMapper) {
+        this.directory = directory;
+        this.encryptionService = encryptionService;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Reads the published manifest, if any, and deletes files left behind by commits that never
+     * published. Needs the encryption session to be open.
+     */
+    synchronized void load() throws IOException, CryptoException {
+        Path manifestPath = directory.resolve(FILE);
+        Files.deleteIfExists(directory.resolve(FILE + ".tmp"));
+        if (Files.exists(manifestPath)) {
+            InputStream file = new BufferedInputStream(Files.newInputStream(manifestPath));
+            try (InputStream in = encryptionService.newDecryptingStream(file)) {
+                Document document = objectMapper.readValue(in, Document.class);
+                generation = document.getGeneration();
+                files = new TreeMap<>(document.getFiles());
+            } catch (CryptoException e) {
+                file.close();
+                throw e;
+            }
+        }
+
+        Set<String> referenced = new HashSet<>();
+        long highest = 0;
+        for (Entry entry : files.values()) {
+            referenced.add(entry.getPath());
+            Matcher matcher = GENERATION_FILE.matcher(entry.getPath());
+            if (matcher.matches()) {
+                highest = Math.max(highest, Long.parseLong(matcher.group(2)));
+            }
+        }
+        nextFileNumber.set(highest + 1);
+
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path path : entries) {
+                String name = path.getFileName().toString();
+                Matcher matcher = GENERATION_FILE.matcher(name);
+                if (matcher.matches() && !referenced.contains(name)
+                        && !matcher.group(1).contains(".") && Files.isRegularFile(path)) {
+                    Files.delete(path);
+                    System.out.println("Deleted " + name + " left behind by an unfinished commit");
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true once a manifest has been published
+     */
+    synchronized boolean isPublished() {
+        return generation > 0;
+    }
+
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return true if the file has an entry in the published manifest
+     */
+    synchronized boolean contains(String name) {
+        return files.containsKey(name);
+    }
+
+    /**
+     * @return The payload format of a listed file, or null if it has no entry
+     */
+    synchronized PayloadFormat formatOf(String name) {
+        Entry entry = files.get(name);
+        return entry != null ? entry.payloadFormat() : null;
+    }
+
+    /**
+     * @return The current path of a file; its own name if it has no entry
+     */
+    synchronized Path resolve(String name) {
+        Entry entry = files.get(name);
+        return directory.resolve(entry != null ? entry.getPath() : name);
+    }
+
+    /**
+     * @return true if the file is listed, or before the first commit, present under its own name
+     */
+    synchronized boolean exists(String name) {
+        return files.containsKey(name) || (generation == 0 && Files.exists(directory.resolve(name)));
+    }
+
+    /**
+     * @return Size of the current version of a file in bytes, or 0 if there is none
+     */
+    synchronized long size(String name) throws IOException {
+        Entry entry = files.get(name);
+        if (entry != null) {
+            return entry.getSize();
+        }
+        Path path = directory.resolve(name);
+        return Files.exists(path) ? Files.size(path) : 0;
+    }
+
+    /**
+     * Opens the current version of a file. If it has an entry, the bytes are hashed as they are
+     * read and closing the stream fails unless they match it.
+     */
+    InputStream newInputStream(String name) throws IOException {
+        Entry entry;
+        Path path;
+        synchronized (this) {
+            entry = files.get(name);
+            path = resolve(name);
+        }
+        InputStream file = MappedFileInputStream.open(path);
+        if (entry == null) {
+            return file;
+        }
+        if (file instanceof MappedFileInputStream) {
+            // Kept unwrapped so decryption can read segments straight from the mapping
+            ((MappedFileInputStream) file).verifyOnClose(sha256(), (size, hash) -> verify(name, entry, size, hash));
+            return file;
+        }
+        return new VerifyingInputStream(file, name, entry);
+    }
+
+    /**
+     * Opens the current versions of several files at once. Commits publish under the same lock,
+     * so all of them belong to one generation even if a commit supersedes them while they are read.
+     * @return One stream per name, null where the file has no entry; the caller closes them
+     */
+    synchronized List<InputStream> newInputStreams(List<String> names) throws IOException {
+        List<InputStream> streams = new ArrayList<>();
+        try {
+            for (String name : names) {
+                streams.add(files.containsKey(name) ? newInputStream(name) : null);
+            }
+            return streams;
+        } catch (IOException e) {
+            for (InputStream stream : streams) {
+                if (stream != null) {
+                    try {
+                        stream.close();
+                    } catch (IOException suppressed) {
+                        e.addSuppressed(suppressed);
+                    }
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return A new commit; close it to delete its files if it was not published
+     */
+    Commit begin() {
+        return new Commit();
+    }
+
+    /**
+     * A set of file changes that become visible together when published.
+     */
+    final class Commit implements AutoCloseable {
+        private final Map<String, Entry> staged = new LinkedHashMap<>();
+        private final Map<String, String> reserved = new HashMap<>();
+        private final Set<String> removed = new HashSet<>();
+        private final List<Path> alsoForced = new ArrayList<>();
+        private boolean published;
+
+        /**
+         * Writes a new version of a file under a fresh name, hashing it as it is written.
+         * @param format Payload format inside the encryption, recorded so migrations know what to rewrite
+         * @return The path of the new version
+         */
+        Path stage(String name, PayloadFormat format, FileWriter writer) throws IOException, CryptoException {
+            String filename = reserved.remove(name);
+            if (filename == null) {
+                filename = numberedName(name, nextFileNumber.getAndIncrement());
+            }
+            Path path = directory.resolve(filename);
+            MessageDigest digest = sha256();
+            try (OutputStream out = GatheringFileOutputStream.create(path, digest)) {
+                writer.write(out);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(path);
+                throw e;
+            }
+            StorageFiles.setOwnerOnlyPermissions(path);
+            discard(name);
+            staged.put(name, new Entry(filename, Files.size(path), digest.digest(), format));
+            removed.remove(name);
+            return path;
+        }
+
+        /**
+         * Picks the name the next version of a file will be staged under, for files written
+         * alongside it that refer to it by name.
+         */
+        String reserveName(String name) {
+            return reserved.computeIfAbsent(name, key -> numberedName(key, nextFileNumber.getAndIncrement()));
+        }
+
+        /**
+         * Records a file already present under its own name, as written before manifests existed.
+         */
+        void adopt(String name) throws IOException {
+            Path path = directory.resolve(name);
+            MessageDigest digest = sha256();
+            try (InputStream in = new DigestInputStream(new BufferedInputStream(Files.newInputStream(path)), digest)) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+            staged.put(name, new Entry(name, Files.size(path), digest.digest(), PayloadFormat.JSON));
+            alsoForced.add(path);
+        }
+
+        /**
+         * Removes a file from the vault once published.
+         */
+        void remove(String name) throws IOException {
+            discard(name);
+            removed.add(name);
+        }
+
+        /**
+         * Drops a staged version of a file and deletes it; the current version stays.
+         */
+        void discard(String name) throws IOException {
+            Entry entry = staged.remove(name);
+            if (entry != null && !entry.getPath().equals(name)) {
+                Files.deleteIfExists(directory.resolve(entry.getPath()));
+            }
+        }
+
+        boolean isStaged(String name) {
+            return staged.containsKey(name);
+        }
+
+        Path stagedPath(String name) {
+            return directory.resolve(staged.get(name).getPath());
+        }
+
+        /**
+         * Forces another file, such as a journal written ahead of this commit, in the same barrier.
+         */
+        void alsoForce(Path path) {
+            alsoForced.add(path);
+        }
+
+        boolean isEmpty() {
+            return staged.isEmpty() && removed.isEmpty();
+        }
+
+        /**
+         * Makes the staged files the current ones and drops the removed ones, all at once.
+         * The superseded versions are deleted afterwards.
+         */
+        void publish() throws IOException, CryptoException {
+            if (isEmpty()) {
+                published = true;
+                return;
+            }
+            synchronized (VaultManifest.this) {
+                Map<String, Entry> next = new TreeMap<>(files);
+                next.putAll(staged);
+                next.keySet().removeAll(removed);
+
+                Document document = new Document();
+                document.setGeneration(generation + 1);
+                document.setFiles(next);
+                Path manifestPath = directory.resolve(FILE);
+                Path tempPath = directory.resolve(FILE + ".tmp");
+                try {
+                    OutputStream file = new BufferedOutputStream(Files.newOutputStream(tempPath));
+                    try (OutputStream out = encryptionService.newEncryptingStream(file)) {
+                        objectMapper.writeValue(out, document);
+                    } catch (CryptoException e) {
+                        file.close();
+                        throw e;
+                    }
+                    StorageFiles.setOwnerOnlyPermissions(tempPath);
+
+                    // One barrier for the whole commit: every new file and the manifest that names them
+                    for (Entry entry : staged.values()) {
+                        StorageFiles.force(directory.resolve(entry.getPath()));
+                    }
+                    for (Path path : alsoForced) {
+                        StorageFiles.force(path);
+                    }
+                    StorageFiles.force(tempPath);
+                    Files.move(tempPath, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    StorageFiles.forceDirectory(directory);
+                } finally {
+                    Files.deleteIfExists(tempPath);
+                }
+
+                Map<String, Entry> previous = files;
+                files = next;
+                generation = document.getGeneration();
+                published = true;
+
+                Set<String> current = new HashSet<>();
+                next.values().forEach(entry -> current.add(entry.getPath()));
+                for (String name : previous.keySet()) {
+                    String path = previous.get(name).getPath();
+                    if ((staged.containsKey(name) || removed.contains(name)) && !current.contains(path)) {
+                        deleteSuperseded(path);
+                    }
+                }
+                for (String name : removed) {
+                    if (!previous.containsKey(name) && !current.contains(name)) {
+                        deleteSuperseded(name);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Deletes the staged files unless the commit was published.
+         */
+        @Override
+        public void close() throws IOException {
+            if (!published) {
+                for (String name : new ArrayList<>(staged.keySet())) {
+                    discard(name);
+                }
+            }
+        }
+
+        private void deleteSuperseded(String path) {
+            try {
+                Files.deleteIfExists(directory.resolve(path));
+            } catch (IOException e) {
+                // Still open elsewhere on some platforms; the next load removes it
+                System.err.println("Could not delete superseded " + path + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static String numberedName(String name, long number) {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? name + "." + number : name.substring(0, dot) + "." + number + name.substring(dot);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static void verify(String name, Entry entry, long size, byte[] hash) throws IOException {
+        if (size != entry.getSize() || !MessageDigest.isEqual(hash, entry.hash())) {
+            throw new IOException(name + " does not match the vault manifest");
+        }
+    }
+
+    /**
+     * Hashes everything read and, on close, the rest of the file, then compares with the entry.
+     */
+    private static final class VerifyingInputStream extends FilterInputStream {
+        private final String name;
+        private final Entry entry;
+        private final MessageDigest digest;
+        private long count;
+        private boolean closed;
+
+        VerifyingInputStream(InputStream in, String name, Entry entry) {
+            this(in, name, entry, sha256());
+        }
+
+        private VerifyingInputStream(InputStream in, String name, Entry entry, MessageDigest digest) {
+            super(new DigestInputStream(in, digest));
+            this.name = name;
+            this.entry = entry;
+            this.digest = digest;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes must still be hashed
+            return Math.max(0, read(new byte[(int) Math.min(Math.max(n, 0), 8192)]));
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                byte[] rest = new byte[8192];
+                while (read(rest, 0, rest.length) >= 0) {
+                    // Hash to the end
+                }
+                verify(name, entry, count, digest.digest());
+            } finally {
+                super.close();
+            }
+        }
+    }
+
+    /**
+     * One file of the manifest.
+     */
+    static final class Entry {
+        private String path;
+        private long size;
+        private String sha256;
+        private PayloadFormat format;
+
+        Entry() {
+        }
+
+        Entry(String path, long size, byte[] hash, PayloadFormat format) {
+            this.path = path;
+            this.size = size;
+            this.sha256 = Base64.getEncoder().encodeToString(hash);
+            this.format = format;
+        }
+
+        public String getPath() { return path; }
+        public void setPath(String path) { this.path = path; }
+
+        public long getSize() { return size; }
+        public void setSize(long size) { this.size = size; }
+
+        public String getSha256() { return sha256; }
+        public void setSha256(String sha256) { this.sha256 = sha256; }
+
+        public PayloadFormat getFormat() { return format; }
+        public void setFormat(PayloadFormat format) { this.format = format; }
+
+        /** Entries written before payload formats existed have none and are JSON. */
+        PayloadFormat payloadFormat() {
+            return format != null ? format : PayloadFormat.JSON;
+        }
+
+        byte[] hash() {
+            return Base64.getDecoder().decode(sha256);
+        }
+    }
+
+    /**
+     * The serialized manifest.
+     */
+    static final class Document {
+        private long generation;
+        private Map<String, Entry> files = new TreeMap<>();
+
+        public long getGeneration() { return generation; }
+        public void setGeneration(long generation) { this.generation = generation; }
+
+        public Map<String, Entry> getFiles() { return files; }
+        public void setFiles(Map<String, Entry> files) { this.files = files; }
+    }
+}
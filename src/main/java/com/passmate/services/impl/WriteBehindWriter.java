@@ -0,0 +1,170 @@
+package com.passmate.services.impl;
+
+import com.passmate.models.Category;
+import com.passmate.models.Password;
+import com.passmate.services.StorageChanges;
+import com.passmate.services.exceptions.CryptoException;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Persists model changes on a single background thread so mutations return immediately.
+ * The first change after an idle period schedules a write; every change arriving within the
+ * coalescing window joins that write, and repeated changes to one item are written once.
+ * A failed write keeps its changes queued, retries later and is reported to the error handler.
+ */
+public class WriteBehindWriter {
+
+    /**
+     * Writes one batch of changes, called on the writer thread.
+     */
+    @FunctionalInterface
+    public interface Sink {
+        void write(StorageChanges changes) throws CryptoException;
+    }
+
+    public static final long DEFAULT_COALESCE_MILLIS = 250;
+    private static final long RETRY_DELAY_MILLIS = 5_000;
+
+    private final Sink sink;
+    private final ScheduledExecutorService writer;
+    private volatile long coalesceMillis;
+    private volatile Consumer<CryptoException> errorHandler;
+    private StorageChanges pending = new StorageChanges();
+    private Future<?> scheduled;
+
+    public WriteBehindWriter(Sink sink) {
+        this(sink, DEFAULT_COALESCE_MILLIS);
+    }
+
+    public WriteBehindWriter(Sink sink, long coalesceMillis) {
+        this.sink = sink;
+        this.coalesceMillis = coalesceMillis;
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "PassMate-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public synchronized void passwordChanged(Password password) {
+        pending.putPassword(password);
+        schedule(coalesceMillis);
+    }
+
+    public synchronized void passwordDeleted(String passwordId) {
+        pending.deletePassword(passwordId);
+        schedule(coalesceMillis);
+    }
+
+    public synchronized void categoryChanged(Category category) {
+        pending.putCategory(category);
+        schedule(coalesceMillis);
+    }
+
+    public synchronized void categoryDeleted(String categoryId) {
+        pending.deleteCategory(categoryId);
+        schedule(coalesceMillis);
+    }
+
+    /**
+     * Writes every change queued before this call and waits for it.
+     * Call before locking, exiting or copying the storage files.
+     * @throws CryptoException If the write fails; the changes stay queued
+     */
+    public void flush() throws CryptoException {
+        Future<?> write = writer.submit(() -> {
+            drain();
+            return null;
+        });
+        try {
+            write.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CryptoException) {
+                throw (CryptoException) e.getCause();
+            }
+            throw new CryptoException("Failed to save changes: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CryptoException("Interrupted while saving changes", e);
+        }
+    }
+
+    /**
+     * @param coalesceMillis How long changes are collected before they are written
+     */
+    public void setCoalesceMillis(long coalesceMillis) {
+        this.coalesceMillis = coalesceMillis;
+    }
+
+    public long getCoalesceMillis() {
+        return coalesceMillis;
+    }
+
+    /**
+     * @param errorHandler Receives failures of background writes, on the writer thread
+     */
+    public void setErrorHandler(Consumer<CryptoException> errorHandler) {
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * @return The number of changed items not yet written
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    private void schedule(long delayMillis) {
+        if (scheduled == null) {
+            scheduled = writer.schedule(this::writeScheduled, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void writeScheduled() {
+        try {
+            drain();
+        } catch (CryptoException e) {
+            System.err.println("Background save failed: " + e.getMessage());
+            Consumer<CryptoException> handler = errorHandler;
+            if (handler != null) {
+                handler.accept(e);
+            }
+        }
+    }
+
+    private void drain() throws CryptoException {
+        StorageChanges batch;
+        synchronized (this) {
+            if (scheduled != null) {
+                scheduled.cancel(false);
+                scheduled = null;
+            }
+            batch = pending;
+            pending = new StorageChanges();
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            sink.write(batch);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                // Requeue under anything changed meanwhile and try again later
+                batch.addAll(pending);
+                pending = batch;
+                schedule(RETRY_DELAY_MILLIS);
+            }
+            if (e instanceof CryptoException) {
+                throw (CryptoException) e;
+            }
+            throw new CryptoException("Failed to save changes: " + e.getMessage(), e);
+        }
+    }
+}
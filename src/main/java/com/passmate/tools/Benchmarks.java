@@ -0,0 +1,112 @@
+package com.passmate.tools;
+
+import com.passmate.models.Password;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Minimal timing harness shared by the command-line benchmark tools.
+ * Runs a warmup phase so the JIT settles, then reports throughput over a fixed measurement window.
+ * Also sets up the scratch storage and the generated entries the storage benchmarks run against.
+ */
+public final class Benchmarks {
+
+    /**
+     * A single benchmarked operation.
+     */
+    @FunctionalInterface
+    public interface Operation {
+        void run() throws Exception;
+    }
+
+    private Benchmarks() { }
+
+    /**
+     * Measures throughput of an operation.
+     * @param warmupMillis Time to run the operation before measuring
+     * @param measureMillis Length of the measurement window
+     * @param operation The operation to measure
+     * @return Operations per second over the measurement window
+     */
+    public static double opsPerSecond(long warmupMillis, long measureMillis, Operation operation) throws Exception {
+        runFor(warmupMillis, operation);
+        long start = System.nanoTime();
+        long ops = runFor(measureMillis, operation);
+        return ops / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Times a single run of an operation.
+     * @return Elapsed time in milliseconds
+     */
+    public static double timeMillis(Operation operation) throws Exception {
+        long start = System.nanoTime();
+        operation.run();
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    public static String format(double value) {
+        return String.format(Locale.ROOT, "%,.1f", value);
+    }
+
+    /**
+     * Points storage, which lives under user.home, at a new scratch directory, so a benchmark never
+     * touches the user's vault. Call before any storage class loads, and delete the directory with
+     * {@link #deleteRecursively} in a finally block.
+     * @param prefix Prefix of the directory name
+     * @return The scratch home directory
+     */
+    public static Path useScratchHome(String prefix) throws IOException {
+        Path home = Files.createTempDirectory(prefix);
+        System.setProperty("user.home", home.toString());
+        return home;
+    }
+
+    /**
+     * Generates entries shaped like stored ones: an encrypted secret, a note on every fourth entry
+     * and the entries spread over categories "category-0" onwards.
+     * @param size Number of entries
+     * @param categories Number of categories
+     */
+    public static List<Password> generatePasswords(int size, int categories) {
+        List<Password> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Password password = new Password("Service " + i, "user" + i + "@example.com", "", "https://example.com",
+                i % 4 == 0 ? "Recovery email on file" : "", "category-" + (i % categories));
+            password.setPasswordHash("v3:" + Long.toHexString(i * 2654435761L).repeat(5));
+            entries.add(password);
+        }
+        return entries;
+    }
+
+    /**
+     * Deletes a directory and everything in it, if it exists.
+     */
+    public static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static long runFor(long millis, Operation operation) throws Exception {
+        long deadline = System.nanoTime() + millis * 1_000_000L;
+        long ops = 0;
+        while (System.nanoTime() < deadline) {
+            operation.run();
+            ops++;
+        }
+        return ops;
+    }
+}
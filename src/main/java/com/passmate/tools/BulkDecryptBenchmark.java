@@ -0,0 +1,59 @@
+package com.passmate.tools;
+
+import com.passmate.services.impl.AESEncryptionService;
+import com.passmate.services.impl.BulkCryptoExecutor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures how bulk decryption of a synthetic vault scales with the number of worker threads.
+ *
+ * Usage: mvn -q compile exec:java -Dexec.mainClass=com.passmate.tools.BulkDecryptBenchmark [-Dexec.args="entries"]
+ */
+public class BulkDecryptBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+
+        char[] masterKey = "benchmark-master-key".toCharArray();
+        AESEncryptionService service = new AESEncryptionService();
+        service.openSession(masterKey, service.createWrappedDataKey(masterKey));
+
+        Map<String, String> ciphertexts = new LinkedHashMap<>();
+        for (int i = 0; i < entries; i++) {
+            ciphertexts.put("entry-" + i, service.encrypt("password-" + i + "-" + Long.toHexString(i * 2654435761L)));
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("Bulk decrypt of " + entries + " entries, best of " + ROUNDS + " rounds");
+
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int threads = 1; threads < cores; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(cores);
+
+        double singleThreaded = 0;
+        for (int threads : threadCounts) {
+            BulkCryptoExecutor executor = new BulkCryptoExecutor(threads);
+            double best = Double.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                best = Math.min(best, Benchmarks.timeMillis(() ->
+                    executor.submit(ciphertexts, service::decrypt, null).join()));
+            }
+            if (threads == 1) {
+                singleThreaded = best;
+            }
+            System.out.println("  " + threads + " thread(s): " + Benchmarks.format(best) + " ms, "
+                + Benchmarks.format(entries / (best / 1000)) + " entries/sec, speedup "
+                + Benchmarks.format(singleThreaded / best) + "x");
+        }
+
+        service.closeSession();
+    }
+}
@@ -0,0 +1,55 @@
+package com.passmate.tools;
+
+import com.passmate.services.CipherSuite;
+import com.passmate.services.impl.AESEncryptionService;
+import com.passmate.services.impl.CipherSuiteProbe;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Runs the cipher suite probe and compares its pick against a longer measurement
+ * of field and file encryption with every suite. Run with -XX:-UseAES to see the software-only case.
+ *
+ * Usage: mvn -q compile exec:java -Dexec.mainClass=com.passmate.tools.CipherSuiteBenchmark [-Dexec.args="seconds"]
+ */
+public class CipherSuiteBenchmark {
+
+    private static final String PLAINTEXT = "correct-horse-battery-staple";
+    private static final int FILE_SIZE = 4 * 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        long measureMillis = (args.length > 0 ? Long.parseLong(args[0]) : 2) * 1000;
+        long warmupMillis = measureMillis / 2;
+
+        long start = System.nanoTime();
+        Map<CipherSuite, Double> probe = CipherSuiteProbe.measure(CipherSuiteProbe.DEFAULT_BUDGET_MILLIS);
+        double probeMillis = (System.nanoTime() - start) / 1e6;
+        System.out.println("Startup probe (" + Benchmarks.format(probeMillis) + " ms), MB/s");
+        probe.forEach((suite, mbs) -> System.out.println("  " + suite + " : " + Benchmarks.format(mbs)));
+        System.out.println("  probe pick : " + CipherSuiteProbe.select(probe));
+        System.out.println("  hardware AES : " + CipherSuiteProbe.hasHardwareAes()
+            + ", selected : " + CipherSuiteProbe.fastest());
+
+        char[] masterKey = "benchmark-master-key".toCharArray();
+        AESEncryptionService service = new AESEncryptionService();
+        service.openSession(masterKey, service.createWrappedDataKey(masterKey));
+        byte[] file = new byte[FILE_SIZE];
+
+        System.out.println("Steady state");
+        for (CipherSuite suite : CipherSuite.values()) {
+            service.setCipherSuite(suite);
+            double fields = Benchmarks.opsPerSecond(warmupMillis, measureMillis, () -> service.encrypt(PLAINTEXT));
+            double files = Benchmarks.opsPerSecond(warmupMillis, measureMillis, () -> {
+                try (OutputStream out = service.newEncryptingStream(new ByteArrayOutputStream(FILE_SIZE + 4096))) {
+                    out.write(file);
+                }
+            });
+            System.out.println("  " + suite + " : " + Benchmarks.format(fields) + " fields/s, "
+                + Benchmarks.format(files * FILE_SIZE / 1e6) + " MB/s streamed");
+        }
+
+        service.closeSession();
+    }
+}
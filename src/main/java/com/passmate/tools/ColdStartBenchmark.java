@@ -0,0 +1,83 @@
+package com.passmate.tools;
+
+import com.passmate.models.Password;
+import com.passmate.models.PasswordSummary;
+import com.passmate.services.impl.AESEncryptionService;
+import com.passmate.services.impl.EncryptedStorageService;
+import com.passmate.services.impl.StartupLoader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Measures how long after unlock the password list can be drawn: from the summary preview, from
+ * the start of the password file as vaults without summaries do, and after the full load the list
+ * waited for before. The unlock itself (key derivation) comes first in every case and is reported
+ * apart. Runs against a scratch storage directory, never the user's vault.
+ *
+ * Usage: mvn -q compile exec:java -Dexec.mainClass=com.passmate.tools.ColdStartBenchmark [-Dexec.args="entries"]
+ */
+public class ColdStartBenchmark {
+
+    private static final char[] MASTER_KEY = "benchmark-master-key".toCharArray();
+    private static final int RUNS = 7;
+    private static final int PREVIEW_SIZE = 50;
+
+    public static void main(String[] args) throws Exception {
+        Path home = Benchmarks.useScratchHome("passmate-coldstart");
+        try {
+            int size = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+            EncryptedStorageService setup = new EncryptedStorageService(new AESEncryptionService());
+            setup.initialize(MASTER_KEY);
+            setup.savePasswords(Benchmarks.generatePasswords(size, 6));
+            setup.cleanup();
+
+            double[] unlock = new double[RUNS];
+            double[] summaries = new double[RUNS];
+            double[] passwordFile = new double[RUNS];
+            double[] fullLoad = new double[RUNS];
+            for (int i = 0; i < RUNS; i++) {
+                int run = i;
+                EncryptedStorageService storage = new EncryptedStorageService(new AESEncryptionService());
+                StartupLoader loader = new StartupLoader(storage);
+                unlock[run] = Benchmarks.timeMillis(() -> loader.unlock(MASTER_KEY));
+                summaries[run] = Benchmarks.timeMillis(() -> loader.preview(PREVIEW_SIZE));
+                passwordFile[run] = Benchmarks.timeMillis(() -> {
+                    List<PasswordSummary> first = new ArrayList<>(PREVIEW_SIZE);
+                    try (Stream<Password> passwords = storage.streamPasswords()) {
+                        passwords.limit(PREVIEW_SIZE).map(PasswordSummary::of).forEach(first::add);
+                    }
+                });
+                fullLoad[run] = Benchmarks.timeMillis(() -> loader.load(data -> { }));
+                storage.cleanup();
+            }
+
+            System.out.println(size + " entries, first " + PREVIEW_SIZE + " listed, median of " + RUNS);
+            System.out.println("  unlock (key derivation, manifest): " + Benchmarks.format(median(unlock)) + " ms");
+            System.out.println("  list from summaries:               " + Benchmarks.format(median(summaries)) + " ms");
+            System.out.println("  list from password file start:     " + Benchmarks.format(median(passwordFile)) + " ms");
+            System.out.println("  list after full load:              " + Benchmarks.format(median(fullLoad)) + " ms");
+            System.out.println("  summary file " + Files.size(single(home, "summaries")) / 1024 + " KB, password file "
+                + Files.size(single(home, "passwords")) / 1024 + " KB");
+        } finally {
+            Benchmarks.deleteRecursively(home);
+        }
+    }
+
+    private static Path single(Path home, String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(home.resolve(".passmate"))) {
+            return files.filter(file -> file.getFileName().toString().startsWith(prefix + ".")).findFirst().orElseThrow();
+        }
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
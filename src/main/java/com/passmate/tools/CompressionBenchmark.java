@@ -0,0 +1,185 @@
+package com.passmate.tools;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.passmate.models.Password;
+import com.passmate.services.Compression;
+import com.passmate.services.PayloadFormat;
+import com.passmate.services.StorageChanges;
+import com.passmate.services.impl.AESEncryptionService;
+import com.passmate.services.impl.EncryptedStorageService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+/**
+ * Measures compression ahead of encryption on a realistic synthetic vault: random ids and encrypted
+ * secrets, which do not compress, next to repeated sites, usernames, categories and dates, which do.
+ * Reports the encrypted snapshot and backup sizes with save/load times per payload format, and the
+ * journal bytes per single-entry update with and without the preset record dictionary.
+ * Runs against a scratch storage directory, never the user's vault.
+ *
+ * Usage: mvn -q compile exec:java -Dexec.mainClass=com.passmate.tools.CompressionBenchmark [-Dexec.args="entries"]
+ */
+public class CompressionBenchmark {
+
+    private static final char[] MASTER_KEY = "benchmark-master-key".toCharArray();
+    private static final String[] SITES = {"google.com", "github.com", "amazon.com", "facebook.com", "microsoft.com",
+        "apple.com", "netflix.com", "spotify.com", "linkedin.com", "twitter.com", "reddit.com", "dropbox.com",
+        "paypal.com", "ebay.com", "slack.com", "zoom.us", "atlassian.net", "gitlab.com", "stackoverflow.com",
+        "steampowered.com", "adobe.com", "airbnb.com", "booking.com", "uber.com", "wikipedia.org"};
+    private static final String[] USERNAMES = {"alex.morgan@gmail.com", "alex@morgan.dev", "amorgan", "alex.morgan@work.example"};
+    private static final String[] NOTES = {"", "", "", "", "Recovery codes stored offline",
+        "Security question: first pet", "Shared with family", "2FA via authenticator app"};
+    private static final int RECORD_UPDATES = 500;
+
+    public static void main(String[] args) throws Exception {
+        Path home = Benchmarks.useScratchHome("passmate-compression");
+        try {
+            Path storage = home.resolve(".passmate");
+
+            int size = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+            List<Password> entries = generate(size, new Random(42));
+            System.out.println(size + " entries");
+
+            EncryptedStorageService storageService = new EncryptedStorageService(new AESEncryptionService());
+            storageService.initialize(MASTER_KEY);
+            for (PayloadFormat format : PayloadFormat.values()) {
+                storageService.setPayloadFormat(format);
+                long uncompressed = 0;
+                for (Compression compression : Compression.values()) {
+                    storageService.setCompression(compression);
+                    storageService.savePasswords(entries);
+                    double save = Benchmarks.opsPerSecond(500, 2_000, () -> storageService.savePasswords(entries));
+                    double load = Benchmarks.opsPerSecond(500, 2_000, storageService::loadPasswords);
+                    long file = Files.size(latest(storage, "passwords(\\.\\d+)?\\.enc"));
+                    Path backup = home.resolve("backup-" + format + "-" + compression);
+                    storageService.backupData(backup.toString());
+                    long backupSize = Files.size(backup);
+                    if (compression == Compression.NONE) {
+                        uncompressed = file;
+                    }
+                    System.out.println("  " + format + ", " + compression + ": file " + kb(file)
+                        + ratio(file, uncompressed) + ", backup " + kb(backupSize)
+                        + ", save " + Benchmarks.format(1000 / save) + " ms, load " + Benchmarks.format(1000 / load) + " ms");
+                }
+            }
+
+            // Single-entry updates go to the journal one record at a time
+            storageService.setPayloadFormat(PayloadFormat.SMILE);
+            Path journal = storage.resolve("journal.enc");
+            long uncompressed = 0;
+            for (Compression compression : Compression.values()) {
+                storageService.setCompression(compression);
+                storageService.savePasswords(entries);
+                long before = Files.exists(journal) ? Files.size(journal) : 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < RECORD_UPDATES; i++) {
+                    StorageChanges changes = new StorageChanges();
+                    changes.putPassword(entries.get(i));
+                    storageService.saveChanges(changes);
+                }
+                double millis = (System.nanoTime() - start) / 1e6 / RECORD_UPDATES;
+                long perRecord = (Files.size(journal) - before) / RECORD_UPDATES;
+                if (compression == Compression.NONE) {
+                    uncompressed = perRecord;
+                }
+                System.out.println("  journal record, " + compression + ": " + perRecord + " bytes"
+                    + ratio(perRecord, uncompressed) + ", " + Benchmarks.format(millis) + " ms per update");
+            }
+            storageService.cleanup();
+
+            // What the preset dictionary buys: the same records deflated on their own
+            ObjectMapper smile = new ObjectMapper(SmileFactory.builder()
+                .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+                .build());
+            long raw = 0;
+            long deflated = 0;
+            for (int i = 0; i < RECORD_UPDATES; i++) {
+                byte[] record = smile.writeValueAsBytes(entries.get(i));
+                raw += record.length;
+                deflated += Math.min(record.length, deflate(record));
+            }
+            System.out.println("  Smile record without dictionary: " + raw / RECORD_UPDATES + " bytes raw, "
+                + deflated / RECORD_UPDATES + " bytes deflated" + ratio(deflated, raw));
+        } finally {
+            Benchmarks.deleteRecursively(home);
+        }
+    }
+
+    private static int deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] out = new byte[data.length * 2 + 64];
+            int length = 0;
+            while (!deflater.finished()) {
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            // Plus the payload header
+            return length + 3;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static List<Password> generate(int size, Random random) {
+        SecureRandom secrets = new SecureRandom();
+        List<String> categories = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            categories.add(UUID.randomUUID().toString());
+        }
+        DateTimeFormatter dates = DateTimeFormatter.ofPattern("dd.MM.yyyy");
+        LocalDate origin = LocalDate.of(2019, 1, 1);
+
+        List<Password> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String site = SITES[Math.min(SITES.length - 1, (int) (-Math.log(1 - random.nextDouble()) * 6))];
+            String name = Character.toUpperCase(site.charAt(0)) + site.substring(1, site.indexOf('.'))
+                + (random.nextInt(5) == 0 ? " (" + (i % 97) + ")" : "");
+            Password password = new Password(name, USERNAMES[random.nextInt(USERNAMES.length)], "",
+                "https://www." + site, NOTES[random.nextInt(NOTES.length)], categories.get(random.nextInt(categories.size())));
+            // Secrets are "v3:" + Base64([suite][nonce][ciphertext+tag]) and look random
+            byte[] secret = new byte[1 + 12 + 12 + random.nextInt(20) + 16];
+            secrets.nextBytes(secret);
+            password.setPasswordHash("v3:" + Base64.getEncoder().encodeToString(secret));
+            String created = origin.plusDays(random.nextInt(2_000)).format(dates);
+            password.setCreatedBy("User");
+            password.setCreatedDate(created);
+            password.setLastUpdated(random.nextBoolean() ? created : origin.plusDays(2_000 + random.nextInt(300)).format(dates));
+            entries.add(password);
+        }
+        return entries;
+    }
+
+    private static String ratio(long size, long uncompressed) {
+        return uncompressed == 0 || size == uncompressed ? ""
+            : " (" + Benchmarks.format(100.0 * size / uncompressed) + "%)";
+    }
+
+    private static String kb(long bytes) {
+        return Benchmarks.format(bytes / 1024.0) + " KB";
+    }
+
+    private static Path latest(Path storage, String pattern) throws IOException {
+        try (Stream<Path> files = Files.list(storage)) {
+            return files.filter(path -> path.getFileName().toString().matches(pattern))
+                .max(Comparator.comparing(path -> path.toFile().lastModified()))
+                .orElseThrow(() -> new IOException("No file matching " + pattern + " written"));
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.passmate.tools;
+
+import com.passmate.services.impl.AESEncryptionService;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+
+/**
+ * Compares single-field encryption throughput with per-call JCA lookups (the previous behaviour)
+ * against the pooled crypto context used by {@link AESEncryptionService}.
+ *
+ * Usage: mvn -q compile exec:java -Dexec.mainClass=com.passmate.tools.CryptoBenchmark [-Dexec.args="seconds"]
+ */
+public class CryptoBenchmark {
+
+    private static final String PLAINTEXT = "correct-horse-battery-staple";
+
+    public static void main(String[] args) throws Exception {
+        long measureMillis = (args.length > 0 ? Long.parseLong(args[0]) : 3) * 1000;
+        long warmupMillis = measureMillis / 2;
+
+        char[] masterKey = "benchmark-master-key".toCharArray();
+        AESEncryptionService service = new AESEncryptionService();
+        service.openSession(masterKey, service.createWrappedDataKey(masterKey));
+
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
+        byte[] input = PLAINTEXT.getBytes(StandardCharsets.UTF_8);
+
+        double uncached = Benchmarks.opsPerSecond(warmupMillis, measureMillis, () -> {
+            byte[] iv = new byte[12];
+            new SecureRandom().nextBytes(iv);
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, keySpec, new GCMParameterSpec(128, iv));
+            cipher.doFinal(input);
+        });
+
+        double pooled = Benchmarks.opsPerSecond(warmupMillis, measureMillis, () -> service.encrypt(PLAINTEXT));
+
+        String ciphertext = service.encrypt(PLAINTEXT);
+        double pooledDecrypt = Benchmarks.opsPerSecond(warmupMillis, measureMillis, () -> service.decrypt(ciphertext));
+
+        System.out.println("Single-field encryption (" + PLAINTEXT.length() + " chars), ops/sec");
+        System.out.println("  per-call getInstance + new SecureRandom : " + Benchmarks.format(uncached));
+        System.out.println("  pooled crypto context (encrypt)          : " + Benchmarks.format(pooled));
+        System.out.println("  pooled crypto context (decrypt)          : " + Benchmarks.format(pooledDecrypt));
+        System.out.println("  speedup (encrypt)                        : " + Benchmarks.format(pooled / uncached) + "x");
+
+        service.closeSession();
+    }
+}
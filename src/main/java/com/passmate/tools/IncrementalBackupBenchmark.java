@@ -0,0 +1,90 @@
+package com.passmate.tools;
+
+import com.passmate.models.BackupPoint;
+import com.passmate.models.Category;
+import com.passmate.models.Password;
+import com.passmate.services.impl.AESEncryptionService;
+import com.passmate.services.impl.EncryptedStorageService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Compares a full backup ({@code backupData}, which loads and rewrites everything) with incremental
+ * backup points: the first point, a point after a few edits, a point without changes, a restore and a
+ * prune down to one point. Reports time and bytes written for each. Runs against a scratch storage
+ * directory, never the user's vault.
+ *
+ * Usage: mvn -q compile exec:java -Dexec.mainClass=com.passmate.tools.IncrementalBackupBenchmark [-Dexec.args="entries edits"]
+ */
+public class IncrementalBackupBenchmark {
+
+    private static final char[] MASTER_KEY = "benchmark-master-key".toCharArray();
+
+    public static void main(String[] args) throws Exception {
+        Path home = Benchmarks.useScratchHome("passmate-backup");
+        try {
+            int size = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+            int edits = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+            EncryptedStorageService storage = new EncryptedStorageService(new AESEncryptionService());
+            storage.initialize(MASTER_KEY);
+            List<Password> passwords = Benchmarks.generatePasswords(size, 50);
+            List<Category> categories = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                categories.add(new Category("category-" + i, "Category " + i, "folder-icon"));
+            }
+            storage.savePasswords(passwords);
+            storage.saveCategories(categories);
+
+            Path full = home.resolve("full.backup");
+            String directory = home.resolve("incremental").toString();
+            double fullMillis = Benchmarks.timeMillis(() -> storage.backupData(full.toString()));
+            System.out.println(size + " entries");
+            System.out.println("  full backup:           " + Benchmarks.format(fullMillis) + " ms, " + kb(Files.size(full)));
+
+            BackupPoint[] point = new BackupPoint[1];
+            double first = Benchmarks.timeMillis(() -> point[0] = storage.createBackupPoint(directory, passwords, categories));
+            report("first point", first, point[0]);
+            long firstId = point[0].getId();
+
+            for (int i = 0; i < edits; i++) {
+                passwords.get(i * (size / edits)).setNotes("Edited " + i);
+            }
+            double edited = Benchmarks.timeMillis(() -> point[0] = storage.createBackupPoint(directory, passwords, categories));
+            report(edits + " edits", edited, point[0]);
+
+            double unchanged = Benchmarks.timeMillis(() -> point[0] = storage.createBackupPoint(directory, passwords, categories));
+            report("no changes", unchanged, point[0]);
+
+            double restore = Benchmarks.timeMillis(() -> storage.restoreBackupPoint(directory, firstId));
+            System.out.println("  restore first point:   " + Benchmarks.format(restore) + " ms");
+            long before = directorySize(Path.of(directory));
+            double prune = Benchmarks.timeMillis(() -> storage.pruneBackupPoints(directory, 1));
+            System.out.println("  prune to one point:    " + Benchmarks.format(prune) + " ms, " + kb(before) + " -> "
+                + kb(directorySize(Path.of(directory))));
+
+            storage.cleanup();
+        } finally {
+            Benchmarks.deleteRecursively(home);
+        }
+    }
+
+    private static void report(String run, double millis, BackupPoint point) {
+        System.out.println(String.format("  %-22s ", run + ":") + Benchmarks.format(millis) + " ms, "
+            + point.getNewChunks() + " chunks, " + kb(point.getNewBytes()));
+    }
+
+    private static String kb(long bytes) {
+        return (bytes / 1024) + " KB";
+    }
+
+    private static long directorySize(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+}
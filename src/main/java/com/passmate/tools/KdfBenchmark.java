@@ -0,0 +1,46 @@
+package com.passmate.tools;
+
+import com.passmate.services.KdfParameters;
+import com.passmate.services.impl.AESEncryptionService;
+
+/**
+ * Calibrates key derivation for this machine and prints the chosen parameters
+ * together with the measured derive time.
+ *
+ * Usage: mvn -q compile exec:java -Dexec.mainClass=com.passmate.tools.KdfBenchmark [-Dexec.args="targetMillis"]
+ */
+public class KdfBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        long targetMillis = args.length > 0 ? Long.parseLong(args[0]) : 300;
+
+        AESEncryptionService service = new AESEncryptionService();
+        service.setKdfTargetMillis(targetMillis);
+
+        double calibrationMillis = Benchmarks.timeMillis(service::getCalibratedKdfParameters);
+        KdfParameters parameters = service.getCalibratedKdfParameters();
+
+        char[] password = "benchmark-master-key".toCharArray();
+        byte[] salt = service.generateSalt();
+        double best = Double.MAX_VALUE;
+        double total = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            double millis = Benchmarks.timeMillis(() -> service.deriveKey(password, salt, parameters));
+            best = Math.min(best, millis);
+            total += millis;
+        }
+
+        double legacy = Benchmarks.timeMillis(() -> service.deriveKey(password, salt, KdfParameters.LEGACY));
+
+        System.out.println("Target unlock latency : " + targetMillis + " ms");
+        System.out.println("Calibration took      : " + Benchmarks.format(calibrationMillis) + " ms");
+        System.out.println("Chosen parameters     : " + parameters.getAlgorithmName()
+            + ", " + parameters.getIterations() + " iterations");
+        System.out.println("Measured derive time  : best " + Benchmarks.format(best)
+            + " ms, mean " + Benchmarks.format(total / ROUNDS) + " ms over " + ROUNDS + " rounds");
+        System.out.println("Legacy (" + KdfParameters.LEGACY.getIterations() + " iterations): "
+            + Benchmarks.format(legacy) + " ms");
+    }
+}
@@ -0,0 +1,143 @@
+package com.passmate.tools;
+
+import com.passmate.models.KeyRotationCheckpoint;
+import com.passmate.models.Password;
+import com.passmate.services.exceptions.CryptoException;
+import com.passmate.services.impl.AESEncryptionService;
+import com.passmate.services.impl.BulkCryptoExecutor;
+import com.passmate.services.impl.EncryptedStorageService;
+import com.passmate.services.impl.KeyRotationEngine;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+
+/**
+ * Rotates the data key of synthetic vaults and reports throughput and time to complete,
+ * then interrupts a rotation halfway and resumes it from its checkpoint.
+ * Runs against a scratch storage directory, never the user's vault.
+ *
+ * Usage: mvn -q compile exec:java -Dexec.mainClass=com.passmate.tools.KeyRotationBenchmark [-Dexec.args="10000 100000"]
+ */
+public class KeyRotationBenchmark {
+
+    private static final char[] OLD_KEY = "benchmark-old-master-key".toCharArray();
+    private static final char[] NEW_KEY = "benchmark-new-master-key".toCharArray();
+
+    public static void main(String[] args) throws Exception {
+        Path home = Benchmarks.useScratchHome("passmate-rotation");
+        try {
+            Path storage = home.resolve(".passmate");
+
+            int[] sizes = args.length > 0
+                ? Stream.of(args).mapToInt(Integer::parseInt).toArray()
+                : new int[]{10_000, 100_000};
+            BulkCryptoExecutor bulkExecutor = new BulkCryptoExecutor();
+
+            for (int size : sizes) {
+                Benchmarks.deleteRecursively(storage);
+                AESEncryptionService encryptionService = new AESEncryptionService();
+                EncryptedStorageService storageService = new EncryptedStorageService(encryptionService);
+                storageService.initialize(OLD_KEY);
+                List<Password> entries = populate(encryptionService, storageService, size);
+
+                double beginMillis = Benchmarks.timeMillis(() -> storageService.beginKeyRotation(NEW_KEY));
+                KeyRotationEngine engine = new KeyRotationEngine(encryptionService, bulkExecutor);
+                KeyRotationEngine.Report report = engine.start(entries, null, store(storageService, entries, -1), null).join();
+
+                System.out.println(size + " entries (" + bulkExecutor.getParallelism() + " crypto threads)");
+                System.out.println("  begin (new key + key derivation) : " + Benchmarks.format(beginMillis) + " ms");
+                System.out.println("  rotation                         : " + report);
+                System.out.println("  verified                         : " + verify(size));
+                storageService.cleanup();
+            }
+
+            // Interrupted rotation: fail the store halfway, then resume from the checkpoint with a fresh session
+            int size = sizes[0];
+            Benchmarks.deleteRecursively(storage);
+            AESEncryptionService encryptionService = new AESEncryptionService();
+            EncryptedStorageService storageService = new EncryptedStorageService(encryptionService);
+            storageService.initialize(OLD_KEY);
+            List<Password> entries = populate(encryptionService, storageService, size);
+            storageService.beginKeyRotation(NEW_KEY);
+            KeyRotationEngine engine = new KeyRotationEngine(encryptionService, bulkExecutor,
+                KeyRotationEngine.DEFAULT_BATCH_SIZE, 0);
+            try {
+                engine.start(entries, null, store(storageService, entries, size / 2), null).join();
+            } catch (CompletionException e) {
+                System.out.println("Interrupted rotation : " + e.getCause().getMessage());
+            }
+            storageService.cleanup();
+
+            AESEncryptionService resumedEncryption = new AESEncryptionService();
+            EncryptedStorageService resumedStorage = new EncryptedStorageService(resumedEncryption);
+            resumedStorage.initialize(NEW_KEY);
+            KeyRotationCheckpoint checkpoint = resumedStorage.loadRotationCheckpoint();
+            List<Password> reloaded = resumedStorage.loadPasswords();
+            KeyRotationEngine.Report resumed = new KeyRotationEngine(resumedEncryption, bulkExecutor)
+                .start(reloaded, checkpoint, store(resumedStorage, reloaded, -1), null).join();
+            System.out.println("Resumed rotation     : pending=" + resumedStorage.isKeyRotationPending()
+                + ", " + resumed);
+            System.out.println("  verified           : " + verify(size));
+            resumedStorage.cleanup();
+        } finally {
+            Benchmarks.deleteRecursively(home);
+        }
+    }
+
+    private static List<Password> populate(AESEncryptionService encryptionService,
+                                           EncryptedStorageService storageService, int size) throws CryptoException {
+        List<Password> entries = Benchmarks.generatePasswords(size, 6);
+        for (int i = 0; i < size; i++) {
+            // Real secrets under the current key, so the rotation has something to re-encrypt and verify
+            entries.get(i).setPasswordHash(encryptionService.encrypt("secret-" + i));
+        }
+        storageService.savePasswords(entries);
+        return entries;
+    }
+
+    /**
+     * @param failAt Number of processed entries at which persisting fails, or -1 to never fail
+     */
+    private static KeyRotationEngine.Store store(EncryptedStorageService storageService, List<Password> entries,
+                                                 int failAt) {
+        return new KeyRotationEngine.Store() {
+            @Override
+            public void persist(KeyRotationCheckpoint checkpoint) throws CryptoException {
+                storageService.savePasswords(entries);
+                storageService.saveRotationCheckpoint(checkpoint);
+                if (failAt >= 0 && checkpoint.getProcessed() >= failAt) {
+                    throw new CryptoException("simulated crash after " + checkpoint.getProcessed() + " entries");
+                }
+            }
+
+            @Override
+            public void complete() throws CryptoException {
+                storageService.completeKeyRotation();
+            }
+        };
+    }
+
+    /**
+     * Unlocks the vault with the new master key alone and decrypts every entry.
+     */
+    private static String verify(int expected) throws CryptoException {
+        AESEncryptionService encryptionService = new AESEncryptionService();
+        EncryptedStorageService storageService = new EncryptedStorageService(encryptionService);
+        storageService.initialize(NEW_KEY);
+        try {
+            List<Password> entries = storageService.loadPasswords();
+            int readable = 0;
+            for (Password password : entries) {
+                if (encryptionService.decrypt(password.getPasswordHash()).startsWith("secret-")) {
+                    readable++;
+                }
+            }
+            boolean ok = readable == expected && !storageService.isKeyRotationPending();
+            return (ok ? "OK" : "FAILED") + " (" + readable + "/" + expected + " entries readable with the new key only)";
+        } finally {
+            storageService.cleanup();
+        }
+    }
+}
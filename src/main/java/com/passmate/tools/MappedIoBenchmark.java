@@ -0,0 +1,152 @@
+package com.passmate.tools;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.passmate.models.Password;
+import com.passmate.services.EncryptionService;
+import com.passmate.services.PayloadFormat;
+import com.passmate.services.impl.AESEncryptionService;
+import com.passmate.services.impl.EncryptedStorageService;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Compares cold and warm load times of a large password file read three ways: the whole file read
+ * onto the heap before decryption, a buffered decrypting stream, and the memory-mapped path that
+ * decrypts segments straight from the mapping (saves then use gathering writes).
+ * Every path runs once before measuring so the JIT has settled; "cold" then drops the page cache
+ * where permitted (Linux, as root). Runs against a scratch storage directory, never the user's vault.
+ *
+ * Usage: mvn -q compile exec:java -Dexec.mainClass=com.passmate.tools.MappedIoBenchmark [-Dexec.args="50"]
+ */
+public class MappedIoBenchmark {
+
+    private static final char[] MASTER_KEY = "benchmark-master-key".toCharArray();
+    private static final String CHANNEL_IO_PROPERTY = "passmate.storage.channelIo";
+    private static final int SAVE_RUNS = 3;
+    private static final int WARM_RUNS = 9;
+
+    public static void main(String[] args) throws Exception {
+        Path home = Benchmarks.useScratchHome("passmate-mmap");
+        try {
+            Path storage = home.resolve(".passmate");
+
+            int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+            List<Password> entries = generate(megabytes);
+
+            EncryptedStorageService storageService = new EncryptedStorageService(new AESEncryptionService());
+            storageService.initialize(MASTER_KEY);
+            // The whole-file baseline below parses JSON itself
+            storageService.setPayloadFormat(PayloadFormat.JSON);
+
+            double[] streamSaves = new double[SAVE_RUNS];
+            double[] gatheringSaves = new double[SAVE_RUNS];
+            for (int i = 0; i < SAVE_RUNS; i++) {
+                streamSaves[i] = withChannelIo(false, () -> storageService.savePasswords(entries));
+                gatheringSaves[i] = withChannelIo(true, () -> storageService.savePasswords(entries));
+            }
+
+            Path file = passwordFile(storage);
+            System.out.println(entries.size() + " entries, " + Benchmarks.format(Files.size(file) / 1e6)
+                + " MB encrypted" + (canDropCaches() ? "" : " (page cache cannot be dropped here, cold = warm)"));
+            System.out.println("  save, buffered stream:  " + Benchmarks.format(median(streamSaves)) + " ms");
+            System.out.println("  save, gathering writes: " + Benchmarks.format(median(gatheringSaves)) + " ms");
+
+            EncryptionService encryption = new AESEncryptionService();
+            encryption.openSession(MASTER_KEY, Files.readString(storage.resolve("vault.key")).trim());
+            ObjectMapper mapper = new ObjectMapper();
+            Benchmarks.Operation readAll = () -> {
+                // The path before streaming reads: the whole file on the heap, hashed as the manifest requires
+                byte[] data = Files.readAllBytes(file);
+                MessageDigest.getInstance("SHA-256").update(data);
+                try (InputStream in = encryption.newDecryptingStream(new ByteArrayInputStream(data))) {
+                    mapper.readValue(in, new TypeReference<List<Password>>() { });
+                }
+            };
+            Benchmarks.Operation buffered = () -> withChannelIo(false, storageService::loadPasswords);
+            Benchmarks.Operation mapped = () -> withChannelIo(true, storageService::loadPasswords);
+            for (Benchmarks.Operation load : List.of(readAll, buffered, mapped)) {
+                load.run();
+            }
+
+            report("readAllBytes + decrypt", readAll);
+            report("buffered stream", buffered);
+            report("memory mapped", mapped);
+
+            storageService.cleanup();
+            encryption.closeSession();
+        } finally {
+            Benchmarks.deleteRecursively(home);
+        }
+    }
+
+    private static void report(String name, Benchmarks.Operation load) throws Exception {
+        dropCaches();
+        double cold = Benchmarks.timeMillis(load);
+        double[] warm = new double[WARM_RUNS];
+        for (int i = 0; i < WARM_RUNS; i++) {
+            warm[i] = Benchmarks.timeMillis(load);
+        }
+        System.out.printf("  load, %-24s cold %s ms, warm %s ms (median of %d)%n", name + ":",
+            Benchmarks.format(cold), Benchmarks.format(median(warm)), WARM_RUNS);
+    }
+
+    private static double withChannelIo(boolean enabled, Benchmarks.Operation operation) throws Exception {
+        System.setProperty(CHANNEL_IO_PROPERTY, Boolean.toString(enabled));
+        try {
+            return Benchmarks.timeMillis(operation);
+        } finally {
+            System.clearProperty(CHANNEL_IO_PROPERTY);
+        }
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    /**
+     * Entries of about 600 bytes of JSON each, until the file reaches the requested size.
+     */
+    private static List<Password> generate(int megabytes) {
+        int count = megabytes * 1_000_000 / 600;
+        List<Password> entries = Benchmarks.generatePasswords(count, 6);
+        for (int i = 0; i < count; i++) {
+            entries.get(i).setNotes("Recovery codes " + i + ": " + "0123456789 ".repeat(20));
+        }
+        return entries;
+    }
+
+    private static Path passwordFile(Path storage) throws IOException {
+        try (Stream<Path> files = Files.list(storage)) {
+            return files.filter(path -> path.getFileName().toString().matches("passwords(\\.\\d+)?\\.enc"))
+                .max(Comparator.comparing(path -> path.toFile().lastModified()))
+                .orElseThrow(() -> new IOException("No password file written"));
+        }
+    }
+
+    private static boolean canDropCaches() {
+        return Files.isWritable(Path.of("/proc/sys/vm/drop_caches"));
+    }
+
+    private static void dropCaches() throws Exception {
+        if (canDropCaches()) {
+            new ProcessBuilder("sync").inheritIO().start().waitFor();
+            try {
+                Files.writeString(Path.of("/proc/sys/vm/drop_caches"), "1");
+            } catch (IOException e) {
+                // Read-only in containers; the run is then only cold for the JVM
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.passmate.tools;
+
+import com.passmate.models.Password;
+import com.passmate.services.impl.AESEncryptionService;
+import com.passmate.services.impl.EncryptedStorageService;
+import com.passmate.services.impl.PagedStorageService;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Compares single-entry reads and updates on the paged store with the snapshot store, which has to
+ * decrypt or rewrite the whole password file, and checks that deleted pages are reused.
+ * Runs against a scratch storage directory, never the user's vault.
+ *
+ * Usage: mvn -q compile exec:java -Dexec.mainClass=com.passmate.tools.PagedStorageBenchmark [-Dexec.args="10000 50000"]
+ */
+public class PagedStorageBenchmark {
+
+    private static final char[] MASTER_KEY = "benchmark-master-key".toCharArray();
+
+    public static void main(String[] args) throws Exception {
+        Path home = Benchmarks.useScratchHome("passmate-paged");
+        try {
+            Path storage = home.resolve(".passmate");
+
+            int[] sizes = args.length > 0
+                ? Stream.of(args).mapToInt(Integer::parseInt).toArray()
+                : new int[]{10_000, 50_000};
+
+            for (int size : sizes) {
+                Benchmarks.deleteRecursively(storage);
+                List<Password> entries = Benchmarks.generatePasswords(size, 6);
+                Random random = new Random(42);
+
+                PagedStorageService paged = new PagedStorageService(new AESEncryptionService());
+                paged.initialize(MASTER_KEY);
+                double pagedSave = Benchmarks.timeMillis(() -> paged.savePasswords(entries));
+                paged.cleanup();
+
+                PagedStorageService reopened = new PagedStorageService(new AESEncryptionService());
+                double pagedUnlock = Benchmarks.timeMillis(() -> reopened.initialize(MASTER_KEY));
+                double pagedReads = Benchmarks.opsPerSecond(500, 2_000,
+                    () -> reopened.loadPassword(entries.get(random.nextInt(size)).getId()));
+                double pagedUpdates = Benchmarks.opsPerSecond(200, 2_000, () -> {
+                    Password password = entries.get(random.nextInt(size));
+                    password.setNotes("note " + random.nextInt());
+                    reopened.savePassword(password);
+                });
+
+                // Free-space reuse: delete and re-add entries, the file must not grow
+                int pagesBefore = reopened.getPageCount();
+                for (int i = 0; i < 1_000; i++) {
+                    Password password = entries.get(i);
+                    reopened.deletePassword(password.getId());
+                    reopened.savePassword(password);
+                }
+                int pagesAfter = reopened.getPageCount();
+                int loaded = reopened.loadPasswords().size();
+                reopened.cleanup();
+
+                Benchmarks.deleteRecursively(storage);
+                EncryptedStorageService snapshots = new EncryptedStorageService(new AESEncryptionService());
+                snapshots.initialize(MASTER_KEY);
+                snapshots.savePasswords(entries);
+                double snapshotRead = Benchmarks.timeMillis(snapshots::loadPasswords);
+                double snapshotSave = Benchmarks.timeMillis(() -> snapshots.savePasswords(entries));
+                snapshots.cleanup();
+
+                System.out.println(size + " entries");
+                System.out.println("  paged: initial save " + Benchmarks.format(pagedSave) + " ms, unlock (index load) "
+                    + Benchmarks.format(pagedUnlock) + " ms");
+                System.out.println("  paged: read one entry   " + Benchmarks.format(1e6 / pagedReads) + " us");
+                System.out.println("  paged: update one entry " + Benchmarks.format(1e6 / pagedUpdates) + " us (two fsyncs)");
+                System.out.println("  snapshot: read (full decrypt) " + Benchmarks.format(snapshotRead) + " ms, "
+                    + "rewrite " + Benchmarks.format(snapshotSave) + " ms");
+                System.out.println("  pages before/after 1000 delete+insert: " + pagesBefore + "/" + pagesAfter
+                    + ", entries readable after updates: " + loaded + "/" + size);
+            }
+        } finally {
+            Benchmarks.deleteRecursively(home);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.passmate.tools;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.passmate.models.Password;
+import com.passmate.services.PayloadFormat;
+import com.passmate.services.impl.AESEncryptionService;
+import com.passmate.services.impl.EncryptedStorageService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Compares payload formats on a synthetic vault: serialized size, serialize/deserialize throughput
+ * with the same mapper settings as storage, and size and save/load time of the encrypted password file.
+ * Runs against a scratch storage directory, never the user's vault.
+ *
+ * Usage: mvn -q compile exec:java -Dexec.mainClass=com.passmate.tools.PayloadFormatBenchmark [-Dexec.args="entries"]
+ */
+public class PayloadFormatBenchmark {
+
+    private static final char[] MASTER_KEY = "benchmark-master-key".toCharArray();
+    private static final String[] SITES = {"github.com", "google.com", "amazon.com", "bank.example", "mail.example"};
+
+    public static void main(String[] args) throws Exception {
+        Path home = Benchmarks.useScratchHome("passmate-payload");
+        try {
+            Path storage = home.resolve(".passmate");
+
+            int size = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+            List<Password> entries = generate(size);
+
+            ObjectMapper json = new ObjectMapper();
+            JavaType listType = json.getTypeFactory().constructCollectionType(List.class, Password.class);
+            ObjectWriter indented = json.writer().with(SerializationFeature.INDENT_OUTPUT);
+            ObjectMapper smile = new ObjectMapper(SmileFactory.builder()
+                .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+                .build());
+
+            byte[] indentedBytes = indented.writeValueAsBytes(entries);
+            byte[] compactBytes = json.writeValueAsBytes(entries);
+            byte[] smileBytes = smile.writeValueAsBytes(entries);
+
+            System.out.println(size + " entries");
+            System.out.println("  serialized size: indented JSON " + kb(indentedBytes.length) + ", compact JSON "
+                + kb(compactBytes.length) + ", Smile " + kb(smileBytes.length) + " ("
+                + Benchmarks.format(100.0 * smileBytes.length / indentedBytes.length) + "% of indented JSON)");
+            System.out.println("  serialize:   JSON " + rate(() -> indented.writeValueAsBytes(entries))
+                + ", Smile " + rate(() -> smile.writeValueAsBytes(entries)));
+            System.out.println("  deserialize: JSON " + rate(() -> json.readValue(indentedBytes, listType))
+                + ", Smile " + rate(() -> smile.readValue(smileBytes, listType)));
+
+            EncryptedStorageService storageService = new EncryptedStorageService(new AESEncryptionService());
+            storageService.initialize(MASTER_KEY);
+            for (PayloadFormat format : PayloadFormat.values()) {
+                storageService.setPayloadFormat(format);
+                storageService.savePasswords(entries);
+                double save = Benchmarks.opsPerSecond(500, 2_000, () -> storageService.savePasswords(entries));
+                double load = Benchmarks.opsPerSecond(500, 2_000, storageService::loadPasswords);
+                System.out.println("  storage, " + format + ": file " + kb(Files.size(passwordFile(storage)))
+                    + ", save " + Benchmarks.format(1000 / save) + " ms, load " + Benchmarks.format(1000 / load) + " ms");
+            }
+            storageService.cleanup();
+        } finally {
+            Benchmarks.deleteRecursively(home);
+        }
+    }
+
+    private static String rate(Benchmarks.Operation operation) throws Exception {
+        double ops = Benchmarks.opsPerSecond(1_000, 3_000, operation);
+        return Benchmarks.format(1000 / ops) + " ms";
+    }
+
+    private static String kb(long bytes) {
+        return Benchmarks.format(bytes / 1024.0) + " KB";
+    }
+
+    /**
+     * The shared entries spread over a few sites, so a single repeated website does not flatter Smile.
+     */
+    private static List<Password> generate(int size) {
+        List<Password> entries = Benchmarks.generatePasswords(size, 6);
+        for (int i = 0; i < size; i++) {
+            String site = SITES[i % SITES.length];
+            entries.get(i).setName(site + " " + i);
+            entries.get(i).setWebsite("https://" + site);
+        }
+        return entries;
+    }
+
+    private static Path passwordFile(Path storage) throws IOException {
+        try (Stream<Path> files = Files.list(storage)) {
+            return files.filter(path -> path.getFileName().toString().matches("passwords(\\.\\d+)?\\.enc"))
+                .max(Comparator.comparing(path -> path.toFile().lastModified()))
+                .orElseThrow(() -> new IOException("No password file written"));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.passmate.tools;
+
+import com.passmate.models.Category;
+import com.passmate.services.impl.AESEncryptionService;
+import com.passmate.services.impl.EncryptedStorageService;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures restoring a backup file: time, and the live heap held while restoring. The live heap is
+ * sampled by a thread that collects garbage every few milliseconds and keeps the largest heap in use,
+ * so the restore runs slower while sampled and the figure is indicative only. Runs against a scratch
+ * storage directory, never the user's vault.
+ *
+ * Usage: mvn -q compile exec:java -Dexec.mainClass=com.passmate.tools.RestoreBenchmark [-Dexec.args="entries"]
+ */
+public class RestoreBenchmark {
+
+    private static final char[] MASTER_KEY = "benchmark-master-key".toCharArray();
+    private static final int RUNS = 5;
+    private static final long SAMPLE_INTERVAL_MILLIS = 5;
+
+    public static void main(String[] args) throws Exception {
+        Path home = Benchmarks.useScratchHome("passmate-restore");
+        try {
+            int size = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+            EncryptedStorageService storageService = new EncryptedStorageService(new AESEncryptionService());
+            storageService.initialize(MASTER_KEY);
+            storageService.savePasswords(Benchmarks.generatePasswords(size, 6));
+            storageService.saveCategories(List.of(new Category("category-0", "Work", "briefcase")));
+            storageService.saveSettings(Map.of("theme", "dark"));
+            Path backup = home.resolve("backups").resolve("vault.backup");
+            storageService.backupData(backup.toString());
+            storageService.savePasswords(List.of());
+
+            double[] restore = new double[RUNS];
+            for (int run = 0; run < RUNS; run++) {
+                restore[run] = Benchmarks.timeMillis(() -> storageService.restoreData(backup.toString()));
+            }
+            long liveHeap = sampleLiveHeap(() -> storageService.restoreData(backup.toString()));
+            storageService.cleanup();
+
+            System.out.println(size + " entries, backup " + Files.size(backup) / 1024 + " KB, median of " + RUNS);
+            System.out.println("  restore: " + Benchmarks.format(median(restore)) + " ms, live heap held "
+                + Benchmarks.format(liveHeap / 1e6) + " MB");
+        } finally {
+            Benchmarks.deleteRecursively(home);
+        }
+    }
+
+    /**
+     * @return The largest heap in use after a collection while the task ran, above what was in use before
+     */
+    private static long sampleLiveHeap(Benchmarks.Operation task) throws Exception {
+        long baseline = usedHeap();
+        AtomicLong peak = new AtomicLong();
+        Thread sampler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                peak.accumulateAndGet(usedHeap() - baseline, Math::max);
+                try {
+                    Thread.sleep(SAMPLE_INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        sampler.start();
+        try {
+            task.run();
+        } finally {
+            sampler.interrupt();
+            sampler.join();
+        }
+        return peak.get();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,114 @@
+package com.passmate.tools;
+
+import com.passmate.models.Password;
+import com.passmate.services.impl.PasswordSearchIndex;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares answering a password list search from the trigram index with the scan the list filter
+ * did before, which lower-cased the query and three fields of every entry. Also reports building
+ * the index, and the pass in which the list filter looks every entry up in an index result.
+ * Then times ranked searches tolerating typos for the best entries the list shows, the first of
+ * which also indexes the words of every entry.
+ *
+ * Usage: mvn -q compile exec:java -Dexec.mainClass=com.passmate.tools.SearchIndexBenchmark [-Dexec.args="entries"]
+ */
+public class SearchIndexBenchmark {
+
+    private static final int RUNS = 25;
+    private static final String[] SERVICES = {"Google", "GitHub", "Amazon", "Netflix", "Spotify", "Dropbox",
+        "Steam", "PayPal", "Twitter", "LinkedIn", "Reddit", "Slack", "Zoom", "Adobe", "Apple", "Microsoft"};
+    private static final String[] DOMAINS = {"gmail.com", "outlook.com", "yahoo.com", "proton.me", "example.org"};
+    private static final String[] QUERIES = {"g", "gi", "git", "github", "user4242", "proton.me", "zzq", "spotify 123"};
+    private static final String[] RANKED_QUERIES = {"g", "github", "gihtub", "gogle", "spotfy 123", "user4242", "netflx proton"};
+    private static final int RANKED_LIMIT = 200;
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        List<Password> entries = generate(size);
+
+        PasswordSearchIndex index = new PasswordSearchIndex();
+        ObservableList<Password> passwords = FXCollections.observableArrayList();
+        passwords.addListener(index.passwordListListener());
+        double build = Benchmarks.timeMillis(() -> passwords.addAll(entries));
+
+        System.out.println(size + " entries, index built in " + Benchmarks.format(build) + " ms, median of " + RUNS);
+        for (String query : QUERIES) {
+            double[] indexed = new double[RUNS];
+            double[] scanned = new double[RUNS];
+            double[] lookups = new double[RUNS];
+            int[] matched = new int[2];
+            for (int run = 0; run < RUNS; run++) {
+                PasswordSearchIndex.Matches[] matches = new PasswordSearchIndex.Matches[1];
+                indexed[run] = Benchmarks.timeMillis(() -> matches[0] = index.search(query));
+                matched[0] = matches[0].size();
+                lookups[run] = Benchmarks.timeMillis(() -> {
+                    int found = 0;
+                    for (Password password : passwords) {
+                        if (matches[0].contains(password)) {
+                            found++;
+                        }
+                    }
+                    matched[1] = found;
+                });
+                scanned[run] = Benchmarks.timeMillis(() -> {
+                    int found = 0;
+                    for (Password password : passwords) {
+                        if (scanMatches(password, query)) {
+                            found++;
+                        }
+                    }
+                    if (found != matched[1]) {
+                        throw new IllegalStateException("Index and scan disagree on '" + query + "'");
+                    }
+                });
+            }
+            System.out.println(String.format("  %-13s %6d matches: index %8s ms, list lookups %8s ms, scan %8s ms",
+                "'" + query + "'", matched[0], Benchmarks.format(median(indexed)),
+                Benchmarks.format(median(lookups)), Benchmarks.format(median(scanned))));
+        }
+
+        double words = Benchmarks.timeMillis(() -> index.rank("gogle", RANKED_LIMIT, password -> true));
+        System.out.println("Ranked, best " + RANKED_LIMIT + ", words indexed by the first in " + Benchmarks.format(words) + " ms");
+        for (String query : RANKED_QUERIES) {
+            double[] ranked = new double[RUNS];
+            PasswordSearchIndex.Ranking[] ranking = new PasswordSearchIndex.Ranking[1];
+            for (int run = 0; run < RUNS; run++) {
+                ranked[run] = Benchmarks.timeMillis(() -> ranking[0] = index.rank(query, RANKED_LIMIT, password -> true));
+            }
+            String top = ranking[0].size() > 0 ? ranking[0].getResults().get(0).getName() : "-";
+            System.out.println(String.format("  %-15s %4d ranked in %8s ms, first '%s'",
+                "'" + query + "'", ranking[0].size(), Benchmarks.format(median(ranked)), top));
+        }
+    }
+
+    /**
+     * The search of the list filter before the index
+     */
+    private static boolean scanMatches(Password password, String searchText) {
+        return password.getName().toLowerCase().contains(searchText.toLowerCase())
+            || password.getUsername().toLowerCase().contains(searchText.toLowerCase())
+            || password.getWebsite().toLowerCase().contains(searchText.toLowerCase());
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static List<Password> generate(int size) {
+        List<Password> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String service = SERVICES[i % SERVICES.length];
+            entries.add(new Password(service + " " + i, "user" + i + "@" + DOMAINS[i % DOMAINS.length], "",
+                "https://" + service.toLowerCase() + ".com", "", "category-" + (i % 6)));
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,106 @@
+package com.passmate.tools;
+
+import com.passmate.models.Password;
+import com.passmate.models.SearchMetrics;
+import com.passmate.services.impl.PasswordSearchIndex;
+import com.passmate.services.impl.SearchPipeline;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Types queries into a simulated search field, a key at a time and pausing after each query, and
+ * compares ranking on the UI thread for every key, as the search field did, with handing the keys
+ * to a search pipeline. A single-thread executor stands in for the FX thread; reported are the
+ * time it spent on searches, its longest stall and the pipeline metrics.
+ *
+ * Usage: mvn -q compile exec:java -Dexec.mainClass=com.passmate.tools.SearchPipelineBenchmark [-Dexec.args="entries keyMillis"]
+ */
+public class SearchPipelineBenchmark {
+
+    private static final int LIMIT = 200;
+    /** Pause after each query, long enough for its results to be shown. */
+    private static final long PAUSE_MILLIS = 500;
+    private static final String[] SERVICES = {"Google", "GitHub", "Amazon", "Netflix", "Spotify", "Dropbox",
+        "Steam", "PayPal", "Twitter", "LinkedIn", "Reddit", "Slack", "Zoom", "Adobe", "Apple", "Microsoft"};
+    private static final String[] TYPED = {"gogle accounts", "spotfy 123", "user4242", "netflx exmple"};
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        long keyMillis = args.length > 1 ? Long.parseLong(args[1]) : 40;
+
+        PasswordSearchIndex index = new PasswordSearchIndex();
+        ObservableList<Password> passwords = FXCollections.observableArrayList();
+        passwords.addListener(index.passwordListListener());
+        passwords.addAll(generate(size));
+        // Index the words before timing, as any earlier search would have
+        index.rank("warmup", LIMIT, password -> true);
+
+        ExecutorService ui = Executors.newSingleThreadExecutor();
+        try {
+            System.out.println(size + " entries, a key every " + keyMillis + " ms");
+            double[] sync = type(ui, keyMillis, text -> index.rank(text, LIMIT, password -> true));
+            System.out.println("  on the UI thread: " + Benchmarks.format(sync[0]) + " ms busy, longest stall "
+                + Benchmarks.format(sync[1]) + " ms");
+
+            AtomicReference<PasswordSearchIndex.Ranking> shown = new AtomicReference<>();
+            SearchPipeline<PasswordSearchIndex.Ranking> pipeline = new SearchPipeline<>(ui, shown::set);
+            double[] piped = type(ui, keyMillis, text ->
+                pipeline.submit(cancelled -> index.rank(text, LIMIT, password -> true, cancelled)));
+            SearchMetrics metrics = pipeline.getMetrics();
+            System.out.println("  through the pipeline: " + Benchmarks.format(piped[0]) + " ms busy typing, longest stall "
+                + Benchmarks.format(piped[1]) + " ms, last result " + shown.get().size() + " entries");
+            System.out.println("  " + metrics);
+        } finally {
+            ui.shutdown();
+            ui.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Hands every prefix of the typed queries to the UI thread, a key at a time.
+     * @return Milliseconds the UI thread spent on the keys, and the most it spent on one
+     */
+    private static double[] type(ExecutorService ui, long keyMillis, KeyHandler handler) throws Exception {
+        double[] busy = new double[2];
+        for (String query : TYPED) {
+            for (int length = 1; length <= query.length(); length++) {
+                String text = query.substring(0, length);
+                CountDownLatch handled = new CountDownLatch(1);
+                ui.execute(() -> {
+                    long start = System.nanoTime();
+                    handler.key(text);
+                    double millis = (System.nanoTime() - start) / 1e6;
+                    busy[0] += millis;
+                    busy[1] = Math.max(busy[1], millis);
+                    handled.countDown();
+                });
+                Thread.sleep(keyMillis);
+                handled.await();
+            }
+            Thread.sleep(PAUSE_MILLIS);
+        }
+        return busy;
+    }
+
+    private interface KeyHandler {
+        void key(String text);
+    }
+
+    private static List<Password> generate(int size) {
+        List<Password> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String service = SERVICES[i % SERVICES.length];
+            entries.add(new Password(service + " " + i, "user" + i + "@example.org", "",
+                "https://" + service.toLowerCase() + ".com", "", "category-" + (i % 6)));
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,97 @@
+package com.passmate.tools;
+
+import com.passmate.models.Category;
+import com.passmate.services.impl.AESEncryptionService;
+import com.passmate.services.impl.EncryptedStorageService;
+import com.passmate.services.impl.StartupLoader;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares unlock latency with the storage files loaded one after the other, as before, and in
+ * parallel through {@link StartupLoader}, phase by phase. The runs alternate and each phase reports
+ * its median. Runs against a scratch storage directory, never the user's vault.
+ *
+ * Usage: mvn -q compile exec:java -Dexec.mainClass=com.passmate.tools.StartupBenchmark [-Dexec.args="entries"]
+ */
+public class StartupBenchmark {
+
+    private static final char[] MASTER_KEY = "benchmark-master-key".toCharArray();
+    private static final int RUNS = 7;
+
+    public static void main(String[] args) throws Exception {
+        Path home = Benchmarks.useScratchHome("passmate-startup");
+        try {
+            int size = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+            EncryptedStorageService setup = new EncryptedStorageService(new AESEncryptionService());
+            setup.initialize(MASTER_KEY);
+            setup.savePasswords(Benchmarks.generatePasswords(size, 50));
+            List<Category> categories = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                categories.add(new Category("category-" + i, "Category " + i, "folder-icon"));
+            }
+            setup.saveCategories(categories);
+            Map<String, Object> settings = new HashMap<>();
+            for (int i = 0; i < 200; i++) {
+                settings.put("setting." + i, i);
+            }
+            setup.saveSettings(settings);
+            setup.cleanup();
+
+            Map<String, double[]> serial = new LinkedHashMap<>();
+            Map<String, double[]> parallel = new LinkedHashMap<>();
+            for (int i = 0; i < RUNS; i++) {
+                int run = i;
+                EncryptedStorageService storage = new EncryptedStorageService(new AESEncryptionService());
+                record(serial, run, "unlock", Benchmarks.timeMillis(() -> storage.initialize(MASTER_KEY)));
+                double load = Benchmarks.timeMillis(() -> {
+                    record(serial, run, "passwords", Benchmarks.timeMillis(storage::loadPasswords));
+                    record(serial, run, "categories", Benchmarks.timeMillis(storage::loadCategories));
+                    record(serial, run, "settings", Benchmarks.timeMillis(storage::loadSettings));
+                    record(serial, run, "vault", Benchmarks.timeMillis(storage::loadVault));
+                });
+                record(serial, run, "load", load);
+                storage.cleanup();
+
+                EncryptedStorageService loaded = new EncryptedStorageService(new AESEncryptionService());
+                StartupLoader loader = new StartupLoader(loaded);
+                loader.unlock(MASTER_KEY);
+                loader.load(data -> { });
+                for (Map.Entry<String, Double> phase : loader.getPhaseMillis().entrySet()) {
+                    record(parallel, run, phase.getKey().replace(".enc", ""), phase.getValue());
+                }
+                loaded.cleanup();
+            }
+
+            System.out.println(size + " entries, " + Runtime.getRuntime().availableProcessors() + " cores, median of " + RUNS);
+            System.out.println("  serial:   " + report(serial));
+            System.out.println("  parallel: " + report(parallel));
+
+        } finally {
+            Benchmarks.deleteRecursively(home);
+        }
+    }
+
+    private static void record(Map<String, double[]> phases, int run, String phase, double millis) {
+        phases.computeIfAbsent(phase, name -> new double[RUNS])[run] = millis;
+    }
+
+    private static String report(Map<String, double[]> phases) {
+        StringBuilder report = new StringBuilder();
+        phases.forEach((phase, runs) -> {
+            double[] sorted = runs.clone();
+            Arrays.sort(sorted);
+            report.append(report.length() == 0 ? "" : ", ").append(phase).append(' ')
+                .append(Benchmarks.format(sorted[RUNS / 2])).append(" ms");
+        });
+        return report.toString();
+    }
+
+
+}
@@ -0,0 +1,100 @@
+package com.passmate.tools;
+
+import com.passmate.models.Password;
+import com.passmate.services.impl.AESEncryptionService;
+import com.passmate.services.impl.EncryptedStorageService;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Compares loading the password file as one list with streaming it entry by entry: time until the
+ * first entry is available, time for all entries, and heap in use while the entries are consumed
+ * (the list holds them all; a stream consumer that keeps nothing holds one). Heap is sampled every
+ * thousand entries after a GC, so it is indicative only. Runs against a scratch storage directory,
+ * never the user's vault.
+ *
+ * Usage: mvn -q compile exec:java -Dexec.mainClass=com.passmate.tools.StreamingLoadBenchmark [-Dexec.args="entries"]
+ */
+public class StreamingLoadBenchmark {
+
+    private static final char[] MASTER_KEY = "benchmark-master-key".toCharArray();
+    private static final int RUNS = 7;
+
+    public static void main(String[] args) throws Exception {
+        Path home = Benchmarks.useScratchHome("passmate-streaming");
+        try {
+            int size = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+            EncryptedStorageService storageService = new EncryptedStorageService(new AESEncryptionService());
+            storageService.initialize(MASTER_KEY);
+            storageService.savePasswords(Benchmarks.generatePasswords(size, 6));
+
+            double[] listFirst = new double[RUNS];
+            double[] streamFirst = new double[RUNS];
+            double[] listAll = new double[RUNS];
+            double[] streamAll = new double[RUNS];
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                List<Password> passwords = storageService.loadPasswords();
+                listFirst[run] = listAll[run] = (System.nanoTime() - start) / 1e6;
+                passwords.clear();
+
+                start = System.nanoTime();
+                try (Stream<Password> stream = storageService.streamPasswords()) {
+                    Iterator<Password> entries = stream.iterator();
+                    entries.next();
+                    streamFirst[run] = (System.nanoTime() - start) / 1e6;
+                    entries.forEachRemaining(password -> { });
+                }
+                streamAll[run] = (System.nanoTime() - start) / 1e6;
+            }
+
+            long baseline = usedHeap();
+            List<Password> held = storageService.loadPasswords();
+            long listHeap = usedHeap() - baseline;
+            held.clear();
+            baseline = usedHeap();
+            long streamHeap = 0;
+            try (Stream<Password> stream = storageService.streamPasswords()) {
+                Iterator<Password> entries = stream.iterator();
+                for (int i = 0; entries.hasNext(); i++) {
+                    entries.next();
+                    if (i % 1_000 == 0) {
+                        streamHeap = Math.max(streamHeap, usedHeap() - baseline);
+                    }
+                }
+            }
+            storageService.cleanup();
+
+            System.out.println(size + " entries, median of " + RUNS);
+            System.out.println("  list:   first entry " + Benchmarks.format(median(listFirst)) + " ms, all "
+                + Benchmarks.format(median(listAll)) + " ms, heap held " + mb(listHeap));
+            System.out.println("  stream: first entry " + Benchmarks.format(median(streamFirst)) + " ms, all "
+                + Benchmarks.format(median(streamAll)) + " ms, heap held " + mb(streamHeap));
+
+        } finally {
+            Benchmarks.deleteRecursively(home);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String mb(long bytes) {
+        return Benchmarks.format(Math.max(0, bytes) / 1e6) + " MB";
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+
+}
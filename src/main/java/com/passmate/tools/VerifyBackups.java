@@ -0,0 +1,108 @@
+package com.passmate.tools;
+
+import com.passmate.models.BackupVerification;
+import com.passmate.services.exceptions.CryptoException;
+import com.passmate.services.impl.AESEncryptionService;
+import com.passmate.services.impl.EncryptedStorageService;
+
+import java.io.BufferedReader;
+import java.io.Console;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Checks backup files without restoring them: each is decrypted with every segment authenticated,
+ * parsed entry by entry and compared with the counts it records, several files at a time. Backups
+ * are opened with the master key and the wrapped key each one carries; the storage directory is
+ * not touched, so this also runs on a machine without the vault. Directories are
+ * expanded to the files directly inside them. Exits with status 1 if any backup is corrupt.
+ *
+ * Usage: mvn -q compile exec:java -Dexec.mainClass=com.passmate.tools.VerifyBackups -Dexec.args="[--threads n] backup|directory..."
+ */
+public class VerifyBackups {
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Path> backups = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                backups.addAll(expand(Paths.get(args[i])));
+            }
+        }
+        if (backups.isEmpty() || threads < 1) {
+            System.err.println("Usage: VerifyBackups [--threads n] backup|directory...");
+            System.exit(2);
+        }
+
+        char[] masterKey = readMasterKey();
+        EncryptedStorageService storageService = new EncryptedStorageService(new AESEncryptionService());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<BackupVerification> results = null;
+        long start = 0;
+        try {
+            storageService.unlockBackups(masterKey);
+            start = System.nanoTime();
+            results = storageService.verifyBackups(backups, executor);
+        } catch (CryptoException e) {
+            System.err.println("Cannot verify backups: " + e.getMessage());
+        } finally {
+            Arrays.fill(masterKey, '\0');
+            storageService.cleanup();
+            executor.shutdown();
+        }
+        if (results == null) {
+            System.exit(2);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long bytes = 0;
+        int corrupt = 0;
+        for (BackupVerification result : results) {
+            System.out.println(result);
+            bytes += result.getBytes();
+            if (!result.isValid()) {
+                corrupt++;
+            }
+        }
+        System.out.println(results.size() + " backups, " + Benchmarks.format(bytes / 1e6) + " MB in "
+            + Benchmarks.format(seconds * 1000) + " ms on " + threads + " threads ("
+            + Benchmarks.format(bytes / 1e6 / seconds) + " MB/s), " + corrupt + " corrupt");
+        System.exit(corrupt == 0 ? 0 : 1);
+    }
+
+    private static List<Path> expand(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return List.of(path);
+        }
+        try (Stream<Path> files = Files.list(path)) {
+            return files
+                .filter(Files::isRegularFile)
+                .filter(file -> !file.getFileName().toString().endsWith(".tmp"))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+
+    private static char[] readMasterKey() throws IOException {
+        Console console = System.console();
+        if (console != null) {
+            char[] masterKey = console.readPassword("Master key: ");
+            return masterKey != null ? masterKey : new char[0];
+        }
+        // No terminal, e.g. under exec:java: read the key from the first line of standard input
+        String line = new BufferedReader(new InputStreamReader(System.in)).readLine();
+        return line != null ? line.toCharArray() : new char[0];
+    }
+}
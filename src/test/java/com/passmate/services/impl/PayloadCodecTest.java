@@ -0,0 +1,95 @@
+package com.passmate.services.impl;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.passmate.services.Compression;
+import com.passmate.services.PayloadFormat;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Reading payloads written in every format and compression by a {@link PayloadCodec} configured
+ * differently, as happens once the settings change over a vault's lifetime.
+ */
+class PayloadCodecTest {
+
+    private static final Map<String, Object> DOCUMENT = Map.of(
+        "title", "Mail",
+        "username", "someone@example.com",
+        "website", "https://www.example.com",
+        "tags", List.of("work", "mail", "work"));
+
+    private final PayloadCodec reader = new PayloadCodec(PayloadFormat.JSON, Compression.NONE);
+    private final JavaType mapType = reader.getTypeFactory().constructMapType(HashMap.class, String.class, Object.class);
+
+    @Test
+    void detectsFormatAndCompressionOfDocuments() throws Exception {
+        for (PayloadFormat format : PayloadFormat.values()) {
+            for (Compression compression : Compression.values()) {
+                byte[] document = writeDocument(format, compression);
+                assertEquals(DOCUMENT, readDocument(document), format + " " + compression);
+            }
+        }
+    }
+
+    @Test
+    void detectsFormatAndCompressionOfRecords() throws Exception {
+        Map<String, Object> large = new HashMap<>(DOCUMENT);
+        large.put("notes", "x".repeat(500));
+        Map<String, Object> tiny = Map.of("id", "");
+
+        for (PayloadFormat format : PayloadFormat.values()) {
+            for (Compression compression : Compression.values()) {
+                PayloadCodec writer = new PayloadCodec(format, compression);
+                for (Map<String, Object> record : List.of(DOCUMENT, large, tiny)) {
+                    byte[] data = writer.writeRecord(record);
+                    assertEquals(record, reader.read(data, mapType), format + " " + compression);
+
+                    // Records are also read from within larger buffers, such as journal frames
+                    byte[] framed = new byte[data.length + 8];
+                    System.arraycopy(data, 0, framed, 4, data.length);
+                    assertEquals(record, reader.read(framed, 4, data.length, mapType));
+                }
+            }
+        }
+    }
+
+    @Test
+    void compressesLargeRecordsAgainstDictionary() throws Exception {
+        Map<String, Object> large = new HashMap<>(DOCUMENT);
+        large.put("notes", "x".repeat(500));
+        byte[] plain = new PayloadCodec(PayloadFormat.JSON, Compression.NONE).writeRecord(large);
+        byte[] compressed = new PayloadCodec(PayloadFormat.JSON, Compression.DEFLATE).writeRecord(large);
+        assertEquals(0, compressed[0]);
+        assertTrue(compressed.length < plain.length);
+    }
+
+    @Test
+    void transcodesBetweenFormats() throws Exception {
+        byte[] smile = writeDocument(PayloadFormat.SMILE, Compression.DEFLATE);
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        reader.transcode(new ByteArrayInputStream(smile), json, PayloadFormat.JSON);
+        assertEquals('{', json.toByteArray()[0]);
+        assertEquals(DOCUMENT, readDocument(json.toByteArray()));
+    }
+
+    private static byte[] writeDocument(PayloadFormat format, Compression compression) throws IOException {
+        PayloadCodec writer = new PayloadCodec(format, compression);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(out, format, DOCUMENT);
+        out.close();
+        return out.toByteArray();
+    }
+
+    private Map<String, Object> readDocument(byte[] document) throws IOException {
+        return reader.read(new ByteArrayInputStream(document), mapType);
+    }
+}
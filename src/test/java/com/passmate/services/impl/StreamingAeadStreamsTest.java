@@ -0,0 +1,130 @@
+package com.passmate.services.impl;
+
+import com.passmate.services.CipherSuite;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Round trips through {@link StreamingAeadOutputStream} and {@link StreamingAeadInputStream}, and
+ * ciphertext whose segments were cut off, swapped or dropped. Segments are kept small so a few
+ * hundred bytes span several of them.
+ */
+class StreamingAeadStreamsTest {
+
+    private static final int SEGMENT_SIZE = 64;
+    private static final int SEGMENT_LENGTH = SEGMENT_SIZE + StreamingAeadOutputStream.TAG_LENGTH;
+    private static final int HEADER_LENGTH = StreamingAeadOutputStream.HEADER_LENGTH;
+    private static final CipherSuite SUITE = CipherSuite.AES_256_GCM;
+
+    private final CryptoContext context = new CryptoContext("PBKDF2WithHmacSHA256");
+    private final SecretKey key = newKey();
+
+    @Test
+    void roundTripsAcrossSegmentBoundaries() throws Exception {
+        for (int length : new int[]{0, 1, SEGMENT_SIZE - 1, SEGMENT_SIZE, SEGMENT_SIZE + 1, 5 * SEGMENT_SIZE + 7}) {
+            byte[] plaintext = randomBytes(length);
+            assertArrayEquals(plaintext, decrypt(encrypt(plaintext), List.of(key)), "length " + length);
+        }
+    }
+
+    @Test
+    void acceptsAnyCandidateKey() throws Exception {
+        byte[] plaintext = randomBytes(3 * SEGMENT_SIZE);
+        assertArrayEquals(plaintext, decrypt(encrypt(plaintext), List.of(newKey(), key)));
+    }
+
+    @Test
+    void rejectsWrongKey() throws Exception {
+        byte[] ciphertext = encrypt(randomBytes(3 * SEGMENT_SIZE));
+        assertThrows(IOException.class, () -> decrypt(ciphertext, List.of(newKey())));
+    }
+
+    @Test
+    void rejectsTruncatedStream() throws Exception {
+        byte[] ciphertext = encrypt(randomBytes(3 * SEGMENT_SIZE + SEGMENT_SIZE / 2));
+
+        // Cut after a whole segment: that segment was not sealed as the final one
+        byte[] atBoundary = Arrays.copyOf(ciphertext, HEADER_LENGTH + 3 * SEGMENT_LENGTH);
+        assertThrows(IOException.class, () -> decrypt(atBoundary, List.of(key)));
+
+        byte[] midSegment = Arrays.copyOf(ciphertext, HEADER_LENGTH + SEGMENT_LENGTH + SEGMENT_LENGTH / 2);
+        assertThrows(IOException.class, () -> decrypt(midSegment, List.of(key)));
+
+        byte[] headerOnly = Arrays.copyOf(ciphertext, HEADER_LENGTH);
+        assertThrows(IOException.class, () -> decrypt(headerOnly, List.of(key)));
+    }
+
+    @Test
+    void rejectsReorderedSegments() throws Exception {
+        byte[] ciphertext = encrypt(randomBytes(4 * SEGMENT_SIZE));
+        byte[] swapped = ciphertext.clone();
+        System.arraycopy(ciphertext, segmentOffset(0), swapped, segmentOffset(1), SEGMENT_LENGTH);
+        System.arraycopy(ciphertext, segmentOffset(1), swapped, segmentOffset(0), SEGMENT_LENGTH);
+        assertThrows(IOException.class, () -> decrypt(swapped, List.of(key)));
+    }
+
+    @Test
+    void rejectsDroppedSegment() throws Exception {
+        byte[] ciphertext = encrypt(randomBytes(4 * SEGMENT_SIZE));
+        ByteArrayOutputStream dropped = new ByteArrayOutputStream();
+        dropped.write(ciphertext, 0, segmentOffset(1));
+        dropped.write(ciphertext, segmentOffset(2), ciphertext.length - segmentOffset(2));
+        assertThrows(IOException.class, () -> decrypt(dropped.toByteArray(), List.of(key)));
+    }
+
+    @Test
+    void closeAuthenticatesUnreadSegments() throws Exception {
+        byte[] ciphertext = encrypt(randomBytes(4 * SEGMENT_SIZE));
+        ciphertext[segmentOffset(3) + 1] ^= 1;
+
+        InputStream in = open(ciphertext, List.of(key));
+        in.readNBytes(SEGMENT_SIZE);
+        assertThrows(IOException.class, in::close);
+    }
+
+    private byte[] encrypt(byte[] plaintext) throws IOException, GeneralSecurityException {
+        ByteArrayOutputStream ciphertext = new ByteArrayOutputStream();
+        try (OutputStream out = new StreamingAeadOutputStream(ciphertext, key, SUITE, context, SEGMENT_SIZE)) {
+            out.write(plaintext);
+        }
+        return ciphertext.toByteArray();
+    }
+
+    private byte[] decrypt(byte[] ciphertext, List<SecretKey> keys) throws IOException, GeneralSecurityException {
+        try (InputStream in = open(ciphertext, keys)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private InputStream open(byte[] ciphertext, List<SecretKey> keys) throws IOException, GeneralSecurityException {
+        return new StreamingAeadInputStream(new ByteArrayInputStream(ciphertext), suite -> keys, context);
+    }
+
+    private static int segmentOffset(int segment) {
+        return HEADER_LENGTH + segment * SEGMENT_LENGTH;
+    }
+
+    private static SecretKey newKey() {
+        return new SecretKeySpec(randomBytes(32), SUITE.getKeyAlgorithm());
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new SecureRandom().nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,115 @@
+package com.passmate.services.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.passmate.services.KdfParameters;
+import com.passmate.services.exceptions.CryptoException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Replay of {@link VaultJournal} after a crash: a torn final frame is dropped and overwritten by
+ * the next append, while a damaged frame followed by intact ones is reported as corruption.
+ */
+class VaultJournalTest {
+
+    private static final char[] MASTER_KEY = "journal test".toCharArray();
+    private static final List<String> SNAPSHOTS = List.of("passwords.enc");
+    private static final int HEADER_LENGTH = VaultJournal.MAGIC.length + 1;
+
+    @TempDir
+    Path directory;
+
+    private AESEncryptionService encryptionService;
+    private VaultManifest manifest;
+
+    @BeforeEach
+    void openSession() throws Exception {
+        encryptionService = new AESEncryptionService();
+        encryptionService.openSession(MASTER_KEY, encryptionService.createWrappedDataKey(MASTER_KEY,
+            new KdfParameters(KdfParameters.PBKDF2_HMAC_SHA256, 1000)));
+        manifest = new VaultManifest(directory, encryptionService, new ObjectMapper());
+        manifest.load();
+    }
+
+    @Test
+    void replaysAppendedRecords() throws Exception {
+        append("first", "second");
+        assertEquals(List.of("first", "second"), payloads(newJournal().read(0)));
+    }
+
+    @Test
+    void dropsFrameCutOffByEndOfFile() throws Exception {
+        append("first", "second");
+        long intact = Files.size(journalPath());
+        Files.write(journalPath(), ByteBuffer.allocate(Integer.BYTES + 10).putInt(100).array(),
+            StandardOpenOption.APPEND);
+
+        VaultJournal journal = newJournal();
+        assertEquals(List.of("first", "second"), payloads(journal.read(0)));
+
+        journal.append(List.of(VaultJournal.Record.put(0, bytes("third"))));
+        assertTrue(Files.size(journalPath()) > intact);
+        assertEquals(List.of("first", "second", "third"), payloads(newJournal().read(0)));
+    }
+
+    @Test
+    void dropsFinalFrameFailingAuthentication() throws Exception {
+        append("first", "second");
+        byte[] data = Files.readAllBytes(journalPath());
+        data[data.length - 1] ^= 1;
+        Files.write(journalPath(), data);
+
+        assertEquals(List.of("first"), payloads(newJournal().read(0)));
+    }
+
+    @Test
+    void reportsDamagedFrameBeforeIntactOnes() throws Exception {
+        append("first", "second", "third");
+        byte[] data = Files.readAllBytes(journalPath());
+        // Inside the ciphertext of the first frame, the marker written when the journal started
+        data[HEADER_LENGTH + Integer.BYTES + 2] ^= 1;
+        Files.write(journalPath(), data);
+
+        CryptoException e = assertThrows(CryptoException.class, () -> newJournal().read(0));
+        assertTrue(e.getMessage().contains("corrupt"), e.getMessage());
+        assertEquals(data.length, Files.size(journalPath()));
+    }
+
+    private void append(String... payloads) throws IOException, CryptoException {
+        VaultJournal journal = newJournal();
+        for (String payload : payloads) {
+            journal.append(List.of(VaultJournal.Record.put(0, bytes(payload))));
+        }
+    }
+
+    private VaultJournal newJournal() {
+        return new VaultJournal(journalPath(), SNAPSHOTS, manifest, encryptionService);
+    }
+
+    private Path journalPath() {
+        return directory.resolve("journal.log");
+    }
+
+    private static List<String> payloads(List<VaultJournal.Record> records) {
+        return records.stream().map(record -> new String(record.getPayload(), StandardCharsets.UTF_8))
+            .collect(Collectors.toList());
+    }
+
+    private static byte[] bytes(String payload) {
+        return payload.getBytes(StandardCharsets.UTF_8);
+    }
+}
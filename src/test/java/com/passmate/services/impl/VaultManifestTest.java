@@ -0,0 +1,111 @@
+package com.passmate.services.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.passmate.services.KdfParameters;
+import com.passmate.services.PayloadFormat;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Commits of {@link VaultManifest}: until the manifest is renamed into place, a crash leaves the
+ * previous generation readable, and the next load deletes what the unfinished commit wrote.
+ */
+class VaultManifestTest {
+
+    private static final char[] MASTER_KEY = "manifest test".toCharArray();
+    private static final String FILE = "passwords.enc";
+
+    @TempDir
+    Path directory;
+
+    private AESEncryptionService encryptionService;
+
+    @BeforeEach
+    void openSession() throws Exception {
+        encryptionService = new AESEncryptionService();
+        encryptionService.openSession(MASTER_KEY, encryptionService.createWrappedDataKey(MASTER_KEY,
+            new KdfParameters(KdfParameters.PBKDF2_HMAC_SHA256, 1000)));
+    }
+
+    @Test
+    void publishedCommitIsReadAfterReload() throws Exception {
+        VaultManifest manifest = load();
+        commit(manifest, "first");
+
+        VaultManifest reloaded = load();
+        assertEquals(1, reloaded.getGeneration());
+        assertEquals("first", read(reloaded));
+    }
+
+    @Test
+    void crashBeforePublishKeepsPreviousGeneration() throws Exception {
+        VaultManifest manifest = load();
+        commit(manifest, "first");
+
+        // The process dies after staging the new version and writing part of the next manifest
+        Path staged = manifest.begin().stage(FILE, PayloadFormat.JSON, out -> out.write(bytes("second")));
+        Files.write(directory.resolve(VaultManifest.FILE + ".tmp"), bytes("torn manifest"));
+
+        VaultManifest reloaded = load();
+        assertEquals(1, reloaded.getGeneration());
+        assertEquals("first", read(reloaded));
+        assertFalse(Files.exists(staged));
+        assertFalse(Files.exists(directory.resolve(VaultManifest.FILE + ".tmp")));
+    }
+
+    @Test
+    void closingUnpublishedCommitDeletesStagedFiles() throws Exception {
+        VaultManifest manifest = load();
+        commit(manifest, "first");
+
+        Path staged;
+        try (VaultManifest.Commit commit = manifest.begin()) {
+            staged = commit.stage(FILE, PayloadFormat.JSON, out -> out.write(bytes("second")));
+        }
+        assertFalse(Files.exists(staged));
+        assertEquals("first", read(manifest));
+    }
+
+    @Test
+    void rejectsFileNotMatchingItsEntry() throws Exception {
+        VaultManifest manifest = load();
+        commit(manifest, "first");
+        Files.write(manifest.resolve(FILE), bytes("First"));
+
+        assertThrows(IOException.class, () -> read(load()));
+    }
+
+    private VaultManifest load() throws Exception {
+        VaultManifest manifest = new VaultManifest(directory, encryptionService, new ObjectMapper());
+        manifest.load();
+        return manifest;
+    }
+
+    private static void commit(VaultManifest manifest, String content) throws Exception {
+        try (VaultManifest.Commit commit = manifest.begin()) {
+            commit.stage(FILE, PayloadFormat.JSON, out -> out.write(bytes(content)));
+            commit.publish();
+        }
+    }
+
+    private static String read(VaultManifest manifest) throws IOException {
+        try (InputStream in = manifest.newInputStream(FILE)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+}